@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * @author frb
+ *
+ * Runs the Cygnus benchmarks. The standard JMH command line options are accepted (e.g. a regex selecting the
+ * benchmarks to be run, or '-p numAttributes=10' fixing a parameter); in addition, the GC profiler is always enabled,
+ * in order to get the allocation rate per operation, and the results are written in Json format to jmh-result.json
+ * unless other format or file are given.
+ */
+public final class CygnusBenchmarks {
+    
+    /**
+     * Constructor. It is private since this is the main class.
+     */
+    private CygnusBenchmarks() {
+    } // CygnusBenchmarks
+    
+    /**
+     * Main method.
+     * @param args JMH command line options
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        } // if
+        
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class);
+        
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        } // if
+        
+        if (!commandLineOptions.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        } // if
+        
+        new Runner(options.build()).run();
+    } // main
+    
+} // CygnusBenchmarks
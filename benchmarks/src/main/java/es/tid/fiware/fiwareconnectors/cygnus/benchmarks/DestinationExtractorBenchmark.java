@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.interceptors.DestinationExtractor;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author frb
+ *
+ * Benchmarks the interception of a notification, i.e. its parsing and the resolution of a destination for each one
+ * of its context elements. Both the cached and the not cached resolutions are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DestinationExtractorBenchmark {
+    
+    // a literal rule, a prefix rule, a regex rule and a not matching rule
+    private static final String MATCHING_TABLE = ""
+            + "1|entityId|Car|cars|vehicles\n"
+            + "2|entityId,entityType|Room1Room|first_room|rooms\n"
+            + "3|entityId|Room(\\d*)|numeric_rooms|rooms\n"
+            + "4|servicePath|GARDENS|gardens|city_indicators\n";
+    
+    @Param({"application/json", "application/xml"})
+    private String contentType;
+    
+    @Param({"1", "10"})
+    private int numEntities;
+    
+    @Param({"0", "10000"})
+    private int cacheSize;
+    
+    private File matchingTableFile;
+    private DestinationExtractor extractor;
+    private byte[] body;
+    private Map<String, String> headers;
+    
+    /**
+     * Writes the matching table and initializes the interceptor.
+     * @throws Exception
+     */
+    @Setup
+    public void setUp() throws Exception {
+        matchingTableFile = File.createTempFile("matching_table", ".conf");
+        FileWriter writer = new FileWriter(matchingTableFile);
+        
+        try {
+            writer.write(MATCHING_TABLE);
+        } finally {
+            writer.close();
+        } // try finally
+        
+        extractor = new DestinationExtractor(matchingTableFile.getAbsolutePath(), 0, cacheSize);
+        extractor.initialize();
+        String notification = contentType.equals("application/json")
+                ? Notifications.buildJson(numEntities, 5) : Notifications.buildXML(numEntities, 5);
+        body = notification.getBytes();
+        headers = Notifications.buildHeaders(contentType);
+    } // setUp
+    
+    /**
+     * Closes the interceptor and removes the matching table.
+     */
+    @TearDown
+    public void tearDown() {
+        extractor.close();
+        matchingTableFile.delete();
+    } // tearDown
+    
+    /**
+     * Benchmarks DestinationExtractor.intercept. The intercepted event headers are modified, thus a new event is
+     * created per invocation.
+     * @return The intercepted event
+     */
+    @Benchmark
+    public Event intercept() {
+        return extractor.intercept(EventBuilder.withBody(body, new HashMap<String, String>(headers)));
+    } // intercept
+    
+} // DestinationExtractorBenchmark
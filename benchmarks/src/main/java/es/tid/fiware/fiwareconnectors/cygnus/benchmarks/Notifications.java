@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author frb
+ *
+ * Builds the notifications used as input by the benchmarks. The notifications are similar to the ones sent by Orion:
+ * a number of context elements (Room0, Room1...), each one having a number of attributes (attr0, attr1...) with
+ * metadata.
+ */
+public final class Notifications {
+    
+    /**
+     * Fiware service used in all the benchmarks.
+     */
+    public static final String SERVICE = "vehicles";
+    
+    /**
+     * Fiware service path used in all the benchmarks.
+     */
+    public static final String SERVICE_PATH = "4wheels";
+    
+    /**
+     * Constructor. It is private since this is a utility class.
+     */
+    private Notifications() {
+    } // Notifications
+    
+    /**
+     * Builds a Json notification.
+     * @param numEntities Number of context elements
+     * @param numAttributes Number of attributes per context element
+     * @return A Json notification
+     */
+    public static String buildJson(int numEntities, int numAttributes) {
+        return buildJson(numEntities, numAttributes, null);
+    } // buildJson
+    
+    /**
+     * Builds a Json notification.
+     * @param numEntities Number of context elements
+     * @param numAttributes Number of attributes per context element
+     * @param marker If not null, value of an additional attribute named "loadtest_marker" within each context element
+     * @return A Json notification
+     */
+    public static String buildJson(int numEntities, int numAttributes, String marker) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"subscriptionId\" : \"51c0ac9ed714fb3b37d7d5a8\",\"originator\" : \"localhost\",")
+                .append("\"contextResponses\" : [");
+        
+        for (int i = 0; i < numEntities; i++) {
+            if (i > 0) {
+                json.append(',');
+            } // if
+            
+            json.append("{\"contextElement\" : {\"attributes\" : [");
+            
+            for (int j = 0; j < numAttributes; j++) {
+                if (j > 0) {
+                    json.append(',');
+                } // if
+                
+                json.append("{\"name\" : \"attr").append(j).append("\",\"type\" : \"centigrade\",")
+                        .append("\"value\" : \"").append(20 + j).append(".5\",")
+                        .append("\"metadatas\" : [{\"name\" : \"ID\",\"type\" : \"string\",\"value\" : \"ground\"}]}");
+            } // for
+            
+            if (marker != null) {
+                json.append(numAttributes > 0 ? "," : "").append("{\"name\" : \"loadtest_marker\",")
+                        .append("\"type\" : \"string\",\"value\" : \"").append(marker).append("\"}");
+            } // if
+            
+            json.append("],\"type\" : \"Room\",\"isPattern\" : \"false\",\"id\" : \"Room").append(i).append("\"},")
+                    .append("\"statusCode\" : {\"code\" : \"200\",\"reasonPhrase\" : \"OK\"}}");
+        } // for
+        
+        return json.append("]}").toString();
+    } // buildJson
+    
+    /**
+     * Builds a XML notification.
+     * @param numEntities Number of context elements
+     * @param numAttributes Number of attributes per context element
+     * @return A XML notification
+     */
+    public static String buildXML(int numEntities, int numAttributes) {
+        return buildXML(numEntities, numAttributes, null);
+    } // buildXML
+    
+    /**
+     * Builds a XML notification.
+     * @param numEntities Number of context elements
+     * @param numAttributes Number of attributes per context element
+     * @param marker If not null, value of an additional attribute named "loadtest_marker" within each context element
+     * @return A XML notification
+     */
+    public static String buildXML(int numEntities, int numAttributes, String marker) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<notifyContextRequest><subscriptionId>51c0ac9ed714fb3b37d7d5a8</subscriptionId>")
+                .append("<originator>localhost</originator><contextResponseList>");
+        
+        for (int i = 0; i < numEntities; i++) {
+            xml.append("<contextElementResponse><contextElement>")
+                    .append("<entityId type=\"Room\" isPattern=\"false\"><id>Room").append(i).append("</id></entityId>")
+                    .append("<contextAttributeList>");
+            
+            for (int j = 0; j < numAttributes; j++) {
+                xml.append("<contextAttribute><name>attr").append(j).append("</name><type>centigrade</type>")
+                        .append("<contextValue>").append(20 + j).append(".5</contextValue>")
+                        .append("<metadata><contextMetadata><name>ID</name><type>string</type>")
+                        .append("<value>ground</value></contextMetadata></metadata></contextAttribute>");
+            } // for
+            
+            if (marker != null) {
+                xml.append("<contextAttribute><name>loadtest_marker</name><type>string</type>")
+                        .append("<contextValue>").append(marker).append("</contextValue></contextAttribute>");
+            } // if
+            
+            xml.append("</contextAttributeList></contextElement>")
+                    .append("<statusCode><code>200</code><reasonPhrase>OK</reasonPhrase></statusCode>")
+                    .append("</contextElementResponse>");
+        } // for
+        
+        return xml.append("</contextResponseList></notifyContextRequest>").toString();
+    } // buildXML
+    
+    /**
+     * Builds the headers of a Flume event as created by OrionRestHandler, i.e. before being intercepted.
+     * @param contentType
+     * @return The headers of a Flume event
+     */
+    public static Map<String, String> buildHeaders(String contentType) {
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put(Constants.HEADER_CONTENT_TYPE, contentType);
+        headers.put(Constants.HEADER_SERVICE, SERVICE);
+        headers.put(Constants.HEADER_SERVICE_PATH, SERVICE_PATH);
+        headers.put(Constants.HEADER_TRANSACTION_ID, "1429535775-308-0000000000");
+        headers.put(Constants.HEADER_TTL, "10");
+        headers.put("timestamp", "1429535775308");
+        return headers;
+    } // buildHeaders
+    
+    /**
+     * Builds the headers of a Flume event as received by the sinks, i.e. after being intercepted by the
+     * DestinationExtractor.
+     * @param contentType
+     * @param numEntities Number of context elements within the notification
+     * @return The headers of a Flume event
+     */
+    public static Map<String, String> buildInterceptedHeaders(String contentType, int numEntities) {
+        Map<String, String> headers = buildHeaders(contentType);
+        StringBuilder destinations = new StringBuilder();
+        StringBuilder servicePaths = new StringBuilder();
+        
+        for (int i = 0; i < numEntities; i++) {
+            if (i > 0) {
+                destinations.append(',');
+                servicePaths.append(',');
+            } // if
+            
+            destinations.append("Room").append(i).append("_Room");
+            servicePaths.append(SERVICE_PATH);
+        } // for
+        
+        headers.put(Constants.DESTINATION, destinations.toString());
+        headers.put(Constants.HEADER_SERVICE_PATH, servicePaths.toString());
+        return headers;
+    } // buildInterceptedHeaders
+    
+} // Notifications
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import com.google.gson.Gson;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequestSAXHandler;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+
+/**
+ *
+ * @author frb
+ *
+ * Benchmarks the parsing of a notification into a NotifyContextRequest, done the same way than OrionSink and
+ * DestinationExtractor do it (a new Gson instance or SAX parser per notification).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotifyContextRequestBenchmark {
+    
+    @Param({"1", "10"})
+    private int numEntities;
+    
+    @Param({"1", "10"})
+    private int numAttributes;
+    
+    private String json;
+    private String xml;
+    
+    /**
+     * Builds the notifications.
+     */
+    @Setup
+    public void setUp() {
+        json = Notifications.buildJson(numEntities, numAttributes);
+        xml = Notifications.buildXML(numEntities, numAttributes);
+    } // setUp
+    
+    /**
+     * Benchmarks the parsing of a Json notification.
+     * @return The parsed notification
+     */
+    @Benchmark
+    public NotifyContextRequest parseJson() {
+        Gson gson = new Gson();
+        return gson.fromJson(json, NotifyContextRequest.class);
+    } // parseJson
+    
+    /**
+     * Benchmarks the parsing of a XML notification.
+     * @return The parsed notification
+     * @throws Exception
+     */
+    @Benchmark
+    public NotifyContextRequest parseXML() throws Exception {
+        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+        SAXParser saxParser = saxParserFactory.newSAXParser();
+        NotifyContextRequestSAXHandler handler = new NotifyContextRequestSAXHandler();
+        saxParser.parse(new InputSource(new StringReader(xml)), handler);
+        return handler.getNotifyContextRequest();
+    } // parseXML
+    
+} // NotifyContextRequestBenchmark
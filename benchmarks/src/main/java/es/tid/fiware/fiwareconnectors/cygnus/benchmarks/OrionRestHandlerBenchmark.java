@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.handlers.OrionRestHandler;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author frb
+ *
+ * Benchmarks the reception of a notification, i.e. the checks of the Http request and the creation of the Flume event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrionRestHandlerBenchmark {
+    
+    @Param({"application/json", "application/xml"})
+    private String contentType;
+    
+    @Param({"1", "10"})
+    private int numAttributes;
+    
+    private OrionRestHandler handler;
+    private HttpServletRequest request;
+    
+    /**
+     * Configures the handler and builds the notification request.
+     */
+    @Setup
+    public void setUp() {
+        handler = new OrionRestHandler();
+        handler.configure(new Context());
+        String body = contentType.equals("application/json")
+                ? Notifications.buildJson(1, numAttributes) : Notifications.buildXML(1, numAttributes);
+        request = Requests.buildNotification("/notify", contentType, Notifications.SERVICE,
+                Notifications.SERVICE_PATH, body);
+    } // setUp
+    
+    /**
+     * Benchmarks OrionRestHandler.getEvents.
+     * @return The created events
+     * @throws Exception
+     */
+    @Benchmark
+    public List<Event> getEvents() throws Exception {
+        return handler.getEvents(request);
+    } // getEvents
+    
+} // OrionRestHandlerBenchmark
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ *
+ * @author frb
+ *
+ * Builds HttpServletRequest instances for the benchmarks. A dynamic proxy is used instead of a mocking library since
+ * the mocks record each invocation, and that cost would be measured as part of the benchmarked code.
+ */
+public final class Requests {
+    
+    /**
+     * Constructor. It is private since this is a utility class.
+     */
+    private Requests() {
+    } // Requests
+    
+    /**
+     * Builds a notification request as sent by Orion. Only the methods used by OrionRestHandler are implemented; the
+     * rest of methods return null.
+     * @param target
+     * @param contentType
+     * @param service
+     * @param servicePath
+     * @param body
+     * @return A notification request
+     */
+    public static HttpServletRequest buildNotification(String target, String contentType, String service,
+            String servicePath, final String body) {
+        final LinkedHashMap<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("user-agent", "orion/0.19.0");
+        headers.put("content-type", contentType);
+        headers.put("fiware-service", service);
+        headers.put("fiware-servicepath", servicePath);
+        final Map<String, Object> results = new LinkedHashMap<String, Object>();
+        results.put("getMethod", "POST");
+        results.put("getRequestURI", target);
+        
+        return (HttpServletRequest) Proxy.newProxyInstance(Requests.class.getClassLoader(),
+                new Class[] {HttpServletRequest.class}, new InvocationHandler() {
+            
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                
+                if (name.equals("getHeaderNames")) {
+                    return Collections.enumeration(headers.keySet());
+                } else if (name.equals("getHeader")) {
+                    return headers.get(((String) args[0]).toLowerCase());
+                } else if (name.equals("getReader")) {
+                    // a new reader is returned each time, the same request is processed once per invocation
+                    return new BufferedReader(new StringReader(body));
+                } else {
+                    return results.get(name);
+                } // if else
+            } // invoke
+            
+        });
+    } // buildNotification
+    
+} // Requests
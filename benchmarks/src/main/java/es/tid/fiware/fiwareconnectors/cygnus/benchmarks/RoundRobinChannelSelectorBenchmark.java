@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.channelselectors.RoundRobinChannelSelector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.event.EventBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author frb
+ *
+ * Benchmarks the selection of the channels an event is put into, for a number of storages having 3 channels each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundRobinChannelSelectorBenchmark {
+    
+    private static final int CHANNELS_PER_STORAGE = 3;
+    
+    @Param({"1", "3"})
+    private int numStorages;
+    
+    private RoundRobinChannelSelector selector;
+    private Event event;
+    
+    /**
+     * Creates the channels and configures the selector.
+     */
+    @Setup
+    public void setUp() {
+        ArrayList<Channel> channels = new ArrayList<Channel>();
+        Context context = new Context();
+        context.put("storages", String.valueOf(numStorages));
+        
+        for (int i = 1; i <= numStorages; i++) {
+            StringBuilder storageChannels = new StringBuilder();
+            
+            for (int j = 1; j <= CHANNELS_PER_STORAGE; j++) {
+                MemoryChannel channel = new MemoryChannel();
+                channel.setName("storage" + i + "-channel" + j);
+                channels.add(channel);
+                
+                if (j > 1) {
+                    storageChannels.append(',');
+                } // if
+                
+                storageChannels.append(channel.getName());
+            } // for
+            
+            context.put("storages.storage" + i, storageChannels.toString());
+        } // for
+        
+        selector = new RoundRobinChannelSelector();
+        selector.setChannels(channels);
+        selector.configure(context);
+        event = EventBuilder.withBody(new byte[0], new HashMap<String, String>());
+    } // setUp
+    
+    /**
+     * Benchmarks RoundRobinChannelSelector.getRequiredChannels.
+     * @return The selected channels
+     */
+    @Benchmark
+    public List<Channel> getRequiredChannels() {
+        return selector.getRequiredChannels(event);
+    } // getRequiredChannels
+    
+} // RoundRobinChannelSelectorBenchmark
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.benchmarks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Utils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author frb
+ *
+ * Benchmarks the encoding of the names used for building the destinations (HDFS paths, MySQL tables, CKAN resources,
+ * Hive tables).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilsBenchmark {
+    
+    // a name not requiring any encoding, a typical destination and a name full of characters to be encoded
+    @Param({"vehicles", "Room1_Room", "a.SERV_with-rare chars%@"})
+    private String name;
+    
+    /**
+     * Benchmarks Utils.encode.
+     * @return The encoded name
+     */
+    @Benchmark
+    public String encode() {
+        return Utils.encode(name);
+    } // encode
+    
+    /**
+     * Benchmarks Utils.encodeHive.
+     * @return The encoded name
+     */
+    @Benchmark
+    public String encodeHive() {
+        return Utils.encodeHive(name);
+    } // encodeHive
+    
+} // UtilsBenchmark
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ *
+ * @author frb
+ *
+ * CKAN stand-in. The organizations, packages, resources and datastore fields are kept in memory, and the datastore
+ * records are only counted; the actions used by CKANBackendImpl and CKANCache are supported, answering as CKAN 2.2
+ * does. The names are used as identifiers.
+ */
+public class CKANStandIn extends HttpStandIn {
+    
+    private static final String ACTION_PREFIX = "/api/3/action/";
+    
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> orgs;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> pkgs;
+    private final ConcurrentHashMap<String, JsonArray> datastores;
+    private final AtomicLong records;
+    
+    /**
+     * Constructor.
+     * @param tracker
+     * @param delayMillis
+     */
+    public CKANStandIn(DeliveryTracker tracker, int delayMillis) {
+        super(tracker, delayMillis);
+        orgs = new ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>>();
+        pkgs = new ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>>();
+        datastores = new ConcurrentHashMap<String, JsonArray>();
+        records = new AtomicLong(0);
+    } // CKANStandIn
+    
+    @Override
+    protected void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = request.getRequestURI();
+        
+        if (path.equals("/api/util/status")) {
+            writeJson(response, 200, "{\"ckan_version\":\"2.2\"}");
+            return;
+        } else if (!path.startsWith(ACTION_PREFIX)) {
+            writeJson(response, 404, "{\"success\":false}");
+            return;
+        } // if else if
+        
+        String action = path.substring(ACTION_PREFIX.length());
+        
+        if (action.equals("organization_show")) {
+            showOrganization(request.getParameter("id"), response);
+        } else if (action.equals("package_show")) {
+            showPackage(request.getParameter("id"), response);
+        } else if (action.equals("datastore_search")) {
+            searchDatastore(request.getParameter("resource_id"), response);
+        } else {
+            String body = readBody(request);
+            JsonObject json = new JsonParser().parse(body).getAsJsonObject();
+            
+            if (action.equals("organization_create")) {
+                String name = json.get("name").getAsString();
+                orgs.putIfAbsent(name, new ConcurrentHashMap<String, Boolean>());
+                writeResult(response, name);
+            } else if (action.equals("package_create")) {
+                String name = json.get("name").getAsString();
+                ConcurrentHashMap<String, Boolean> orgPkgs = orgs.get(json.get("owner_org").getAsString());
+                
+                if (orgPkgs == null) {
+                    writeJson(response, 404, "{\"success\":false}");
+                    return;
+                } // if
+                
+                pkgs.putIfAbsent(name, new ConcurrentHashMap<String, Boolean>());
+                orgPkgs.put(name, Boolean.TRUE);
+                writeResult(response, name);
+            } else if (action.equals("resource_create")) {
+                String name = json.get("name").getAsString();
+                ConcurrentHashMap<String, Boolean> resources = pkgs.get(json.get("package_id").getAsString());
+                
+                if (resources == null) {
+                    writeJson(response, 404, "{\"success\":false}");
+                    return;
+                } // if
+                
+                resources.put(name, Boolean.TRUE);
+                writeResult(response, name);
+            } else if (action.equals("datastore_create")) {
+                JsonArray fields = json.getAsJsonArray("fields");
+                datastores.put(json.get("resource_id").getAsString(), fields == null ? new JsonArray() : fields);
+                writeJson(response, 200, "{\"success\":true}");
+            } else if (action.equals("datastore_upsert")) {
+                JsonArray upserted = json.getAsJsonArray("records");
+                records.addAndGet(upserted == null ? 0 : upserted.size());
+                tracker.track(body);
+                writeJson(response, 200, "{\"success\":true}");
+            } else {
+                writeJson(response, 400, "{\"success\":false}");
+            } // if else
+        } // if else
+    } // handle
+    
+    private void showOrganization(String name, HttpServletResponse response) throws IOException {
+        ConcurrentHashMap<String, Boolean> orgPkgs = (name == null) ? null : orgs.get(name);
+        
+        if (orgPkgs == null) {
+            writeJson(response, 404, "{\"success\":false}");
+            return;
+        } // if
+        
+        JsonArray packages = new JsonArray();
+        
+        for (String pkgName : orgPkgs.keySet()) {
+            packages.add(buildPackage(pkgName));
+        } // for
+        
+        JsonObject result = new JsonObject();
+        result.addProperty("id", name);
+        result.addProperty("name", name);
+        result.addProperty("state", "active");
+        result.add("packages", packages);
+        JsonObject json = new JsonObject();
+        json.addProperty("success", true);
+        json.add("result", result);
+        writeJson(response, 200, json.toString());
+    } // showOrganization
+    
+    private void showPackage(String name, HttpServletResponse response) throws IOException {
+        if (name == null || !pkgs.containsKey(name)) {
+            writeJson(response, 404, "{\"success\":false}");
+            return;
+        } // if
+        
+        JsonObject json = new JsonObject();
+        json.addProperty("success", true);
+        json.add("result", buildPackage(name));
+        writeJson(response, 200, json.toString());
+    } // showPackage
+    
+    private void searchDatastore(String resourceId, HttpServletResponse response) throws IOException {
+        JsonArray fields = (resourceId == null) ? null : datastores.get(resourceId);
+        
+        if (fields == null) {
+            writeJson(response, 404, "{\"success\":false}");
+            return;
+        } // if
+        
+        JsonObject result = new JsonObject();
+        result.add("fields", fields);
+        result.add("records", new JsonArray());
+        JsonObject json = new JsonObject();
+        json.addProperty("success", true);
+        json.add("result", result);
+        writeJson(response, 200, json.toString());
+    } // searchDatastore
+    
+    private JsonObject buildPackage(String name) {
+        JsonArray resources = new JsonArray();
+        
+        for (Map.Entry<String, Boolean> resource : pkgs.get(name).entrySet()) {
+            JsonObject res = new JsonObject();
+            res.addProperty("id", resource.getKey());
+            res.addProperty("name", resource.getKey());
+            resources.add(res);
+        } // for
+        
+        JsonObject pkg = new JsonObject();
+        pkg.addProperty("id", name);
+        pkg.addProperty("name", name);
+        pkg.addProperty("state", "active");
+        pkg.add("resources", resources);
+        return pkg;
+    } // buildPackage
+    
+    private void writeResult(HttpServletResponse response, String id) throws IOException {
+        writeJson(response, 200, "{\"success\":true,\"result\":{\"id\":\"" + id + "\",\"name\":\"" + id + "\"}}");
+    } // writeResult
+    
+    /**
+     * Gets the number of upserted records.
+     * @return The number of upserted records
+     */
+    public long getRecords() {
+        return records.get();
+    } // getRecords
+    
+} // CKANStandIn
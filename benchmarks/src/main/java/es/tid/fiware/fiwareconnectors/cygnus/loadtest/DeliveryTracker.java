@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Histogram;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * @author frb
+ *
+ * Tracks the markers persisted by a stand-in backend. Each notification sent by the load generator contains one
+ * marker per context element, LT-seq-index-sentMillis, as the value of an attribute; when the marker is found within
+ * the data written to a backend, the context element is considered delivered and its end-to-end latency (from the
+ * scheduled sending time to the writing time) is recorded.
+ */
+public class DeliveryTracker {
+    
+    /**
+     * Regex matching the markers.
+     */
+    public static final Pattern MARKER = Pattern.compile("LT-(\\d+)-(\\d+)-(\\d+)");
+    
+    private final String backend;
+    private final ConcurrentHashMap<String, Boolean> delivered;
+    private final AtomicLong duplicated;
+    private final Histogram latency;
+    
+    /**
+     * Constructor.
+     * @param backend
+     */
+    public DeliveryTracker(String backend) {
+        this.backend = backend;
+        delivered = new ConcurrentHashMap<String, Boolean>();
+        duplicated = new AtomicLong(0);
+        latency = new Histogram("loadtest_delivery_latency_ms", "End-to-end latency in milliseconds");
+    } // DeliveryTracker
+    
+    /**
+     * Builds a marker.
+     * @param seq Sequence number of the notification
+     * @param index Index of the marker within the notification
+     * @param sentMillis Scheduled sending time of the notification
+     * @return A marker
+     */
+    public static String buildMarker(long seq, int index, long sentMillis) {
+        return "LT-" + seq + "-" + index + "-" + sentMillis;
+    } // buildMarker
+    
+    /**
+     * Gets the backend name.
+     * @return The backend name
+     */
+    public String getBackend() {
+        return backend;
+    } // getBackend
+    
+    /**
+     * Looks for markers within the data written to the backend.
+     * @param data
+     */
+    public void track(String data) {
+        if (data == null) {
+            return;
+        } // if
+        
+        Matcher matcher = MARKER.matcher(data);
+        long now = System.currentTimeMillis();
+        
+        while (matcher.find()) {
+            String key = matcher.group(1) + "-" + matcher.group(2);
+            
+            if (delivered.putIfAbsent(key, Boolean.TRUE) == null) {
+                latency.record(Math.max(0, now - Long.parseLong(matcher.group(3))));
+            } else {
+                duplicated.incrementAndGet();
+            } // if else
+        } // while
+    } // track
+    
+    /**
+     * Gets the number of different markers delivered.
+     * @return The number of different markers delivered
+     */
+    public long getDelivered() {
+        return delivered.size();
+    } // getDelivered
+    
+    /**
+     * Gets the number of markers delivered more than once.
+     * @return The number of markers delivered more than once
+     */
+    public long getDuplicated() {
+        return duplicated.get();
+    } // getDuplicated
+    
+    /**
+     * Gets the end-to-end latency histogram, in milliseconds.
+     * @return The end-to-end latency histogram
+     */
+    public Histogram getLatency() {
+        return latency;
+    } // getLatency
+    
+} // DeliveryTracker
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ *
+ * @author frb
+ *
+ * WebHDFS/HttpFS stand-in. The files are not stored, only their sizes; the operations used by HDFSBackendImpl are
+ * supported (mkdirs, getfilestatus, rename, and the two steps create and append), answering as the real APIs do.
+ */
+public class HDFSStandIn extends HttpStandIn {
+    
+    private final int port;
+    private final ConcurrentHashMap<String, AtomicLong> files;
+    
+    /**
+     * Constructor.
+     * @param tracker
+     * @param delayMillis
+     * @param port Port this stand-in listens on, used for building the redirections
+     */
+    public HDFSStandIn(DeliveryTracker tracker, int delayMillis, int port) {
+        super(tracker, delayMillis);
+        this.port = port;
+        files = new ConcurrentHashMap<String, AtomicLong>();
+    } // HDFSStandIn
+    
+    @Override
+    protected void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = request.getRequestURI();
+        String op = request.getParameter("op");
+        op = (op == null) ? "" : op.toLowerCase();
+        
+        if (!path.startsWith("/webhdfs/v1/")) {
+            writeJson(response, 404, "{\"RemoteException\":{\"message\":\"Unknown path " + path + "\"}}");
+        } else if (op.equals("mkdirs")) {
+            writeJson(response, 200, "{\"boolean\":true}");
+        } else if (op.equals("getfilestatus")) {
+            AtomicLong length = files.get(path);
+            
+            if (length == null) {
+                writeJson(response, 404, "{\"RemoteException\":{\"exception\":\"FileNotFoundException\"}}");
+            } else {
+                writeJson(response, 200, "{\"FileStatus\":{\"length\":" + length.get() + ",\"type\":\"FILE\"}}");
+            } // if else
+        } else if (op.equals("rename")) {
+            AtomicLong length = files.remove(path);
+            
+            if (length != null) {
+                files.put("/webhdfs/v1" + request.getParameter("destination"), length);
+            } // if
+            
+            writeJson(response, 200, "{\"boolean\":" + (length != null) + "}");
+        } else if (op.equals("create") || op.equals("append")) {
+            if (request.getParameter("data") == null) {
+                // first step, redirect to the "datanode"
+                response.setHeader("Location", "http://localhost:" + port + path + "?" + request.getQueryString()
+                        + "&data=true");
+                writeJson(response, 307, "");
+                return;
+            } // if
+            
+            // second step, write the data
+            String data = readBody(request);
+            AtomicLong length = files.get(path);
+            
+            if (length == null) {
+                AtomicLong newLength = new AtomicLong(0);
+                length = files.putIfAbsent(path, newLength);
+                length = (length == null) ? newLength : length;
+            } // if
+            
+            length.addAndGet(data.length());
+            tracker.track(data);
+            writeJson(response, op.equals("create") ? 201 : 200, "");
+        } else {
+            writeJson(response, 400, "{\"RemoteException\":{\"message\":\"Unsupported operation " + op + "\"}}");
+        } // if else
+    } // handle
+    
+    /**
+     * Gets the number of created files.
+     * @return The number of created files
+     */
+    public int getNumFiles() {
+        return files.size();
+    } // getNumFiles
+    
+} // HDFSStandIn
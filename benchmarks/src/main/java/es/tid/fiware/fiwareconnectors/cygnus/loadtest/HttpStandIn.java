@@ -0,0 +1,113 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ *
+ * @author frb
+ *
+ * Base class of the Http backend stand-ins. Each request is delayed the configured time, simulating the latency of a
+ * real backend, before being handled.
+ */
+public abstract class HttpStandIn extends AbstractHandler {
+    
+    protected final DeliveryTracker tracker;
+    private final int delayMillis;
+    
+    /**
+     * Constructor.
+     * @param tracker
+     * @param delayMillis Milliseconds each request is delayed
+     */
+    public HttpStandIn(DeliveryTracker tracker, int delayMillis) {
+        this.tracker = tracker;
+        this.delayMillis = delayMillis;
+    } // HttpStandIn
+    
+    @Override
+    public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+        throws IOException, ServletException {
+        HttpConnection connection = HttpConnection.getCurrentConnection();
+        
+        if (connection != null) {
+            Request baseRequest = (request instanceof Request) ? (Request) request : connection.getRequest();
+            baseRequest.setHandled(true);
+        } // if
+        
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } // try catch
+        } // if
+        
+        handle(request, response);
+    } // handle
+    
+    /**
+     * Handles a request.
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    protected abstract void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+    
+    /**
+     * Reads the body of a request.
+     * @param request
+     * @return The body of the request
+     * @throws IOException
+     */
+    protected String readBody(HttpServletRequest request) throws IOException {
+        StringBuilder body = new StringBuilder();
+        BufferedReader reader = request.getReader();
+        String line;
+        
+        while ((line = reader.readLine()) != null) {
+            body.append(line).append('\n');
+        } // while
+        
+        return body.toString();
+    } // readBody
+    
+    /**
+     * Writes a Json response.
+     * @param response
+     * @param status
+     * @param json
+     * @throws IOException
+     */
+    protected void writeJson(HttpServletResponse response, int status, String json) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.getWriter().println(json);
+    } // writeJson
+    
+} // HttpStandIn
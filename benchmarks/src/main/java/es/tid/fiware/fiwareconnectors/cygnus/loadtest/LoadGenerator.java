@@ -0,0 +1,225 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import es.tid.fiware.fiwareconnectors.cygnus.loadtest.NotificationSource.Notification;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Histogram;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Sends notifications at a target rate. The sending times are scheduled in advance (open model), and the latency of a
+ * notification is measured from its scheduled sending time, not from its actual sending time; this way, if the agent
+ * (or the generator itself) falls behind, the queueing time is part of the measured latency instead of being hidden
+ * by a lower sending rate.
+ */
+public class LoadGenerator {
+    
+    private final Logger logger;
+    private final String url;
+    private final NotificationSource source;
+    private final double rate;
+    private final String service;
+    private final String servicePath;
+    private final DefaultHttpClient httpClient;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong scheduled;
+    private final AtomicLong accepted;
+    private final AtomicLong rejected;
+    private final AtomicLong failed;
+    private final AtomicLong acceptedMarkers;
+    private final Histogram latency;
+    private volatile long maxBacklog;
+    
+    /**
+     * Constructor.
+     * @param url Notification URL of the agent
+     * @param source Notifications to be sent
+     * @param rate Notifications per second
+     * @param concurrency Maximum number of notifications being sent at the same time
+     * @param service Value of the Fiware-Service header
+     * @param servicePath Value of the Fiware-ServicePath header
+     */
+    public LoadGenerator(String url, NotificationSource source, double rate, int concurrency, String service,
+            String servicePath) {
+        logger = Logger.getLogger(LoadGenerator.class);
+        this.url = url;
+        this.source = source;
+        this.rate = rate;
+        this.service = service;
+        this.servicePath = servicePath;
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(concurrency);
+        connectionManager.setDefaultMaxPerRoute(concurrency);
+        httpClient = new DefaultHttpClient(connectionManager);
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        scheduled = new AtomicLong(0);
+        accepted = new AtomicLong(0);
+        rejected = new AtomicLong(0);
+        failed = new AtomicLong(0);
+        acceptedMarkers = new AtomicLong(0);
+        latency = new Histogram("loadtest_notification_latency_us", "Notification latency in microseconds");
+        maxBacklog = 0;
+    } // LoadGenerator
+    
+    /**
+     * Sends notifications during the given time, and waits for all of them to be answered.
+     * @param durationSeconds
+     * @throws InterruptedException
+     */
+    public void run(int durationSeconds) throws InterruptedException {
+        long intervalNanos = (long) (1000000000L / rate);
+        long startNanos = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        long endNanos = startNanos + durationSeconds * 1000000000L;
+        
+        for (long seq = 0;; seq++) {
+            final long scheduledNanos = startNanos + seq * intervalNanos;
+            
+            if (scheduledNanos >= endNanos) {
+                break;
+            } // if
+            
+            long waitNanos = scheduledNanos - System.nanoTime();
+            
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            } // if
+            
+            final Notification notification = source.next(seq,
+                    startMillis + (scheduledNanos - startNanos) / 1000000);
+            scheduled.incrementAndGet();
+            executor.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    send(notification, scheduledNanos);
+                } // run
+                
+            });
+            maxBacklog = Math.max(maxBacklog, executor.getQueue().size());
+        } // for
+        
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        httpClient.getConnectionManager().shutdown();
+    } // run
+    
+    private void send(Notification notification, long scheduledNanos) {
+        HttpPost request = new HttpPost(url);
+        request.setHeader("Content-Type", notification.getContentType());
+        request.setHeader("User-Agent", "orion/0.19.0");
+        request.setHeader("Fiware-Service", service);
+        request.setHeader("Fiware-ServicePath", servicePath);
+        
+        try {
+            request.setEntity(new StringEntity(notification.getBody(), "UTF-8"));
+            HttpResponse response = httpClient.execute(request);
+            EntityUtils.consume(response.getEntity());
+            latency.record((System.nanoTime() - scheduledNanos) / 1000);
+            int status = response.getStatusLine().getStatusCode();
+            
+            if (status >= 200 && status < 300) {
+                accepted.incrementAndGet();
+                acceptedMarkers.addAndGet(notification.getNumMarkers());
+            } else {
+                rejected.incrementAndGet();
+            } // if else
+        } catch (Exception e) {
+            logger.debug("Notification not sent. Details=" + e.getMessage());
+            request.abort();
+            failed.incrementAndGet();
+        } // try catch
+    } // send
+    
+    /**
+     * Gets the number of notifications scheduled so far.
+     * @return The number of notifications scheduled so far
+     */
+    public long getScheduled() {
+        return scheduled.get();
+    } // getScheduled
+    
+    /**
+     * Gets the number of notifications answered with a 2xx status code.
+     * @return The number of notifications answered with a 2xx status code
+     */
+    public long getAccepted() {
+        return accepted.get();
+    } // getAccepted
+    
+    /**
+     * Gets the number of notifications answered with other status code than 2xx (e.g. 503 if admission control is
+     * enabled).
+     * @return The number of notifications answered with other status code than 2xx
+     */
+    public long getRejected() {
+        return rejected.get();
+    } // getRejected
+    
+    /**
+     * Gets the number of notifications that could not be sent or whose response could not be read.
+     * @return The number of notifications that could not be sent or whose response could not be read
+     */
+    public long getFailed() {
+        return failed.get();
+    } // getFailed
+    
+    /**
+     * Gets the number of markers within the accepted notifications, i.e. the number of markers expected to be
+     * delivered to each backend.
+     * @return The number of markers within the accepted notifications
+     */
+    public long getAcceptedMarkers() {
+        return acceptedMarkers.get();
+    } // getAcceptedMarkers
+    
+    /**
+     * Gets the notification latency histogram, in microseconds.
+     * @return The notification latency histogram
+     */
+    public Histogram getLatency() {
+        return latency;
+    } // getLatency
+    
+    /**
+     * Gets the maximum number of scheduled notifications waiting for a free sending thread. A large value means the
+     * concurrency is too low for the target rate and the agent latency.
+     * @return The maximum number of scheduled notifications waiting for a free sending thread
+     */
+    public long getMaxBacklog() {
+        return maxBacklog;
+    } // getMaxBacklog
+    
+} // LoadGenerator
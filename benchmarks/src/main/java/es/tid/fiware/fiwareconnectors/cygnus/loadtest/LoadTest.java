@@ -0,0 +1,421 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import es.tid.fiware.fiwareconnectors.cygnus.http.JettyServer;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Histogram;
+import es.tid.fiware.fiwareconnectors.cygnus.nodes.CygnusApplication;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.flume.node.PropertiesFileConfigurationProvider;
+
+/**
+ *
+ * @author frb
+ *
+ * Load test of a Cygnus agent. Notifications are sent at a target rate to an agent persisting in stand-ins of the
+ * HDFS (HttpFS), MySQL and CKAN backends, and the throughput, the latencies and the loss are reported:
+ *  - The notification latency is the time from the scheduled sending of a notification to its response.
+ *  - The end-to-end latency is the time from the scheduled sending of a notification to the writing of its context
+ *    elements in each backend.
+ *  - The loss is the number of context elements within accepted notifications not written to a backend.
+ * By default, an agent is run within this same process; its configuration is generated, and can be partially
+ * overridden with a properties file. Alternatively, the notifications can be sent to an external agent, which should
+ * be configured to persist in the HDFS and CKAN stand-ins started by this load test.
+ */
+public final class LoadTest {
+    
+    private static final String AGENT_NAME = "cygnusagent";
+    private static final String SERVICE = "loadtest";
+    private static final String SERVICE_PATH = "loadtest";
+    private static final int REPORT_INTERVAL_SECONDS = 10;
+    
+    private final CommandLine commandLine;
+    private final LinkedHashMap<String, DeliveryTracker> trackers;
+    private final ArrayList<JettyServer> servers;
+    private CygnusApplication application;
+    
+    /**
+     * Constructor.
+     * @param commandLine
+     */
+    private LoadTest(CommandLine commandLine) {
+        this.commandLine = commandLine;
+        trackers = new LinkedHashMap<String, DeliveryTracker>();
+        servers = new ArrayList<JettyServer>();
+    } // LoadTest
+    
+    /**
+     * Main method.
+     * @param args
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption(new Option("r", "rate", true, "notifications per second (default 100)"));
+        options.addOption(new Option("d", "duration", true, "seconds sending notifications (default 60)"));
+        options.addOption(new Option("t", "content-type", true, "json or xml (default json)"));
+        options.addOption(new Option("e", "entities", true, "context elements per notification (default 1)"));
+        options.addOption(new Option("a", "attributes", true, "attributes per context element (default 5)"));
+        options.addOption(new Option("n", "notifications", true, "file or folder with recorded notifications, "
+                + "sent instead of the synthetic ones"));
+        options.addOption(new Option("c", "concurrency", true, "maximum notifications being sent at the same time "
+                + "(default 16)"));
+        options.addOption(new Option("s", "sinks", true, "comma separated list of sinks, among hdfs, mysql and "
+                + "ckan (default hdfs,mysql,ckan)"));
+        options.addOption(new Option("m", "attr-persistence", true, "row or column (default row)"));
+        options.addOption(new Option("b", "batch-size", true, "batch size of the sinks (default 1)"));
+        options.addOption(new Option("l", "backend-latency", true, "milliseconds each backend request is delayed "
+                + "by the stand-ins (default 0)"));
+        options.addOption(new Option("w", "drain-timeout", true, "seconds waiting for the deliveries once all the "
+                + "notifications have been sent (default 30)"));
+        options.addOption(new Option("f", "agent-conf", true, "properties file overriding the generated agent "
+                + "configuration (the agent name is " + AGENT_NAME + ")"));
+        options.addOption(new Option("u", "url", true, "notification URL of an external agent; if given, no agent "
+                + "is run by the load test"));
+        options.addOption(new Option(null, "hdfs-port", true, "port of the HDFS stand-in (default any free one)"));
+        options.addOption(new Option(null, "ckan-port", true, "port of the CKAN stand-in (default any free one)"));
+        options.addOption(new Option("h", "help", false, "display help text"));
+        int exitCode = 0;
+        
+        try {
+            CommandLine commandLine = new GnuParser().parse(options, args);
+            
+            if (commandLine.hasOption('h')) {
+                new HelpFormatter().printHelp("loadtest", options, true);
+                return;
+            } // if
+            
+            new LoadTest(commandLine).run();
+        } catch (Exception e) {
+            System.err.println("Load test error. Details=" + e.getMessage());
+            exitCode = 1;
+        } // try catch
+        
+        // the Flume components use non daemon threads
+        System.exit(exitCode);
+    } // main
+    
+    private void run() throws Exception {
+        double rate = Double.parseDouble(commandLine.getOptionValue('r', "100"));
+        int duration = getInt("d", 60);
+        int concurrency = getInt("c", 16);
+        int drainTimeout = getInt("w", 30);
+        int backendLatency = getInt("l", 0);
+        String url = commandLine.getOptionValue('u');
+        ArrayList<String> sinks = new ArrayList<String>(
+                Arrays.asList(commandLine.getOptionValue('s', "hdfs,mysql,ckan").split(",")));
+        
+        // notifications
+        NotificationSource source;
+        
+        if (commandLine.hasOption('n')) {
+            source = NotificationSource.recorded(new File(commandLine.getOptionValue('n')));
+        } else {
+            String contentType = "application/" + commandLine.getOptionValue('t', "json").toLowerCase(Locale.ENGLISH);
+            source = NotificationSource.synthetic(contentType, getInt("e", 1), getInt("a", 5));
+        } // if else
+        
+        // stand-ins
+        int hdfsPort = getInt("hdfs-port", 0) == 0 ? getFreePort() : getInt("hdfs-port", 0);
+        int ckanPort = getInt("ckan-port", 0) == 0 ? getFreePort() : getInt("ckan-port", 0);
+        
+        if (sinks.contains("hdfs")) {
+            DeliveryTracker tracker = new DeliveryTracker("hdfs");
+            trackers.put("hdfs", tracker);
+            startServer(hdfsPort, new HDFSStandIn(tracker, backendLatency, hdfsPort));
+            System.out.println("HDFS (HttpFS) stand-in listening on port " + hdfsPort);
+        } // if
+        
+        if (sinks.contains("ckan")) {
+            DeliveryTracker tracker = new DeliveryTracker("ckan");
+            trackers.put("ckan", tracker);
+            startServer(ckanPort, new CKANStandIn(tracker, backendLatency));
+            System.out.println("CKAN stand-in listening on port " + ckanPort);
+        } // if
+        
+        // the MySQL stand-in is only reachable by an agent running within this process
+        if (sinks.contains("mysql") && url == null) {
+            DeliveryTracker tracker = new DeliveryTracker("mysql");
+            trackers.put("mysql", tracker);
+            MySQLStandIn.configure(tracker, backendLatency);
+        } // if
+        
+        // agent
+        if (url == null) {
+            int sourcePort = getFreePort();
+            startAgent(sourcePort, hdfsPort, ckanPort);
+            url = "http://localhost:" + sourcePort + "/notify";
+        } // if
+        
+        System.out.println("Sending " + rate + " notifications/s during " + duration + " s to " + url);
+        final LoadGenerator generator = new LoadGenerator(url, source, rate, concurrency, SERVICE, SERVICE_PATH);
+        final long start = System.currentTimeMillis();
+        Thread reporter = new Thread("loadtest-reporter") {
+            
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(REPORT_INTERVAL_SECONDS * 1000L);
+                        printProgress(generator, start);
+                    } // while
+                } catch (InterruptedException e) {
+                    // the load test has finished
+                } // try catch
+            } // run
+            
+        };
+        reporter.setDaemon(true);
+        reporter.start();
+        generator.run(duration);
+        long sendingMillis = System.currentTimeMillis() - start;
+        
+        // wait for the deliveries
+        long drainEnd = System.currentTimeMillis() + drainTimeout * 1000L;
+        
+        while (!isDelivered(generator.getAcceptedMarkers()) && System.currentTimeMillis() < drainEnd) {
+            Thread.sleep(100);
+        } // while
+        
+        reporter.interrupt();
+        printReport(generator, rate, sendingMillis, System.currentTimeMillis() - start);
+        stop();
+    } // run
+    
+    private int getInt(String option, int defaultValue) {
+        String value = commandLine.getOptionValue(option);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    } // getInt
+    
+    private void startServer(int port, HttpStandIn standIn) throws Exception {
+        JettyServer server = new JettyServer(port, standIn);
+        server.start();
+        servers.add(server);
+        waitListening(port);
+    } // startServer
+    
+    /**
+     * Generates the agent configuration, overrides it with the given properties file (if any), and runs the agent.
+     * @param sourcePort
+     * @param hdfsPort
+     * @param ckanPort
+     * @throws Exception
+     */
+    private void startAgent(int sourcePort, int hdfsPort, int ckanPort) throws Exception {
+        String prefix = AGENT_NAME + ".";
+        String sourcePrefix = prefix + "sources.http-source.";
+        String attrPersistence = commandLine.getOptionValue('m', "row");
+        String batchSize = commandLine.getOptionValue('b', "1");
+        File matchingTable = File.createTempFile("loadtest_matching_table", ".conf");
+        matchingTable.deleteOnExit();
+        StringBuilder sinkNames = new StringBuilder();
+        StringBuilder channelNames = new StringBuilder();
+        Properties conf = new Properties();
+        
+        for (String sink : trackers.keySet()) {
+            String sinkName = sink + "-sink";
+            String channelName = sink + "-channel";
+            sinkNames.append(sinkNames.length() == 0 ? "" : " ").append(sinkName);
+            channelNames.append(channelNames.length() == 0 ? "" : " ").append(channelName);
+            conf.put(prefix + "channels." + channelName + ".type", "memory");
+            conf.put(prefix + "channels." + channelName + ".capacity", "100000");
+            conf.put(prefix + "channels." + channelName + ".transactionCapacity", "1000");
+            String sinkPrefix = prefix + "sinks." + sinkName + ".";
+            conf.put(sinkPrefix + "channel", channelName);
+            conf.put(sinkPrefix + "attr_persistence", attrPersistence);
+            conf.put(sinkPrefix + "batch_size", batchSize);
+            
+            if (sink.equals("hdfs")) {
+                conf.put(sinkPrefix + "type", "es.tid.fiware.fiwareconnectors.cygnus.sinks.OrionHDFSSink");
+                conf.put(sinkPrefix + "cosmos_host", "localhost");
+                conf.put(sinkPrefix + "cosmos_port", String.valueOf(hdfsPort));
+                conf.put(sinkPrefix + "cosmos_default_username", "loadtest");
+                conf.put(sinkPrefix + "hdfs_api", "httpfs");
+                conf.put(sinkPrefix + "hive_host", "localhost");
+                conf.put(sinkPrefix + "hive_port", String.valueOf(getFreePort()));
+            } else if (sink.equals("mysql")) {
+                conf.put(sinkPrefix + "type", StandInMySQLSink.class.getName());
+            } else if (sink.equals("ckan")) {
+                conf.put(sinkPrefix + "type", "es.tid.fiware.fiwareconnectors.cygnus.sinks.OrionCKANSink");
+                conf.put(sinkPrefix + "ckan_host", "localhost");
+                conf.put(sinkPrefix + "ckan_port", String.valueOf(ckanPort));
+                conf.put(sinkPrefix + "api_key", "loadtest");
+            } // if else if
+        } // for
+        
+        conf.put(prefix + "sources", "http-source");
+        conf.put(prefix + "sinks", sinkNames.toString());
+        conf.put(prefix + "channels", channelNames.toString());
+        conf.put(sourcePrefix + "channels", channelNames.toString());
+        conf.put(sourcePrefix + "type", "org.apache.flume.source.http.HTTPSource");
+        conf.put(sourcePrefix + "port", String.valueOf(sourcePort));
+        conf.put(sourcePrefix + "handler", "es.tid.fiware.fiwareconnectors.cygnus.handlers.OrionRestHandler");
+        conf.put(sourcePrefix + "handler.notification_target", "/notify");
+        conf.put(sourcePrefix + "interceptors", "ts de");
+        conf.put(sourcePrefix + "interceptors.ts.type", "timestamp");
+        conf.put(sourcePrefix + "interceptors.de.type",
+                "es.tid.fiware.fiwareconnectors.cygnus.interceptors.DestinationExtractor$Builder");
+        conf.put(sourcePrefix + "interceptors.de.matching_table", matchingTable.getAbsolutePath());
+        
+        if (commandLine.hasOption('f')) {
+            InputStream in = new FileInputStream(commandLine.getOptionValue('f'));
+            
+            try {
+                conf.load(in);
+            } finally {
+                in.close();
+            } // try finally
+        } // if
+        
+        File confFile = File.createTempFile("loadtest_agent", ".conf");
+        confFile.deleteOnExit();
+        OutputStream out = new FileOutputStream(confFile);
+        
+        try {
+            conf.store(out, "Cygnus load test agent");
+        } finally {
+            out.close();
+        } // try finally
+        
+        System.out.println("Running an agent configured by " + confFile.getAbsolutePath());
+        application = new CygnusApplication(getFreePort());
+        application.handleConfigurationEvent(
+                new PropertiesFileConfigurationProvider(AGENT_NAME, confFile).getConfiguration());
+        application.start();
+        waitListening(sourcePort);
+    } // startAgent
+    
+    private void stop() {
+        if (application != null) {
+            application.stop();
+        } // if
+        
+        for (JettyServer server : servers) {
+            server.shutdown();
+        } // for
+    } // stop
+    
+    private boolean isDelivered(long expected) {
+        for (DeliveryTracker tracker : trackers.values()) {
+            if (tracker.getDelivered() < expected) {
+                return false;
+            } // if
+        } // for
+        
+        return true;
+    } // isDelivered
+    
+    private void printProgress(LoadGenerator generator, long start) {
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("[%5d s] scheduled=%d accepted=%d rejected=%d failed=%d delivered:",
+                (System.currentTimeMillis() - start) / 1000, generator.getScheduled(), generator.getAccepted(),
+                generator.getRejected(), generator.getFailed()));
+        
+        for (DeliveryTracker tracker : trackers.values()) {
+            line.append(' ').append(tracker.getBackend()).append('=').append(tracker.getDelivered());
+        } // for
+        
+        System.out.println(line);
+    } // printProgress
+    
+    private void printReport(LoadGenerator generator, double rate, long sendingMillis, long totalMillis) {
+        long expected = generator.getAcceptedMarkers();
+        System.out.println();
+        System.out.println("Load test summary");
+        System.out.println(String.format(Locale.ENGLISH, "  notifications: target rate=%.1f/s, scheduled=%d, "
+                + "accepted=%d, rejected=%d, failed=%d, throughput=%.1f/s", rate, generator.getScheduled(),
+                generator.getAccepted(), generator.getRejected(), generator.getFailed(),
+                generator.getAccepted() * 1000.0 / sendingMillis));
+        System.out.println("  notification latency (ms): " + formatPercentiles(generator.getLatency(), 1000.0));
+        
+        if (generator.getMaxBacklog() > rate) {
+            System.out.println("  WARNING: up to " + generator.getMaxBacklog() + " notifications waited for a "
+                    + "sending thread, the concurrency may be too low for the target rate");
+        } // if
+        
+        for (Map.Entry<String, DeliveryTracker> entry : trackers.entrySet()) {
+            DeliveryTracker tracker = entry.getValue();
+            long delivered = tracker.getDelivered();
+            long lost = Math.max(0, expected - delivered);
+            System.out.println(String.format(Locale.ENGLISH, "  %s: delivered=%d/%d, lost=%d (%.3f%%), "
+                    + "duplicated=%d, throughput=%.1f/s", entry.getKey(), delivered, expected, lost,
+                    expected == 0 ? 0.0 : lost * 100.0 / expected, tracker.getDuplicated(),
+                    delivered * 1000.0 / totalMillis));
+            System.out.println("    end-to-end latency (ms): " + formatPercentiles(tracker.getLatency(), 1.0));
+        } // for
+    } // printReport
+    
+    private String formatPercentiles(Histogram histogram, double divisor) {
+        if (histogram.getCount() == 0) {
+            return "no samples";
+        } // if
+        
+        return String.format(Locale.ENGLISH, "p50=%.1f p90=%.1f p99=%.1f p999=%.1f max=%.1f",
+                histogram.getValueAtQuantile(0.5) / divisor, histogram.getValueAtQuantile(0.9) / divisor,
+                histogram.getValueAtQuantile(0.99) / divisor, histogram.getValueAtQuantile(0.999) / divisor,
+                histogram.getMax() / divisor);
+    } // formatPercentiles
+    
+    private static int getFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        } // try finally
+    } // getFreePort
+    
+    private static void waitListening(int port) throws Exception {
+        long end = System.currentTimeMillis() + 30000;
+        
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > end) {
+                    throw new IOException("Nothing listening on port " + port);
+                } // if
+                
+                Thread.sleep(100);
+            } // try catch
+        } // while
+    } // waitListening
+    
+} // LoadTest
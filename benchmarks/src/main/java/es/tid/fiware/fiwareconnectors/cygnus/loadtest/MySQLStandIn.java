@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import es.tid.fiware.fiwareconnectors.cygnus.backends.mysql.MySQLBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author frb
+ *
+ * MySQL stand-in. The queries built by MySQLBackend are run against an in-memory H2 database in MySQL compatibility
+ * mode, where the MySQL databases are H2 schemas.
+ *
+ * The stand-in is shared by all the StandInMySQLSink instances of the agent, and it must be configured before the
+ * agent is started.
+ */
+public class MySQLStandIn extends MySQLBackend {
+    
+    private static final String URL = "jdbc:h2:mem:cygnus_loadtest;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    private static volatile DeliveryTracker tracker;
+    private static volatile int delayMillis;
+    private static final AtomicLong ROWS = new AtomicLong(0);
+    
+    /**
+     * Constructor.
+     */
+    public MySQLStandIn() {
+        super("localhost", "3306", "cygnus", "", 2);
+    } // MySQLStandIn
+    
+    /**
+     * Configures the stand-in.
+     * @param deliveryTracker
+     * @param delay Milliseconds each batch of rows is delayed
+     * @throws ClassNotFoundException
+     */
+    public static void configure(DeliveryTracker deliveryTracker, int delay) throws ClassNotFoundException {
+        Class.forName("org.h2.Driver");
+        tracker = deliveryTracker;
+        delayMillis = delay;
+    } // configure
+    
+    /**
+     * Gets the number of inserted rows.
+     * @return The number of inserted rows
+     */
+    public static long getRows() {
+        return ROWS.get();
+    } // getRows
+    
+    @Override
+    protected Connection openConnection() throws Exception {
+        try {
+            Connection con = DriverManager.getConnection(URL, "sa", "");
+            con.setAutoCommit(false);
+            return con;
+        } catch (SQLException e) {
+            throw new CygnusPersistenceError(e.getMessage());
+        } // try catch
+    } // openConnection
+    
+    @Override
+    public void insertRows(String schemaName, String tableName, List<Row> rows) throws Exception {
+        delay();
+        super.insertRows(schemaName, tableName, rows);
+        ROWS.addAndGet(rows.size());
+        
+        for (Row row : rows) {
+            tracker.track(row.getAttrValue());
+        } // for
+    } // insertRows
+    
+    @Override
+    public void insertColumnRows(String schemaName, String tableName, List<Map<String, String>> rows)
+            throws Exception {
+        delay();
+        super.insertColumnRows(schemaName, tableName, rows);
+        ROWS.addAndGet(rows.size());
+        
+        for (Map<String, String> row : rows) {
+            for (String value : row.values()) {
+                tracker.track(value);
+            } // for
+        } // for
+    } // insertColumnRows
+    
+    @Override
+    public void upsertLastValues(String schemaName, String tableName, Collection<Row> lastValues) throws Exception {
+        delay();
+        super.upsertLastValues(schemaName, tableName, lastValues);
+    } // upsertLastValues
+    
+    private static void delay() {
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } // try catch
+        } // if
+    } // delay
+    
+} // MySQLStandIn
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import es.tid.fiware.fiwareconnectors.cygnus.benchmarks.Notifications;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * @author frb
+ *
+ * Provides the notifications sent by the load generator, either synthetic (a number of Room entities having a number
+ * of attributes) or recorded (files containing Orion notifications). In both cases, the notifications are templates
+ * where each appearance of the ${marker} placeholder is replaced with a unique marker when sent; the synthetic
+ * notifications contain a marker per context element, and recorded notifications without placeholders are sent
+ * as they are, but their delivery cannot be tracked.
+ */
+public class NotificationSource {
+    
+    /**
+     * Placeholder replaced with a unique marker.
+     */
+    public static final String PLACEHOLDER = "${marker}";
+    
+    private final ArrayList<Template> templates;
+    
+    /**
+     * Constructor.
+     * @param templates
+     */
+    private NotificationSource(ArrayList<Template> templates) {
+        this.templates = templates;
+    } // NotificationSource
+    
+    /**
+     * Creates a source of synthetic notifications.
+     * @param contentType Either application/json or application/xml
+     * @param numEntities Number of context elements per notification
+     * @param numAttributes Number of attributes per context element, in addition to the marker
+     * @return A source of synthetic notifications
+     */
+    public static NotificationSource synthetic(String contentType, int numEntities, int numAttributes) {
+        String body = contentType.equals("application/xml")
+                ? Notifications.buildXML(numEntities, numAttributes, PLACEHOLDER)
+                : Notifications.buildJson(numEntities, numAttributes, PLACEHOLDER);
+        ArrayList<Template> templates = new ArrayList<Template>();
+        templates.add(new Template(contentType, body));
+        return new NotificationSource(templates);
+    } // synthetic
+    
+    /**
+     * Creates a source of recorded notifications, sent in round robin. The content type of each notification is
+     * guessed from its first character.
+     * @param path A file containing a notification, or a folder containing one notification per file
+     * @return A source of recorded notifications
+     * @throws IOException
+     */
+    public static NotificationSource recorded(File path) throws IOException {
+        ArrayList<File> files = new ArrayList<File>();
+        
+        if (path.isDirectory()) {
+            File[] children = path.listFiles();
+            Arrays.sort(children);
+            
+            for (File child : children) {
+                if (child.isFile() && !child.getName().startsWith(".")) {
+                    files.add(child);
+                } // if
+            } // for
+        } else {
+            files.add(path);
+        } // if else
+        
+        ArrayList<Template> templates = new ArrayList<Template>();
+        
+        for (File file : files) {
+            String body = read(file).trim();
+            
+            if (body.length() == 0) {
+                continue;
+            } // if
+            
+            templates.add(new Template(body.charAt(0) == '<' ? "application/xml" : "application/json", body));
+        } // for
+        
+        if (templates.isEmpty()) {
+            throw new IOException("No notifications found in " + path.getAbsolutePath());
+        } // if
+        
+        return new NotificationSource(templates);
+    } // recorded
+    
+    /**
+     * Gets the next notification.
+     * @param seq Sequence number of the notification
+     * @param sentMillis Scheduled sending time of the notification
+     * @return The next notification
+     */
+    public Notification next(long seq, long sentMillis) {
+        return templates.get((int) (seq % templates.size())).build(seq, sentMillis);
+    } // next
+    
+    private static String read(File file) throws IOException {
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        
+        try {
+            String line;
+            
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append('\n');
+            } // while
+        } finally {
+            reader.close();
+        } // try finally
+        
+        return content.toString();
+    } // read
+    
+    /**
+     * Notification template.
+     */
+    private static class Template {
+        
+        private final String contentType;
+        private final List<String> parts;
+        
+        /**
+         * Constructor.
+         * @param contentType
+         * @param body
+         */
+        public Template(String contentType, String body) {
+            this.contentType = contentType;
+            parts = new ArrayList<String>();
+            int from = 0;
+            int index = body.indexOf(PLACEHOLDER);
+            
+            while (index >= 0) {
+                parts.add(body.substring(from, index));
+                from = index + PLACEHOLDER.length();
+                index = body.indexOf(PLACEHOLDER, from);
+            } // while
+            
+            parts.add(body.substring(from));
+        } // Template
+        
+        /**
+         * Builds a notification replacing the placeholders with markers.
+         * @param seq
+         * @param sentMillis
+         * @return A notification
+         */
+        public Notification build(long seq, long sentMillis) {
+            StringBuilder body = new StringBuilder(parts.get(0));
+            
+            for (int i = 1; i < parts.size(); i++) {
+                body.append(DeliveryTracker.buildMarker(seq, i - 1, sentMillis)).append(parts.get(i));
+            } // for
+            
+            return new Notification(contentType, body.toString(), parts.size() - 1);
+        } // build
+        
+    } // Template
+    
+    /**
+     * Notification ready to be sent.
+     */
+    public static class Notification {
+        
+        private final String contentType;
+        private final String body;
+        private final int numMarkers;
+        
+        /**
+         * Constructor.
+         * @param contentType
+         * @param body
+         * @param numMarkers
+         */
+        public Notification(String contentType, String body, int numMarkers) {
+            this.contentType = contentType;
+            this.body = body;
+            this.numMarkers = numMarkers;
+        } // Notification
+        
+        public String getContentType() {
+            return contentType;
+        } // getContentType
+        
+        public String getBody() {
+            return body;
+        } // getBody
+        
+        public int getNumMarkers() {
+            return numMarkers;
+        } // getNumMarkers
+        
+    } // Notification
+    
+} // NotificationSource
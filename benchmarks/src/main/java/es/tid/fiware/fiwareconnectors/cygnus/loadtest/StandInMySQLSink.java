@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.loadtest;
+
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.SQLDialect;
+import es.tid.fiware.fiwareconnectors.cygnus.sinks.OrionMySQLSink;
+
+/**
+ *
+ * @author frb
+ *
+ * OrionMySQLSink persisting in the MySQLStandIn instead of a real MySQL server; everything else is the same.
+ */
+public class StandInMySQLSink extends OrionMySQLSink {
+    
+    @Override
+    protected JDBCBackend createPersistenceBackend(SQLDialect dialect, String host, String port, String database,
+            String username, String password, int maxIdleConnections) {
+        return new MySQLStandIn();
+    } // createPersistenceBackend
+    
+} // StandInMySQLSink
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import com.google.gson.Gson;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.ckan.CKANBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs.HDFSBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend.Row;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.mysql.MySQLBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.benchmarks.Notifications;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.flume.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * @author frb
+ *
+ * Benchmarks the persistence logic of the sinks, i.e. the building of the destination names and of the rows/columns
+ * given an already parsed notification. The persistence backends do nothing but consuming the built data, thus no
+ * I/O is measured, but for OrionFileSink, which writes to local memory mapped segments as a baseline (the segments
+ * are synced once per batch, thus not within persist). This class belongs to the sinks package since
+ * OrionSink.persist is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrionSinksBenchmark {
+    
+    @Param({"row", "column"})
+    private String attrPersistence;
+    
+    @Param({"1", "10"})
+    private int numAttributes;
+    
+    private OrionHDFSSink hdfsSink;
+    private OrionMySQLSink mysqlSink;
+    private OrionCKANSink ckanSink;
+    private OrionFileSink fileSink;
+    private File fileSinkDir;
+    private Map<String, String> headers;
+    private NotifyContextRequest notification;
+    private Blackhole blackhole;
+    
+    /**
+     * Configures the sinks, replacing their persistence backends with not persisting ones, and parses the
+     * notification.
+     * @param blackhole
+     */
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        Context context = new Context();
+        context.put("attr_persistence", attrPersistence);
+        hdfsSink = new OrionHDFSSink();
+        hdfsSink.setName("hdfs-sink");
+        hdfsSink.configure(context);
+        hdfsSink.setPersistenceBackend(new NullHDFSBackend());
+        mysqlSink = new OrionMySQLSink();
+        mysqlSink.setName("mysql-sink");
+        mysqlSink.configure(context);
+        mysqlSink.setPersistenceBackend(new NullMySQLBackend());
+        ckanSink = new OrionCKANSink();
+        ckanSink.setName("ckan-sink");
+        ckanSink.configure(context);
+        ckanSink.setPersistenceBackend(new NullCKANBackend());
+        fileSinkDir = new File(System.getProperty("java.io.tmpdir"), "cygnus-benchmark-" + System.nanoTime());
+        context.put("data_dir", fileSinkDir.getAbsolutePath());
+        fileSink = new OrionFileSink();
+        fileSink.setName("file-sink");
+        fileSink.configure(context);
+        headers = Notifications.buildInterceptedHeaders("application/json", 1);
+        notification = new Gson().fromJson(Notifications.buildJson(1, numAttributes), NotifyContextRequest.class);
+    } // setUp
+    
+    /**
+     * Benchmarks OrionHDFSSink.persist.
+     * @throws Exception
+     */
+    @Benchmark
+    public void persistHDFS() throws Exception {
+        hdfsSink.persist(headers, notification);
+    } // persistHDFS
+    
+    /**
+     * Benchmarks OrionMySQLSink.persist, flushing the buffered rows after each notification.
+     * @throws Exception
+     */
+    @Benchmark
+    public void persistMySQL() throws Exception {
+        mysqlSink.persist(headers, notification);
+        mysqlSink.flush();
+    } // persistMySQL
+    
+    /**
+     * Benchmarks OrionCKANSink.persist.
+     * @throws Exception
+     */
+    @Benchmark
+    public void persistCKAN() throws Exception {
+        ckanSink.persist(headers, notification);
+    } // persistCKAN
+    
+    /**
+     * Benchmarks OrionFileSink.persist.
+     * @throws Exception
+     */
+    @Benchmark
+    public void persistFile() throws Exception {
+        fileSink.persist(headers, notification);
+    } // persistFile
+    
+    /**
+     * Closes the file sink segments and removes them.
+     */
+    @TearDown
+    public void tearDown() {
+        fileSink.stop();
+        delete(fileSinkDir);
+    } // tearDown
+    
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            } // for
+        } // if
+        
+        file.delete();
+    } // delete
+    
+    /**
+     * HDFS backend consuming the lines instead of persisting them. The files always exist, thus the Hive tables are
+     * never provisioned.
+     */
+    private class NullHDFSBackend extends HDFSBackend {
+        
+        /**
+         * Constructor.
+         */
+        public NullHDFSBackend() {
+            super(new String[] {"localhost"}, "14000", "cygnus", "", "localhost", "10000", false, "", "", "", "");
+        } // NullHDFSBackend
+        
+        @Override
+        public void createDir(String username, String dirPath) throws Exception {
+            blackhole.consume(dirPath);
+        } // createDir
+        
+        @Override
+        public void createFile(String username, String filePath, String data) throws Exception {
+            blackhole.consume(data);
+        } // createFile
+        
+        @Override
+        public void createFile(String username, String filePath, byte[] data) throws Exception {
+            blackhole.consume(data);
+        } // createFile
+        
+        @Override
+        public void append(String username, String filePath, String data) throws Exception {
+            blackhole.consume(data);
+        } // append
+        
+        @Override
+        public void append(String username, String filePath, byte[] data) throws Exception {
+            blackhole.consume(data);
+        } // append
+        
+        @Override
+        public boolean exists(String username, String filePath) throws Exception {
+            blackhole.consume(filePath);
+            return true;
+        } // exists
+        
+        @Override
+        public void uploadFile(String username, String filePath, File localFile) throws Exception {
+            blackhole.consume(localFile);
+        } // uploadFile
+        
+        @Override
+        public void rename(String username, String srcPath, String dstPath) throws Exception {
+            blackhole.consume(dstPath);
+        } // rename
+        
+        @Override
+        public void delete(String username, String filePath) throws Exception {
+            blackhole.consume(filePath);
+        } // delete
+        
+    } // NullHDFSBackend
+    
+    /**
+     * MySQL backend consuming the rows instead of persisting them.
+     */
+    private class NullMySQLBackend extends MySQLBackend {
+        
+        /**
+         * Constructor.
+         */
+        public NullMySQLBackend() {
+            super("localhost", "3306", "cygnus", "", 0);
+        } // NullMySQLBackend
+        
+        @Override
+        public void createSchema(String schemaName) throws Exception {
+            blackhole.consume(schemaName);
+        } // createSchema
+        
+        @Override
+        public void createTable(String schemaName, String tableName) throws Exception {
+            blackhole.consume(tableName);
+        } // createTable
+        
+        @Override
+        public void createLastValueTable(String schemaName, String tableName) throws Exception {
+            blackhole.consume(tableName);
+        } // createLastValueTable
+        
+        @Override
+        public void insertRows(String schemaName, String tableName, List<Row> rows) throws Exception {
+            blackhole.consume(tableName);
+            blackhole.consume(rows);
+        } // insertRows
+        
+        @Override
+        public void insertColumnRows(String schemaName, String tableName, List<Map<String, String>> rows)
+                throws Exception {
+            blackhole.consume(tableName);
+            blackhole.consume(rows);
+        } // insertColumnRows
+        
+        @Override
+        public void upsertLastValues(String schemaName, String tableName, Collection<Row> lastValues)
+                throws Exception {
+            blackhole.consume(tableName);
+            blackhole.consume(lastValues);
+        } // upsertLastValues
+        
+    } // NullMySQLBackend
+    
+    /**
+     * CKAN backend consuming the records instead of persisting them.
+     */
+    private class NullCKANBackend implements CKANBackend {
+        
+        @Override
+        public void persist(long recvTimeTs, String recvTime, String orgName, String pkgName, String resName,
+                String attrName, String attrType, String attrValue, String attrMd) throws Exception {
+            blackhole.consume(resName);
+            blackhole.consume(attrValue);
+            blackhole.consume(attrMd);
+        } // persist
+        
+        @Override
+        public void persist(String recvTime, String orgName, String pkgName, String resName,
+                Map<String, String> attrList, Map<String, String> attrMdList) throws Exception {
+            blackhole.consume(resName);
+            blackhole.consume(attrList);
+            blackhole.consume(attrMdList);
+        } // persist
+        
+        @Override
+        public void flush() throws Exception {
+        } // flush
+        
+        @Override
+        public void discard() {
+        } // discard
+        
+    } // NullCKANBackend
+    
+} // OrionSinksBenchmark
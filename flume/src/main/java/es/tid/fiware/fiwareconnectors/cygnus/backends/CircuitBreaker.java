@@ -0,0 +1,259 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends;
+
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Counter;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Gauge;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.MetricsRegistry;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Circuit breaker of a persistence backend, shared by all the sinks persisting in that backend. It has three states:
+ *  - CLOSED, the backend is used as usual. After a number of consecutive failures, the breaker is opened.
+ *  - OPEN, the backend is considered down and it is not used until a backoff time has elapsed; then, the breaker is
+ *    half opened.
+ *  - HALF_OPEN, the backend is tried again by a single request (the probe), the rest of requests being rejected as if
+ *    the breaker were open. The probe success closes the breaker, while its failure opens it again, doubling the
+ *    backoff time up to a maximum.
+ * The backoff times are jittered (between the half and the whole of the exponential backoff), thus the sinks of
+ * several agents do not retry at the same time. Only the failures due to the backend not being available (i.e.
+ * CygnusPersistenceError) must be notified, not those due to the data.
+ */
+public class CircuitBreaker {
+    
+    /**
+     * States of a circuit breaker; the ordinal is exposed as the cygnus_backend_circuit_state metric.
+     */
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+    
+    private static final ConcurrentHashMap<String, CircuitBreaker> INSTANCES =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+    
+    private final Logger logger;
+    private final String backend;
+    private final int failureThreshold;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Random random;
+    private final Counter openings;
+    private State state;
+    private int failures;
+    private int consecutiveOpenings;
+    private long retryTime;
+    private boolean probing;
+    private long probeTime;
+    
+    /**
+     * Constructor. It is protected since it is only required by the tests; use getInstance instead.
+     * @param backend Backend identifier
+     * @param failureThreshold Consecutive failures opening the breaker (0 means the breaker is never opened)
+     * @param initialBackoff Milliseconds the breaker is open the first time
+     * @param maxBackoff Maximum milliseconds the breaker is open
+     */
+    protected CircuitBreaker(String backend, int failureThreshold, long initialBackoff, long maxBackoff) {
+        logger = Logger.getLogger(CircuitBreaker.class);
+        this.backend = backend;
+        this.failureThreshold = failureThreshold;
+        this.initialBackoff = Math.max(1, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        random = new Random();
+        openings = MetricsRegistry.getInstance().counter("cygnus_backend_circuit_openings",
+                "Times the circuit breaker of the backend has been opened", "backend", backend);
+        state = State.CLOSED;
+        failures = 0;
+        consecutiveOpenings = 0;
+        retryTime = 0;
+        probing = false;
+        probeTime = 0;
+    } // CircuitBreaker
+    
+    /**
+     * Gets the circuit breaker of the given backend, creating it if not existing. If already existing, the given
+     * parameters are ignored, and a warning is logged if they differ from the existing breaker ones.
+     * @param backend Backend identifier, e.g. its type, host and port
+     * @param failureThreshold Consecutive failures opening the breaker (0 means the breaker is never opened)
+     * @param initialBackoff Milliseconds the breaker is open the first time
+     * @param maxBackoff Maximum milliseconds the breaker is open
+     * @return The circuit breaker of the given backend
+     */
+    public static CircuitBreaker getInstance(String backend, int failureThreshold, long initialBackoff,
+            long maxBackoff) {
+        CircuitBreaker breaker = INSTANCES.get(backend);
+        
+        if (breaker == null) {
+            CircuitBreaker newBreaker = new CircuitBreaker(backend, failureThreshold, initialBackoff, maxBackoff);
+            breaker = INSTANCES.putIfAbsent(backend, newBreaker);
+            
+            if (breaker == null) {
+                breaker = newBreaker;
+                breaker.registerGauge();
+                return breaker;
+            } // if
+        } // if
+        
+        if (breaker.failureThreshold != failureThreshold || breaker.initialBackoff != Math.max(1, initialBackoff)
+                || breaker.maxBackoff != Math.max(breaker.initialBackoff, maxBackoff)) {
+            breaker.logger.warn("The circuit breaker of the backend already exists with different parameters, "
+                    + "the existing ones are used (backend=" + backend + ", failureThreshold="
+                    + breaker.failureThreshold + ", initialBackoff=" + breaker.initialBackoff + ", maxBackoff="
+                    + breaker.maxBackoff + ", ignoredFailureThreshold=" + failureThreshold + ", ignoredInitialBackoff="
+                    + initialBackoff + ", ignoredMaxBackoff=" + maxBackoff + ")");
+        } // if
+        
+        return breaker;
+    } // getInstance
+    
+    /**
+     * Gets the backend identifier.
+     * @return The backend identifier
+     */
+    public String getBackend() {
+        return backend;
+    } // getBackend
+    
+    /**
+     * Gets the current state, updating it from OPEN to HALF_OPEN if the backoff time has elapsed.
+     * @return The current state
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && currentTimeMillis() >= retryTime) {
+            state = State.HALF_OPEN;
+            logger.debug("Circuit breaker half opened, the backend is going to be tried (backend=" + backend + ")");
+        } // if
+        
+        return state;
+    } // getState
+    
+    /**
+     * Gets if the backend can be used right now. While half opened, only the first request (the probe) is allowed
+     * until its result is notified; if not notified within the maximum backoff time, another probe is allowed.
+     * @return True if the backend can be used, false if it must not be used until the backoff time elapses
+     */
+    public synchronized boolean allowRequest() {
+        State current = getState();
+        
+        if (current != State.HALF_OPEN) {
+            return current == State.CLOSED;
+        } // if
+        
+        long now = currentTimeMillis();
+        
+        if (probing && now - probeTime < maxBackoff) {
+            return false;
+        } // if
+        
+        probing = true;
+        probeTime = now;
+        return true;
+    } // allowRequest
+    
+    /**
+     * Notifies the backend has not been used, although allowed, e.g. because there was nothing to persist. Thus, if
+     * half opened, another request may probe the backend.
+     */
+    public synchronized void onNotUsed() {
+        probing = false;
+    } // onNotUsed
+    
+    /**
+     * Gets the milliseconds until the backend can be used again.
+     * @return The milliseconds until the backend can be used again, 0 if it can be used right now
+     */
+    public synchronized long getRetryDelay() {
+        return state == State.OPEN ? Math.max(0, retryTime - currentTimeMillis()) : 0;
+    } // getRetryDelay
+    
+    /**
+     * Notifies the backend has been successfully used.
+     */
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Circuit breaker closed, the backend has recovered (backend=" + backend + ")");
+        } // if
+        
+        state = State.CLOSED;
+        failures = 0;
+        consecutiveOpenings = 0;
+        probing = false;
+    } // onSuccess
+    
+    /**
+     * Notifies the backend has failed because it is not available.
+     */
+    public synchronized void onFailure() {
+        failures++;
+        probing = false;
+        
+        if (failureThreshold <= 0 || state == State.OPEN
+                || (state == State.CLOSED && failures < failureThreshold)) {
+            return;
+        } // if
+        
+        consecutiveOpenings++;
+        long backoff = getBackoff(consecutiveOpenings);
+        retryTime = currentTimeMillis() + backoff;
+        state = State.OPEN;
+        openings.inc();
+        logger.warn("Circuit breaker opened, the backend will not be used for a while (backend=" + backend
+                + ", consecutiveFailures=" + failures + ", backoffMs=" + backoff + ")");
+    } // onFailure
+    
+    /**
+     * Gets the jittered backoff time for the given number of consecutive openings: a random value between the half
+     * and the whole of initialBackoff * 2^(openings - 1), which is limited to maxBackoff.
+     * @param consecutiveOpenings
+     * @return The backoff time, in milliseconds
+     */
+    protected long getBackoff(int consecutiveOpenings) {
+        long backoff = initialBackoff << Math.min(consecutiveOpenings - 1, 30);
+        
+        if (backoff <= 0 || backoff > maxBackoff) {
+            backoff = maxBackoff;
+        } // if
+        
+        return backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+    } // getBackoff
+    
+    /**
+     * Gets the current time. It is protected since it is overridden by the tests.
+     * @return The current time, in milliseconds
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    } // currentTimeMillis
+    
+    private void registerGauge() {
+        MetricsRegistry.getInstance().register(new Gauge("cygnus_backend_circuit_state",
+                "State of the circuit breaker of the backend (0 closed, 1 half open, 2 open)", "backend", backend) {
+            
+            @Override
+            public double getValue() {
+                return getState().ordinal();
+            } // getValue
+            
+        });
+    } // registerGauge
+    
+} // CircuitBreaker
@@ -18,6 +18,7 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.ckan;
 
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
 import java.util.Map;
 
 /**
@@ -45,7 +46,8 @@ public interface CKANBackend {
             String attrType, String attrValue, String attrMd) throws Exception;
 
     /**
-     * Persist data in the CKAN datastore associated with the entity in a given organization (column mode).
+     * Persist data in the CKAN datastore associated with the entity in a given organization (column mode). The
+     * datastore fields are created if not existing, but the data itself may be buffered until flush() is invoked.
      *
      * @param recvTime Reception time (human readable)
      * @param orgName Organization name
@@ -58,4 +60,19 @@ public interface CKANBackend {
     void persist(String recvTime, String orgName, String pkgName, String resName, Map<String, String> attrList,
             Map<String, String> attrMdList) throws Exception;
     
+    /**
+     * Persists the data buffered since the last invocation, if any. The records rejected because of their data do not
+     * make the rest of the records fail.
+     * 
+     * @throws CygnusRejectedRows If certain records have been rejected, given by the position of the column mode
+     * persist invocation buffering them since the last invocation; the rest of the records have been persisted
+     * @throws Exception
+     */
+    void flush() throws Exception;
+    
+    /**
+     * Discards the data buffered since the last invocation of flush(), if any.
+     */
+    void discard();
+    
 } // CKANBackend
@@ -20,19 +20,32 @@ package es.tid.fiware.fiwareconnectors.cygnus.backends.ckan;
 
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRuntimeError;
 import es.tid.fiware.fiwareconnectors.cygnus.http.HttpClientFactory;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import org.apache.log4j.Logger;
 import org.json.simple.JSONObject;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import org.apache.http.client.HttpClient;
 
 /**
  * Interface for those backends implementing the persistence in CKAN.
  *
  * @author fermin
+ * 
+ * In column mode, the datastore of a resource has a field per attribute and metadata. The fields of each datastore are
+ * cached; when an attribute not having a field yet is notified, all the missing fields are added through a single
+ * datastore_create request. The column records are buffered per resource and upserted in a single request per
+ * resource when flushed. If such a request is rejected because of the data of certain records (a CKAN validation
+ * error), the records are upserted one by one and the rejected ones are reported through CygnusRejectedRows.
  */
 public class CKANBackendImpl implements CKANBackend {
 
@@ -41,6 +54,9 @@ public class CKANBackendImpl implements CKANBackend {
     private HttpClientFactory httpClientFactory;
     private CKANRequester requester;
     private CKANCache cache;
+    private final LinkedHashMap<String, ArrayList<String>> pendingRecords;
+    private final LinkedHashMap<String, ArrayList<Integer>> pendingPositions;
+    private int numPendingRecords;
 
     /**
      * Constructor.
@@ -63,6 +79,11 @@ public class CKANBackendImpl implements CKANBackend {
         // create the cache
         cache = new CKANCache(requester);
         
+        // column mode records not yet upserted, per resource id
+        pendingRecords = new LinkedHashMap<String, ArrayList<String>>();
+        pendingPositions = new LinkedHashMap<String, ArrayList<Integer>>();
+        numPendingRecords = 0;
+        
         // logger
         logger = Logger.getLogger(CKANBackendImpl.class);
     } // CKANBackendImpl
@@ -70,16 +91,16 @@ public class CKANBackendImpl implements CKANBackend {
     @Override
     public void persist(long recvTimeTs, String recvTime, String orgName, String pkgName, String resName,
         String attrName, String attrType, String attrValue, String attrMd) throws Exception {
-        logger.debug("Going to lookup for the resource id, the cache may be updated during the process (orgName="
-                + orgName + ", pkgName=" + pkgName + ", resName=" + resName + ")");
+        CygnusLogger.logDebug(logger, "Going to lookup for the resource id, the cache may be updated during the "
+                + "process (orgName={}, pkgName={}, resName={})", orgName, pkgName, resName);
         String resId = resourceLookupOrCreate(orgName, pkgName, resName, true);
         
         if (resId == null) {
             throw new CygnusRuntimeError("Cannot persist the data (orgName=" + orgName + ", pkgName=" + pkgName
                     + ", resName=" + resName + ")");
         } else {
-            logger.debug("Going to persist the data (orgName=" + orgName + ", pkgName=" + pkgName + ", resName/resId="
-                    + resName + "/" + resId + ")");
+            CygnusLogger.logDebug(logger, "Going to persist the data (orgName={}, pkgName={}, resName/resId={}/{})",
+                    orgName, pkgName, resName, resId);
             insert(recvTimeTs, recvTime, resId, attrName, attrType, attrValue, attrMd);
         } // if else
     } // persist
@@ -87,81 +108,131 @@ public class CKANBackendImpl implements CKANBackend {
     @Override
     public void persist(String recvTime, String orgName, String pkgName, String resName, Map<String, String> attrList,
         Map<String, String> attrMdList) throws Exception {
-        logger.debug("Going to lookup for the resource id, the cache may be updated during the process (orgName="
-                + orgName + ", pkgName=" + pkgName + ", resName=" + resName + ")");
+        CygnusLogger.logDebug(logger, "Going to lookup for the resource id, the cache may be updated during the "
+                + "process (orgName={}, pkgName={}, resName={})", orgName, pkgName, resName);
         String resId = resourceLookupOrCreate(orgName, pkgName, resName, false);
                 
         if (resId == null) {
             throw new CygnusRuntimeError("Cannot persist the data (orgName=" + orgName + ", pkgName=" + pkgName
                     + ", resName=" + resName + ")");
         } else {
-            logger.debug("Going to persist the data (orgName=" + orgName + ", pkgName=" + pkgName + ", resName/resId="
-                    + resName + "/" + resId + ")");
-            insert(recvTime, resId, attrList, attrMdList);
+            // create the fields not yet existing, if any
+            provisionFields(resId, attrList.keySet(), attrMdList.keySet());
+            CygnusLogger.logDebug(logger, "Going to buffer the data (orgName={}, pkgName={}, resName/resId={}/{})",
+                    orgName, pkgName, resName, resId);
+            ArrayList<String> records = pendingRecords.get(resId);
+            
+            if (records == null) {
+                records = new ArrayList<String>();
+                pendingRecords.put(resId, records);
+                pendingPositions.put(resId, new ArrayList<Integer>());
+            } // if
+            
+            records.add(buildRecord(recvTime, attrList, attrMdList));
+            pendingPositions.get(resId).add(numPendingRecords++);
         } // if else
     } // persist
     
-    private String resourceLookupOrCreate(String orgName, String pkgName, String resName, boolean createEnabled)
+    @Override
+    public void flush() throws Exception {
+        TreeMap<Integer, String> rejections = new TreeMap<Integer, String>();
+        
+        try {
+            for (Map.Entry<String, ArrayList<String>> entry : pendingRecords.entrySet()) {
+                ArrayList<Integer> positions = pendingPositions.get(entry.getKey());
+                
+                for (Map.Entry<Integer, String> rejection : insert(entry.getKey(), entry.getValue()).entrySet()) {
+                    rejections.put(positions.get(rejection.getKey()), rejection.getValue());
+                } // for
+            } // for
+        } finally {
+            // if failed, the whole batch is persisted again, thus the buffers must be emptied anyway
+            discard();
+        } // try finally
+        
+        if (!rejections.isEmpty()) {
+            throw new CygnusRejectedRows(rejections);
+        } // if
+    } // flush
+    
+    @Override
+    public void discard() {
+        pendingRecords.clear();
+        pendingPositions.clear();
+        numPendingRecords = 0;
+    } // discard
+    
+    /**
+     * Looks for the id of a resource, creating the resource (and its package and organization) if not existing.
+     * @param orgName
+     * @param pkgName
+     * @param resName
+     * @param rowMode If true, the row mode datastore is created together with the resource; otherwise, the datastore
+     * is created once the fields are known
+     * @return The resource id
+     * @throws Exception
+     */
+    private String resourceLookupOrCreate(String orgName, String pkgName, String resName, boolean rowMode)
         throws Exception {
         if (!cache.isCachedOrg(orgName)) {
             logger.debug("The organization was not cached nor existed in CKAN (orgName=" + orgName + ")");
             
-            if (createEnabled) {
-                String orgId = createOrganization(orgName);
-                cache.addOrg(orgName);
-                cache.setOrgId(orgName, orgId);
-                String pkgId = createPackage(pkgName, orgId);
-                cache.addPkg(orgName, pkgName);
-                cache.setPkgId(pkgName, pkgId);
-                String resId = createResource(resName, pkgId);
-                cache.addRes(orgName, pkgName, resName);
-                cache.setResId(resName, resId);
+            String orgId = createOrganization(orgName);
+            cache.addOrg(orgName);
+            cache.setOrgId(orgName, orgId);
+            String pkgId = createPackage(pkgName, orgId);
+            cache.addPkg(orgName, pkgName);
+            cache.setPkgId(pkgName, pkgId);
+            String resId = createResource(resName, pkgId);
+            cache.addRes(orgName, pkgName, resName);
+            cache.setResId(resName, resId);
+            
+            if (rowMode) {
                 createDataStore(resId);
-                return resId;
-            } else {
-                return null;
-            } // if else
+            } // if
+            
+            return resId;
         } // if
         
-        logger.debug("The organization was cached (orgName=" + orgName + ")");
+        CygnusLogger.logDebug(logger, "The organization was cached (orgName={})", orgName);
         
         if (!cache.isCachedPkg(orgName, pkgName)) {
             logger.debug("The package was not cached nor existed in CKAN (orgName=" + orgName + ", pkgName="
                     + pkgName + ")");
             
-            if (createEnabled) {
-                String pkgId = createPackage(pkgName, cache.getOrgId(orgName));
-                cache.addPkg(orgName, pkgName);
-                cache.setPkgId(pkgName, pkgId);
-                String resId = createResource(resName, pkgId);
-                cache.addRes(orgName, pkgName, resName);
-                cache.setResId(resName, resId);
+            String pkgId = createPackage(pkgName, cache.getOrgId(orgName));
+            cache.addPkg(orgName, pkgName);
+            cache.setPkgId(pkgName, pkgId);
+            String resId = createResource(resName, pkgId);
+            cache.addRes(orgName, pkgName, resName);
+            cache.setResId(resName, resId);
+            
+            if (rowMode) {
                 createDataStore(resId);
-                return resId;
-            } else {
-                return null;
-            } // if else
+            } // if
+            
+            return resId;
         } // if
         
-        logger.debug("The package was cached (orgName=" + orgName + ", pkgName=" + pkgName + ")");
+        CygnusLogger.logDebug(logger, "The package was cached (orgName={}, pkgName={})", orgName, pkgName);
         
         if (!cache.isCachedRes(orgName, pkgName, resName)) {
             logger.debug("The resource was not cached nor existed in CKAN (orgName=" + orgName + ", pkgName=" + pkgName
                     + ", resName=" + resName + ")");
             
-            if (createEnabled) {
-                String resId = this.createResource(resName, cache.getPkgId(pkgName));
-                cache.addRes(orgName, pkgName, resName);
-                cache.setResId(resName, resId);
+            String resId = this.createResource(resName, cache.getPkgId(pkgName));
+            cache.addRes(orgName, pkgName, resName);
+            cache.setResId(resName, resId);
+            
+            if (rowMode) {
                 createDataStore(resId);
-                return resId;
-            } else {
-                return null;
-            } // if else
+            } // if
+            
+            return resId;
         } // if
         
-        logger.debug("The resource was cached (orgName=" + orgName + ", pkgName=" + pkgName + ", resName=" + resName
-                + ")");
+        CygnusLogger.logDebug(logger, "The resource was cached (orgName={}, pkgName={}, resName={})", orgName, pkgName,
+                resName);
         
         return cache.getResId(resName);
     } // resourceLookupOrCreate
@@ -208,7 +279,7 @@ public class CKANBackendImpl implements CKANBackend {
 
             // check the status
             if (res.getStatusCode() == 200) {
-                logger.debug("Successful insert (resource/datastore id=" + resourceId + ")");
+                CygnusLogger.logDebug(logger, "Successful insert (resource/datastore id={})", resourceId);
             } else {
                 throw new CygnusRuntimeError("Don't know how to treat response code " + res.getStatusCode());
             } // if else
@@ -224,45 +295,100 @@ public class CKANBackendImpl implements CKANBackend {
     } // insert
 
     /**
-     * Insert record in datastore (column mode).
+     * Builds a record of a datastore (column mode).
      * @param recvTime timestamp (human readable)
-     * @param resId the resource in which datastore the record is going to be inserted.
      * @param attrList map with the attributes to persist
+     * @param attrMdList map with the metadata to persist
+     * @return The record, as a Json object
+     */
+    private String buildRecord(String recvTime, Map<String, String> attrList, Map<String, String> attrMdList) {
+        String record = "\"" + Constants.RECV_TIME + "\": \"" + recvTime + "\"";
+
+        // iterate on the attribute and metadata maps in order to build the record
+        Iterator it = attrList.keySet().iterator();
+
+        while (it.hasNext()) {
+            String attrName = (String) it.next();
+            String attrValue = attrList.get(attrName);
+            record += ", \"" + attrName + "\": " + attrValue;
+        } // while
+
+        it = attrMdList.keySet().iterator();
+
+        while (it.hasNext()) {
+            String attrName = (String) it.next();
+            String attrMd = attrMdList.get(attrName);
+
+            // metadata is an special case, because CKAN doesn't support empty array, e.g. "[ ]"
+            // (http://stackoverflow.com/questions/24207065/inserting-empty-arrays-in-json-type-fields-in-datastore)
+            if (!attrMd.equals(Constants.EMPTY_MD)) {
+                record += ", \"" + attrName + "\": " + attrMd;
+            } // if
+        } // while
+        
+        return "{ " + record + " }";
+    } // buildRecord
+
+    /**
+     * Insert records in datastore (column mode), all of them within the same request. If the request is rejected
+     * because of the data of certain records, the records are inserted one by one, thus all of them but the bad ones
+     * are persisted.
+     * @param resId the resource in which datastore the records are going to be inserted.
+     * @param records the records, as Json objects
+     * @return The reason of the rejection of each rejected record, by position within the given records
      * @throws Exception
      */
-    private void insert(String recvTime, String resourceId, Map<String, String> attrList,
-            Map<String, String> attrMdList) throws Exception {
+    private Map<Integer, String> insert(String resourceId, List<String> records) throws Exception {
+        TreeMap<Integer, String> rejections = new TreeMap<Integer, String>();
+        CKANResponse res = upsert(resourceId, records);
+
+        // check the status
+        if (res.getStatusCode() == 200) {
+            CygnusLogger.logDebug(logger, "Successful insert (resource/datastore id={}, records={})", resourceId,
+                    records.size());
+            return rejections;
+        } // if
+        
+        checkDataError(resourceId, res);
+        
+        // a single bad record makes the whole request fail, thus the records are inserted one by one
+        logger.warn("The records could not be inserted in a single request, inserting them one by one "
+                + "(resource/datastore id=" + resourceId + ", records=" + records.size() + ", details="
+                + res.getJsonObject() + ")");
+        
+        for (int i = 0; i < records.size(); i++) {
+            res = upsert(resourceId, records.subList(i, i + 1));
+            
+            if (res.getStatusCode() != 200) {
+                checkDataError(resourceId, res);
+                rejections.put(i, "CKAN response code " + res.getStatusCode() + ", " + res.getJsonObject());
+            } // if
+        } // for
+        
+        return rejections;
+    } // insert
+    
+    /**
+     * Does a datastore_upsert request inserting the given records (column mode).
+     * @param resourceId
+     * @param records the records, as Json objects
+     * @return The CKAN response
+     * @throws Exception
+     */
+    private CKANResponse upsert(String resourceId, List<String> records) throws Exception {
         String urlPath = null;
         String jsonString = null;
         
         try {
             // create the CKAN request JSON
-            String records = "\"" + Constants.RECV_TIME + "\": \"" + recvTime + "\"";
-
-            // iterate on the attribute and metadata maps in order to build the query
-            Iterator it = attrList.keySet().iterator();
-
-            while (it.hasNext()) {
-                String attrName = (String) it.next();
-                String attrValue = attrList.get(attrName);
-                records += ", \"" + attrName + "\": " + attrValue;
-            } // while
-
-            it = attrMdList.keySet().iterator();
-
-            while (it.hasNext()) {
-                String attrName = (String) it.next();
-                String attrMd = attrMdList.get(attrName);
-
-                // metadata is an special case, because CKAN doesn't support empty array, e.g. "[ ]"
-                // (http://stackoverflow.com/questions/24207065/inserting-empty-arrays-in-json-type-fields-in-datastore)
-                if (!attrMd.equals(Constants.EMPTY_MD)) {
-                    records += ", \"" + attrName + "\": " + attrMd;
-                } // if
-            } // while
+            StringBuilder recordList = new StringBuilder();
+            
+            for (String record : records) {
+                recordList.append(recordList.length() == 0 ? "" : ", ").append(record);
+            } // for
 
             jsonString = "{ \"resource_id\": \"" + resourceId
-                    + "\", \"records\": [ { " + records + " } ], "
+                    + "\", \"records\": [ " + recordList + " ], "
                     + "\"method\": \"insert\", "
                     + "\"force\": \"true\" }";
             
@@ -270,14 +396,7 @@ public class CKANBackendImpl implements CKANBackend {
             urlPath = "/api/3/action/datastore_upsert";
         
             // do the CKAN request
-            CKANResponse res = requester.doCKANRequest("POST", urlPath, jsonString);
-
-            // check the status
-            if (res.getStatusCode() == 200) {
-                logger.debug("Successful insert (resource/datastore id=" + resourceId + ")");
-            } else {
-                throw new CygnusRuntimeError("Don't know how to treat response code " + res.getStatusCode());
-            } // if else
+            return requester.doCKANRequest("POST", urlPath, jsonString);
         } catch (Exception e) {
             if (e instanceof CygnusRuntimeError
                     || e instanceof CygnusPersistenceError
@@ -287,7 +406,75 @@ public class CKANBackendImpl implements CKANBackend {
                 throw new CygnusRuntimeError(e.getMessage());
             } // if else
         } // try catch
-    } // insert
+    } // upsert
+    
+    /**
+     * Checks a not successful datastore_upsert response is because of the data of the records, i.e. Bad Request or
+     * Conflict (a CKAN validation error), throwing an error otherwise.
+     * @param resourceId
+     * @param res
+     * @throws Exception
+     */
+    private void checkDataError(String resourceId, CKANResponse res) throws Exception {
+        // the datastore may have been changed by others, thus its fields are queried again next time
+        cache.removeFields(resourceId);
+        
+        if (res.getStatusCode() != 400 && res.getStatusCode() != 409) {
+            throw new CygnusRuntimeError("Don't know how to treat response code " + res.getStatusCode());
+        } // if
+    } // checkDataError
+    
+    /**
+     * Makes sure the datastore of a resource has a field per given attribute and metadata (column mode), creating the
+     * datastore if not existing and adding the missing fields otherwise. Nothing is requested if the cache already
+     * has all the fields.
+     * @param resourceId
+     * @param attrNames
+     * @param mdNames
+     * @throws Exception
+     */
+    private void provisionFields(String resourceId, Collection<String> attrNames, Collection<String> mdNames)
+        throws Exception {
+        LinkedHashMap<String, String> fields = cache.getFields(resourceId);
+        LinkedHashMap<String, String> newFields = new LinkedHashMap<String, String>();
+        
+        // CKAN types reference: http://docs.ckan.org/en/ckan-2.2/datastore.html#valid-types
+        if (!fields.containsKey(Constants.RECV_TIME)) {
+            newFields.put(Constants.RECV_TIME, "timestamp");
+        } // if
+        
+        for (String attrName : attrNames) {
+            if (!fields.containsKey(attrName)) {
+                newFields.put(attrName, "json");
+            } // if
+        } // for
+        
+        for (String mdName : mdNames) {
+            if (!fields.containsKey(mdName)) {
+                newFields.put(mdName, "json");
+            } // if
+        } // for
+        
+        if (newFields.isEmpty()) {
+            return;
+        } // if
+        
+        // CKAN requires the existing fields as well, in the same order, followed by the new ones
+        LinkedHashMap<String, String> allFields = new LinkedHashMap<String, String>(fields);
+        allFields.putAll(newFields);
+        
+        try {
+            createDataStore(resourceId, allFields);
+        } catch (Exception e) {
+            // e.g. the fields were added by others at the same time
+            cache.removeFields(resourceId);
+            throw e;
+        } // try catch
+        
+        cache.setFields(resourceId, allFields);
+        logger.info("CKAN datastore provisioned (resourceId=" + resourceId + ", newFields=" + newFields.keySet()
+                + ")");
+    } // provisionFields
 
     /**
      * Creates an organization in CKAN.
@@ -417,23 +604,40 @@ public class CKANBackendImpl implements CKANBackend {
     } // createResource
 
     /**
-     * Creates a datastore for a given resource in CKAN.
+     * Creates a datastore for a given resource in CKAN (row mode).
      * @param resId Identifies the resource whose datastore is going to be created.
      * @throws Exception
      */
     private void createDataStore(String resourceId) throws Exception {
+        // CKAN types reference: http://docs.ckan.org/en/ckan-2.2/datastore.html#valid-types
+        LinkedHashMap<String, String> fields = new LinkedHashMap<String, String>();
+        fields.put(Constants.RECV_TIME_TS, "int");
+        fields.put(Constants.RECV_TIME, "timestamp");
+        fields.put(Constants.ATTR_NAME, "text");
+        fields.put(Constants.ATTR_TYPE, "text");
+        fields.put(Constants.ATTR_VALUE, "json");
+        fields.put(Constants.ATTR_MD, "json");
+        createDataStore(resourceId, fields);
+    } // createDataStore
+    
+    /**
+     * Creates a datastore for a given resource in CKAN, or adds fields to an already existing one.
+     * @param resId Identifies the resource whose datastore is going to be created.
+     * @param fields Name and CKAN type of each field; if the datastore exists, its fields must be the first ones
+     * @throws Exception
+     */
+    private void createDataStore(String resourceId, Map<String, String> fields) throws Exception {
         try {
             // create the CKAN request JSON
-            // CKAN types reference: http://docs.ckan.org/en/ckan-2.2/datastore.html#valid-types
+            StringBuilder fieldList = new StringBuilder();
+            
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                fieldList.append(fieldList.length() == 0 ? "" : ",").append("{ \"id\": \"").append(field.getKey())
+                        .append("\", \"type\": \"").append(field.getValue()).append("\"}");
+            } // for
+            
             String jsonString = "{ \"resource_id\": \"" + resourceId
-                    + "\", \"fields\": [ "
-                    + "{ \"id\": \"" + Constants.RECV_TIME_TS + "\", \"type\": \"int\"},"
-                    + "{ \"id\": \"" + Constants.RECV_TIME + "\", \"type\": \"timestamp\"},"
-                    + "{ \"id\": \"" + Constants.ATTR_NAME + "\", \"type\": \"text\"},"
-                    + "{ \"id\": \"" + Constants.ATTR_TYPE + "\", \"type\": \"text\"},"
-                    + "{ \"id\": \"" + Constants.ATTR_VALUE + "\", \"type\": \"json\"},"
-                    + "{ \"id\": \"" + Constants.ATTR_MD + "\", \"type\": \"json\"}"
-                    + "], "
+                    + "\", \"fields\": [ " + fieldList + "], "
                     + "\"force\": \"true\" }";
             
             // create the CKAN request URL
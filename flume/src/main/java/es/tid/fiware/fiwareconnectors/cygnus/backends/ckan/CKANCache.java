@@ -20,9 +20,11 @@ package es.tid.fiware.fiwareconnectors.cygnus.backends.ckan;
 
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRuntimeError;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import org.apache.log4j.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -39,6 +41,7 @@ public class CKANCache {
     private HashMap<String, String> orgMap; // this cache contains the translation from organization name to identifier
     private HashMap<String, String> pkgMap; // this cache contains the translation from package name to identifier
     private HashMap<String, String> resMap; // this cache contains the translation from resource name to identifier
+    private HashMap<String, LinkedHashMap<String, String>> fieldsMap; // this cache contains the datastore fields
     private String ckanVersion;
     
     /**
@@ -51,6 +54,7 @@ public class CKANCache {
         orgMap = new HashMap<String, String>();
         pkgMap = new HashMap<String, String>();
         resMap = new HashMap<String, String>();
+        fieldsMap = new HashMap<String, LinkedHashMap<String, String>>();
         
         // get the CKAN version (just once)
         logger.debug("Going to get the CKAN version");
@@ -152,11 +156,12 @@ public class CKANCache {
     public boolean isCachedOrg(String orgName) throws Exception {
         // check if the organization has already been cached
         if (tree.containsKey(orgName)) {
-            logger.debug("Organization found in the cache (orgName=" + orgName + ")");
+            CygnusLogger.logDebug(logger, "Organization found in the cache (orgName={})", orgName);
             return true;
         } // if
         
-        logger.debug("Organization not found in the cache, querying CKAN for it (orgName=" + orgName + ")");
+        CygnusLogger.logDebug(logger, "Organization not found in the cache, querying CKAN for it (orgName={})",
+                orgName);
         
         // query CKAN for the organization information
         String ckanURL = "/api/3/action/organization_show?id=" + orgName;
@@ -203,12 +208,12 @@ public class CKANCache {
     public boolean isCachedPkg(String orgName, String pkgName) throws Exception {
         // check if the package has already been cached
         if (tree.get(orgName).containsKey(pkgName)) {
-            logger.debug("Package found in the cache (orgName=" + orgName + ", pkgName=" + pkgName + ")");
+            CygnusLogger.logDebug(logger, "Package found in the cache (orgName={}, pkgName={})", orgName, pkgName);
             return true;
         } // if
         
-        logger.debug("Package not found in the cache, querying CKAN for it (orgName=" + orgName + ", pkgName="
-                + pkgName + ")");
+        CygnusLogger.logDebug(logger, "Package not found in the cache, querying CKAN for it (orgName={}, pkgName={})",
+                orgName, pkgName);
         
         // query CKAN for the organization information
         String ckanURL = "/api/3/action/package_show?id=" + pkgName;
@@ -257,13 +262,13 @@ public class CKANCache {
     public boolean isCachedRes(String orgName, String pkgName, String resName) throws Exception {
         // check if the resource has already been cached
         if (tree.get(orgName).get(pkgName).contains(resName)) {
-            logger.debug("Resource found in the cache (orgName=" + orgName + ", pkgName=" + pkgName + ", resName="
-                    + resName + ")");
+            CygnusLogger.logDebug(logger, "Resource found in the cache (orgName={}, pkgName={}, resName={})", orgName,
+                    pkgName, resName);
             return true;
         } // if
         
-        logger.debug("Resource not found in the cache, querying CKAN for the whole package containing it (orgName="
-                + orgName + ", pkgName=" + pkgName + ", resName=" + resName + ")");
+        CygnusLogger.logDebug(logger, "Resource not found in the cache, querying CKAN for the whole package "
+                + "containing it (orgName={}, pkgName={}, resName={})", orgName, pkgName, resName);
         
         // reached this point, we need to query CKAN about the resource, in order to know if it exists in CKAN
         // nevertheless, the CKAN API allows us to query for a certain resource by id, not by name...
@@ -296,6 +301,72 @@ public class CKANCache {
         } // if else
     } // isCachedRes
 
+    /**
+     * Gets the fields of the datastore of a resource, in the same order than in the datastore. If not cached, CKAN is
+     * queried in order to update the cache.
+     * @param resId Resource id
+     * @return The name and the CKAN type of each field (the internal ones, such as _id, are not included); empty if the
+     * resource has no datastore yet
+     * @throws Exception
+     */
+    public LinkedHashMap<String, String> getFields(String resId) throws Exception {
+        LinkedHashMap<String, String> fields = fieldsMap.get(resId);
+        
+        // check if the fields have already been cached
+        if (fields != null) {
+            CygnusLogger.logDebug(logger, "Datastore fields found in the cache (resId={})", resId);
+            return fields;
+        } // if
+        
+        CygnusLogger.logDebug(logger, "Datastore fields not found in the cache, querying CKAN for them (resId={})",
+                resId);
+        
+        // query CKAN for the datastore information, no record is needed
+        String ckanURL = "/api/3/action/datastore_search?resource_id=" + resId + "&limit=0";
+        CKANResponse res = requester.doCKANRequest("GET", ckanURL);
+        fields = new LinkedHashMap<String, String>();
+        
+        if (res.getStatusCode() == 200) {
+            JSONObject result = (JSONObject) res.getJsonObject().get("result");
+            Iterator<JSONObject> iterator = ((JSONArray) result.get("fields")).iterator();
+            
+            while (iterator.hasNext()) {
+                JSONObject field = iterator.next();
+                String fieldName = field.get("id").toString();
+                
+                if (!fieldName.startsWith("_")) {
+                    fields.put(fieldName, field.get("type").toString());
+                } // if
+            } // while
+            
+            logger.debug("Datastore found in CKAN, now cached (resId=" + resId + ", fields=" + fields.keySet() + ")");
+        } else if (res.getStatusCode() == 404) {
+            logger.debug("Datastore not found in CKAN, it has no fields (resId=" + resId + ")");
+        } else {
+            throw new CygnusRuntimeError("Don't know how to treat response code " + res.getStatusCode() + ")");
+        } // if else if else
+        
+        fieldsMap.put(resId, fields);
+        return fields;
+    } // getFields
+    
+    /**
+     * Sets the fields of the datastore of a resource, given its id.
+     * @param resId Resource id
+     * @param fields Name and CKAN type of each field, in order
+     */
+    public void setFields(String resId, LinkedHashMap<String, String> fields) {
+        fieldsMap.put(resId, fields);
+    } // setFields
+    
+    /**
+     * Removes the fields of the datastore of a resource from the cache, thus they are queried again the next time.
+     * @param resId Resource id
+     */
+    public void removeFields(String resId) {
+        fieldsMap.remove(resId);
+    } // removeFields
+    
     /**
      * Populates the package map of a given orgName with the package information from the CKAN response.
      * @param packages JSON vector from the CKAN response containing package information
@@ -21,6 +21,8 @@ package es.tid.fiware.fiwareconnectors.cygnus.backends.ckan;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRuntimeError;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import org.apache.http.HttpResponse;
@@ -78,6 +80,35 @@ public class CKANRequester {
      */
     public CKANResponse doCKANRequest(String method, String urlPath, String payload)
         throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            CKANResponse response = doTimedCKANRequest(method, urlPath, payload);
+            success = response.getStatusCode() < 300;
+            return response;
+        } finally {
+            BackendLatency.record("ckan", getOperation(urlPath), success, start);
+        } // try finally
+    } // doCKANRequest
+    
+    /**
+     * Gets the operation name of a CKAN API URL path, i.e. the last path element without the query string, e.g.
+     * "package_show" for "/api/3/action/package_show?id=xxx".
+     * @param urlPath
+     * @return The operation name
+     */
+    protected static String getOperation(String urlPath) {
+        int end = urlPath.indexOf('?');
+        
+        if (end < 0) {
+            end = urlPath.length();
+        } // if
+        
+        return urlPath.substring(urlPath.lastIndexOf('/', end - 1) + 1, end);
+    } // getOperation
+    
+    private CKANResponse doTimedCKANRequest(String method, String urlPath, String payload) throws Exception {
         // build the final URL
         String url = baseURL + urlPath;
         
@@ -93,7 +124,7 @@ public class CKANRequester {
 
                 // payload (optional)
                 if (!payload.equals("")) {
-                    logger.debug("request payload: " + payload);
+                    CygnusLogger.logDebug(logger, "request payload: {}", payload);
                     r.setEntity(new StringEntity(payload, ContentType.create("application/json")));
                 } // if
                 
@@ -106,7 +137,7 @@ public class CKANRequester {
             request.addHeader("Authorization", apiKey);
 
             // execute the request
-            logger.debug("CKAN operation: " + request.toString());
+            CygnusLogger.logDebug(logger, "CKAN operation: {}", request);
         } catch (Exception e) {
             if (e instanceof CygnusRuntimeError
                     || e instanceof CygnusPersistenceError
@@ -128,15 +159,23 @@ public class CKANRequester {
             String res = reader.readLine();
             request.releaseConnection();
             long l = response.getEntity().getContentLength();
-            logger.debug("CKAN response (" + l + " bytes): " + response.getStatusLine().toString());
+            CygnusLogger.logDebug(logger, "CKAN response ({} bytes): {}", l, response.getStatusLine());
+            int statusCode = response.getStatusLine().getStatusCode();
+            
+            // the server errors, timeouts and throttling are not about the data, thus the request is retried later as
+            // when CKAN cannot be connected; besides, their payload may not be JSON
+            if (statusCode >= 500 || statusCode == 408 || statusCode == 429) {
+                throw new CygnusPersistenceError("CKAN is not available (respCode=" + statusCode + ", payload=" + res
+                        + ")");
+            } // if
 
             // get the JSON encapsulated in the response
-            logger.debug("response payload: " + res);
+            CygnusLogger.logDebug(logger, "response payload: {}", res);
             JSONParser j = new JSONParser();
             JSONObject o = (JSONObject) j.parse(res);
 
             // return result
-            return new CKANResponse(o, response.getStatusLine().getStatusCode());
+            return new CKANResponse(o, statusCode);
         } catch (Exception e) {
             if (e instanceof CygnusRuntimeError
                     || e instanceof CygnusPersistenceError
@@ -146,6 +185,6 @@ public class CKANRequester {
                 throw new CygnusRuntimeError(e.getMessage());
             } // if else
         } // try catch
-    } // doCKANRequest
+    } // doTimedCKANRequest
     
 } // CKANRequester
@@ -19,9 +19,11 @@
 package es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs;
 
 import es.tid.fiware.fiwareconnectors.cygnus.backends.hive.HiveBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.hive.HiveProvisioner;
 import es.tid.fiware.fiwareconnectors.cygnus.http.HttpClientFactory;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Utils;
+import java.io.File;
 import java.util.Arrays;
 import java.util.LinkedList;
 import org.apache.http.client.HttpClient;
@@ -34,6 +36,11 @@ import org.apache.log4j.Logger;
  */
 public abstract class HDFSBackend {
     
+    // failed Hive table creations are retried up to this number of times, with exponential backoff
+    private static final int HIVE_MAX_ATTEMPTS = 5;
+    private static final long HIVE_INITIAL_BACKOFF_MS = 1000;
+    private static final long HIVE_MAX_BACKOFF_MS = 60000;
+    
     protected LinkedList<String> cosmosHost; // a linked list is used because the order is important
     protected String cosmosPort;
     protected String cosmosDefaultUsername;
@@ -45,6 +52,8 @@ public abstract class HDFSBackend {
     protected boolean krb5;
     protected String krb5User;
     protected String krb5Password;
+    protected String hiveRegistryFile;
+    private HiveProvisioner hiveProvisioner;
     private final Logger logger;
     
     /**
@@ -90,9 +99,58 @@ public abstract class HDFSBackend {
     protected void setHttpClient(HttpClient httpClient) {
         this.httpClient = httpClient;
     } // setHttpClient
+    
+    /**
+     * Sets the file where the provisioned Hive tables are persisted. It must be set before provisioning any table.
+     * @param hiveRegistryFile Registry file, null or empty means the registry is not persisted
+     */
+    public void setHiveRegistryFile(String hiveRegistryFile) {
+        this.hiveRegistryFile = hiveRegistryFile;
+    } // setHiveRegistryFile
+    
+    /**
+     * Sets the Hive provisioner. This is protected since it is only used by the tests.
+     * @param hiveProvisioner
+     */
+    protected synchronized void setHiveProvisioner(HiveProvisioner hiveProvisioner) {
+        this.hiveProvisioner = hiveProvisioner;
+    } // setHiveProvisioner
+    
+    /**
+     * Gets the Hive provisioner, creating it if not yet created.
+     * @return The Hive provisioner
+     */
+    protected synchronized HiveProvisioner getHiveProvisioner() {
+        if (hiveProvisioner == null) {
+            HiveBackend hiveClient = new HiveBackend(hiveHost, hivePort, cosmosDefaultUsername, cosmosDefaultPassword);
+            hiveProvisioner = new HiveProvisioner(hiveClient, hiveRegistryFile, HIVE_MAX_ATTEMPTS,
+                    HIVE_INITIAL_BACKOFF_MS, HIVE_MAX_BACKOFF_MS);
+        } // if
+        
+        return hiveProvisioner;
+    } // getHiveProvisioner
+    
+    /**
+     * Closes the backend, stopping the Hive provisioning.
+     */
+    public synchronized void close() {
+        if (hiveProvisioner != null) {
+            hiveProvisioner.stop();
+            hiveProvisioner = null;
+        } // if
+    } // close
+    
+    /**
+     * Makes the data written so far visible to the readers. It is invoked once per batch; nothing is done by default
+     * since each request of the REST based APIs is already committed when answered.
+     * @throws Exception
+     */
+    public void sync() throws Exception {
+    } // sync
 
     /**
-     * Provisions a Hive external table (row mode).
+     * Provisions a Hive external table (row mode). The table is created in background, thus this method never waits
+     * for Hive; nothing is done if the table has already been provisioned or queued.
      * @param username
      * @param dirPath
      * @throws Exception
@@ -101,10 +159,11 @@ public abstract class HDFSBackend {
         // get the table name to be created
         // the replacement is necessary because Hive, due it is similar to MySQL, does not accept '-' in the table names
         String tableName = Utils.encodeHive(username + "_" + dirPath) + "_row";
-        logger.info("Creating Hive external table=" + tableName);
+        HiveProvisioner provisioner = getHiveProvisioner();
         
-        // get a Hive client
-        HiveBackend hiveClient = new HiveBackend(hiveHost, hivePort, cosmosDefaultUsername, cosmosDefaultPassword);
+        if (provisioner.isProvisioned(tableName)) {
+            return;
+        } // if
 
         // create the standard 8-fields
         String fields = "("
@@ -119,19 +178,16 @@ public abstract class HDFSBackend {
                 + ")";
 
         // create the query
-        
-        String query = "create external table " + tableName + " " + fields + " row format serde "
+        String query = "create external table if not exists " + tableName + " " + fields + " row format serde "
                 + "'org.openx.data.jsonserde.JsonSerDe' location '/user/" + username + "/" + dirPath + "'";
 
-        // execute the query
-        if (!hiveClient.doCreateTable(query)) {
-            logger.warn("The HiveQL external table could not be created, but Cygnus can continue working... "
-                    + "Check your Hive/Shark installation");
-        } // if
+        // queue the query, it will be executed in background
+        provisioner.provision(tableName, query);
     } // provisionHiveTable
     
     /**
-     * Provisions a Hive external table (column mode).
+     * Provisions a Hive external table (column mode). The table is created in background, thus this method never
+     * waits for Hive; nothing is done if the table has already been provisioned or queued.
      * @param username
      * @param dirPath
      * @param fields
@@ -141,22 +197,47 @@ public abstract class HDFSBackend {
         // get the table name to be created
         // the replacement is necessary because Hive, due it is similar to MySQL, does not accept '-' in the table names
         String tableName = Utils.encodeHive(username + "_" + dirPath) + "_column";
-        logger.info("Creating Hive external table=" + tableName);
+        HiveProvisioner provisioner = getHiveProvisioner();
         
-        // get a Hive client
-        HiveBackend hiveClient = new HiveBackend(hiveHost, hivePort, cosmosDefaultUsername, cosmosDefaultPassword);
+        if (provisioner.isProvisioned(tableName)) {
+            return;
+        } // if
         
         // create the query
-        String query = "create external table " + tableName + " (" + fields + ") row format serde "
+        String query = "create external table if not exists " + tableName + " (" + fields + ") row format serde "
                 + "'org.openx.data.jsonserde.JsonSerDe' location '/user/" + username + "/" + dirPath + "'";
 
-        // execute the query
-        if (!hiveClient.doCreateTable(query)) {
-            logger.warn("The HiveQL external table could not be created, but Cygnus can continue working... "
-                    + "Check your Hive/Shark installation");
-        } // if
+        // queue the query, it will be executed in background
+        provisioner.provision(tableName, query);
     } // provisionHiveTable
     
+    /**
+     * Provisions a Hive external table on ORC files. The table is created in background, thus this method never waits
+     * for Hive; nothing is done if the table has already been provisioned or queued.
+     * @param username
+     * @param dirPath
+     * @param fields Hive columns, e.g. "recvTime string,temperature string,temperature_md array<string>"
+     * @param rowMode True if the columns are the standard 8-fields (row mode), false otherwise (column mode)
+     * @throws Exception
+     */
+    public void provisionORCHiveTable(String username, String dirPath, String fields, boolean rowMode)
+        throws Exception {
+        // get the table name to be created; it differs from the Json based one, thus both can not be confused
+        String tableName = Utils.encodeHive(username + "_" + dirPath) + (rowMode ? "_row_orc" : "_column_orc");
+        HiveProvisioner provisioner = getHiveProvisioner();
+        
+        if (provisioner.isProvisioned(tableName)) {
+            return;
+        } // if
+        
+        // create the query
+        String query = "create external table if not exists " + tableName + " (" + fields + ") stored as orc "
+                + "location '/user/" + username + "/" + dirPath + "'";
+
+        // queue the query, it will be executed in background
+        provisioner.provision(tableName, query);
+    } // provisionORCHiveTable
+    
     /**
      * Creates a directory in HDFS such as hdfs:///user/<username>/<organization>/<dirPath>/. If username is null, the
      * default one is used. If organization is null, the default one is used.
@@ -178,6 +259,18 @@ public abstract class HDFSBackend {
      */
     public abstract void createFile(String username, String filePath, String data)
         throws Exception;
+    
+    /**
+     * Creates a file in HDFS with initial binary content, e.g. compressed data, such as
+     * hdfs:///user/<username>/<filePath>. Nothing is added to the given data.
+     * 
+     * @param username Cosmos username
+     * @param filePath File to be created
+     * @param data Data to be written in the created file
+     * @throws Exception
+     */
+    public abstract void createFile(String username, String filePath, byte[] data) throws Exception;
+    
     /**
      * Appends data to an existent file in HDFS.
      * 
@@ -188,6 +281,17 @@ public abstract class HDFSBackend {
      */
     public abstract void append(String username, String filePath, String data)
         throws Exception;
+    
+    /**
+     * Appends binary data, e.g. compressed data, to an existent file in HDFS. Nothing is added to the given data.
+     * 
+     * @param username Cosmos username
+     * @param filePath File to be appended
+     * @param data Data to be appended in the file
+     * @throws Exception
+     */
+    public abstract void append(String username, String filePath, byte[] data) throws Exception;
+    
     /**
      * Checks if the file exists in HDFS.
      * 
@@ -198,4 +302,33 @@ public abstract class HDFSBackend {
      */
     public abstract boolean exists(String username, String filePath) throws Exception;
     
+    /**
+     * Uploads a local file to HDFS such as hdfs:///user/<username>/<filePath>, overwriting it if already existing.
+     * 
+     * @param username Cosmos username
+     * @param filePath File to be created
+     * @param localFile Local file whose content is uploaded
+     * @throws Exception
+     */
+    public abstract void uploadFile(String username, String filePath, File localFile) throws Exception;
+    
+    /**
+     * Renames a file in HDFS. The renaming is atomic, thus it is used for committing the uploaded files.
+     * 
+     * @param username Cosmos username
+     * @param srcPath File to be renamed
+     * @param dstPath New name of the file
+     * @throws Exception
+     */
+    public abstract void rename(String username, String srcPath, String dstPath) throws Exception;
+    
+    /**
+     * Deletes a file in HDFS, if existing.
+     * 
+     * @param username Cosmos username
+     * @param filePath File to be deleted
+     * @throws Exception
+     */
+    public abstract void delete(String username, String filePath) throws Exception;
+    
 } // HDFSBackend
@@ -18,8 +18,13 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRuntimeError;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
+import java.io.File;
 import java.io.IOException;
 import java.security.AccessController;
 import java.security.Principal;
@@ -35,16 +40,23 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 /**
@@ -82,86 +94,235 @@ public class HDFSBackendImpl extends HDFSBackend {
    
     @Override
     public void createDir(String username, String dirPath) throws Exception {
-        String relativeURL = "/webhdfs/v1/user/" + username + "/" + dirPath + "?op=mkdirs&user.name=" + username;
-        HttpResponse response = doHDFSRequest("PUT", relativeURL, true, null, null);
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            String relativeURL = "/webhdfs/v1/user/" + username + "/" + dirPath + "?op=mkdirs&user.name=" + username;
+            HttpResponse response = doHDFSRequest("PUT", relativeURL, true, null, null);
 
-        // check the status
-        if (response.getStatusLine().getStatusCode() != 200) {
-            throw new CygnusPersistenceError("The " + dirPath + " directory could not be created in HDFS. "
-                    + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
-                    + response.getStatusLine().getReasonPhrase());
-        } // if
+            // check the status
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new CygnusPersistenceError("The " + dirPath + " directory could not be created in HDFS. "
+                        + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
+                        + response.getStatusLine().getReasonPhrase());
+            } // if
+            
+            success = true;
+        } finally {
+            BackendLatency.record("hdfs", "createDir", success, start);
+        } // try finally
     } // createDir
     
     @Override
     public void createFile(String username, String filePath, String data)
         throws Exception {
-        String relativeURL = "/webhdfs/v1/user/" + username + "/" + filePath + "?op=create&user.name=" + username;
-        HttpResponse response = doHDFSRequest("PUT", relativeURL, true, null, null);
-        
-        // check the status
-        if (response.getStatusLine().getStatusCode() != 307) {
-            throw new CygnusPersistenceError("The " + filePath + " file could not be created in HDFS. "
-                    + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
-                    + response.getStatusLine().getReasonPhrase());
-        } // if
-        
-        // get the redirection location
-        Header header = response.getHeaders("Location")[0];
-        String absoluteURL = header.getValue();
-
-        // do second step
-        ArrayList<Header> headers = new ArrayList<Header>();
-        headers.add(new BasicHeader("Content-Type", "application/octet-stream"));
-        response = doHDFSRequest("PUT", absoluteURL, false, headers, new StringEntity(data + "\n"));
+        createFile(username, filePath, false, new StringEntity(data + "\n"), "createFile");
+    } // createFile
     
-        // check the status
-        if (response.getStatusLine().getStatusCode() != 201) {
-            throw new CygnusPersistenceError(filePath + " file created in HDFS, but could not write the "
-                    + "data. HttpFS response: " + response.getStatusLine().getStatusCode() + " "
-                    + response.getStatusLine().getReasonPhrase());
-        } // if
+    @Override
+    public void createFile(String username, String filePath, byte[] data) throws Exception {
+        createFile(username, filePath, false, new ByteArrayEntity(data), "createFile");
     } // createFile
     
     @Override
     public void append(String username, String filePath, String data) throws Exception {
-        String relativeURL = "/webhdfs/v1/user/" + username + "/" + filePath + "?op=append&user.name=" + username;
-        HttpResponse response = doHDFSRequest("POST", relativeURL, true, null, null);
-
-        // check the status
-        if (response.getStatusLine().getStatusCode() != 307) {
-            throw new CygnusPersistenceError("The " + filePath + " file seems to not exist in HDFS. "
-                    + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
-                    + response.getStatusLine().getReasonPhrase());
-        } // if
-
-        // get the redirection location
-        Header header = response.getHeaders("Location")[0];
-        String absoluteURL = header.getValue();
-
-        // do second step
-        ArrayList<Header> headers = new ArrayList<Header>();
-        headers.add(new BasicHeader("Content-Type", "application/octet-stream"));
-        response = doHDFSRequest("POST", absoluteURL, false, headers, new StringEntity(data + "\n"));
-        
-        // check the status
-        if (response.getStatusLine().getStatusCode() != 200) {
-            throw new CygnusPersistenceError(filePath + " file exists in HDFS, but could not write the "
-                    + "data. HttpFS response: " + response.getStatusLine().getStatusCode() + " "
-                    + response.getStatusLine().getReasonPhrase());
-        } // if
+        append(username, filePath, new StringEntity(data + "\n"));
+    } // append
+    
+    @Override
+    public void append(String username, String filePath, byte[] data) throws Exception {
+        append(username, filePath, new ByteArrayEntity(data));
     } // append
     
     @Override
     public boolean exists(String username, String filePath) throws Exception {
-        String relativeURL = "/webhdfs/v1/user/" + username + "/" + filePath + "?op=getfilestatus&user.name="
-                + username;
-        HttpResponse response = doHDFSRequest("GET", relativeURL, true, null, null);
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            String relativeURL = "/webhdfs/v1/user/" + username + "/" + filePath + "?op=getfilestatus&user.name="
+                    + username;
+            HttpResponse response = doHDFSRequest("GET", relativeURL, true, null, null);
+            int statusCode = response.getStatusLine().getStatusCode();
 
-        // check the status
-        return (response.getStatusLine().getStatusCode() == 200);
+            // both an existing and a not existing file are successful answers
+            success = (statusCode == 200 || statusCode == 404);
+
+            // check the status
+            return (statusCode == 200);
+        } finally {
+            BackendLatency.record("hdfs", "exists", success, start);
+        } // try finally
     } // exists
     
+    @Override
+    public void uploadFile(String username, String filePath, File localFile) throws Exception {
+        createFile(username, filePath, true, new FileEntity(localFile, ContentType.APPLICATION_OCTET_STREAM),
+                "uploadFile");
+    } // uploadFile
+    
+    @Override
+    public void rename(String username, String srcPath, String dstPath) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            String relativeURL = "/webhdfs/v1/user/" + username + "/" + srcPath + "?op=rename&destination=/user/"
+                    + username + "/" + dstPath + "&user.name=" + username;
+            HttpResponse response = doHDFSRequest("PUT", relativeURL, true, null, null);
+
+            // check the status
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new CygnusPersistenceError("The " + srcPath + " file could not be renamed in HDFS. "
+                        + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
+                        + response.getStatusLine().getReasonPhrase());
+            } // if
+            
+            // a not renamed file is answered with 200 OK as well, e.g. when the destination already exists
+            if (!getBoolean(response)) {
+                throw new CygnusPersistenceError("The " + srcPath + " file could not be renamed in HDFS. "
+                        + "HttpFS response: false (the source does not exist or the destination already exists)");
+            } // if
+            
+            success = true;
+        } finally {
+            BackendLatency.record("hdfs", "rename", success, start);
+        } // try finally
+    } // rename
+    
+    @Override
+    public void delete(String username, String filePath) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            String relativeURL = "/webhdfs/v1/user/" + username + "/" + filePath + "?op=delete&user.name="
+                    + username;
+            HttpResponse response = doHDFSRequest("DELETE", relativeURL, true, null, null);
+
+            // check the status, a not existing file is answered with 200 OK and false
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new CygnusPersistenceError("The " + filePath + " file could not be deleted in HDFS. "
+                        + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
+                        + response.getStatusLine().getReasonPhrase());
+            } // if
+            
+            success = true;
+        } finally {
+            BackendLatency.record("hdfs", "delete", success, start);
+        } // try finally
+    } // delete
+    
+    /**
+     * Gets the result of a boolean operation, i.e. rename or delete, from the JSON payload of its response, e.g.
+     * {"boolean": true}.
+     * @param response
+     * @return The result of the operation, false if not available
+     */
+    private boolean getBoolean(HttpResponse response) {
+        try {
+            JsonElement result = new JsonParser().parse(EntityUtils.toString(response.getEntity()))
+                    .getAsJsonObject().get("boolean");
+            return result != null && result.getAsBoolean();
+        } catch (Exception e) {
+            logger.debug("The HDFS response could not be parsed (details=" + e.getMessage() + ")");
+            return false;
+        } // try catch
+    } // getBoolean
+    
+    /**
+     * Creates a file in HDFS with the given content, following the two steps of the WebHDFS/HttpFS API.
+     * @param username
+     * @param filePath
+     * @param overwrite True if an already existing file must be overwritten
+     * @param entity Content of the file
+     * @param operation Operation name the latency is recorded with
+     * @throws Exception
+     */
+    private void createFile(String username, String filePath, boolean overwrite, HttpEntity entity,
+            String operation) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            String relativeURL = "/webhdfs/v1/user/" + username + "/" + filePath + "?op=create"
+                    + (overwrite ? "&overwrite=true" : "") + "&user.name=" + username;
+            HttpResponse response = doHDFSRequest("PUT", relativeURL, true, null, null);
+            
+            // check the status
+            if (response.getStatusLine().getStatusCode() != 307) {
+                throw new CygnusPersistenceError("The " + filePath + " file could not be created in HDFS. "
+                        + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
+                        + response.getStatusLine().getReasonPhrase());
+            } // if
+            
+            // get the redirection location
+            Header header = response.getHeaders("Location")[0];
+            String absoluteURL = header.getValue();
+
+            // do second step
+            ArrayList<Header> headers = new ArrayList<Header>();
+            headers.add(new BasicHeader("Content-Type", "application/octet-stream"));
+            response = doHDFSRequest("PUT", absoluteURL, false, headers, entity);
+        
+            // check the status
+            if (response.getStatusLine().getStatusCode() != 201) {
+                throw new CygnusPersistenceError(filePath + " file created in HDFS, but could not write the "
+                        + "data. HttpFS response: " + response.getStatusLine().getStatusCode() + " "
+                        + response.getStatusLine().getReasonPhrase());
+            } // if
+            
+            success = true;
+        } finally {
+            BackendLatency.record("hdfs", operation, success, start);
+        } // try finally
+    } // createFile
+    
+    /**
+     * Appends content to an existing file in HDFS, following the two steps of the WebHDFS/HttpFS API.
+     * @param username
+     * @param filePath
+     * @param entity Content to be appended
+     * @throws Exception
+     */
+    private void append(String username, String filePath, HttpEntity entity) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            String relativeURL = "/webhdfs/v1/user/" + username + "/" + filePath + "?op=append&user.name=" + username;
+            HttpResponse response = doHDFSRequest("POST", relativeURL, true, null, null);
+
+            // check the status
+            if (response.getStatusLine().getStatusCode() != 307) {
+                throw new CygnusPersistenceError("The " + filePath + " file seems to not exist in HDFS. "
+                        + "HttpFS response: " + response.getStatusLine().getStatusCode() + " "
+                        + response.getStatusLine().getReasonPhrase());
+            } // if
+
+            // get the redirection location
+            Header header = response.getHeaders("Location")[0];
+            String absoluteURL = header.getValue();
+
+            // do second step
+            ArrayList<Header> headers = new ArrayList<Header>();
+            headers.add(new BasicHeader("Content-Type", "application/octet-stream"));
+            response = doHDFSRequest("POST", absoluteURL, false, headers, entity);
+            
+            // check the status
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new CygnusPersistenceError(filePath + " file exists in HDFS, but could not write the "
+                        + "data. HttpFS response: " + response.getStatusLine().getStatusCode() + " "
+                        + response.getStatusLine().getReasonPhrase());
+            } // if
+            
+            success = true;
+        } finally {
+            BackendLatency.record("hdfs", "append", success, start);
+        } // try finally
+    } // append
+    
     /**
      * Does a HDFS request given a HTTP client, a method and a relative URL (the final URL will be composed by using
      * this relative URL and the active HDFS endpoint).
@@ -171,7 +332,7 @@ public class HDFSBackendImpl extends HDFSBackend {
      * @throws Exception
      */
     private HttpResponse doHDFSRequest(String method, String url, boolean relative, ArrayList<Header> headers,
-            StringEntity entity) throws Exception {
+            HttpEntity entity) throws Exception {
         HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_SERVICE_UNAVAILABLE,
                 "Service unavailable");
         
@@ -219,7 +380,7 @@ public class HDFSBackendImpl extends HDFSBackend {
         return response;
     } // doHDFSRequest
         
-    private HttpResponse doHDFSRequest(String method, String url, ArrayList<Header> headers, StringEntity entity)
+    private HttpResponse doHDFSRequest(String method, String url, ArrayList<Header> headers, HttpEntity entity)
         throws Exception {
         HttpResponse response = null;
         HttpRequestBase request = null;
@@ -242,6 +403,8 @@ public class HDFSBackendImpl extends HDFSBackend {
             request = req;
         } else if (method.equals("GET")) {
             request = new HttpGet(url);
+        } else if (method.equals("DELETE")) {
+            request = new HttpDelete(url);
         } else {
             throw new CygnusRuntimeError("HTTP method not supported: " + method);
         } // if else
@@ -252,23 +415,28 @@ public class HDFSBackendImpl extends HDFSBackend {
             } // for
         } // if
 
-        logger.debug("HDFS request: " + request.toString());
+        CygnusLogger.logDebug(logger, "HDFS request: {}", request);
 
         try {
             response = httpClient.execute(request);
+            
+            // the payload is read before releasing the connection, since some operations answer with a result
+            if (response.getEntity() != null) {
+                response.setEntity(new BufferedHttpEntity(response.getEntity()));
+            } // if
         } catch (IOException e) {
             throw new CygnusPersistenceError(e.getMessage());
         } // try catch
 
         request.releaseConnection();
-        logger.debug("HDFS response: " + response.getStatusLine().toString());
+        CygnusLogger.logDebug(logger, "HDFS response: {}", response.getStatusLine());
         return response;
     } // doHDFSRequest
     
     // from here on, consider this link:
     // http://stackoverflow.com/questions/21629132/httpclient-set-credentials-for-kerberos-authentication
     private HttpResponse doPrivilegedHDFSRequest(String method, String url, ArrayList<Header> headers,
-            StringEntity entity) throws Exception {
+            HttpEntity entity) throws Exception {
         try {
             LoginContext loginContext = new LoginContext("cygnus_krb5_login",
                     new KerberosCallBackHandler(krb5User, krb5Password));
@@ -290,7 +458,7 @@ public class HDFSBackendImpl extends HDFSBackend {
         private final String method;
         private final String url;
         private final ArrayList<Header> headers;
-        private final StringEntity entity;
+        private final HttpEntity entity;
                
         /**
          * Constructor.
@@ -299,7 +467,7 @@ public class HDFSBackendImpl extends HDFSBackend {
          * @param headers
          * @param entity
          */
-        public PrivilegedHDFSRequest(String method, String url, ArrayList<Header> headers, StringEntity entity) {
+        public PrivilegedHDFSRequest(String method, String url, ArrayList<Header> headers, HttpEntity entity) {
             this.logger = Logger.getLogger(PrivilegedHDFSRequest.class);
             this.method = method;
             this.url = url;
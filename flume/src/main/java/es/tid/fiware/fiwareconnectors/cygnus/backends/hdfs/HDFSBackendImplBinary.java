@@ -0,0 +1,510 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs;
+
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ * 
+ * HDFS persistence based on the native Hadoop FileSystem API (Namenode RPC port, TCP/8020 by default). Instead of
+ * doing two HTTP requests per appended batch, an output stream is kept open per file and synced once per batch, thus
+ * the data becomes visible to the readers without closing the file. The streams are closed after being idle for a
+ * while, checked in background every second, or when too many of them are open, releasing their HDFS leases; if a
+ * closed file is written again, it is reopened in append mode (dfs.support.append must be enabled in the cluster).
+ */
+public class HDFSBackendImplBinary extends HDFSBackend {
+    
+    private final Logger logger;
+    private final int maxOpenFiles;
+    private final long idleTimeout;
+    private final LinkedHashMap<String, OpenFile> openFiles;
+    private FileSystem fileSystem;
+    private ScheduledExecutorService idleCloser;
+    
+    /**
+     * 
+     * @param cosmosHost
+     * @param cosmosPort Namenode RPC port
+     * @param cosmosDefaultUsername
+     * @param cosmosDefaultPassword
+     * @param hiveHost
+     * @param hivePort
+     * @param maxOpenFiles Maximum number of files kept open, the least recently written one is closed if exceeded
+     * @param idleTimeout Milliseconds a file is kept open without being written, 0 means the idle files are only
+     * closed when syncing
+     */
+    public HDFSBackendImplBinary(String[] cosmosHost, String cosmosPort, String cosmosDefaultUsername,
+            String cosmosDefaultPassword, String hiveHost, String hivePort, int maxOpenFiles, long idleTimeout) {
+        super(cosmosHost, cosmosPort, cosmosDefaultUsername, cosmosDefaultPassword, hiveHost, hivePort, false, "",
+                "", "", "");
+        logger = Logger.getLogger(HDFSBackendImplBinary.class);
+        this.maxOpenFiles = maxOpenFiles;
+        this.idleTimeout = idleTimeout;
+        
+        // access order, thus the eldest entry is the least recently written file
+        openFiles = new LinkedHashMap<String, OpenFile>(16, 0.75f, true);
+        
+        if (idleTimeout > 0) {
+            startIdleCloser();
+        } // if
+    } // HDFSBackendImplBinary
+    
+    /**
+     * Sets the file system. This is protected since it is only used by the tests.
+     * @param fileSystem
+     */
+    protected synchronized void setFileSystem(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    } // setFileSystem
+    
+    /**
+     * Gets the number of files currently open.
+     * @return The number of files currently open
+     */
+    public synchronized int getNumOpenFiles() {
+        return openFiles.size();
+    } // getNumOpenFiles
+    
+    @Override
+    public synchronized void createDir(String username, String dirPath) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            if (!getFileSystem().mkdirs(toPath(username, dirPath))) {
+                throw new CygnusPersistenceError("The " + dirPath + " directory could not be created in HDFS");
+            } // if
+            
+            success = true;
+        } catch (IOException e) {
+            discardFileSystem();
+            throw new CygnusPersistenceError("The " + dirPath + " directory could not be created in HDFS. Details: "
+                    + e.getMessage());
+        } finally {
+            BackendLatency.record("hdfs", "createDir", success, start);
+        } // try catch finally
+    } // createDir
+    
+    @Override
+    public void createFile(String username, String filePath, String data) throws Exception {
+        createFile(username, filePath, (data + "\n").getBytes("UTF-8"));
+    } // createFile
+    
+    @Override
+    public synchronized void createFile(String username, String filePath, byte[] data) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            Path path = toPath(username, filePath);
+            closeFile(path.toString());
+            FSDataOutputStream stream = getFileSystem().create(path, false);
+            openFiles.put(path.toString(), new OpenFile(stream));
+            write(path.toString(), data);
+            success = true;
+        } catch (IOException e) {
+            discardFile(toPath(username, filePath).toString());
+            throw new CygnusPersistenceError("The " + filePath + " file could not be created in HDFS. Details: "
+                    + e.getMessage());
+        } finally {
+            BackendLatency.record("hdfs", "createFile", success, start);
+        } // try catch finally
+    } // createFile
+    
+    @Override
+    public void append(String username, String filePath, String data) throws Exception {
+        append(username, filePath, (data + "\n").getBytes("UTF-8"));
+    } // append
+    
+    @Override
+    public synchronized void append(String username, String filePath, byte[] data) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        String key = toPath(username, filePath).toString();
+        
+        try {
+            if (!openFiles.containsKey(key)) {
+                FSDataOutputStream stream = getFileSystem().append(toPath(username, filePath));
+                openFiles.put(key, new OpenFile(stream));
+            } // if
+            
+            write(key, data);
+            success = true;
+        } catch (IOException e) {
+            discardFile(key);
+            throw new CygnusPersistenceError("The data could not be appended to the " + filePath + " file in HDFS. "
+                    + "Details: " + e.getMessage());
+        } finally {
+            BackendLatency.record("hdfs", "append", success, start);
+        } // try catch finally
+    } // append
+    
+    @Override
+    public synchronized boolean exists(String username, String filePath) throws Exception {
+        Path path = toPath(username, filePath);
+        
+        // an open file exists for sure, no need to ask the Namenode
+        if (openFiles.containsKey(path.toString())) {
+            return true;
+        } // if
+        
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            boolean exists = getFileSystem().exists(path);
+            success = true;
+            return exists;
+        } catch (IOException e) {
+            discardFileSystem();
+            throw new CygnusPersistenceError("The existence of the " + filePath + " file could not be checked in "
+                    + "HDFS. Details: " + e.getMessage());
+        } finally {
+            BackendLatency.record("hdfs", "exists", success, start);
+        } // try catch finally
+    } // exists
+    
+    @Override
+    public synchronized void uploadFile(String username, String filePath, File localFile) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            getFileSystem().copyFromLocalFile(false, true, new Path(localFile.getAbsolutePath()),
+                    toPath(username, filePath));
+            success = true;
+        } catch (IOException e) {
+            discardFileSystem();
+            throw new CygnusPersistenceError("The " + filePath + " file could not be uploaded to HDFS. Details: "
+                    + e.getMessage());
+        } finally {
+            BackendLatency.record("hdfs", "uploadFile", success, start);
+        } // try catch finally
+    } // uploadFile
+    
+    @Override
+    public synchronized void rename(String username, String srcPath, String dstPath) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            Path src = toPath(username, srcPath);
+            closeFile(src.toString());
+            
+            if (!getFileSystem().rename(src, toPath(username, dstPath))) {
+                throw new CygnusPersistenceError("The " + srcPath + " file could not be renamed in HDFS");
+            } // if
+            
+            success = true;
+        } catch (IOException e) {
+            discardFileSystem();
+            throw new CygnusPersistenceError("The " + srcPath + " file could not be renamed in HDFS. Details: "
+                    + e.getMessage());
+        } finally {
+            BackendLatency.record("hdfs", "rename", success, start);
+        } // try catch finally
+    } // rename
+    
+    @Override
+    public synchronized void delete(String username, String filePath) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        
+        try {
+            Path path = toPath(username, filePath);
+            closeFile(path.toString());
+            getFileSystem().delete(path, false);
+            success = true;
+        } catch (IOException e) {
+            discardFileSystem();
+            throw new CygnusPersistenceError("The " + filePath + " file could not be deleted in HDFS. Details: "
+                    + e.getMessage());
+        } finally {
+            BackendLatency.record("hdfs", "delete", success, start);
+        } // try catch finally
+    } // delete
+    
+    /**
+     * Syncs all the written files, thus their data is visible to the readers, and closes the idle ones.
+     * @throws Exception
+     */
+    @Override
+    public synchronized void sync() throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        long now = System.currentTimeMillis();
+        
+        try {
+            Iterator<Map.Entry<String, OpenFile>> it = openFiles.entrySet().iterator();
+            
+            while (it.hasNext()) {
+                Map.Entry<String, OpenFile> entry = it.next();
+                OpenFile openFile = entry.getValue();
+                
+                try {
+                    if (openFile.dirty) {
+                        openFile.stream.sync();
+                        openFile.dirty = false;
+                    } else if (now - openFile.lastWrite >= idleTimeout) {
+                        it.remove();
+                        openFile.stream.close();
+                        logger.debug("Idle HDFS file closed (file=" + entry.getKey() + ")");
+                    } // if else if
+                } catch (IOException e) {
+                    // the file is reopened in append mode the next time it is written
+                    it.remove();
+                    closeQuietly(openFile);
+                    throw new CygnusPersistenceError("The " + entry.getKey() + " file could not be synced in HDFS. "
+                            + "Details: " + e.getMessage());
+                } // try catch
+            } // while
+            
+            success = true;
+        } finally {
+            BackendLatency.record("hdfs", "sync", success, start);
+        } // try finally
+    } // sync
+    
+    /**
+     * Closes the synced files not written for longer than the idle timeout, releasing their HDFS leases. It is
+     * invoked in background, thus the files are closed even if no more batches are persisted.
+     */
+    public synchronized void closeIdleFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, OpenFile>> it = openFiles.entrySet().iterator();
+        
+        while (it.hasNext()) {
+            Map.Entry<String, OpenFile> entry = it.next();
+            OpenFile openFile = entry.getValue();
+            
+            // the written but not synced files are closed by the next sync, if idle
+            if (openFile.dirty || now - openFile.lastWrite < idleTimeout) {
+                continue;
+            } // if
+            
+            it.remove();
+            
+            try {
+                openFile.stream.close();
+                logger.debug("Idle HDFS file closed (file=" + entry.getKey() + ")");
+            } catch (IOException e) {
+                logger.warn("An idle HDFS file could not be closed (file=" + entry.getKey() + ", details="
+                        + e.getMessage() + ")");
+            } // try catch
+        } // while
+    } // closeIdleFiles
+    
+    /**
+     * Closes the backend, stopping the background closing of the idle files and closing all the open files.
+     */
+    @Override
+    public synchronized void close() {
+        if (idleCloser != null) {
+            idleCloser.shutdown();
+            idleCloser = null;
+        } // if
+        
+        for (Map.Entry<String, OpenFile> entry : openFiles.entrySet()) {
+            try {
+                entry.getValue().stream.close();
+            } catch (IOException e) {
+                logger.warn("A HDFS file could not be closed (file=" + entry.getKey() + ", details=" + e.getMessage()
+                        + ")");
+            } // try catch
+        } // for
+        
+        openFiles.clear();
+        super.close();
+    } // close
+    
+    /**
+     * Gets the HDFS path of a file given its user and its path relative to the user home. This is protected since it
+     * is overridden by the tests.
+     * @param username
+     * @param filePath
+     * @return The HDFS path of the file
+     */
+    protected Path toPath(String username, String filePath) {
+        return new Path("/user/" + username + "/" + filePath);
+    } // toPath
+    
+    /**
+     * Gets the file system, connecting to the first responding Namenode if not yet connected.
+     * @return The file system
+     * @throws IOException
+     */
+    private FileSystem getFileSystem() throws IOException {
+        if (fileSystem != null) {
+            return fileSystem;
+        } // if
+        
+        IOException lastError = new IOException("No HDFS endpoint configured");
+        
+        // iterate on the hosts
+        for (String host : cosmosHost) {
+            Configuration conf = new Configuration();
+            conf.set("hadoop.job.ugi", cosmosDefaultUsername + "," + cosmosDefaultUsername);
+            
+            try {
+                FileSystem fs = FileSystem.get(URI.create("hdfs://" + host + ":" + cosmosPort), conf);
+                fs.exists(new Path("/"));
+                
+                // place the current host in the first place (if not yet placed), since it is currently working
+                if (!cosmosHost.getFirst().equals(host)) {
+                    cosmosHost.remove(host);
+                    cosmosHost.add(0, host);
+                    logger.debug("Placing the host in the first place of the list (host=" + host + ")");
+                } // if
+                
+                fileSystem = fs;
+                return fileSystem;
+            } catch (IOException e) {
+                logger.debug("The used HDFS endpoint is not active, trying another one (host=" + host + ")");
+                lastError = e;
+            } // try catch
+        } // for
+        
+        throw lastError;
+    } // getFileSystem
+    
+    /**
+     * Writes data to an already open file, closing the least recently written file if too many are open.
+     * @param key
+     * @param data
+     * @throws IOException
+     */
+    private void write(String key, byte[] data) throws IOException {
+        OpenFile openFile = openFiles.get(key);
+        openFile.stream.write(data);
+        openFile.dirty = true;
+        openFile.lastWrite = System.currentTimeMillis();
+        
+        if (openFiles.size() > maxOpenFiles) {
+            Map.Entry<String, OpenFile> eldest = openFiles.entrySet().iterator().next();
+            openFiles.remove(eldest.getKey());
+            
+            // closing implies syncing, thus no data is lost
+            eldest.getValue().stream.close();
+            logger.debug("Too many open HDFS files, closing the least recently written one (file=" + eldest.getKey()
+                    + ")");
+        } // if
+    } // write
+    
+    /**
+     * Starts the background thread closing the idle files.
+     */
+    private void startIdleCloser() {
+        idleCloser = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "hdfs-idle-closer");
+                thread.setDaemon(true);
+                return thread;
+            } // newThread
+            
+        });
+        
+        idleCloser.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                closeIdleFiles();
+            } // run
+            
+        }, 1, 1, TimeUnit.SECONDS);
+    } // startIdleCloser
+    
+    private void closeFile(String key) throws IOException {
+        OpenFile openFile = openFiles.remove(key);
+        
+        if (openFile != null) {
+            openFile.stream.close();
+        } // if
+    } // closeFile
+    
+    private void discardFile(String key) {
+        OpenFile openFile = openFiles.remove(key);
+        
+        if (openFile != null) {
+            closeQuietly(openFile);
+        } // if
+    } // discardFile
+    
+    /**
+     * Discards the file system and all the open files, thus the next operation connects again, maybe to another
+     * Namenode.
+     */
+    private void discardFileSystem() {
+        for (OpenFile openFile : openFiles.values()) {
+            closeQuietly(openFile);
+        } // for
+        
+        openFiles.clear();
+        fileSystem = null;
+    } // discardFileSystem
+    
+    private void closeQuietly(OpenFile openFile) {
+        try {
+            openFile.stream.close();
+        } catch (IOException e) {
+            logger.debug("A broken HDFS file could not be closed (details=" + e.getMessage() + ")");
+        } // try catch
+    } // closeQuietly
+    
+    /**
+     * Output stream of an open file, and whether it has been written since the last sync.
+     */
+    private static class OpenFile {
+        
+        private final FSDataOutputStream stream;
+        private boolean dirty;
+        private long lastWrite;
+        
+        /**
+         * Constructor.
+         * @param stream
+         */
+        public OpenFile(FSDataOutputStream stream) {
+            this.stream = stream;
+            this.dirty = false;
+            this.lastWrite = System.currentTimeMillis();
+        } // OpenFile
+        
+    } // OpenFile
+    
+} // HDFSBackendImplBinary
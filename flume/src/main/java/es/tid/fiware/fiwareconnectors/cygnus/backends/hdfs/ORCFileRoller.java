@@ -0,0 +1,635 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Gauge;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.MetricsRegistry;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.orc.CompressionKind;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Writer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Accumulates rows per HDFS folder into local ORC files, which are rolled once they reach a number of rows or an
+ * age, and then uploaded to HDFS. Each rolled file is uploaded with a hidden name (starting with '_', thus ignored by
+ * Hive) and committed by renaming it, thus Hive never reads a partially uploaded file. The uploads are done by a
+ * background thread, and the rolled files not yet uploaded are kept in the local directory together with a metadata
+ * file; this way, they are uploaded after a restart as well.
+ * 
+ * An ORC file cannot be read until closed, since its footer is written when closing it. Thus, the rows of each open
+ * file are written to a local write-ahead log (a Json array per line) as well, which is synced to the local disk by
+ * sync() before the sink commits the batch; after a crash, the write-ahead logs of the files not yet rolled are
+ * replayed into new rolled files.
+ */
+public class ORCFileRoller {
+    
+    private static final String IN_PROGRESS_SUFFIX = ".orc.inprogress";
+    private static final String ORC_SUFFIX = ".orc";
+    private static final String META_SUFFIX = ".meta";
+    private static final String WAL_SUFFIX = ".orc.wal";
+    private static final Gson GSON = new Gson();
+    
+    private final Logger logger;
+    private final HDFSBackend backend;
+    private final String username;
+    private final File localDir;
+    private final long maxRows;
+    private final long rollInterval;
+    private final long stripeSize;
+    private final CompressionKind compression;
+    private final Configuration conf;
+    private final FileSystem localFS;
+    private final HashMap<String, OpenFile> openFiles;
+    private final ConcurrentLinkedQueue<File> rolledFiles;
+    private final Object uploadLock;
+    private final String namePrefix;
+    private long sequence;
+    private ScheduledExecutorService uploader;
+    
+    /**
+     * Constructor.
+     * @param backend HDFS backend the rolled files are uploaded to
+     * @param username Cosmos username
+     * @param localDir Local directory where the files are written until uploaded
+     * @param maxRows Rows per file
+     * @param rollInterval Maximum milliseconds a file is kept open
+     * @param stripeSize ORC stripe size, in bytes
+     * @param compression ORC compression, i.e. NONE, ZLIB or SNAPPY
+     * @throws IOException
+     */
+    public ORCFileRoller(HDFSBackend backend, String username, File localDir, long maxRows, long rollInterval,
+            long stripeSize, String compression) throws IOException {
+        logger = Logger.getLogger(ORCFileRoller.class);
+        this.backend = backend;
+        this.username = username;
+        this.localDir = localDir;
+        this.maxRows = Math.max(1, maxRows);
+        this.rollInterval = Math.max(1, rollInterval);
+        this.stripeSize = stripeSize;
+        this.compression = CompressionKind.valueOf(compression.toUpperCase());
+        conf = new Configuration();
+        localFS = FileSystem.getLocal(conf).getRawFileSystem();
+        openFiles = new HashMap<String, OpenFile>();
+        rolledFiles = new ConcurrentLinkedQueue<File>();
+        uploadLock = new Object();
+        namePrefix = Long.toString(System.currentTimeMillis());
+        sequence = 0;
+        
+        if (!localDir.exists() && !localDir.mkdirs()) {
+            throw new IOException("Cannot create the directory " + localDir.getPath());
+        } // if
+        
+        recover();
+        MetricsRegistry.getInstance().register(new Gauge("cygnus_hdfs_orc_pending_files",
+                "ORC files rolled but not yet uploaded to HDFS", "dir", localDir.getPath()) {
+            
+            @Override
+            public double getValue() {
+                return getNumRolledFiles();
+            } // getValue
+            
+        });
+    } // ORCFileRoller
+    
+    /**
+     * Starts the background thread rolling the expired files and uploading the rolled ones.
+     */
+    public synchronized void start() {
+        if (uploader != null) {
+            return;
+        } // if
+        
+        uploader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "hdfs-orc-uploader");
+                thread.setDaemon(true);
+                return thread;
+            } // newThread
+            
+        });
+        
+        uploader.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    rollExpired();
+                    upload();
+                } catch (Exception e) {
+                    logger.warn("The ORC files could not be rolled or uploaded, retrying later (details="
+                            + e.getMessage() + ")");
+                } // try catch
+            } // run
+            
+        }, 1, 1, TimeUnit.SECONDS);
+    } // start
+    
+    /**
+     * Appends a row to the file of the given HDFS folder, opening it if not yet opened. If the file fields differ
+     * from the given ones, the file is rolled and a new one is opened.
+     * @param hdfsFolder HDFS folder the row is persisted in
+     * @param fileName Base name of the HDFS files
+     * @param fields Hive columns, e.g. "recvTime string,temperature string,temperature_md array<string>"
+     * @param rowMode True if the columns are the standard 8-fields (row mode), false otherwise (column mode)
+     * @param row Column values, in the same order than the fields
+     * @throws IOException
+     */
+    public synchronized void append(String hdfsFolder, String fileName, String fields, boolean rowMode,
+            List<Object> row) throws IOException {
+        OpenFile openFile = openFiles.get(hdfsFolder);
+        
+        if (openFile != null && !openFile.fields.equals(fields)) {
+            roll(hdfsFolder);
+            openFile = null;
+        } // if
+        
+        if (openFile == null) {
+            openFile = new OpenFile(hdfsFolder, fileName, fields, rowMode);
+            openFiles.put(hdfsFolder, openFile);
+        } // if
+        
+        openFile.append(row);
+        
+        if (openFile.rows >= maxRows) {
+            roll(hdfsFolder);
+        } // if
+    } // append
+    
+    /**
+     * Syncs the write-ahead logs of the open files to the local disk, thus the rows appended so far survive a crash.
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        for (OpenFile openFile : openFiles.values()) {
+            openFile.sync();
+        } // for
+    } // sync
+    
+    /**
+     * Rolls the files opened for longer than the roll interval.
+     * @throws IOException
+     */
+    public synchronized void rollExpired() throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, OpenFile>> it = openFiles.entrySet().iterator();
+        
+        while (it.hasNext()) {
+            OpenFile openFile = it.next().getValue();
+            
+            if (now - openFile.openingTime >= rollInterval) {
+                it.remove();
+                openFile.close();
+            } // if
+        } // while
+    } // rollExpired
+    
+    /**
+     * Uploads the rolled files to HDFS and provisions their Hive tables. The files which cannot be uploaded are kept
+     * for the next time.
+     * @throws Exception
+     */
+    public void upload() throws Exception {
+        synchronized (uploadLock) {
+            File file;
+            
+            while ((file = rolledFiles.peek()) != null) {
+                File metaFile = new File(file.getPath() + META_SUFFIX);
+                Properties meta = readMeta(metaFile);
+                String hdfsFolder = meta.getProperty("folder");
+                String hdfsFile = hdfsFolder + "/" + meta.getProperty("file") + "-" + file.getName();
+                String tmpFile = hdfsFolder + "/_" + meta.getProperty("file") + "-" + file.getName() + ".tmp";
+                backend.uploadFile(username, tmpFile, file);
+                
+                try {
+                    backend.rename(username, tmpFile, hdfsFile);
+                } catch (Exception e) {
+                    // the file was already renamed when the agent crashed before deleting the local copy
+                    if (!backend.exists(username, hdfsFile)) {
+                        throw e;
+                    } // if
+                    
+                    backend.delete(username, tmpFile);
+                    logger.info("ORC file already uploaded to HDFS, the new copy is deleted (file=" + hdfsFile
+                            + ")");
+                } // try catch
+                
+                backend.provisionORCHiveTable(username, hdfsFolder, meta.getProperty("fields"),
+                        Boolean.parseBoolean(meta.getProperty("row_mode")));
+                logger.debug("ORC file uploaded to HDFS (file=" + hdfsFile + ")");
+                rolledFiles.poll();
+                
+                if (!file.delete() || !metaFile.delete()) {
+                    logger.warn("The uploaded ORC file could not be deleted (file=" + file.getPath() + ")");
+                } // if
+            } // while
+        } // synchronized
+    } // upload
+    
+    /**
+     * Rolls all the files and tries to upload them, stopping the background thread. The files which cannot be
+     * uploaded are uploaded the next time the roller is created.
+     */
+    public void close() {
+        synchronized (this) {
+            if (uploader != null) {
+                uploader.shutdown();
+                uploader = null;
+            } // if
+            
+            for (String hdfsFolder : openFiles.keySet().toArray(new String[openFiles.size()])) {
+                try {
+                    roll(hdfsFolder);
+                } catch (IOException e) {
+                    logger.error("The ORC file could not be rolled, its rows are lost (folder=" + hdfsFolder
+                            + ", details=" + e.getMessage() + ")");
+                } // try catch
+            } // for
+        } // synchronized
+        
+        try {
+            upload();
+        } catch (Exception e) {
+            logger.warn("The ORC files could not be uploaded, they will be uploaded after restarting (pending="
+                    + getNumRolledFiles() + ", details=" + e.getMessage() + ")");
+        } // try catch
+    } // close
+    
+    /**
+     * Gets the number of opened files.
+     * @return The number of opened files
+     */
+    public synchronized int getNumOpenFiles() {
+        return openFiles.size();
+    } // getNumOpenFiles
+    
+    /**
+     * Gets the number of rolled files not yet uploaded.
+     * @return The number of rolled files not yet uploaded
+     */
+    public int getNumRolledFiles() {
+        return rolledFiles.size();
+    } // getNumRolledFiles
+    
+    /**
+     * Gets the Hive struct type of the given Hive columns, e.g. "struct<recvTime:string,temperature:string>" for
+     * "recvTime string,temperature string".
+     * @param fields
+     * @return The Hive struct type of the given Hive columns
+     */
+    protected static String getStructType(String fields) {
+        StringBuilder type = new StringBuilder("struct<");
+        
+        for (String field : fields.split(",")) {
+            String[] nameAndType = field.trim().split("\\s+", 2);
+            type.append(type.length() == 7 ? "" : ",").append(nameAndType[0]).append(':').append(nameAndType[1]);
+        } // for
+        
+        return type.append('>').toString();
+    } // getStructType
+    
+    private void roll(String hdfsFolder) throws IOException {
+        OpenFile openFile = openFiles.remove(hdfsFolder);
+        
+        if (openFile != null) {
+            openFile.close();
+        } // if
+    } // roll
+    
+    private void recover() throws IOException {
+        File[] files = localDir.listFiles();
+        Arrays.sort(files);
+        int lost = 0;
+        int replayed = 0;
+        
+        for (File file : files) {
+            String path = file.getPath();
+            
+            if (file.getName().endsWith(IN_PROGRESS_SUFFIX)) {
+                // not rolled files cannot be read, since the ORC footer is written when closing them; their rows are
+                // got from their write-ahead log instead
+                if (!new File(path.substring(0, path.length() - IN_PROGRESS_SUFFIX.length()) + WAL_SUFFIX).exists()) {
+                    lost++;
+                } // if
+                
+                file.delete();
+            } else if (file.getName().endsWith(WAL_SUFFIX)) {
+                // the write-ahead log of an already rolled file is just deleted (the agent crashed after rolling it)
+                if (new File(path.substring(0, path.length() - WAL_SUFFIX.length()) + ORC_SUFFIX).exists()) {
+                    file.delete();
+                } else {
+                    replayed += replay(file);
+                } // if else
+            } else if (file.getName().endsWith(ORC_SUFFIX)) {
+                if (new File(file.getPath() + META_SUFFIX).exists()) {
+                    rolledFiles.add(file);
+                } else {
+                    file.delete();
+                } // if else
+            } // if else if
+        } // for
+        
+        if (lost > 0) {
+            logger.warn("Some ORC files were not rolled before stopping, their rows are lost (files=" + lost + ")");
+        } // if
+        
+        if (replayed > 0) {
+            logger.info("Some ORC files were not rolled before stopping, their rows have been recovered from their "
+                    + "write-ahead logs (rows=" + replayed + ")");
+        } // if
+        
+        if (!rolledFiles.isEmpty()) {
+            logger.info("Rolled ORC files found, they will be uploaded to HDFS (files=" + rolledFiles.size() + ")");
+        } // if
+    } // recover
+    
+    /**
+     * Writes the rows of the write-ahead log of a not rolled file into a new file, which is rolled. A partially
+     * written last row (the agent crashed while writing it) is ignored, since it was not synced.
+     * @param walFile
+     * @return The number of recovered rows
+     * @throws IOException
+     */
+    private int replay(File walFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(walFile), "UTF-8"));
+        JsonParser parser = new JsonParser();
+        OpenFile openFile = null;
+        int rows = 0;
+        
+        try {
+            String line = reader.readLine();
+            JsonObject header = null;
+            
+            try {
+                header = line == null ? null : parser.parse(line).getAsJsonObject();
+            } catch (RuntimeException e) {
+                logger.warn("Bad ORC write-ahead log header, it is ignored (file=" + walFile.getPath() + ")");
+            } // try catch
+            
+            String fields = header == null ? null : header.get("fields").getAsString();
+            String[] types = fields == null ? null : getTypes(fields);
+            
+            while (types != null && (line = reader.readLine()) != null) {
+                List<Object> row;
+                
+                try {
+                    row = toRow(parser.parse(line).getAsJsonArray(), types);
+                } catch (RuntimeException e) {
+                    break;
+                } // try catch
+                
+                if (openFile == null) {
+                    openFile = new OpenFile(header.get("folder").getAsString(), header.get("file").getAsString(),
+                            fields, header.get("row_mode").getAsBoolean());
+                } // if
+                
+                openFile.append(row);
+                rows++;
+            } // while
+        } finally {
+            reader.close();
+        } // try finally
+        
+        if (openFile != null) {
+            openFile.close();
+        } // if
+        
+        walFile.delete();
+        return rows;
+    } // replay
+    
+    /**
+     * Gets the Hive types of the given Hive columns, e.g. {"string", "array<string>"} for
+     * "recvTime string,temperature_md array<string>".
+     * @param fields
+     * @return The Hive types of the given Hive columns
+     */
+    private static String[] getTypes(String fields) {
+        String[] columns = fields.split(",");
+        String[] types = new String[columns.length];
+        
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = columns[i].trim().split("\\s+", 2)[1];
+        } // for
+        
+        return types;
+    } // getTypes
+    
+    /**
+     * Converts a Json array written to a write-ahead log back to a row, given the Hive types of its columns.
+     * @param values
+     * @param types
+     * @return The row
+     */
+    private static List<Object> toRow(JsonArray values, String[] types) {
+        if (values.size() != types.length) {
+            throw new IllegalArgumentException("Bad number of values (expected=" + types.length + ", got="
+                    + values.size() + ")");
+        } // if
+        
+        List<Object> row = new ArrayList<Object>(types.length);
+        
+        for (int i = 0; i < types.length; i++) {
+            JsonElement value = values.get(i);
+            
+            if (value.isJsonNull()) {
+                row.add(null);
+            } else if (types[i].equals("bigint")) {
+                row.add(value.getAsLong());
+            } else if (types[i].startsWith("array")) {
+                List<String> list = new ArrayList<String>();
+                
+                for (JsonElement element : value.getAsJsonArray()) {
+                    list.add(element.isJsonNull() ? null : element.getAsString());
+                } // for
+                
+                row.add(list);
+            } else {
+                row.add(value.getAsString());
+            } // if else if
+        } // for
+        
+        return row;
+    } // toRow
+    
+    private Properties readMeta(File metaFile) throws IOException {
+        Properties meta = new Properties();
+        InputStream in = new FileInputStream(metaFile);
+        
+        try {
+            meta.load(in);
+        } finally {
+            in.close();
+        } // try finally
+        
+        return meta;
+    } // readMeta
+    
+    /**
+     * ORC file being written.
+     */
+    private class OpenFile {
+        
+        private final String hdfsFolder;
+        private final String fileName;
+        private final String fields;
+        private final boolean rowMode;
+        private final File file;
+        private final Writer writer;
+        private final File walFile;
+        private final FileOutputStream walStream;
+        private final java.io.Writer wal;
+        private final long openingTime;
+        private long rows;
+        private boolean synced;
+        
+        /**
+         * Constructor.
+         * @param hdfsFolder
+         * @param fileName
+         * @param fields
+         * @param rowMode
+         * @throws IOException
+         */
+        public OpenFile(String hdfsFolder, String fileName, String fields, boolean rowMode) throws IOException {
+            this.hdfsFolder = hdfsFolder;
+            this.fileName = fileName;
+            this.fields = fields;
+            this.rowMode = rowMode;
+            String name = String.format("%s-%06d", namePrefix, sequence++);
+            file = new File(localDir, name + IN_PROGRESS_SUFFIX);
+            ObjectInspector inspector = TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+                    TypeInfoUtils.getTypeInfoFromTypeString(getStructType(fields)));
+            writer = OrcFile.createWriter(new Path(file.getAbsolutePath()), OrcFile.writerOptions(conf)
+                    .fileSystem(localFS).inspector(inspector).stripeSize(stripeSize).compress(compression));
+            
+            // the write-ahead log starts with the data required to roll the file
+            walFile = new File(localDir, name + WAL_SUFFIX);
+            walStream = new FileOutputStream(walFile);
+            wal = new BufferedWriter(new OutputStreamWriter(walStream, "UTF-8"));
+            JsonObject header = new JsonObject();
+            header.addProperty("folder", hdfsFolder);
+            header.addProperty("file", fileName);
+            header.addProperty("fields", fields);
+            header.addProperty("row_mode", rowMode);
+            wal.write(header.toString());
+            wal.write('\n');
+            openingTime = System.currentTimeMillis();
+            rows = 0;
+            synced = false;
+        } // OpenFile
+        
+        /**
+         * Appends a row to the file and to its write-ahead log.
+         * @param row
+         * @throws IOException
+         */
+        public void append(List<Object> row) throws IOException {
+            writer.addRow(row);
+            wal.write(GSON.toJson(row));
+            wal.write('\n');
+            rows++;
+            synced = false;
+        } // append
+        
+        /**
+         * Syncs the write-ahead log to the local disk, if not yet synced.
+         * @throws IOException
+         */
+        public void sync() throws IOException {
+            if (synced) {
+                return;
+            } // if
+            
+            wal.flush();
+            walStream.getFD().sync();
+            synced = true;
+        } // sync
+        
+        /**
+         * Closes the file, writing its metadata and queueing it for uploading.
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            writer.close();
+            String path = file.getPath();
+            File rolledFile = new File(path.substring(0, path.length() - IN_PROGRESS_SUFFIX.length()) + ORC_SUFFIX);
+            Properties meta = new Properties();
+            meta.setProperty("folder", hdfsFolder);
+            meta.setProperty("file", fileName);
+            meta.setProperty("fields", fields);
+            meta.setProperty("row_mode", Boolean.toString(rowMode));
+            OutputStream out = new FileOutputStream(rolledFile.getPath() + META_SUFFIX);
+            
+            try {
+                meta.store(out, null);
+            } finally {
+                out.close();
+            } // try finally
+            
+            if (!file.renameTo(rolledFile)) {
+                throw new IOException("Cannot rename " + path + " to " + rolledFile.getPath());
+            } // if
+            
+            // once rolled, the rows are not required anymore
+            wal.close();
+            walFile.delete();
+            rolledFiles.add(rolledFile);
+            logger.debug("ORC file rolled (folder=" + hdfsFolder + ", rows=" + rows + ")");
+        } // close
+        
+    } // OpenFile
+    
+} // ORCFileRoller
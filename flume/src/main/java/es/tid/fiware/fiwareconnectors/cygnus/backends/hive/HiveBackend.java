@@ -18,6 +18,7 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.hive;
 
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
@@ -28,6 +29,9 @@ import org.apache.log4j.Logger;
 /**
  *
  * @author frb
+ *
+ * Hive client. A single connection to HiveServer is kept open and reused by all the queries; it is discarded (and
+ * thus opened again by the next query) if a query fails, since the failure may be caused by a broken connection.
  */
 public class HiveBackend {
     
@@ -38,6 +42,7 @@ public class HiveBackend {
     private final String hivePort;
     private final String hadoopUser;
     private final String hadoopPassword;
+    private Connection connection;
     
     /**
      * Constructor.
@@ -52,22 +57,31 @@ public class HiveBackend {
         this.hivePort = hivePort;
         this.hadoopUser = hadoopUser;
         this.hadoopPassword = hadoopPassword;
+        connection = null;
     } // HiveBackend
     
+    /**
+     * Gets the Hive endpoint, i.e. the Hive server and port.
+     * @return The Hive endpoint as host:port
+     */
+    public String getEndpoint() {
+        return hiveServer + ":" + hivePort;
+    } // getEndpoint
+    
     /**
      * Creates a HiveQL external table.
      * @param query
      * @return True if the table could be created, false otherwise.
      */
-    public boolean doCreateTable(String query) {
-        Connection con = null;
+    public synchronized boolean doCreateTable(String query) {
+        long start = System.nanoTime();
         Statement stmt = null;
         ResultSet rs = null;
         boolean res = true;
         
         try {
-            // get a connection to the Hive/Shark server
-            con = getConnection();
+            // get the connection to the Hive/Shark server
+            Connection con = getConnection();
             
             // create a statement
             stmt = con.createStatement();
@@ -78,8 +92,11 @@ public class HiveBackend {
             logger.error("Runtime error (The Hive table cannot be created. Hive query='" + query + "'. Details="
                     + e.getMessage() + ")");
             res = false;
+            closeConnection();
         } finally {
-            return res && closeHiveObjects(con, stmt, rs);
+            res = res && closeHiveObjects(stmt, rs);
+            BackendLatency.record("hive", "createTable", res, start);
+            return res;
         } // try catch finally
     } // doCreateTable
 
@@ -88,15 +105,14 @@ public class HiveBackend {
      * @param query
      * @return True if the query succeded, false otherwise.
      */
-    public boolean doQuery(String query) {
-        Connection con = null;
+    public synchronized boolean doQuery(String query) {
         Statement stmt = null;
         ResultSet rs = null;
         boolean res = true;
         
         try {
-            // get a connection to the Hive/Shark server
-            con = getConnection();
+            // get the connection to the Hive/Shark server
+            Connection con = getConnection();
             
             // create a statement
             stmt = con.createStatement();
@@ -118,30 +134,28 @@ public class HiveBackend {
             logger.error("Runtime error (The Hive query cannot be executed. Hive query='" + query + "'. Details="
                     + e.getMessage() + ")");
             res = false;
+            closeConnection();
         } finally {
-            return res && closeHiveObjects(con, stmt, rs);
+            return res && closeHiveObjects(stmt, rs);
         } // try catch finally
     } // doQuery
     
     /**
-     * Close all the Hive objects previously opened by doCreateTable and doQuery.
-     * @param con
+     * Closes the connection to the Hive server, if opened. It will be opened again by the next query.
+     */
+    public synchronized void close() {
+        closeConnection();
+    } // close
+    
+    /**
+     * Close all the Hive objects previously opened by doCreateTable and doQuery, but the connection.
      * @param stmt
      * @param rs
      * @return True if the Hive objects have been closed, false otherwise.
      */
-    private boolean closeHiveObjects(Connection con, Statement stmt, ResultSet rs) {
+    private boolean closeHiveObjects(Statement stmt, ResultSet rs) {
         boolean res = true;
         
-        if (con != null) {
-            try {
-                con.close();
-            } catch (SQLException e) {
-                logger.error("Runtime error (The Hive connection could not be closed. Details=" + e.getMessage() + ")");
-                res = false;
-            } // try catch
-        } // if
-
         if (stmt != null) {
             try {
                 stmt.close();
@@ -164,19 +178,41 @@ public class HiveBackend {
     } // closeHiveObjects
     
     /**
-     * Gets a connection to the Hive server.
+     * Closes the connection to the Hive server, if opened, ignoring any error.
+     */
+    private void closeConnection() {
+        if (connection == null) {
+            return;
+        } // if
+        
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("The Hive connection could not be closed (details=" + e.getMessage() + ")");
+        } finally {
+            connection = null;
+        } // try catch finally
+    } // closeConnection
+    
+    /**
+     * Gets the connection to the Hive server, opening it if not yet opened.
      * @return
      * @throws Exception
      */
     private Connection getConnection() throws Exception {
+        if (connection != null) {
+            return connection;
+        } // if
+        
         // dynamically load the Hive JDBC driver
         Class.forName(DRIVERNAME);
 
-        // return a connection based on the Hive JDBC driver
+        // open a connection based on the Hive JDBC driver
         logger.debug("Connecting to jdbc:hive://" + hiveServer + ":" + hivePort + "/default?user=" + hadoopUser
                 + "&password=XXXXXXXXXX");
-        return DriverManager.getConnection("jdbc:hive://" + hiveServer + ":" + hivePort + "/default?user=" + hadoopUser
-                + "&password=" + hadoopPassword);
+        connection = DriverManager.getConnection("jdbc:hive://" + hiveServer + ":" + hivePort + "/default?user="
+                + hadoopUser + "&password=" + hadoopPassword);
+        return connection;
     } // getConnection
     
 } // HiveBackend
\ No newline at end of file
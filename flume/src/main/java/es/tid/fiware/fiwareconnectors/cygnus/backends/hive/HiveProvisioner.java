@@ -0,0 +1,277 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.hive;
+
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Gauge;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.MetricsRegistry;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Provisions Hive external tables in background, thus the sinks never wait for HiveServer. The tables are created
+ * one by one by a single thread, reusing the same Hive connection; the failed creations are retried with exponential
+ * backoff up to a maximum number of attempts. The already provisioned tables are kept in a registry, which may be
+ * persisted in a file (one table name per line) in order to not provision them again after a restart.
+ */
+public class HiveProvisioner {
+    
+    private final Logger logger;
+    private final HiveBackend hiveBackend;
+    private final File registryFile;
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Set<String> provisioned;
+    private final Set<String> pending;
+    private final ScheduledExecutorService executor;
+    
+    /**
+     * Constructor.
+     * @param hiveBackend Hive client used for creating the tables
+     * @param registryFile File where the provisioned tables are persisted, null or empty means no persistence
+     * @param maxAttempts Maximum attempts for creating a table (0 or less means no limit)
+     * @param initialBackoff Milliseconds before retrying a failed creation the first time
+     * @param maxBackoff Maximum milliseconds before retrying a failed creation
+     */
+    public HiveProvisioner(HiveBackend hiveBackend, String registryFile, int maxAttempts, long initialBackoff,
+            long maxBackoff) {
+        logger = Logger.getLogger(HiveProvisioner.class);
+        this.hiveBackend = hiveBackend;
+        this.registryFile = registryFile == null || registryFile.isEmpty() ? null : new File(registryFile);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = Math.max(1, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        provisioned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "hive-provisioner");
+                thread.setDaemon(true);
+                return thread;
+            } // newThread
+            
+        });
+        
+        loadRegistry();
+        MetricsRegistry.getInstance().register(new Gauge("cygnus_hive_provisioning_pending",
+                "Hive tables waiting to be provisioned", "hive", hiveBackend.getEndpoint()) {
+            
+            @Override
+            public double getValue() {
+                return getNumPending();
+            } // getValue
+            
+        });
+    } // HiveProvisioner
+    
+    /**
+     * Queues the provisioning of a Hive table, unless it is already provisioned or queued. It never blocks.
+     * @param tableName Name of the table
+     * @param query HiveQL sentence creating the table
+     * @return True if the provisioning has been queued, false if the table is already provisioned or queued
+     */
+    public boolean provision(String tableName, String query) {
+        if (provisioned.contains(tableName) || !pending.add(tableName)) {
+            return false;
+        } // if
+        
+        try {
+            schedule(tableName, query, 1, 0);
+        } catch (Exception e) {
+            pending.remove(tableName);
+            logger.warn("The Hive table provisioning could not be queued (table=" + tableName + ", details="
+                    + e.getMessage() + ")");
+            return false;
+        } // try catch
+        
+        logger.debug("Hive table provisioning queued (table=" + tableName + ")");
+        return true;
+    } // provision
+    
+    /**
+     * Gets if a Hive table has been provisioned.
+     * @param tableName
+     * @return True if the table has been provisioned, false otherwise
+     */
+    public boolean isProvisioned(String tableName) {
+        return provisioned.contains(tableName);
+    } // isProvisioned
+    
+    /**
+     * Gets the number of Hive tables waiting to be provisioned.
+     * @return The number of Hive tables waiting to be provisioned
+     */
+    public int getNumPending() {
+        return pending.size();
+    } // getNumPending
+    
+    /**
+     * Stops the provisioning, discarding the queued tables, and closes the Hive connection.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } // try catch
+        
+        hiveBackend.close();
+    } // stop
+    
+    /**
+     * Creates a Hive table. It is protected since it is overridden by the tests.
+     * @param query
+     * @return True if the table has been created, false otherwise
+     */
+    protected boolean createTable(String query) {
+        return hiveBackend.doCreateTable(query);
+    } // createTable
+    
+    private void schedule(final String tableName, final String query, final int attempt, long delay) {
+        executor.schedule(new Runnable() {
+            
+            @Override
+            public void run() {
+                doProvision(tableName, query, attempt);
+            } // run
+            
+        }, delay, TimeUnit.MILLISECONDS);
+    } // schedule
+    
+    private void doProvision(String tableName, String query, int attempt) {
+        logger.info("Creating Hive external table=" + tableName);
+        
+        if (createTable(query)) {
+            provisioned.add(tableName);
+            pending.remove(tableName);
+            persist(tableName);
+            return;
+        } // if
+        
+        if (maxAttempts > 0 && attempt >= maxAttempts) {
+            pending.remove(tableName);
+            logger.warn("The HiveQL external table could not be created, but Cygnus can continue working... "
+                    + "Check your Hive/Shark installation (table=" + tableName + ", attempts=" + attempt + ")");
+            return;
+        } // if
+        
+        long backoff = initialBackoff << Math.min(attempt - 1, 30);
+        
+        if (backoff <= 0 || backoff > maxBackoff) {
+            backoff = maxBackoff;
+        } // if
+        
+        logger.debug("The HiveQL external table could not be created, retrying later (table=" + tableName
+                + ", attempt=" + attempt + ", backoffMs=" + backoff + ")");
+        
+        try {
+            schedule(tableName, query, attempt + 1, backoff);
+        } catch (Exception e) {
+            // the provisioner is being stopped
+            pending.remove(tableName);
+        } // try catch
+    } // doProvision
+    
+    private void loadRegistry() {
+        if (registryFile == null || !registryFile.exists()) {
+            return;
+        } // if
+        
+        BufferedReader reader = null;
+        
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(registryFile), "UTF-8"));
+            String line;
+            
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                
+                if (!line.isEmpty()) {
+                    provisioned.add(line);
+                } // if
+            } // while
+            
+            logger.info("Hive tables registry loaded (file=" + registryFile.getPath() + ", tables="
+                    + provisioned.size() + ")");
+        } catch (IOException e) {
+            logger.warn("The Hive tables registry could not be loaded, the tables will be provisioned again (file="
+                    + registryFile.getPath() + ", details=" + e.getMessage() + ")");
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.debug("The Hive tables registry could not be closed (details=" + e.getMessage() + ")");
+                } // try catch
+            } // if
+        } // try catch finally
+    } // loadRegistry
+    
+    private void persist(String tableName) {
+        if (registryFile == null) {
+            return;
+        } // if
+        
+        Writer writer = null;
+        
+        try {
+            File parent = registryFile.getAbsoluteFile().getParentFile();
+            
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Cannot create the directory " + parent.getPath());
+            } // if
+            
+            writer = new OutputStreamWriter(new FileOutputStream(registryFile, true), "UTF-8");
+            writer.write(tableName + "\n");
+        } catch (IOException e) {
+            logger.warn("The Hive table could not be added to the registry, it will be provisioned again after a "
+                    + "restart (table=" + tableName + ", details=" + e.getMessage() + ")");
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    logger.debug("The Hive tables registry could not be closed (details=" + e.getMessage() + ")");
+                } // try catch
+            } // if
+        } // try catch finally
+    } // persist
+    
+} // HiveProvisioner
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.util.List;
+
+/**
+ *
+ * @author frb
+ * 
+ * H2 dialect, intended for testing purposes. The database is an in-memory one living as long as the JVM, thus the
+ * host and the port are ignored. The last values are merged without checking if they are older than the persisted
+ * ones.
+ */
+public class H2Dialect extends SQLDialect {
+    
+    @Override
+    public String getName() {
+        return "h2";
+    } // getName
+    
+    @Override
+    public String getDriverClassName() {
+        return "org.h2.Driver";
+    } // getDriverClassName
+    
+    @Override
+    public String getDefaultPort() {
+        return "9092";
+    } // getDefaultPort
+    
+    @Override
+    public String buildURL(String host, String port, String database) {
+        return "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1";
+    } // buildURL
+    
+    @Override
+    public String buildAddColumnsQuery(String table, List<String> columnNames) {
+        StringBuilder query = new StringBuilder("alter table " + table + " add (");
+        
+        for (int i = 0; i < columnNames.size(); i++) {
+            query.append(i == 0 ? "" : ", ").append(quote(columnNames.get(i))).append(" text");
+        } // for
+        
+        return query.append(")").toString();
+    } // buildAddColumnsQuery
+    
+    @Override
+    public String buildUpsertQuery(String table, int numRows) {
+        String query = buildInsertQuery(table, ROW_COLUMNS, numRows);
+        return query.replaceFirst("insert into ", "merge into ").replaceFirst("\\) values ", ") key ("
+                + quote(Constants.ENTITY_ID) + ", " + quote(Constants.ATTR_NAME) + ") values ");
+    } // buildUpsertQuery
+    
+} // H2Dialect
@@ -0,0 +1,807 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc;
+
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ * 
+ * Relational database operations (schema and table creation, context data insertion) when dealing with a JDBC
+ * persistence backend, the SQL syntax depending on the given SQLDialect.
+ * 
+ * The connections are pooled: once an operation succeeds, its connection is kept open for the next operation, up to a
+ * maximum number of idle connections, while a connection an operation failed on is closed. The autocommit is disabled,
+ * the rows of a table being inserted as a JDBC batch within a single transaction.
+ * 
+ * The schemas and tables already created are cached, thus the "create ... if not exists" queries are executed only
+ * the first time. The columns of the column-like tables are cached per table (catalog), as read from
+ * information_schema; if any attribute has no column yet, all the missing columns are added in a single query.
+ * 
+ * If a batch or an upsert fails because of bad data (SQLState class 22 or 23), the rows are persisted one by one and
+ * the bad ones are reported as rejected (CygnusRejectedRows); any other error (e.g. a dropped table or a missing
+ * permission) is a persistence error, and nothing is persisted.
+ */
+public class JDBCBackend {
+    
+    // the last values are upserted in chunks, since the number of parameters of a query is limited
+    private static final int MAX_UPSERT_ROWS = 1000;
+    // seconds a pooled connection is waited for when checking it is still alive
+    private static final int VALIDATION_TIMEOUT = 5;
+    private final SQLDialect dialect;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxIdleConnections;
+    private final Logger logger;
+    private final ArrayBlockingQueue<Connection> idleConnections;
+    private final Set<String> created;
+    private final ConcurrentHashMap<String, Set<String>> catalog;
+    
+    /**
+     * Constructor.
+     * @param dialect
+     * @param host
+     * @param port
+     * @param database
+     * @param username
+     * @param password
+     * @param maxIdleConnections Maximum number of connections kept open between operations (0 means no pooling)
+     */
+    public JDBCBackend(SQLDialect dialect, String host, String port, String database, String username,
+            String password, int maxIdleConnections) {
+        this.dialect = dialect;
+        this.url = dialect.buildURL(host, port, database);
+        this.username = username;
+        this.password = password;
+        this.maxIdleConnections = maxIdleConnections;
+        logger = Logger.getLogger(JDBCBackend.class);
+        idleConnections = new ArrayBlockingQueue<Connection>(Math.max(1, maxIdleConnections));
+        created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        catalog = new ConcurrentHashMap<String, Set<String>>();
+    } // JDBCBackend
+    
+    /**
+     * Gets the SQL dialect.
+     * @return The SQL dialect
+     */
+    public SQLDialect getDialect() {
+        return dialect;
+    } // getDialect
+    
+    /**
+     * Gets the connection URL.
+     * @return The connection URL
+     */
+    public String getURL() {
+        return url;
+    } // getURL
+    
+    /**
+     * Creates a schema, given its name, if not exists.
+     * @param schemaName
+     * @throws Exception
+     */
+    public void createSchema(String schemaName) throws Exception {
+        executeDDL(dialect.quote(schemaName), dialect.buildCreateSchemaQuery(schemaName), "createSchema");
+    } // createSchema
+    
+    /**
+     * Creates a row-like table, given its name, if not exists in the given schema.
+     * @param schemaName
+     * @param tableName
+     * @throws Exception
+     */
+    public void createTable(String schemaName, String tableName) throws Exception {
+        String table = dialect.buildTableName(schemaName, tableName);
+        executeDDL(table, dialect.buildCreateTableQuery(table), "createTable");
+    } // createTable
+    
+    /**
+     * Creates a last value table, given its name, if not exists in the given schema. A last value table has the same
+     * fields than a row-like table, but a single row per entity and attribute.
+     * @param schemaName
+     * @param tableName
+     * @throws Exception
+     */
+    public void createLastValueTable(String schemaName, String tableName) throws Exception {
+        String table = dialect.buildTableName(schemaName, tableName);
+        executeDDL(table, dialect.buildCreateLastValueTableQuery(table), "createLastValueTable");
+    } // createLastValueTable
+    
+    /**
+     * Inserts, in a single batch, new rows in the given row-like table, each one representing a unique attribute
+     * change.
+     * @param schemaName
+     * @param tableName
+     * @param rows
+     * @throws CygnusRejectedRows If certain rows have been rejected because of bad data, given by their position
+     * within rows; the rest of the rows have been inserted
+     * @throws Exception
+     */
+    public void insertRows(String schemaName, String tableName, List<Row> rows) throws Exception {
+        if (rows.isEmpty()) {
+            return;
+        } // if
+        
+        String table = dialect.buildTableName(schemaName, tableName);
+        ArrayList<Object[]> params = new ArrayList<Object[]>(rows.size());
+        
+        for (Row row : rows) {
+            params.add(row.toParams());
+        } // for
+        
+        String query = dialect.buildInsertQuery(table, SQLDialect.ROW_COLUMNS, 1);
+        Map<Integer, String> rejections = executeBatch(table, query, params, "insertRows");
+        
+        if (!rejections.isEmpty()) {
+            throw new CygnusRejectedRows(rejections);
+        } // if
+    } // insertRows
+    
+    /**
+     * Inserts new rows in the given column-like table, each one representing full attribute list changes. The table
+     * and the missing columns are created first, if required. The rows having the same columns are inserted in the
+     * same batch.
+     * @param schemaName
+     * @param tableName
+     * @param rows Column names and values of each row
+     * @throws CygnusRejectedRows If certain rows have been rejected because of bad data, given by their position
+     * within rows; the rest of the rows have been inserted
+     * @throws Exception
+     */
+    public void insertColumnRows(String schemaName, String tableName, List<Map<String, String>> rows)
+            throws Exception {
+        if (rows.isEmpty()) {
+            return;
+        } // if
+        
+        LinkedHashSet<String> columnNames = new LinkedHashSet<String>();
+        LinkedHashMap<Set<String>, ArrayList<Object[]>> groups = new LinkedHashMap<Set<String>, ArrayList<Object[]>>();
+        HashMap<Set<String>, ArrayList<Integer>> positions = new HashMap<Set<String>, ArrayList<Integer>>();
+        
+        for (int pos = 0; pos < rows.size(); pos++) {
+            Map<String, String> row = rows.get(pos);
+            columnNames.addAll(row.keySet());
+            
+            // sorted, thus the same columns notified in a different order are in the same group
+            TreeSet<String> group = new TreeSet<String>(row.keySet());
+            ArrayList<Object[]> params = groups.get(group);
+            
+            if (params == null) {
+                params = new ArrayList<Object[]>();
+                groups.put(group, params);
+                positions.put(group, new ArrayList<Integer>());
+            } // if
+            
+            Object[] values = new Object[group.size()];
+            int i = 0;
+            
+            for (String columnName : group) {
+                values[i++] = row.get(columnName);
+            } // for
+            
+            params.add(values);
+            positions.get(group).add(pos);
+        } // for
+        
+        provisionColumns(schemaName, tableName, columnNames);
+        String table = dialect.buildTableName(schemaName, tableName);
+        TreeMap<Integer, String> rejections = new TreeMap<Integer, String>();
+        
+        for (Map.Entry<Set<String>, ArrayList<Object[]>> group : groups.entrySet()) {
+            String query = dialect.buildInsertQuery(table, group.getKey().toArray(new String[0]), 1);
+            ArrayList<Integer> groupPositions = positions.get(group.getKey());
+            
+            // the rejections are given by the position within the group, thus they are mapped to the position within
+            // the given rows
+            for (Map.Entry<Integer, String> rejection
+                    : executeBatch(table, query, group.getValue(), "insertColumnRows").entrySet()) {
+                rejections.put(groupPositions.get(rejection.getKey()), rejection.getValue());
+            } // for
+        } // for
+        
+        if (!rejections.isEmpty()) {
+            throw new CygnusRejectedRows(rejections);
+        } // if
+    } // insertColumnRows
+    
+    /**
+     * Inserts or updates the rows of the given last value table. An existing row is not updated if the given value is
+     * older than the persisted one (but in H2). If the upsert fails because of bad data, the rows are upserted one by
+     * one, thus all of them but the bad ones are persisted.
+     * @param schemaName
+     * @param tableName
+     * @param lastValues A row per entity and attribute
+     * @throws CygnusRejectedRows If certain rows have been rejected because of bad data, given by their position
+     * within lastValues; the rest of the rows have been upserted
+     * @throws Exception
+     */
+    public void upsertLastValues(String schemaName, String tableName, Collection<Row> lastValues) throws Exception {
+        if (lastValues.isEmpty()) {
+            return;
+        } // if
+        
+        String table = dialect.buildTableName(schemaName, tableName);
+        ArrayList<Row> rows = new ArrayList<Row>(lastValues);
+        TreeMap<Integer, String> rejections = new TreeMap<Integer, String>();
+        long start = System.nanoTime();
+        boolean success = false;
+        Connection con = getConnection();
+        
+        try {
+            for (int from = 0; from < rows.size(); from += MAX_UPSERT_ROWS) {
+                executeUpsert(con, table, rows.subList(from, Math.min(rows.size(), from + MAX_UPSERT_ROWS)));
+            } // for
+            
+            con.commit();
+            success = true;
+        } catch (SQLException e) {
+            if (!isDataError(e)) {
+                // e.g. the table has been dropped by others, thus it is created again next time
+                created.remove(table);
+                throw new CygnusPersistenceError(e.getMessage());
+            } // if
+            
+            // a single bad row makes the whole upsert fail, thus the rows are upserted one by one
+            logger.warn("The last values could not be upserted at once, upserting them one by one (table=" + table
+                    + ", rows=" + rows.size() + ", details=" + e.getMessage() + ")");
+            
+            try {
+                con.rollback();
+                
+                for (int i = 0; i < rows.size(); i++) {
+                    try {
+                        executeUpsert(con, table, rows.subList(i, i + 1));
+                        con.commit();
+                    } catch (SQLException e2) {
+                        if (!isDataError(e2)) {
+                            throw e2;
+                        } // if
+                        
+                        con.rollback();
+                        rejections.put(i, e2.getMessage());
+                    } // try catch
+                } // for
+            } catch (SQLException e2) {
+                created.remove(table);
+                throw new CygnusPersistenceError(e2.getMessage());
+            } // try catch
+            
+            success = true;
+        } finally {
+            releaseConnection(con, success);
+            BackendLatency.record(dialect.getName(), "upsertLastValues", success, start);
+        } // try catch finally
+        
+        if (!rejections.isEmpty()) {
+            throw new CygnusRejectedRows(rejections);
+        } // if
+    } // upsertLastValues
+    
+    /**
+     * Makes sure a column-like table has a column per given name, creating the table if not existing and adding the
+     * missing columns otherwise. Nothing is queried if the catalog already has all the columns.
+     * @param schemaName
+     * @param tableName
+     * @param columnNames
+     * @throws Exception
+     */
+    public void provisionColumns(String schemaName, String tableName, Collection<String> columnNames)
+            throws Exception {
+        String table = dialect.buildTableName(schemaName, tableName);
+        Set<String> columns = catalog.get(table);
+        
+        if (columns != null && getMissingColumns(columns, columnNames).isEmpty()) {
+            return;
+        } // if
+        
+        long start = System.nanoTime();
+        boolean success = false;
+        Connection con = getConnection();
+        Statement stmt = null;
+        
+        try {
+            // the cached columns may be outdated, thus they are read again
+            columns = readColumns(con, schemaName, tableName);
+            ArrayList<String> missing = getMissingColumns(columns, columnNames);
+            
+            if (!missing.isEmpty()) {
+                String query;
+                
+                if (columns.isEmpty()) {
+                    query = dialect.buildCreateColumnTableQuery(table, missing);
+                } else {
+                    query = dialect.buildAddColumnsQuery(table, missing);
+                } // if else
+                
+                stmt = con.createStatement();
+                CygnusLogger.logDebug(logger, "Executing {} query '{}'", dialect.getName(), query);
+                stmt.executeUpdate(query);
+                con.commit();
+                logger.info("Table provisioned (dialect=" + dialect.getName() + ", schema=" + schemaName + ", table="
+                        + tableName + ", newColumns=" + missing + ")");
+                
+                for (String column : missing) {
+                    columns.add(normalize(column));
+                } // for
+            } // if
+            
+            catalog.put(table, columns);
+            success = true;
+        } catch (SQLException e) {
+            // e.g. another agent added the same column at the same time; the batch is retried
+            catalog.remove(table);
+            throw new CygnusPersistenceError("The columns of the " + tableName + " table could not be provisioned. "
+                    + "Details: " + e.getMessage());
+        } finally {
+            closeStatement(stmt);
+            releaseConnection(con, success);
+            BackendLatency.record(dialect.getName(), "provisionColumns", success, start);
+        } // try catch finally
+    } // provisionColumns
+    
+    /**
+     * Closes the idle connections. The connections in use are closed once released.
+     */
+    public void close() {
+        Connection con = idleConnections.poll();
+        
+        while (con != null) {
+            closeConnection(con);
+            con = idleConnections.poll();
+        } // while
+    } // close
+    
+    /**
+     * Gets the number of idle connections. It is protected due to it is only required for testing purposes.
+     * @return The number of idle connections
+     */
+    protected int getNumIdleConnections() {
+        return idleConnections.size();
+    } // getNumIdleConnections
+    
+    /**
+     * Opens a new connection, having the autocommit disabled. It is protected since it is overridden by the tests.
+     * @return A new connection
+     * @throws Exception
+     */
+    protected Connection openConnection() throws Exception {
+        try {
+            // dynamically load the JDBC driver
+            Class.forName(dialect.getDriverClassName());
+            logger.debug("Connecting to " + url + " (user=" + username + ", password=XXXXXXXXXX)");
+            Connection con = DriverManager.getConnection(url, username, password);
+            con.setAutoCommit(false);
+            return con;
+        } catch (Exception e) {
+            throw new CygnusPersistenceError(e.getMessage());
+        } // try catch
+    } // openConnection
+    
+    /**
+     * Executes a DDL query, unless already executed for the given key. It is protected since the backends for a
+     * specific database may create their tables in a different way.
+     * @param key
+     * @param query
+     * @param operation
+     * @throws Exception
+     */
+    protected void executeDDL(String key, String query, String operation) throws Exception {
+        if (created.contains(key)) {
+            return;
+        } // if
+        
+        long start = System.nanoTime();
+        boolean success = false;
+        Connection con = getConnection();
+        Statement stmt = null;
+        
+        try {
+            stmt = con.createStatement();
+            CygnusLogger.logDebug(logger, "Executing {} query '{}'", dialect.getName(), query);
+            stmt.executeUpdate(query);
+            con.commit();
+            created.add(key);
+            success = true;
+        } catch (SQLException e) {
+            throw new CygnusPersistenceError("The query '" + query + "' could not be executed. Details: "
+                    + e.getMessage());
+        } finally {
+            closeStatement(stmt);
+            releaseConnection(con, success);
+            BackendLatency.record(dialect.getName(), operation, success, start);
+        } // try catch finally
+    } // executeDDL
+    
+    /**
+     * Executes a single row insert query as a batch, within a single transaction. If the batch fails because of bad
+     * data, the rows are inserted one by one, thus a single bad row does not make the whole batch fail forever; the
+     * bad rows are skipped. Any other error is a persistence error.
+     * @param table
+     * @param query
+     * @param rows
+     * @param operation
+     * @return The rows rejected because of bad data, given by their position within rows, and the reason
+     * @throws Exception
+     */
+    private Map<Integer, String> executeBatch(String table, String query, List<Object[]> rows, String operation)
+            throws Exception {
+        TreeMap<Integer, String> rejections = new TreeMap<Integer, String>();
+        long start = System.nanoTime();
+        boolean success = false;
+        Connection con = getConnection();
+        PreparedStatement stmt = null;
+        
+        try {
+            stmt = con.prepareStatement(query);
+            
+            for (Object[] row : rows) {
+                setParams(stmt, row);
+                stmt.addBatch();
+            } // for
+            
+            CygnusLogger.logDebug(logger, "Executing {} query '{}' ({} rows)", dialect.getName(), query, rows.size());
+            stmt.executeBatch();
+            con.commit();
+            success = true;
+        } catch (SQLException e) {
+            if (!isDataError(e)) {
+                // e.g. the table has been dropped or altered by others, thus it is checked again next time
+                created.remove(table);
+                catalog.remove(table);
+                throw new CygnusPersistenceError(e.getMessage());
+            } // if
+            
+            logger.warn("The rows could not be inserted in a single batch, inserting them one by one (table=" + table
+                    + ", rows=" + rows.size() + ", details=" + e.getMessage() + ")");
+            
+            try {
+                con.rollback();
+                insertOneByOne(con, query, rows, rejections);
+            } catch (SQLException e2) {
+                created.remove(table);
+                catalog.remove(table);
+                throw new CygnusPersistenceError(e2.getMessage());
+            } // try catch
+            
+            success = true;
+        } finally {
+            closeStatement(stmt);
+            releaseConnection(con, success);
+            BackendLatency.record(dialect.getName(), operation, success, start);
+        } // try catch finally
+        
+        return rejections;
+    } // executeBatch
+    
+    /**
+     * Inserts the rows one by one, a transaction per row. The rows failing because of bad data are rolled back and
+     * put, by position, in the given rejections; any other error is thrown.
+     * @param con
+     * @param query
+     * @param rows
+     * @param rejections
+     * @throws SQLException
+     */
+    private void insertOneByOne(Connection con, String query, List<Object[]> rows, Map<Integer, String> rejections)
+            throws SQLException {
+        PreparedStatement stmt = con.prepareStatement(query);
+        
+        try {
+            for (int i = 0; i < rows.size(); i++) {
+                try {
+                    setParams(stmt, rows.get(i));
+                    stmt.executeUpdate();
+                    con.commit();
+                } catch (SQLException e) {
+                    if (!isDataError(e)) {
+                        throw e;
+                    } // if
+                    
+                    con.rollback();
+                    rejections.put(i, e.getMessage());
+                } // try catch
+            } // for
+        } finally {
+            stmt.close();
+        } // try finally
+    } // insertOneByOne
+    
+    /**
+     * Executes a multi-row upsert query for the given rows of a last value table.
+     * @param con
+     * @param table
+     * @param rows
+     * @throws SQLException
+     */
+    private void executeUpsert(Connection con, String table, List<Row> rows) throws SQLException {
+        String query = dialect.buildUpsertQuery(table, rows.size());
+        PreparedStatement stmt = con.prepareStatement(query);
+        
+        try {
+            int i = 1;
+            
+            for (Row row : rows) {
+                for (Object param : row.toParams()) {
+                    stmt.setObject(i++, param);
+                } // for
+            } // for
+            
+            CygnusLogger.logDebug(logger, "Executing {} query '{}' ({} rows)", dialect.getName(), query, rows.size());
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        } // try finally
+    } // executeUpsert
+    
+    private void setParams(PreparedStatement stmt, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        } // for
+    } // setParams
+    
+    /**
+     * Reads the columns of a table from information_schema.
+     * @param con
+     * @param schemaName
+     * @param tableName
+     * @return The normalized names of the columns, empty if the table does not exist
+     * @throws SQLException
+     */
+    private Set<String> readColumns(Connection con, String schemaName, String tableName) throws SQLException {
+        HashSet<String> columns = new HashSet<String>();
+        PreparedStatement stmt = con.prepareStatement(dialect.buildReadColumnsQuery());
+        
+        try {
+            stmt.setString(1, schemaName);
+            stmt.setString(2, tableName);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                columns.add(normalize(rs.getString(1)));
+            } // while
+            
+            rs.close();
+        } finally {
+            stmt.close();
+        } // try finally
+        
+        return columns;
+    } // readColumns
+    
+    private ArrayList<String> getMissingColumns(Set<String> columns, Collection<String> columnNames) {
+        ArrayList<String> missing = new ArrayList<String>();
+        HashSet<String> added = new HashSet<String>();
+        
+        for (String columnName : columnNames) {
+            String normalized = normalize(columnName);
+            
+            if (!columns.contains(normalized) && added.add(normalized)) {
+                missing.add(columnName);
+            } // if
+        } // for
+        
+        return missing;
+    } // getMissingColumns
+    
+    private String normalize(String columnName) {
+        return dialect.isCaseSensitive() ? columnName : columnName.toLowerCase();
+    } // normalize
+    
+    /**
+     * Checks if a SQL error is about the data being persisted, i.e. its SQLState class is 22 (data exception) or 23
+     * (integrity constraint violation), instead of about the schema, the table, the permissions or the connection.
+     * The chained errors are checked as well, since a failed batch may not have any SQLState by itself.
+     * @param e
+     * @return True if the error is about the data, false otherwise
+     */
+    public static boolean isDataError(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            String sqlState = cause.getSQLState();
+            
+            if (sqlState != null) {
+                return sqlState.startsWith("22") || sqlState.startsWith("23");
+            } // if
+        } // for
+        
+        return false;
+    } // isDataError
+    
+    /**
+     * Gets a connection from the pool, opening a new one if there is no idle connection. The idle connections are
+     * checked to be alive, since the server may have closed them (e.g. MySQL wait_timeout) while isClosed() still
+     * returns false. It is protected since the backends for a specific database may run their own queries.
+     * @return A connection, having the autocommit disabled
+     * @throws Exception
+     */
+    protected Connection getConnection() throws Exception {
+        Connection con = idleConnections.poll();
+        
+        while (con != null) {
+            try {
+                if (con.isValid(VALIDATION_TIMEOUT)) {
+                    return con;
+                } // if
+                
+                logger.debug("An idle connection is not valid anymore, it is discarded");
+            } catch (SQLException e) {
+                logger.debug("An idle connection could not be checked, it is discarded (details=" + e.getMessage()
+                        + ")");
+            } // try catch
+            
+            closeConnection(con);
+            con = idleConnections.poll();
+        } // while
+        
+        return openConnection();
+    } // getConnection
+    
+    /**
+     * Gives back a connection to the pool if reusable and the pool is not full; otherwise it is closed. It is protected
+     * since the backends for a specific database may run their own queries.
+     * @param con
+     * @param reusable
+     */
+    protected void releaseConnection(Connection con, boolean reusable) {
+        if (reusable && maxIdleConnections > 0 && idleConnections.offer(con)) {
+            return;
+        } // if
+        
+        if (!reusable) {
+            try {
+                con.rollback();
+            } catch (SQLException e) {
+                logger.debug("A connection could not be rolled back (details=" + e.getMessage() + ")");
+            } // try catch
+        } // if
+        
+        closeConnection(con);
+    } // releaseConnection
+    
+    private void closeConnection(Connection con) {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            logger.debug("A connection could not be closed (details=" + e.getMessage() + ")");
+        } // try catch
+    } // closeConnection
+    
+    /**
+     * Closes a statement, if any, logging the error if it cannot be closed. It is protected since the backends for a
+     * specific database may run their own queries.
+     * @param stmt
+     */
+    protected void closeStatement(Statement stmt) {
+        if (stmt == null) {
+            return;
+        } // if
+        
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            logger.debug("A statement could not be closed (details=" + e.getMessage() + ")");
+        } // try catch
+    } // closeStatement
+    
+    /**
+     * A row of a row-like or last value table.
+     */
+    public static class Row {
+        
+        private final long recvTimeTs;
+        private final String recvTime;
+        private final String entityId;
+        private final String entityType;
+        private final String attrName;
+        private final String attrType;
+        private final String attrValue;
+        private final String attrMd;
+        
+        /**
+         * Constructor.
+         * @param recvTimeTs
+         * @param recvTime
+         * @param entityId
+         * @param entityType
+         * @param attrName
+         * @param attrType
+         * @param attrValue
+         * @param attrMd
+         */
+        public Row(long recvTimeTs, String recvTime, String entityId, String entityType, String attrName,
+                String attrType, String attrValue, String attrMd) {
+            this.recvTimeTs = recvTimeTs;
+            this.recvTime = recvTime;
+            this.entityId = entityId;
+            this.entityType = entityType;
+            this.attrName = attrName;
+            this.attrType = attrType;
+            this.attrValue = attrValue;
+            this.attrMd = attrMd;
+        } // Row
+        
+        public long getRecvTimeTs() {
+            return recvTimeTs;
+        } // getRecvTimeTs
+        
+        public String getRecvTime() {
+            return recvTime;
+        } // getRecvTime
+        
+        public String getEntityId() {
+            return entityId;
+        } // getEntityId
+        
+        public String getEntityType() {
+            return entityType;
+        } // getEntityType
+        
+        public String getAttrName() {
+            return attrName;
+        } // getAttrName
+        
+        public String getAttrType() {
+            return attrType;
+        } // getAttrType
+        
+        public String getAttrValue() {
+            return attrValue;
+        } // getAttrValue
+        
+        public String getAttrMd() {
+            return attrMd;
+        } // getAttrMd
+        
+        /**
+         * Gets the values of the row, in the order of SQLDialect.ROW_COLUMNS.
+         * @return The values of the row
+         */
+        Object[] toParams() {
+            return new Object[] {recvTimeTs, recvTime, entityId, entityType, attrName, attrType, attrValue, attrMd};
+        } // toParams
+        
+    } // Row
+    
+} // JDBCBackend
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+
+/**
+ *
+ * @author frb
+ * 
+ * MySQL dialect. The schemas are MySQL databases, thus the connections are not bound to any database. The batches of
+ * inserts are rewritten by the driver as multi-row inserts (rewriteBatchedStatements).
+ */
+public class MySQLDialect extends SQLDialect {
+    
+    @Override
+    public String getName() {
+        return "mysql";
+    } // getName
+    
+    @Override
+    public String getDriverClassName() {
+        return "com.mysql.jdbc.Driver";
+    } // getDriverClassName
+    
+    @Override
+    public String getDefaultPort() {
+        return "3306";
+    } // getDefaultPort
+    
+    @Override
+    public String buildURL(String host, String port, String database) {
+        return "jdbc:mysql://" + host + ":" + port + "/?rewriteBatchedStatements=true";
+    } // buildURL
+    
+    @Override
+    public String quote(String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    } // quote
+    
+    @Override
+    public boolean isCaseSensitive() {
+        return false;
+    } // isCaseSensitive
+    
+    /**
+     * Builds a multi-row "insert ... on duplicate key update" query. The fields are updated only if the new value is
+     * not older than the persisted one; recvTimeTs is updated the last since MySQL evaluates the assignments from left
+     * to right.
+     * @param table
+     * @param numRows
+     * @return The query
+     */
+    @Override
+    public String buildUpsertQuery(String table, int numRows) {
+        StringBuilder query = new StringBuilder(buildInsertQuery(table, ROW_COLUMNS, numRows));
+        String recvTimeTs = quote(Constants.RECV_TIME_TS);
+        String newer = "values(" + recvTimeTs + ") >= " + recvTimeTs;
+        String[] fields = {Constants.RECV_TIME, Constants.ENTITY_TYPE, Constants.ATTR_TYPE, Constants.ATTR_VALUE,
+            Constants.ATTR_MD};
+        query.append(" on duplicate key update ");
+        
+        for (String field : fields) {
+            String column = quote(field);
+            query.append(column).append(" = if(").append(newer).append(", values(").append(column).append("), ")
+                    .append(column).append("), ");
+        } // for
+        
+        query.append(recvTimeTs).append(" = greatest(").append(recvTimeTs).append(", values(").append(recvTimeTs)
+                .append("))");
+        return query.toString();
+    } // buildUpsertQuery
+    
+} // MySQLDialect
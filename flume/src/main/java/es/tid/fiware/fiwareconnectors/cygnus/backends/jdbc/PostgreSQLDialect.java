@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+
+/**
+ *
+ * @author frb
+ * 
+ * PostgreSQL dialect. The schemas are created within the configured database, and the batches of inserts are
+ * rewritten by the driver as multi-row inserts (reWriteBatchedInserts). PostgreSQL 9.5 or higher is required by the
+ * last value tables ("insert ... on conflict").
+ */
+public class PostgreSQLDialect extends SQLDialect {
+    
+    @Override
+    public String getName() {
+        return "postgresql";
+    } // getName
+    
+    @Override
+    public String getDriverClassName() {
+        return "org.postgresql.Driver";
+    } // getDriverClassName
+    
+    @Override
+    public String getDefaultPort() {
+        return "5432";
+    } // getDefaultPort
+    
+    @Override
+    public String buildURL(String host, String port, String database) {
+        return "jdbc:postgresql://" + host + ":" + port + "/" + database + "?reWriteBatchedInserts=true";
+    } // buildURL
+    
+    /**
+     * Gets the maximum length of a column name; longer names are silently truncated by PostgreSQL, thus two of them
+     * may become the same column.
+     * @return The maximum length of a column name
+     */
+    @Override
+    public int getMaxColumnNameLength() {
+        return 63;
+    } // getMaxColumnNameLength
+    
+    /**
+     * Builds a multi-row "insert ... on conflict do update" query. The existing rows are updated only if the new
+     * value is not older than the persisted one.
+     * @param table
+     * @param numRows
+     * @return The query
+     */
+    @Override
+    public String buildUpsertQuery(String table, int numRows) {
+        // the target table is aliased, thus it can be referred within the where clause
+        StringBuilder upsert = new StringBuilder(buildInsertQuery(table + " as lv", ROW_COLUMNS, numRows));
+        upsert.append(" on conflict (").append(quote(Constants.ENTITY_ID)).append(", ")
+                .append(quote(Constants.ATTR_NAME)).append(") do update set ");
+        
+        for (int i = 0; i < ROW_COLUMNS.length; i++) {
+            String column = quote(ROW_COLUMNS[i]);
+            upsert.append(i == 0 ? "" : ", ").append(column).append(" = excluded.").append(column);
+        } // for
+        
+        upsert.append(" where excluded.").append(quote(Constants.RECV_TIME_TS)).append(" >= lv.")
+                .append(quote(Constants.RECV_TIME_TS));
+        return upsert.toString();
+    } // buildUpsertQuery
+    
+} // PostgreSQLDialect
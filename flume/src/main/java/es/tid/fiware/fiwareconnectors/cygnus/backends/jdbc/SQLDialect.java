@@ -0,0 +1,227 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.util.List;
+
+/**
+ *
+ * @author frb
+ * 
+ * SQL syntax and JDBC driver details of a relational database, as required by the JDBCBackend. The queries not
+ * depending on the database are built here using standard SQL; the dialects override them when needed.
+ * 
+ * The data of a fiware-service is stored in a schema (a database in MySQL), thus all the tables are qualified with
+ * their schema and a single connection URL is used for all the fiware-services.
+ */
+public abstract class SQLDialect {
+    
+    /**
+     * The columns of the row-like and last value tables, in insertion order.
+     */
+    public static final String[] ROW_COLUMNS = {Constants.RECV_TIME_TS, Constants.RECV_TIME, Constants.ENTITY_ID,
+        Constants.ENTITY_TYPE, Constants.ATTR_NAME, Constants.ATTR_TYPE, Constants.ATTR_VALUE, Constants.ATTR_MD};
+    
+    /**
+     * Gets the name of the dialect, used in the logs and the backend metrics.
+     * @return The name of the dialect
+     */
+    public abstract String getName();
+    
+    /**
+     * Gets the class name of the JDBC driver. The driver is not bundled with Cygnus but for MySQL, thus it must be
+     * available in the classpath.
+     * @return The class name of the JDBC driver
+     */
+    public abstract String getDriverClassName();
+    
+    /**
+     * Gets the port the database listens to by default.
+     * @return The default port
+     */
+    public abstract String getDefaultPort();
+    
+    /**
+     * Builds the connection URL.
+     * @param host
+     * @param port
+     * @param database Database the connections are bound to, if the dialect does not use the schemas as databases
+     * @return The connection URL
+     */
+    public abstract String buildURL(String host, String port, String database);
+    
+    /**
+     * Builds a query inserting the given rows in a last value table, or updating the existing rows having the same
+     * entityId and attrName. An existing row should not be updated if the given value is older than the persisted
+     * one.
+     * @param table Qualified and quoted table name
+     * @param numRows
+     * @return The query, having a parameter per row column (see ROW_COLUMNS) and row
+     */
+    public abstract String buildUpsertQuery(String table, int numRows);
+    
+    /**
+     * Quotes an identifier, thus it may contain any character and its case is preserved.
+     * @param identifier
+     * @return The quoted identifier
+     */
+    public String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    } // quote
+    
+    /**
+     * Returns if two column names only differing in case are different columns.
+     * @return True if the column names are case sensitive, false otherwise
+     */
+    public boolean isCaseSensitive() {
+        return true;
+    } // isCaseSensitive
+    
+    /**
+     * Gets the maximum length of a column name.
+     * @return The maximum length of a column name
+     */
+    public int getMaxColumnNameLength() {
+        return Constants.MAX_NAME_LEN;
+    } // getMaxColumnNameLength
+    
+    /**
+     * Builds the qualified and quoted name of a table.
+     * @param schemaName
+     * @param tableName
+     * @return The qualified and quoted name of the table
+     */
+    public String buildTableName(String schemaName, String tableName) {
+        return quote(schemaName) + "." + quote(tableName);
+    } // buildTableName
+    
+    /**
+     * Builds the query creating a schema if not existing.
+     * @param schemaName
+     * @return The query
+     */
+    public String buildCreateSchemaQuery(String schemaName) {
+        return "create schema if not exists " + quote(schemaName);
+    } // buildCreateSchemaQuery
+    
+    /**
+     * Builds the query creating a row-like table if not existing.
+     * @param table Qualified and quoted table name
+     * @return The query
+     */
+    public String buildCreateTableQuery(String table) {
+        return "create table if not exists " + table + " ("
+                + quote(Constants.RECV_TIME_TS) + " bigint, "
+                + quote(Constants.RECV_TIME) + " text, "
+                + quote(Constants.ENTITY_ID) + " text, "
+                + quote(Constants.ENTITY_TYPE) + " text, "
+                + quote(Constants.ATTR_NAME) + " text, "
+                + quote(Constants.ATTR_TYPE) + " text, "
+                + quote(Constants.ATTR_VALUE) + " text, "
+                + quote(Constants.ATTR_MD) + " text)";
+    } // buildCreateTableQuery
+    
+    /**
+     * Builds the query creating a last value table if not existing, having entityId and attrName as primary key.
+     * @param table Qualified and quoted table name
+     * @return The query
+     */
+    public String buildCreateLastValueTableQuery(String table) {
+        return "create table if not exists " + table + " ("
+                + quote(Constants.RECV_TIME_TS) + " bigint, "
+                + quote(Constants.RECV_TIME) + " text, "
+                + quote(Constants.ENTITY_ID) + " varchar(255) not null, "
+                + quote(Constants.ENTITY_TYPE) + " text, "
+                + quote(Constants.ATTR_NAME) + " varchar(255) not null, "
+                + quote(Constants.ATTR_TYPE) + " text, "
+                + quote(Constants.ATTR_VALUE) + " text, "
+                + quote(Constants.ATTR_MD) + " text, "
+                + "primary key (" + quote(Constants.ENTITY_ID) + ", " + quote(Constants.ATTR_NAME) + "))";
+    } // buildCreateLastValueTableQuery
+    
+    /**
+     * Builds the query creating a column-like table if not existing, having a text column per given name.
+     * @param table Qualified and quoted table name
+     * @param columnNames
+     * @return The query
+     */
+    public String buildCreateColumnTableQuery(String table, List<String> columnNames) {
+        StringBuilder query = new StringBuilder("create table if not exists " + table + " (");
+        
+        for (int i = 0; i < columnNames.size(); i++) {
+            query.append(i == 0 ? "" : ", ").append(quote(columnNames.get(i))).append(" text");
+        } // for
+        
+        return query.append(")").toString();
+    } // buildCreateColumnTableQuery
+    
+    /**
+     * Builds the query adding, all at the same time, a text column per given name to a table.
+     * @param table Qualified and quoted table name
+     * @param columnNames
+     * @return The query
+     */
+    public String buildAddColumnsQuery(String table, List<String> columnNames) {
+        StringBuilder query = new StringBuilder("alter table " + table);
+        
+        for (int i = 0; i < columnNames.size(); i++) {
+            query.append(i == 0 ? " " : ", ").append("add column ").append(quote(columnNames.get(i)))
+                    .append(" text");
+        } // for
+        
+        return query.toString();
+    } // buildAddColumnsQuery
+    
+    /**
+     * Builds the query reading the column names of a table from information_schema. It has two parameters, the
+     * schema name and the table name.
+     * @return The query
+     */
+    public String buildReadColumnsQuery() {
+        return "select column_name from information_schema.columns where table_schema = ? and table_name = ?";
+    } // buildReadColumnsQuery
+    
+    /**
+     * Builds a multi-row insert query.
+     * @param table Qualified and quoted table name
+     * @param columnNames
+     * @param numRows
+     * @return The query, having a parameter per column and row
+     */
+    public String buildInsertQuery(String table, String[] columnNames, int numRows) {
+        StringBuilder query = new StringBuilder("insert into " + table + " (");
+        StringBuilder params = new StringBuilder("(");
+        
+        for (int i = 0; i < columnNames.length; i++) {
+            query.append(i == 0 ? "" : ",").append(quote(columnNames[i]));
+            params.append(i == 0 ? "?" : ",?");
+        } // for
+        
+        query.append(") values ");
+        params.append(")");
+        
+        for (int i = 0; i < numRows; i++) {
+            query.append(i == 0 ? "" : ",").append(params);
+        } // for
+        
+        return query.toString();
+    } // buildInsertQuery
+    
+} // SQLDialect
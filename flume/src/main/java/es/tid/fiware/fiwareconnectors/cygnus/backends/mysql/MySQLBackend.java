@@ -18,34 +18,40 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.mysql;
 
-import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.MySQLDialect;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
-import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRuntimeError;
-import java.sql.Statement;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Iterator;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.apache.log4j.Logger;
-import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
-import java.sql.SQLTimeoutException;
 
 /**
  *
  * @author frb
  * 
- * MySQL related operations (database and table creation, context data insertion) when dealing with a MySQL
- * persistence backend.
+ * MySQL related operations when dealing with a MySQL persistence backend. The databases, tables and rows are handled
+ * as by any other JDBC persistence backend having the MySQL dialect (pooled connections, batched inserts, multi-row
+ * upserts of the last values, per table catalog of the columns); this class only adds the time partitioning.
+ * 
+ * Optionally, the row-like tables are created with typed columns, an index on (entityId, recvTimeTs) and time range
+ * partitions (see MySQLPartitioning); such partitions are created ahead of time and dropped once expired by a
+ * MySQLPartitionManager running in background.
  */
-public class MySQLBackend {
+public class MySQLBackend extends JDBCBackend {
     
-    private static String driverName = "com.mysql.jdbc.Driver";
-    private String mysqlHost;
-    private String mysqlPort;
-    private String mysqlUsername;
-    private String mysqlPassword;
-    private Logger logger;
+    private final Logger logger;
+    private MySQLPartitioning partitioning;
+    private MySQLPartitionManager partitionManager;
     
     /**
      * Constructor.
@@ -53,229 +59,251 @@ public class MySQLBackend {
      * @param mysqlPort
      * @param mysqlUsername
      * @param mysqlPassword
+     * @param maxIdleConnections Maximum number of connections kept open between operations (0 means no pooling)
      */
-    public MySQLBackend(String mysqlHost, String mysqlPort, String mysqlUsername, String mysqlPassword) {
-        this.mysqlHost = mysqlHost;
-        this.mysqlPort = mysqlPort;
-        this.mysqlUsername = mysqlUsername;
-        this.mysqlPassword = mysqlPassword;
+    public MySQLBackend(String mysqlHost, String mysqlPort, String mysqlUsername, String mysqlPassword,
+            int maxIdleConnections) {
+        super(new MySQLDialect(), mysqlHost, mysqlPort, "", mysqlUsername, mysqlPassword, maxIdleConnections);
         logger = Logger.getLogger(MySQLBackend.class);
     } // MySQLBackend
     
     /**
-     * Creates a database, given its name, if not exists.
-     * @param dbName
-     * @throws Exception
+     * Sets the time partitioning of the row-like tables, starting the background management of their partitions.
+     * @param partitioning Partitioning scheme, null means the tables are not partitioned
+     * @param checkInterval Milliseconds between two checks of the partitions
      */
-    public void createDatabase(String dbName) throws Exception {
-        Statement stmt = null;
-        
-        // get a connection to an empty database
-        Connection con = getConnection("");
-        
-        try {
-            stmt = con.createStatement();
-        } catch (Exception e) {
-            throw new CygnusRuntimeError(e.getMessage());
-        } // try catch
+    public synchronized void setPartitioning(MySQLPartitioning partitioning, long checkInterval) {
+        stopPartitionManager();
+        this.partitioning = partitioning;
         
-        try {
-            String query = "create database if not exists `" + dbName + "`";
-            logger.debug("Executing MySQL query '" + query + "'");
-            stmt.executeUpdate(query);
-        } catch (Exception e) {
-            throw new CygnusRuntimeError(e.getMessage());
-        } // try catch
-        
-        closeMySQLObjects(con, stmt);
-    } // createDatabase
+        if (partitioning != null) {
+            partitionManager = new MySQLPartitionManager(this, checkInterval);
+        } // if
+    } // setPartitioning
     
     /**
-     * Creates a table, given its name, if not exists in the given database.
+     * Stops the background management of the partitions, if any, and closes the idle connections.
+     */
+    @Override
+    public synchronized void close() {
+        stopPartitionManager();
+        super.close();
+    } // close
+    
+    /**
+     * Creates a table, given its name, if not exists in the given database. If a partitioning is set, the table is
+     * time partitioned and registered for the background management of its partitions.
      * @param dbName
      * @param tableName
      * @throws Exception
      */
+    @Override
     public void createTable(String dbName, String tableName) throws Exception {
-        Statement stmt = null;
-        
-        // get a connection to the given database
-        Connection con = getConnection(dbName);
+        MySQLPartitioning tablePartitioning = partitioning;
         
-        try {
-            stmt = con.createStatement();
-        } catch (Exception e) {
-            throw new CygnusRuntimeError(e.getMessage());
-        } // try catch
-        
-        try {
-            String query = "create table if not exists `" + tableName + "` ("
-                    + Constants.RECV_TIME_TS + " long, "
-                    + Constants.RECV_TIME + " text, "
-                    + Constants.ENTITY_ID + " text, "
-                    + Constants.ENTITY_TYPE + " text, "
-                    + Constants.ATTR_NAME + " text, "
-                    + Constants.ATTR_TYPE + " text, "
-                    + Constants.ATTR_VALUE + " text, "
-                    + Constants.ATTR_MD + " text)";
-            logger.debug("Executing MySQL query '" + query + "'");
-            stmt.executeUpdate(query);
-        } catch (Exception e) {
-            throw new CygnusRuntimeError(e.getMessage());
-        } // try catch
+        if (tablePartitioning == null) {
+            super.createTable(dbName, tableName);
+            return;
+        } // if
         
-        closeMySQLObjects(con, stmt);
+        String table = getDialect().buildTableName(dbName, tableName);
+        executeDDL(table, buildPartitionedTableQuery(table, tablePartitioning, System.currentTimeMillis() / 1000),
+                "createTable");
+        registerPartitionedTable(dbName, tableName);
     } // createTable
     
     /**
-     * Inserts a new row in the given table within the given database representing a unique attribute change.
-     * @param dbName
-     * @param tableName
-     * @param recvTimeTs
-     * @param recvTime
-     * @param entityId
-     * @param entityType
-     * @param attrName
-     * @param attrType
-     * @param attrValue
-     * @param attrMd
+     * Builds the query creating a time partitioned row-like table, having typed columns and an index on
+     * (entityId, recvTimeTs).
+     * @param table Qualified and quoted table name
+     * @param partitioning
+     * @param now Seconds since the epoch
+     * @return The query
+     */
+    static String buildPartitionedTableQuery(String table, MySQLPartitioning partitioning, long now) {
+        return "create table if not exists " + table + " ("
+                + Constants.RECV_TIME_TS + " bigint not null, "
+                + Constants.RECV_TIME + " datetime, "
+                + Constants.ENTITY_ID + " varchar(255), "
+                + Constants.ENTITY_TYPE + " varchar(255), "
+                + Constants.ATTR_NAME + " varchar(255), "
+                + Constants.ATTR_TYPE + " varchar(255), "
+                + Constants.ATTR_VALUE + " text, "
+                + Constants.ATTR_MD + " text, "
+                + "key `" + Constants.ENTITY_ID + "_" + Constants.RECV_TIME_TS + "` (" + Constants.ENTITY_ID + ", "
+                + Constants.RECV_TIME_TS + ")) "
+                + partitioning.buildPartitionByClause(now);
+    } // buildPartitionedTableQuery
+    
+    /**
+     * Reads the time partitioned tables of all the databases, i.e. the tables partitioned by ranges of recvTimeTs. It
+     * is invoked in background by the MySQLPartitionManager when starting, thus the partitions of the tables created
+     * before restarting are managed as well, even if such tables are not written anymore.
+     * @return The database and table names of the time partitioned tables
      * @throws Exception
      */
-    public void insertContextData(String dbName, String tableName, long recvTimeTs, String recvTime, String entityId,
-            String entityType, String attrName, String attrType, String attrValue, String attrMd) throws Exception {
-        Statement stmt = null;
-        
-        // get a connection to the given database
-        Connection con = getConnection(dbName);
-            
-        try {
-            stmt = con.createStatement();
-        } catch (Exception e) {
-            throw new CygnusRuntimeError(e.getMessage());
-        } // try catch
+    public List<String[]> readPartitionedTables() throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        Connection con = getConnection();
+        PreparedStatement stmt = null;
         
         try {
-            String query = "insert into `" + tableName + "` values ('" + recvTimeTs + "', '" + recvTime + "', '"
-                    + entityId + "', '" + entityType + "', '" + attrName + "', '" + attrType + "', '" + attrValue
-                    + "', '" + attrMd + "')";
-            logger.debug("Executing MySQL query '" + query + "'");
-            stmt.executeUpdate(query);
-        } catch (SQLTimeoutException e) {
-            throw new CygnusPersistenceError(e.getMessage());
+            ArrayList<String[]> tables = new ArrayList<String[]>();
+            
+            // depending on the version, MySQL quotes the partitioning expression or not
+            stmt = con.prepareStatement("select distinct table_schema, table_name from information_schema.partitions "
+                    + "where partition_method = 'RANGE' and replace(partition_expression, '`', '') = ?");
+            stmt.setString(1, Constants.RECV_TIME_TS);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                tables.add(new String[] {rs.getString(1), rs.getString(2)});
+            } // while
+            
+            rs.close();
+            con.commit();
+            success = true;
+            return tables;
         } catch (SQLException e) {
-            throw new CygnusBadContextData(e.getMessage());
-        } // try catch
-        
-        closeMySQLObjects(con, stmt);
-    } // insertContextData
+            throw new CygnusPersistenceError("The time partitioned tables could not be read. Details: "
+                    + e.getMessage());
+        } finally {
+            closeStatement(stmt);
+            releaseConnection(con, success);
+            BackendLatency.record("mysql", "readPartitionedTables", success, start);
+        } // try catch finally
+    } // readPartitionedTables
     
     /**
-     * Inserts a new row in the given table within the given database representing full attribute list changes.
+     * Creates the partitions of a time partitioned table not yet created ahead of time, and drops the expired ones.
+     * It is invoked in background by the MySQLPartitionManager.
      * @param dbName
      * @param tableName
-     * @param recvTime
-     * @param attrs
-     * @param mds
+     * @return False if the table is not time partitioned, thus its partitions must not be managed, true otherwise
      * @throws Exception
      */
-    public void insertContextData(String dbName, String tableName, String recvTime,
-            Map<String, String> attrs, Map<String, String> mds) throws Exception {
-        Statement stmt = null;
-        String columnNames = null;
-        String columnValues = null;
+    public boolean managePartitions(String dbName, String tableName) throws Exception {
+        MySQLPartitioning tablePartitioning = partitioning;
         
-        // get a connection to the MySQL server and get a statement
-        Connection con = getConnection(dbName);
+        if (tablePartitioning == null) {
+            return true;
+        } // if
+        
+        String table = getDialect().buildTableName(dbName, tableName);
+        long start = System.nanoTime();
+        boolean success = false;
+        Connection con = getConnection();
+        Statement stmt = null;
         
         try {
+            LinkedHashMap<String, Long> partitions = new LinkedHashMap<String, Long>();
+            boolean hasMaxPartition = readPartitions(con, dbName, tableName, partitions);
+            
+            if (!hasMaxPartition || partitions.isEmpty()) {
+                logger.warn("MySQL table not partitioned as expected, its partitions are not managed (database="
+                        + dbName + ", table=" + tableName + ")");
+                con.commit();
+                success = true;
+                return false;
+            } // if
+            
+            long now = System.currentTimeMillis() / 1000;
+            long lastBound = Long.MIN_VALUE;
+            
+            for (Long bound : partitions.values()) {
+                lastBound = Math.max(lastBound, bound);
+            } // for
             
             stmt = con.createStatement();
-
-            // for query building purposes
-            columnNames = Constants.RECV_TIME;
-            columnValues = "'" + recvTime + "'";
-
-            // iterate on the attrs in order to build the query
-            Iterator it = attrs.keySet().iterator();
-
-            while (it.hasNext()) {
-                String attrName = (String) it.next();
-                columnNames += "," + attrName;
-                String attrValue = attrs.get(attrName);
-                columnValues += ",'" + attrValue + "'";
-            } // while
-
-            // iterate on the mds in order to build the query
-            it = mds.keySet().iterator();
-
-            while (it.hasNext()) {
-                String attrMdName = (String) it.next();
-                columnNames += "," + attrMdName;
-                String md = mds.get(attrMdName);
-                columnValues += ",'" + md + "'";
-            } // while
-        } catch (Exception e) {
-            throw new CygnusRuntimeError(e.getMessage());
-        } // try catch
+            String query = tablePartitioning.buildReorganizeQuery(table, lastBound, now);
+            
+            if (query != null) {
+                CygnusLogger.logDebug(logger, "Executing MySQL query '{}'", query);
+                stmt.executeUpdate(query);
+                logger.info("MySQL partitions created ahead of time (database=" + dbName + ", table=" + tableName
+                        + ")");
+            } // if
+            
+            List<String> expired = tablePartitioning.getExpiredPartitions(partitions, now);
+            
+            if (!expired.isEmpty()) {
+                query = "alter table " + table + " drop partition ";
                 
-        try {
-            // finish creating the query and execute it
-            String query = "insert into `" + tableName + "` (" + columnNames + ") values (" + columnValues + ")";
-            logger.debug("Executing MySQL query '" + query + "'");
-            stmt.executeUpdate(query);
-        } catch (SQLTimeoutException e) {
-            throw new CygnusPersistenceError(e.getMessage());
+                for (int i = 0; i < expired.size(); i++) {
+                    query += (i == 0 ? "" : ", ") + expired.get(i);
+                } // for
+                
+                CygnusLogger.logDebug(logger, "Executing MySQL query '{}'", query);
+                stmt.executeUpdate(query);
+                logger.info("MySQL expired partitions dropped (database=" + dbName + ", table=" + tableName
+                        + ", partitions=" + expired + ")");
+            } // if
+            
+            // the partitioning queries are implicitly committed by MySQL, but the read ones
+            con.commit();
+            success = true;
+            return true;
         } catch (SQLException e) {
-            throw new CygnusBadContextData(e.getMessage());
-        } // try catch
-        
-        closeMySQLObjects(con, stmt);
-    } // insertContextData
+            throw new CygnusPersistenceError("The partitions of the " + tableName + " table could not be managed. "
+                    + "Details: " + e.getMessage());
+        } finally {
+            closeStatement(stmt);
+            releaseConnection(con, success);
+            BackendLatency.record("mysql", "managePartitions", success, start);
+        } // try catch finally
+    } // managePartitions
     
     /**
-     * Gets a connection to the MySQL server.
-     * @return
-     * @throws Exception
+     * Reads the partitions of a table from information_schema.
+     * @param con
+     * @param dbName
+     * @param tableName
+     * @param partitions Map where the partitions, but the catch-all one, and their upper bounds are put
+     * @return True if the table has a catch-all partition, false otherwise
+     * @throws SQLException
      */
-    private Connection getConnection(String dbName) throws Exception {
+    private boolean readPartitions(Connection con, String dbName, String tableName, Map<String, Long> partitions)
+            throws SQLException {
+        boolean hasMaxPartition = false;
+        PreparedStatement stmt = con.prepareStatement("select partition_name, partition_description "
+                + "from information_schema.partitions where table_schema = ? and table_name = ? "
+                + "and partition_name is not null order by partition_ordinal_position");
+        
         try {
-            // dynamically load the MySQL JDBC driver
-            Class.forName(driverName);
-
-            // return a connection based on the MySQL JDBC driver
-            logger.debug("Connecting to jdbc:mysql://" + mysqlHost + ":" + mysqlPort + "/" + dbName + "?user="
-                    + mysqlUsername + "&password=XXXXXXXXXX");
-            return DriverManager.getConnection("jdbc:mysql://" + mysqlHost + ":" + mysqlPort + "/" + dbName,
-                    mysqlUsername, mysqlPassword);
-        } catch (Exception e) {
-            throw new CygnusPersistenceError(e.getMessage());
-        } // try catch
-    } // getConnection
+            stmt.setString(1, dbName);
+            stmt.setString(2, tableName);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                String description = rs.getString(2);
+                
+                if (description.equalsIgnoreCase("maxvalue")) {
+                    hasMaxPartition = true;
+                } else {
+                    partitions.put(rs.getString(1), Long.valueOf(description));
+                } // if else
+            } // while
+            
+            rs.close();
+        } finally {
+            stmt.close();
+        } // try finally
+        
+        return hasMaxPartition;
+    } // readPartitions
     
-    /**
-     * Close all the MySQL objects previously opened by doCreateTable and doQuery.
-     * @param con
-     * @param stmt
-     * @return True if the MySQL objects have been closed, false otherwise.
-     */
-    private void closeMySQLObjects(Connection con, Statement stmt) throws Exception {
-        if (con != null) {
-            try {
-                con.close();
-            } catch (SQLException e) {
-                throw new CygnusRuntimeError("The Hive connection could not be closed. Details="
-                        + e.getMessage());
-            } // try catch
+    private synchronized void registerPartitionedTable(String dbName, String tableName) {
+        if (partitionManager != null) {
+            partitionManager.register(dbName, tableName);
         } // if
-
-        if (stmt != null) {
-            try {
-                stmt.close();
-            } catch (SQLException e) {
-                throw new CygnusRuntimeError("The Hive statement could not be closed. Details="
-                        + e.getMessage());
-            } // try catch
+    } // registerPartitionedTable
+    
+    private void stopPartitionManager() {
+        if (partitionManager != null) {
+            partitionManager.stop();
+            partitionManager = null;
         } // if
-    } // closeMySQLObjects
+    } // stopPartitionManager
     
-} // MySQLBackend
\ No newline at end of file
+} // MySQLBackend
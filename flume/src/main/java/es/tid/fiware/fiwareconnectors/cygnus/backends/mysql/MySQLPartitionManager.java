@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.mysql;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Manages in background the partitions of the time partitioned MySQL tables, thus the sinks never wait for the
+ * partitioning related DDL. Once a table is registered, a single thread periodically creates its partitions ahead of
+ * time and drops the expired ones; a failure is just logged, the table is checked again in the next round. The
+ * already existing time partitioned tables are registered in the first round, thus their partitions are managed after
+ * restarting even if they are not written anymore; the tables found not to be partitioned are unregistered.
+ */
+public class MySQLPartitionManager {
+    
+    private final Logger logger;
+    private final MySQLBackend mysqlBackend;
+    private final Set<String> tables;
+    private final ScheduledExecutorService executor;
+    private boolean loaded;
+    
+    /**
+     * Constructor.
+     * @param mysqlBackend MySQL client used for managing the partitions
+     * @param checkInterval Milliseconds between two checks of the partitions of all the registered tables
+     */
+    public MySQLPartitionManager(MySQLBackend mysqlBackend, long checkInterval) {
+        logger = Logger.getLogger(MySQLPartitionManager.class);
+        this.mysqlBackend = mysqlBackend;
+        tables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mysql-partition-manager");
+                thread.setDaemon(true);
+                return thread;
+            } // newThread
+            
+        });
+        
+        checkInterval = Math.max(1, checkInterval);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                manageAll();
+            } // run
+            
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    } // MySQLPartitionManager
+    
+    /**
+     * Registers a table whose partitions must be managed, checking its partitions as soon as possible since the table
+     * may have been created long ago. It never blocks.
+     * @param dbName
+     * @param tableName
+     * @return True if the table has been registered, false if it was already registered
+     */
+    public boolean register(final String dbName, final String tableName) {
+        if (!tables.add(dbName + "\t" + tableName)) {
+            return false;
+        } // if
+        
+        logger.debug("MySQL table registered for partition management (database=" + dbName + ", table=" + tableName
+                + ")");
+        
+        try {
+            executor.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    manage(dbName, tableName);
+                } // run
+                
+            });
+        } catch (Exception e) {
+            // the partition manager is being stopped
+            logger.debug("The partitions of a MySQL table could not be checked (database=" + dbName + ", table="
+                    + tableName + ", details=" + e.getMessage() + ")");
+        } // try catch
+        
+        return true;
+    } // register
+    
+    /**
+     * Unregisters a table, thus its partitions are not managed anymore.
+     * @param dbName
+     * @param tableName
+     */
+    public void unregister(String dbName, String tableName) {
+        if (tables.remove(dbName + "\t" + tableName)) {
+            logger.debug("MySQL table unregistered from partition management (database=" + dbName + ", table="
+                    + tableName + ")");
+        } // if
+    } // unregister
+    
+    /**
+     * Gets the number of tables whose partitions are managed.
+     * @return The number of tables whose partitions are managed
+     */
+    public int getNumTables() {
+        return tables.size();
+    } // getNumTables
+    
+    /**
+     * Stops the partition management.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } // try catch
+    } // stop
+    
+    /**
+     * Checks the partitions of all the registered tables, registering the already existing ones the first time. It is
+     * protected since it is invoked by the tests.
+     */
+    protected void manageAll() {
+        if (!loaded) {
+            loadTables();
+        } // if
+        
+        for (String table : tables) {
+            String[] names = table.split("\t");
+            manage(names[0], names[1]);
+        } // for
+    } // manageAll
+    
+    /**
+     * Registers the already existing time partitioned tables. If they cannot be read, this is retried in the next
+     * round.
+     */
+    private void loadTables() {
+        try {
+            List<String[]> partitionedTables = mysqlBackend.readPartitionedTables();
+            
+            for (String[] table : partitionedTables) {
+                tables.add(table[0] + "\t" + table[1]);
+            } // for
+            
+            loaded = true;
+            logger.info("MySQL time partitioned tables registered for partition management (numTables="
+                    + partitionedTables.size() + ")");
+        } catch (Exception e) {
+            logger.warn("The MySQL time partitioned tables could not be read, retrying later (details="
+                    + e.getMessage() + ")");
+        } // try catch
+    } // loadTables
+    
+    private void manage(String dbName, String tableName) {
+        try {
+            if (!mysqlBackend.managePartitions(dbName, tableName)) {
+                unregister(dbName, tableName);
+            } // if
+        } catch (Exception e) {
+            logger.warn("The partitions of a MySQL table could not be managed, retrying later (database=" + dbName
+                    + ", table=" + tableName + ", details=" + e.getMessage() + ")");
+        } // try catch
+    } // manage
+    
+} // MySQLPartitionManager
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.mysql;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ *
+ * @author frb
+ *
+ * Time partitioning scheme of the row-like MySQL tables. The tables are range partitioned by recvTimeTs (seconds),
+ * having a partition per UTC day or month named after the first day of the period (e.g. p20141120 or p201411), plus
+ * a catch-all partition (pmax) for the data beyond the last period. A number of future partitions is created ahead of
+ * time, and the partitions older than the retention period are dropped.
+ */
+public class MySQLPartitioning {
+    
+    /**
+     * Name of the catch-all partition.
+     */
+    public static final String MAX_PARTITION = "pmax";
+    
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    
+    private final int field;
+    private final String namePattern;
+    private final int ahead;
+    private final int retention;
+    
+    /**
+     * Constructor.
+     * @param granularity Either "day" or "month"
+     * @param ahead Number of future partitions created ahead of time
+     * @param retention Number of past partitions kept, besides the current one (0 or less means no limit)
+     */
+    public MySQLPartitioning(String granularity, int ahead, int retention) {
+        if (granularity.equals("day")) {
+            field = Calendar.DAY_OF_MONTH;
+            namePattern = "'p'yyyyMMdd";
+        } else if (granularity.equals("month")) {
+            field = Calendar.MONTH;
+            namePattern = "'p'yyyyMM";
+        } else {
+            throw new IllegalArgumentException("Unknown partitioning granularity " + granularity);
+        } // if else if
+        
+        this.ahead = Math.max(0, ahead);
+        this.retention = retention;
+    } // MySQLPartitioning
+    
+    /**
+     * Gets the start of the period containing the given time.
+     * @param ts Seconds since the epoch
+     * @return The start of the period, in seconds since the epoch
+     */
+    public long getPeriodStart(long ts) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(ts * 1000);
+        
+        if (field == Calendar.MONTH) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        } // if
+        
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis() / 1000;
+    } // getPeriodStart
+    
+    /**
+     * Adds a number of periods to the start of a period.
+     * @param periodStart Start of a period, in seconds since the epoch
+     * @param periods Number of periods to add, may be negative
+     * @return The start of the resulting period, in seconds since the epoch
+     */
+    public long addPeriods(long periodStart, int periods) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(periodStart * 1000);
+        calendar.add(field, periods);
+        return calendar.getTimeInMillis() / 1000;
+    } // addPeriods
+    
+    /**
+     * Gets the name of the partition of a period.
+     * @param periodStart Start of the period, in seconds since the epoch
+     * @return The name of the partition
+     */
+    public String getPartitionName(long periodStart) {
+        SimpleDateFormat format = new SimpleDateFormat(namePattern);
+        format.setTimeZone(UTC);
+        return format.format(new Date(periodStart * 1000));
+    } // getPartitionName
+    
+    /**
+     * Builds the "partition by" clause of a new table, having a partition from the current period to the last period
+     * created ahead of time.
+     * @param now Seconds since the epoch
+     * @return The "partition by" clause
+     */
+    public String buildPartitionByClause(long now) {
+        return "partition by range (" + Constants.RECV_TIME_TS + ") ("
+                + buildPartitions(getPeriodStart(now), getLastPeriodStart(now)) + ")";
+    } // buildPartitionByClause
+    
+    /**
+     * Builds the query adding the partitions not yet created ahead of time, by splitting the catch-all partition.
+     * @param table Qualified and quoted table name
+     * @param lastBound Upper bound of the last existing partition (excluding the catch-all one)
+     * @param now Seconds since the epoch
+     * @return The query, or null if the partitions ahead of time already exist
+     */
+    public String buildReorganizeQuery(String table, long lastBound, long now) {
+        long lastPeriodStart = getLastPeriodStart(now);
+        
+        if (lastBound > lastPeriodStart) {
+            return null;
+        } // if
+        
+        return "alter table " + table + " reorganize partition " + MAX_PARTITION + " into ("
+                + buildPartitions(lastBound, lastPeriodStart) + ")";
+    } // buildReorganizeQuery
+    
+    /**
+     * Gets the partitions older than the retention period.
+     * @param partitions Existing partitions, by name, and their upper bounds (excluding the catch-all one)
+     * @param now Seconds since the epoch
+     * @return The names of the expired partitions, empty if none or if there is no retention limit
+     */
+    public List<String> getExpiredPartitions(Map<String, Long> partitions, long now) {
+        ArrayList<String> expired = new ArrayList<String>();
+        
+        if (retention <= 0) {
+            return expired;
+        } // if
+        
+        long oldestKept = addPeriods(getPeriodStart(now), -retention);
+        
+        for (Map.Entry<String, Long> partition : partitions.entrySet()) {
+            if (partition.getValue() <= oldestKept) {
+                expired.add(partition.getKey());
+            } // if
+        } // for
+        
+        return expired;
+    } // getExpiredPartitions
+    
+    private long getLastPeriodStart(long now) {
+        return addPeriods(getPeriodStart(now), ahead);
+    } // getLastPeriodStart
+    
+    private String buildPartitions(long fromPeriodStart, long toPeriodStart) {
+        StringBuilder partitions = new StringBuilder();
+        
+        for (long periodStart = fromPeriodStart; periodStart <= toPeriodStart;
+                periodStart = addPeriods(periodStart, 1)) {
+            partitions.append("partition ").append(getPartitionName(periodStart)).append(" values less than (")
+                    .append(addPeriods(periodStart, 1)).append("), ");
+        } // for
+        
+        return partitions.append("partition ").append(MAX_PARTITION).append(" values less than maxvalue").toString();
+    } // buildPartitions
+    
+} // MySQLPartitioning
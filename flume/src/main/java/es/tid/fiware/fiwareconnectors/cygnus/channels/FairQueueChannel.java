@@ -0,0 +1,594 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.channels;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Utils;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.BasicChannelSemantics;
+import org.apache.flume.channel.BasicTransactionSemantics;
+import org.apache.flume.instrumentation.ChannelCounter;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ * 
+ * In-memory channel queueing the events per tenant, i.e. per fiware-service header, instead of using a single FIFO.
+ * The events are taken following a weighted round robin among the tenants having queued events: a tenant with weight
+ * N gets up to N events taken each time its turn comes. Thus, a noisy tenant cannot delay the data of the others more
+ * than the sum of the other tenants weights.
+ * 
+ * Each tenant may have a quota, i.e. a maximum number of queued events; the puts exceeding the quota or the channel
+ * capacity are rejected with a ChannelException, which is translated by the HTTP source into a 503 response.
+ * 
+ * Per tenant metrics are published through JMX as org.apache.flume.channel:type=<channel>,tenant=<service>.
+ * 
+ * The tenants not configured in tenants.* are bounded (max_tenants): once the limit is reached, the tenants not having
+ * events are removed as soon as they are drained, and the events of new services are queued in the default tenant
+ * until there is room for them.
+ */
+public class FairQueueChannel extends BasicChannelSemantics {
+    
+    private static final String DEFAULT_TENANT = "default";
+    
+    private Logger logger;
+    private final Object queueLock;
+    private final HashMap<String, Tenant> tenants;
+    private final LinkedList<Tenant> activeTenants;
+    private int capacity;
+    private int transactionCapacity;
+    private int defaultWeight;
+    private int defaultQuota;
+    private int maxTenants;
+    private HashMap<String, String> tenantsConf;
+    private HashSet<String> configuredTenants;
+    private int size;
+    private ChannelCounter channelCounter;
+    
+    /**
+     * Per tenant queue.
+     */
+    private static class Tenant {
+        
+        private final String service;
+        private final int weight;
+        private final int quota;
+        private final LinkedList<QueuedEvent> events;
+        private final TenantCounter counter;
+        // number of events in the queue plus those taken but not committed yet
+        private int size;
+        // number of events the tenant may still get taken in its current turn
+        private int credit;
+        private boolean active;
+        
+        Tenant(String service, int weight, int quota) {
+            this.service = service;
+            this.weight = weight;
+            this.quota = quota;
+            events = new LinkedList<QueuedEvent>();
+            counter = new TenantCounter(service, weight, quota);
+            size = 0;
+            credit = 0;
+            active = false;
+        } // Tenant
+        
+    } // Tenant
+    
+    /**
+     * Queued event, together with its tenant and the time it was queued.
+     */
+    private static class QueuedEvent {
+        
+        private final Event event;
+        private final Tenant tenant;
+        private final long queuedAt;
+        
+        QueuedEvent(Event event, Tenant tenant, long queuedAt) {
+            this.event = event;
+            this.tenant = tenant;
+            this.queuedAt = queuedAt;
+        } // QueuedEvent
+        
+    } // QueuedEvent
+    
+    /**
+     * Constructor.
+     */
+    public FairQueueChannel() {
+        super();
+        logger = Logger.getLogger(FairQueueChannel.class);
+        queueLock = new Object();
+        tenants = new HashMap<String, Tenant>();
+        activeTenants = new LinkedList<Tenant>();
+        size = 0;
+    } // FairQueueChannel
+    
+    @Override
+    public void configure(Context context) {
+        capacity = context.getInteger("capacity", 1000);
+        logger.debug("[" + this.getName() + "] Reading configuration (capacity=" + capacity + ")");
+        transactionCapacity = context.getInteger("transactionCapacity", 100);
+        logger.debug("[" + this.getName() + "] Reading configuration (transactionCapacity=" + transactionCapacity
+                + ")");
+        defaultWeight = context.getInteger("default_weight", 1);
+        logger.debug("[" + this.getName() + "] Reading configuration (default_weight=" + defaultWeight + ")");
+        defaultQuota = context.getInteger("default_quota", 0);
+        logger.debug("[" + this.getName() + "] Reading configuration (default_quota=" + defaultQuota + ")");
+        maxTenants = context.getInteger("max_tenants", 100);
+        logger.debug("[" + this.getName() + "] Reading configuration (max_tenants=" + maxTenants + ")");
+        Map<String, String> tenantsParams = context.getSubProperties("tenants.");
+        logger.debug("[" + this.getName() + "] Reading configuration (tenants=" + tenantsParams + ")");
+        
+        // the services are encoded as in the fiware-service header of the events, e.g. lower cased
+        tenantsConf = new HashMap<String, String>();
+        configuredTenants = new HashSet<String>();
+        
+        for (Map.Entry<String, String> tenantParam : tenantsParams.entrySet()) {
+            String key = tenantParam.getKey();
+            int dot = key.lastIndexOf('.');
+            
+            if (dot <= 0) {
+                logger.warn("[" + this.getName() + "] Unrecognized tenant parameter, it will be ignored (tenants."
+                        + key + ")");
+                continue;
+            } // if
+            
+            String service = Utils.encode(key.substring(0, dot).toLowerCase(Locale.ENGLISH));
+            tenantsConf.put(service + key.substring(dot), tenantParam.getValue());
+            configuredTenants.add(service);
+        } // for
+        
+        if (capacity <= 0 || transactionCapacity <= 0 || transactionCapacity > capacity) {
+            logger.error("[" + this.getName() + "] Bad configuration (capacity and transactionCapacity must be "
+                    + "positive, and transactionCapacity cannot be greater than capacity)");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } // if
+        
+        if (maxTenants <= 0) {
+            logger.warn("[" + this.getName() + "] Bad configuration (max_tenants must be positive, using 100)");
+            maxTenants = 100;
+        } // if
+        
+        if (defaultWeight <= 0) {
+            logger.warn("[" + this.getName() + "] Bad configuration (default_weight must be positive, using 1)");
+            defaultWeight = 1;
+        } // if
+        
+        if (channelCounter == null) {
+            channelCounter = new ChannelCounter(getName());
+        } // if
+    } // configure
+    
+    @Override
+    public synchronized void start() {
+        channelCounter.start();
+        channelCounter.setChannelCapacity(capacity);
+        
+        synchronized (queueLock) {
+            channelCounter.setChannelSize(size);
+            
+            for (Tenant tenant : tenants.values()) {
+                registerTenant(tenant);
+            } // for
+        } // synchronized
+        
+        super.start();
+    } // start
+    
+    @Override
+    public synchronized void stop() {
+        synchronized (queueLock) {
+            channelCounter.setChannelSize(size);
+            
+            for (Tenant tenant : tenants.values()) {
+                unregisterTenant(tenant);
+            } // for
+        } // synchronized
+        
+        channelCounter.stop();
+        super.stop();
+    } // stop
+    
+    /**
+     * Gets the per tenant metrics.
+     * @return A map of per tenant metrics, being the key the fiware-service
+     */
+    public Map<String, TenantCounter> getTenantCounters() {
+        HashMap<String, TenantCounter> counters = new HashMap<String, TenantCounter>();
+        
+        synchronized (queueLock) {
+            for (Tenant tenant : tenants.values()) {
+                counters.put(tenant.service, tenant.counter);
+            } // for
+        } // synchronized
+        
+        return counters;
+    } // getTenantCounters
+    
+    /**
+     * Gets the number of tenants. It is protected since it is only used by the tests.
+     * @return The number of tenants
+     */
+    protected int getNumTenants() {
+        synchronized (queueLock) {
+            return tenants.size();
+        } // synchronized
+    } // getNumTenants
+    
+    /**
+     * Gets the number of events within the channel, including those taken but not committed yet. It is protected
+     * since it is only used by the tests.
+     * @return The number of events within the channel
+     */
+    protected int getSize() {
+        synchronized (queueLock) {
+            return size;
+        } // synchronized
+    } // getSize
+    
+    @Override
+    protected BasicTransactionSemantics createTransaction() {
+        return new FairQueueTransaction();
+    } // createTransaction
+    
+    /**
+     * Transaction buffering the puts until commit and returning the takes to their tenant queue on rollback.
+     */
+    private class FairQueueTransaction extends BasicTransactionSemantics {
+        
+        private final LinkedList<Event> putList;
+        private final LinkedList<QueuedEvent> takeList;
+        
+        FairQueueTransaction() {
+            putList = new LinkedList<Event>();
+            takeList = new LinkedList<QueuedEvent>();
+        } // FairQueueTransaction
+        
+        @Override
+        protected void doPut(Event event) throws InterruptedException {
+            channelCounter.incrementEventPutAttemptCount();
+            
+            if (putList.size() == transactionCapacity) {
+                throw new ChannelException("Put queue for FairQueueTransaction of capacity " + transactionCapacity
+                        + " full, consider committing more frequently, increasing capacity or increasing thread "
+                        + "count");
+            } // if
+            
+            putList.add(event);
+        } // doPut
+        
+        @Override
+        protected Event doTake() throws InterruptedException {
+            channelCounter.incrementEventTakeAttemptCount();
+            
+            if (takeList.size() == transactionCapacity) {
+                throw new ChannelException("Take list for FairQueueTransaction, capacity " + transactionCapacity
+                        + " full, consider committing more frequently, increasing capacity, or increasing thread "
+                        + "count");
+            } // if
+            
+            QueuedEvent queuedEvent = dequeue();
+            
+            if (queuedEvent == null) {
+                return null;
+            } // if
+            
+            takeList.add(queuedEvent);
+            return queuedEvent.event;
+        } // doTake
+        
+        @Override
+        protected void doCommit() throws InterruptedException {
+            if (!putList.isEmpty()) {
+                enqueue(putList);
+            } // if
+            
+            if (!takeList.isEmpty()) {
+                release(takeList);
+            } // if
+            
+            channelCounter.addToEventPutSuccessCount(putList.size());
+            channelCounter.addToEventTakeSuccessCount(takeList.size());
+            putList.clear();
+            takeList.clear();
+        } // doCommit
+        
+        @Override
+        protected void doRollback() throws InterruptedException {
+            if (!takeList.isEmpty()) {
+                requeue(takeList);
+            } // if
+            
+            putList.clear();
+            takeList.clear();
+        } // doRollback
+        
+    } // FairQueueTransaction
+    
+    /**
+     * Appends a list of events to their tenant queues. Either all the events are queued, or none of them if the
+     * channel capacity or any tenant quota would be exceeded.
+     * @param events
+     * @throws ChannelException
+     */
+    private void enqueue(LinkedList<Event> events) throws ChannelException {
+        long now = System.currentTimeMillis();
+        
+        synchronized (queueLock) {
+            // count the events per tenant in order to check the quotas
+            HashMap<Tenant, Integer> eventsPerTenant = new HashMap<Tenant, Integer>();
+            
+            for (Event event : events) {
+                Tenant tenant = getTenant(event.getHeaders().get(Constants.HEADER_SERVICE));
+                Integer count = eventsPerTenant.get(tenant);
+                eventsPerTenant.put(tenant, count == null ? 1 : count + 1);
+            } // for
+            
+            if (size + events.size() > capacity) {
+                for (Map.Entry<Tenant, Integer> entry : eventsPerTenant.entrySet()) {
+                    entry.getKey().counter.addToEventPutRejectedCount(entry.getValue());
+                } // for
+                
+                throw new ChannelException("Space for commit to queue couldn't be acquired (channel=" + getName()
+                        + ", capacity=" + capacity + ", size=" + size + ")");
+            } // if
+            
+            for (Map.Entry<Tenant, Integer> entry : eventsPerTenant.entrySet()) {
+                Tenant tenant = entry.getKey();
+                
+                if (tenant.quota > 0 && tenant.size + entry.getValue() > tenant.quota) {
+                    tenant.counter.addToEventPutRejectedCount(entry.getValue());
+                    throw new ChannelException("Tenant quota exceeded (channel=" + getName() + ", service="
+                            + tenant.service + ", quota=" + tenant.quota + ", size=" + tenant.size + ")");
+                } // if
+            } // for
+            
+            // all the checks passed, queue the events
+            for (Event event : events) {
+                Tenant tenant = getTenant(event.getHeaders().get(Constants.HEADER_SERVICE));
+                tenant.events.addLast(new QueuedEvent(event, tenant, now));
+                tenant.size++;
+                activate(tenant, false);
+            } // for
+            
+            for (Map.Entry<Tenant, Integer> entry : eventsPerTenant.entrySet()) {
+                entry.getKey().counter.addToEventPutSuccessCount(entry.getValue());
+                entry.getKey().counter.setQueueSize(entry.getKey().size);
+            } // for
+            
+            size += events.size();
+            channelCounter.setChannelSize(size);
+        } // synchronized
+    } // enqueue
+    
+    /**
+     * Gets the next event following the weighted round robin among the active tenants. The event still accounts for
+     * the channel size until the take is committed.
+     * @return The next event, or null if there are no queued events
+     */
+    private QueuedEvent dequeue() {
+        synchronized (queueLock) {
+            Tenant tenant = activeTenants.peekFirst();
+            
+            if (tenant == null) {
+                return null;
+            } // if
+            
+            QueuedEvent queuedEvent = tenant.events.removeFirst();
+            tenant.credit--;
+            
+            if (tenant.events.isEmpty()) {
+                activeTenants.removeFirst();
+                tenant.active = false;
+                tenant.credit = 0;
+            } else if (tenant.credit <= 0) {
+                // the turn of this tenant is over, move it to the end of the round
+                activeTenants.removeFirst();
+                activeTenants.addLast(tenant);
+                tenant.credit = tenant.weight;
+            } // if else
+            
+            return queuedEvent;
+        } // synchronized
+    } // dequeue
+    
+    /**
+     * Definitely removes a list of taken events from the channel.
+     * @param queuedEvents
+     */
+    private void release(LinkedList<QueuedEvent> queuedEvents) {
+        long now = System.currentTimeMillis();
+        
+        synchronized (queueLock) {
+            for (QueuedEvent queuedEvent : queuedEvents) {
+                Tenant tenant = queuedEvent.tenant;
+                tenant.size--;
+                tenant.counter.setQueueSize(tenant.size);
+                tenant.counter.addTake(now - queuedEvent.queuedAt);
+                
+                if (tenant.size == 0) {
+                    removeIfIdle(tenant);
+                } // if
+            } // for
+            
+            size -= queuedEvents.size();
+            channelCounter.setChannelSize(size);
+        } // synchronized
+    } // release
+    
+    /**
+     * Puts back a list of taken events at the head of their tenant queues, keeping their original order. The events
+     * were never released, thus this cannot exceed neither the capacity nor the quotas.
+     * @param queuedEvents
+     */
+    private void requeue(LinkedList<QueuedEvent> queuedEvents) {
+        synchronized (queueLock) {
+            while (!queuedEvents.isEmpty()) {
+                QueuedEvent queuedEvent = queuedEvents.removeLast();
+                queuedEvent.tenant.events.addFirst(queuedEvent);
+                activate(queuedEvent.tenant, true);
+            } // while
+        } // synchronized
+    } // requeue
+    
+    /**
+     * Adds a tenant to the round, if not yet in it. Must be called while holding the queue lock.
+     * @param tenant
+     * @param first True if the tenant must be served first, false if it must wait for its turn
+     */
+    private void activate(Tenant tenant, boolean first) {
+        if (tenant.active) {
+            return;
+        } // if
+        
+        tenant.active = true;
+        tenant.credit = tenant.weight;
+        
+        if (first) {
+            activeTenants.addFirst(tenant);
+        } else {
+            activeTenants.addLast(tenant);
+        } // if else
+    } // activate
+    
+    /**
+     * Gets the tenant for a given fiware-service, creating it if it does not exist. If the maximum number of not
+     * configured tenants has been reached, the default tenant is returned instead. Must be called while holding the
+     * queue lock.
+     * @param service
+     * @return The tenant for the given fiware-service
+     */
+    private Tenant getTenant(String service) {
+        if (service == null || service.isEmpty()) {
+            service = DEFAULT_TENANT;
+        } // if
+        
+        Tenant tenant = tenants.get(service);
+        
+        if (tenant == null && !service.equals(DEFAULT_TENANT) && !configuredTenants.contains(service)
+                && getNumNotConfiguredTenants() >= maxTenants) {
+            logger.debug("[" + this.getName() + "] Too many tenants, the events are queued in the default tenant "
+                    + "(service=" + service + ", max_tenants=" + maxTenants + ")");
+            return getTenant(DEFAULT_TENANT);
+        } // if
+        
+        if (tenant == null) {
+            int weight = getTenantParam(service, "weight", defaultWeight);
+            int quota = getTenantParam(service, "quota", defaultQuota);
+            tenant = new Tenant(service, weight <= 0 ? defaultWeight : weight, quota);
+            tenants.put(service, tenant);
+            registerTenant(tenant);
+            logger.debug("[" + this.getName() + "] New tenant (service=" + service + ", weight=" + tenant.weight
+                    + ", quota=" + quota + ")");
+        } // if
+        
+        return tenant;
+    } // getTenant
+    
+    /**
+     * Removes a tenant not having events, unless it is the default one or a configured one, if the maximum number of
+     * not configured tenants has been reached; this way, the tenants of services not notifying anymore do not prevent
+     * new services from having their own tenant. Must be called while holding the queue lock.
+     * @param tenant
+     */
+    private void removeIfIdle(Tenant tenant) {
+        if (tenant.size > 0 || tenant.active || tenant.service.equals(DEFAULT_TENANT)
+                || configuredTenants.contains(tenant.service) || getNumNotConfiguredTenants() < maxTenants) {
+            return;
+        } // if
+        
+        tenants.remove(tenant.service);
+        unregisterTenant(tenant);
+        logger.debug("[" + this.getName() + "] Idle tenant removed (service=" + tenant.service + ")");
+    } // removeIfIdle
+    
+    private int getNumNotConfiguredTenants() {
+        int numTenants = tenants.size();
+        
+        for (String service : configuredTenants) {
+            if (tenants.containsKey(service)) {
+                numTenants--;
+            } // if
+        } // for
+        
+        return tenants.containsKey(DEFAULT_TENANT) ? numTenants - 1 : numTenants;
+    } // getNumNotConfiguredTenants
+    
+    private int getTenantParam(String service, String param, int defaultValue) {
+        String value = tenantsConf == null ? null : tenantsConf.get(service + "." + param);
+        
+        if (value == null) {
+            return defaultValue;
+        } // if
+        
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("[" + this.getName() + "] Bad configuration (tenants." + service + "." + param + "=" + value
+                    + " is not an integer, using " + defaultValue + ")");
+            return defaultValue;
+        } // try catch
+    } // getTenantParam
+    
+    private ObjectName getTenantObjectName(Tenant tenant) throws Exception {
+        return new ObjectName("org.apache.flume.channel:type=" + getName() + ",tenant="
+                + ObjectName.quote(tenant.service));
+    } // getTenantObjectName
+    
+    private void registerTenant(Tenant tenant) {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getTenantObjectName(tenant);
+            
+            if (!mbeanServer.isRegistered(objectName)) {
+                mbeanServer.registerMBean(tenant.counter, objectName);
+            } // if
+        } catch (Exception e) {
+            logger.warn("[" + this.getName() + "] The tenant metrics could not be registered (service="
+                    + tenant.service + ", details=" + e.getMessage() + ")");
+        } // try catch
+    } // registerTenant
+    
+    private void unregisterTenant(Tenant tenant) {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getTenantObjectName(tenant);
+            
+            if (mbeanServer.isRegistered(objectName)) {
+                mbeanServer.unregisterMBean(objectName);
+            } // if
+        } catch (Exception e) {
+            logger.warn("[" + this.getName() + "] The tenant metrics could not be unregistered (service="
+                    + tenant.service + ", details=" + e.getMessage() + ")");
+        } // try catch
+    } // unregisterTenant
+    
+} // FairQueueChannel
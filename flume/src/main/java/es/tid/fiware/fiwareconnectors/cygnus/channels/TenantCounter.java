@@ -0,0 +1,151 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.channels;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author frb
+ * 
+ * Per tenant metrics of a FairQueueChannel.
+ */
+public class TenantCounter implements TenantCounterMBean {
+    
+    private final String service;
+    private final int weight;
+    private final int quota;
+    private final AtomicLong queueSize;
+    private final AtomicLong eventPutSuccessCount;
+    private final AtomicLong eventPutRejectedCount;
+    private final AtomicLong eventTakeSuccessCount;
+    private final AtomicLong lastWaitTimeMs;
+    private final AtomicLong maxWaitTimeMs;
+    private final AtomicLong totalWaitTimeMs;
+    
+    /**
+     * Constructor.
+     * @param service
+     * @param weight
+     * @param quota
+     */
+    public TenantCounter(String service, int weight, int quota) {
+        this.service = service;
+        this.weight = weight;
+        this.quota = quota;
+        queueSize = new AtomicLong(0);
+        eventPutSuccessCount = new AtomicLong(0);
+        eventPutRejectedCount = new AtomicLong(0);
+        eventTakeSuccessCount = new AtomicLong(0);
+        lastWaitTimeMs = new AtomicLong(0);
+        maxWaitTimeMs = new AtomicLong(0);
+        totalWaitTimeMs = new AtomicLong(0);
+    } // TenantCounter
+    
+    @Override
+    public String getService() {
+        return service;
+    } // getService
+    
+    @Override
+    public int getWeight() {
+        return weight;
+    } // getWeight
+    
+    @Override
+    public int getQuota() {
+        return quota;
+    } // getQuota
+    
+    @Override
+    public long getQueueSize() {
+        return queueSize.get();
+    } // getQueueSize
+    
+    @Override
+    public long getEventPutSuccessCount() {
+        return eventPutSuccessCount.get();
+    } // getEventPutSuccessCount
+    
+    @Override
+    public long getEventPutRejectedCount() {
+        return eventPutRejectedCount.get();
+    } // getEventPutRejectedCount
+    
+    @Override
+    public long getEventTakeSuccessCount() {
+        return eventTakeSuccessCount.get();
+    } // getEventTakeSuccessCount
+    
+    @Override
+    public long getLastWaitTimeMs() {
+        return lastWaitTimeMs.get();
+    } // getLastWaitTimeMs
+    
+    @Override
+    public long getMaxWaitTimeMs() {
+        return maxWaitTimeMs.get();
+    } // getMaxWaitTimeMs
+    
+    @Override
+    public long getAverageWaitTimeMs() {
+        long takes = eventTakeSuccessCount.get();
+        return takes == 0 ? 0 : totalWaitTimeMs.get() / takes;
+    } // getAverageWaitTimeMs
+    
+    /**
+     * Sets the number of events the tenant currently has in the channel.
+     * @param size
+     */
+    public void setQueueSize(long size) {
+        queueSize.set(size);
+    } // setQueueSize
+    
+    /**
+     * Adds a number of events to the put success count.
+     * @param delta
+     */
+    public void addToEventPutSuccessCount(long delta) {
+        eventPutSuccessCount.addAndGet(delta);
+    } // addToEventPutSuccessCount
+    
+    /**
+     * Adds a number of events to the put rejected count.
+     * @param delta
+     */
+    public void addToEventPutRejectedCount(long delta) {
+        eventPutRejectedCount.addAndGet(delta);
+    } // addToEventPutRejectedCount
+    
+    /**
+     * Accounts a successfully taken event, given the time it waited in the channel.
+     * @param waitTimeMs
+     */
+    public void addTake(long waitTimeMs) {
+        eventTakeSuccessCount.incrementAndGet();
+        lastWaitTimeMs.set(waitTimeMs);
+        totalWaitTimeMs.addAndGet(waitTimeMs);
+        long max = maxWaitTimeMs.get();
+        
+        while (waitTimeMs > max && !maxWaitTimeMs.compareAndSet(max, waitTimeMs)) {
+            max = maxWaitTimeMs.get();
+        } // while
+    } // addTake
+    
+} // TenantCounter
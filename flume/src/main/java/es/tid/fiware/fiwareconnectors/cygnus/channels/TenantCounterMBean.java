@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.channels;
+
+/**
+ *
+ * @author frb
+ * 
+ * JMX interface of the per tenant metrics of a FairQueueChannel.
+ */
+public interface TenantCounterMBean {
+    
+    /**
+     * Gets the fiware-service the metrics belong to.
+     * @return The fiware-service the metrics belong to
+     */
+    String getService();
+    
+    /**
+     * Gets the weight of the tenant within the fair queueing.
+     * @return The weight of the tenant within the fair queueing
+     */
+    int getWeight();
+    
+    /**
+     * Gets the maximum number of events the tenant may have in the channel (0 means no limit).
+     * @return The maximum number of events the tenant may have in the channel
+     */
+    int getQuota();
+    
+    /**
+     * Gets the number of events the tenant currently has in the channel.
+     * @return The number of events the tenant currently has in the channel
+     */
+    long getQueueSize();
+    
+    /**
+     * Gets the number of events successfully put into the channel.
+     * @return The number of events successfully put into the channel
+     */
+    long getEventPutSuccessCount();
+    
+    /**
+     * Gets the number of events rejected because of the tenant quota or the channel capacity.
+     * @return The number of events rejected because of the tenant quota or the channel capacity
+     */
+    long getEventPutRejectedCount();
+    
+    /**
+     * Gets the number of events successfully taken from the channel.
+     * @return The number of events successfully taken from the channel
+     */
+    long getEventTakeSuccessCount();
+    
+    /**
+     * Gets the time the last taken event waited in the channel, in milliseconds.
+     * @return The time the last taken event waited in the channel, in milliseconds
+     */
+    long getLastWaitTimeMs();
+    
+    /**
+     * Gets the maximum time a taken event waited in the channel, in milliseconds.
+     * @return The maximum time a taken event waited in the channel, in milliseconds
+     */
+    long getMaxWaitTimeMs();
+    
+    /**
+     * Gets the average time the taken events waited in the channel, in milliseconds.
+     * @return The average time the taken events waited in the channel, in milliseconds
+     */
+    long getAverageWaitTimeMs();
+    
+} // TenantCounterMBean
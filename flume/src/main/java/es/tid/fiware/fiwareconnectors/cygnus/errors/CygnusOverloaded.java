@@ -0,0 +1,51 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.errors;
+
+import org.apache.flume.ChannelException;
+
+/**
+ *
+ * @author frb
+ * 
+ * Thrown when a notification is rejected because the agent is overloaded. The OrionHTTPSource answers it with a 503
+ * Service Unavailable response including a Retry-After header.
+ */
+public class CygnusOverloaded extends ChannelException {
+    
+    private final int retryAfter;
+    
+    /**
+     * Constructor.
+     * @param retryAfter Seconds the client is asked to wait before retrying
+     */
+    public CygnusOverloaded(int retryAfter) {
+        super("The agent is overloaded, retry after " + retryAfter + " seconds");
+        this.retryAfter = retryAfter;
+    } // CygnusOverloaded
+    
+    /**
+     * Gets the seconds the client is asked to wait before retrying.
+     * @return The seconds the client is asked to wait before retrying
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    } // getRetryAfter
+    
+} // CygnusOverloaded
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.errors;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ * @author frb
+ * 
+ * Thrown by a backend when certain rows of a multi-row operation have been rejected because of bad context data (e.g.
+ * a value too long for its column) while the rest of the rows have been persisted. The rejected rows are given by
+ * their position within the rows passed to the operation.
+ */
+public class CygnusRejectedRows extends CygnusBadContextData {
+    
+    private final Map<Integer, String> rejections;
+    
+    /**
+     * Constructor.
+     * @param rejections Reason of the rejection of each rejected row, by position
+     */
+    public CygnusRejectedRows(Map<Integer, String> rejections) {
+        super(rejections.size() + " rows rejected, first=" + rejections.values().iterator().next());
+        this.rejections = Collections.unmodifiableMap(new TreeMap<Integer, String>(rejections));
+    } // CygnusRejectedRows
+    
+    /**
+     * Gets the rejected rows.
+     * @return Reason of the rejection of each rejected row, by position
+     */
+    public Map<Integer, String> getRejections() {
+        return rejections;
+    } // getRejections
+    
+} // CygnusRejectedRows
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.handlers;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Decides if a notification can be accepted or not given the current load of the agent. Two criteria are used:
+ *  - The number of notifications being processed right now (in-flight), both globally and per fiware-service.
+ *  - The fill percentage of a set of watched channels, as published by Flume through JMX.
+ * A maximum in-flight value of 0 means no limit; a maximum channel fill percentage of 100 means no limit.
+ */
+public class AdmissionController {
+
+    // the channels fill percentage is not checked for each single notification but once per this interval
+    private static final long FILL_CHECK_INTERVAL_MS = 250;
+
+    private final Logger logger;
+    private final int maxInFlight;
+    private final double maxChannelFill;
+    private final Map<String, Integer> maxInFlightPerService;
+    private final Map<String, Double> maxChannelFillPerService;
+    private final String[] channels;
+    private final int retryAfter;
+    private final AtomicInteger inFlight;
+    private final ConcurrentHashMap<String, AtomicInteger> inFlightPerService;
+    private final MBeanServer mbeanServer;
+    private volatile long lastFillCheck;
+    private volatile double lastChannelFill;
+
+    /**
+     * Constructor.
+     * @param maxInFlight Maximum number of notifications being processed at the same time (0 means no limit)
+     * @param maxChannelFill Maximum fill percentage of the watched channels (100 means no limit)
+     * @param maxInFlightPerService Per fiware-service maximum in-flight notifications, overriding maxInFlight
+     * @param maxChannelFillPerService Per fiware-service maximum channel fill percentage, overriding maxChannelFill
+     * @param channels Names of the watched channels
+     * @param retryAfter Seconds the client is asked to wait before retrying a rejected notification
+     */
+    public AdmissionController(int maxInFlight, double maxChannelFill, Map<String, Integer> maxInFlightPerService,
+            Map<String, Double> maxChannelFillPerService, String[] channels, int retryAfter) {
+        logger = Logger.getLogger(AdmissionController.class);
+        this.maxInFlight = maxInFlight;
+        this.maxChannelFill = maxChannelFill;
+        this.maxInFlightPerService = new HashMap<String, Integer>(maxInFlightPerService);
+        this.maxChannelFillPerService = new HashMap<String, Double>(maxChannelFillPerService);
+        this.channels = channels;
+        this.retryAfter = retryAfter;
+        inFlight = new AtomicInteger(0);
+        inFlightPerService = new ConcurrentHashMap<String, AtomicInteger>();
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        lastFillCheck = 0;
+        lastChannelFill = 0;
+    } // AdmissionController
+
+    /**
+     * Gets the seconds a client is asked to wait before retrying a rejected notification.
+     * @return The seconds a client is asked to wait before retrying a rejected notification
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    } // getRetryAfter
+
+    /**
+     * Gets the number of notifications currently being processed.
+     * @return The number of notifications currently being processed
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    } // getInFlight
+
+    /**
+     * Tries to admit a new notification for the given service. If admitted, release(service) must be invoked once
+     * the notification has been processed.
+     * @param service
+     * @return True if the notification is admitted, false otherwise
+     */
+    public boolean admit(String service) {
+        // check the channels fill level first, it does not require to undo anything if the notification is rejected
+        Double serviceMaxChannelFill = maxChannelFillPerService.get(service);
+        double effectiveMaxChannelFill = serviceMaxChannelFill == null ? maxChannelFill : serviceMaxChannelFill;
+
+        if (effectiveMaxChannelFill < 100) {
+            double channelFill = getCachedChannelFillPercentage();
+
+            if (channelFill >= effectiveMaxChannelFill) {
+                logger.debug("Notification not admitted, channels too full (service=" + service + ", channelFill="
+                        + channelFill + ", maxChannelFill=" + effectiveMaxChannelFill + ")");
+                return false;
+            } // if
+        } // if
+
+        // check the global in-flight limit
+        int currentInFlight = inFlight.incrementAndGet();
+
+        if (maxInFlight > 0 && currentInFlight > maxInFlight) {
+            inFlight.decrementAndGet();
+            logger.debug("Notification not admitted, too many notifications in-flight (service=" + service
+                    + ", maxInFlight=" + maxInFlight + ")");
+            return false;
+        } // if
+
+        // check the per service in-flight limit
+        Integer serviceMaxInFlight = maxInFlightPerService.get(service);
+        AtomicInteger serviceInFlight = getServiceInFlight(service);
+        int currentServiceInFlight = serviceInFlight.incrementAndGet();
+
+        if (serviceMaxInFlight != null && serviceMaxInFlight > 0 && currentServiceInFlight > serviceMaxInFlight) {
+            serviceInFlight.decrementAndGet();
+            inFlight.decrementAndGet();
+            logger.debug("Notification not admitted, too many notifications in-flight for the service (service="
+                    + service + ", maxInFlight=" + serviceMaxInFlight + ")");
+            return false;
+        } // if
+
+        return true;
+    } // admit
+
+    /**
+     * Releases a previously admitted notification for the given service.
+     * @param service
+     */
+    public void release(String service) {
+        getServiceInFlight(service).decrementAndGet();
+        inFlight.decrementAndGet();
+    } // release
+
+    /**
+     * Gets the highest fill percentage among the watched channels. It is protected since it is overridden by the
+     * tests.
+     * @return The highest fill percentage among the watched channels
+     */
+    protected double getChannelFillPercentage() {
+        double maxFill = 0;
+
+        for (String channel : channels) {
+            try {
+                ObjectName objectName = new ObjectName("org.apache.flume.channel:type=" + channel);
+
+                if (!mbeanServer.isRegistered(objectName)) {
+                    continue;
+                } // if
+
+                double fill = ((Double) mbeanServer.getAttribute(objectName, "ChannelFillPercentage")).doubleValue();
+                maxFill = Math.max(maxFill, fill);
+            } catch (Exception e) {
+                logger.debug("The fill percentage of a channel could not be got (channel=" + channel + ", details="
+                        + e.getMessage() + ")");
+            } // try catch
+        } // for
+
+        return maxFill;
+    } // getChannelFillPercentage
+
+    private double getCachedChannelFillPercentage() {
+        long now = System.currentTimeMillis();
+
+        if (now - lastFillCheck >= FILL_CHECK_INTERVAL_MS) {
+            lastChannelFill = getChannelFillPercentage();
+            lastFillCheck = now;
+        } // if
+
+        return lastChannelFill;
+    } // getCachedChannelFillPercentage
+
+    private AtomicInteger getServiceInFlight(String service) {
+        AtomicInteger counter = inFlightPerService.get(service);
+
+        if (counter == null) {
+            AtomicInteger newCounter = new AtomicInteger(0);
+            counter = inFlightPerService.putIfAbsent(service, newCounter);
+
+            if (counter == null) {
+                counter = newCounter;
+            } // if
+        } // if
+
+        return counter;
+    } // getServiceInFlight
+
+} // AdmissionController
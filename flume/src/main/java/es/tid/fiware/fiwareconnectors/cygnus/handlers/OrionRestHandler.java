@@ -31,6 +31,11 @@ import org.apache.flume.source.http.HTTPBadRequestException;
 import org.apache.flume.source.http.HTTPSourceHandler;
 import org.apache.http.MethodNotSupportedException;
 import org.apache.log4j.Logger;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusOverloaded;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Histogram;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Meter;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.MetricsRegistry;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Utils;
 import java.util.Date;
@@ -45,6 +50,12 @@ import org.slf4j.MDC;
  * ones tipically sent by an instance of Orion Context Broker when notifying a context event. If everything is OK, a
  * Flume event is created in order the HTTP Flume source sends it to the Flume channel connecting the source with the
  * sink. This event contains both the context event data and a header specifying the content type (Json or XML).
+ * 
+ * If the admission control is enabled and the agent is overloaded, a CygnusOverloaded exception is thrown instead of
+ * reading the notification; it is answered with a 503 Service Unavailable response by the OrionHTTPSource (the default
+ * Flume HTTP source answers it with a 500 Internal Server Error). An admitted notification keeps counting as in flight
+ * until its events are put in the channel; since only the source knows when that happens, the OrionHTTPSource
+ * releases it (see setReleasedBySource), while for the rest of sources it is released once its events are created.
  */
 public class OrionRestHandler implements HTTPSourceHandler {
     
@@ -56,6 +67,13 @@ public class OrionRestHandler implements HTTPSourceHandler {
     private long transactionCount;
     private long bootTimeSeconds;
     private long bootTimeMilliseconds;
+    private AdmissionController admissionController;
+    private boolean releasedBySource;
+    private Meter acceptedNotifications;
+    private Meter rejectedNotifications;
+    private Meter badRequestNotifications;
+    private Meter errorNotifications;
+    private Histogram notificationLatency;
     
     /**
      * Constructor. This can be used as a place where to initialize all that things we would like to do in the Flume
@@ -74,6 +92,16 @@ public class OrionRestHandler implements HTTPSourceHandler {
         bootTimeSeconds = bootTime / 1000;
         bootTimeMilliseconds = bootTime % 1000;
         
+        // init the metrics
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        String help = "Notifications received, by outcome";
+        acceptedNotifications = registry.meter("cygnus_notifications", help, "status", "accepted");
+        rejectedNotifications = registry.meter("cygnus_notifications", help, "status", "rejected");
+        badRequestNotifications = registry.meter("cygnus_notifications", help, "status", "bad_request");
+        errorNotifications = registry.meter("cygnus_notifications", help, "status", "error");
+        notificationLatency = registry.histogram("cygnus_notification_latency_us",
+                "Time spent handling a notification, in microseconds");
+        
         // print Cygnus version
         logger.info("Cygnus version (" + Utils.getCygnusVersion() + "." + Utils.getLastCommit() + ")");
     } // OrionRestHandler
@@ -109,6 +137,15 @@ public class OrionRestHandler implements HTTPSourceHandler {
     protected String getEventsTTL() {
         return eventsTTL;
     } // getEventsTTL
+    
+    /**
+     * Gets the admission controller, null if admission control is disabled. It is protected due to it is only
+     * required for testing purposes.
+     * @return
+     */
+    protected AdmissionController getAdmissionController() {
+        return admissionController;
+    } // getAdmissionController
 
     @Override
     public void configure(Context context) {
@@ -141,16 +178,115 @@ public class OrionRestHandler implements HTTPSourceHandler {
         logger.debug("Reading configuration (" + Constants.PARAM_DEFAULT_SERVICE_PATH + "=" + defaultServicePath + ")");
         eventsTTL = context.getString(Constants.PARAM_EVENTS_TTL, "10");
         logger.debug("Reading configuration (" + Constants.PARAM_EVENTS_TTL + "=" + eventsTTL + ")");
+        boolean admissionControl = context.getBoolean(Constants.PARAM_ADMISSION_CONTROL, false);
+        logger.debug("Reading configuration (" + Constants.PARAM_ADMISSION_CONTROL + "=" + admissionControl + ")");
+        admissionController = admissionControl ? createAdmissionController(context) : null;
         logger.info("Startup completed");
     } // configure
+    
+    /**
+     * Sets if the admitted notifications are released by the source once their events are put in the channel (see
+     * release), instead of once their events are created. It is called by the OrionHTTPSource.
+     * @param releasedBySource
+     */
+    public void setReleasedBySource(boolean releasedBySource) {
+        this.releasedBySource = releasedBySource;
+    } // setReleasedBySource
+    
+    /**
+     * Releases the admitted notification the given events come from, once they have been put in the channel (or they
+     * could not be put). It does nothing if the admission control is disabled or if the notifications are not
+     * released by the source.
+     * @param events
+     */
+    public void release(List<Event> events) {
+        if (admissionController == null || !releasedBySource || events.isEmpty()) {
+            return;
+        } // if
+        
+        admissionController.release(events.get(0).getHeaders().get(Constants.HEADER_SERVICE));
+    } // release
+    
+    /**
+     * Creates an admission controller based on the admission_control.* configuration parameters.
+     * @param context
+     * @return An admission controller
+     */
+    private AdmissionController createAdmissionController(Context context) {
+        int maxInFlight = context.getInteger(Constants.PARAM_ADMISSION_MAX_IN_FLIGHT, 0);
+        logger.debug("Reading configuration (" + Constants.PARAM_ADMISSION_MAX_IN_FLIGHT + "=" + maxInFlight + ")");
+        double maxChannelFill = Double.parseDouble(context.getString(Constants.PARAM_ADMISSION_MAX_CHANNEL_FILL,
+                "90"));
+        logger.debug("Reading configuration (" + Constants.PARAM_ADMISSION_MAX_CHANNEL_FILL + "=" + maxChannelFill
+                + ")");
+        String channelsStr = context.getString(Constants.PARAM_ADMISSION_CHANNELS, "");
+        logger.debug("Reading configuration (" + Constants.PARAM_ADMISSION_CHANNELS + "=" + channelsStr + ")");
+        String[] channels = channelsStr.length() == 0 ? new String[0] : channelsStr.split(",");
+        int retryAfter = context.getInteger(Constants.PARAM_ADMISSION_RETRY_AFTER, 5);
+        logger.debug("Reading configuration (" + Constants.PARAM_ADMISSION_RETRY_AFTER + "=" + retryAfter + ")");
+        
+        // per service limits, e.g. admission_control.services.myservice.max_in_flight = 10
+        HashMap<String, Integer> maxInFlightPerService = new HashMap<String, Integer>();
+        HashMap<String, Double> maxChannelFillPerService = new HashMap<String, Double>();
+        Map<String, String> serviceParams = context.getSubProperties(Constants.PARAM_ADMISSION_SERVICES);
+        
+        for (Map.Entry<String, String> serviceParam : serviceParams.entrySet()) {
+            String key = serviceParam.getKey();
+            String value = serviceParam.getValue().trim();
+            logger.debug("Reading configuration (" + Constants.PARAM_ADMISSION_SERVICES + key + "=" + value + ")");
+            
+            if (key.endsWith(".max_in_flight")) {
+                String service = Utils.encode(key.substring(0, key.length() - ".max_in_flight".length()));
+                maxInFlightPerService.put(service, Integer.valueOf(value));
+            } else if (key.endsWith(".max_channel_fill")) {
+                String service = Utils.encode(key.substring(0, key.length() - ".max_channel_fill".length()));
+                maxChannelFillPerService.put(service, Double.valueOf(value));
+            } else {
+                logger.warn("Unrecognized admission control parameter, it will be ignored ("
+                        + Constants.PARAM_ADMISSION_SERVICES + key + ")");
+            } // if else if
+        } // for
+        
+        return new AdmissionController(maxInFlight, maxChannelFill, maxInFlightPerService, maxChannelFillPerService,
+                channels, retryAfter);
+    } // createAdmissionController
             
     @Override
     public List<Event> getEvents(javax.servlet.http.HttpServletRequest request) throws Exception {
+        long start = System.nanoTime();
+        Meter outcome = errorNotifications;
+        
+        try {
+            List<Event> events = handleNotification(request);
+            outcome = acceptedNotifications;
+            return events;
+        } catch (CygnusOverloaded e) {
+            outcome = rejectedNotifications;
+            throw e;
+        } catch (HTTPBadRequestException e) {
+            outcome = badRequestNotifications;
+            throw e;
+        } catch (MethodNotSupportedException e) {
+            outcome = badRequestNotifications;
+            throw e;
+        } finally {
+            outcome.mark();
+            notificationLatency.recordSince(start);
+        } // try catch finally
+    } // getEvents
+    
+    /**
+     * Checks a notification and creates the Flume events for it.
+     * @param request
+     * @return The list of events regarding the notification
+     * @throws Exception
+     */
+    private List<Event> handleNotification(javax.servlet.http.HttpServletRequest request) throws Exception {
         // get a transaction id and store it in the log4j Mapped Diagnostic Context (MDC); this way it will be
         // accessible by the whole source code
         String transId = generateTransId();
         MDC.put(Constants.HEADER_TRANSACTION_ID, transId);
-        logger.info("Starting transaction (" + transId + ")");
+        CygnusLogger.logEventInfo(logger, "Starting transaction ({})", transId);
         
         // check the method
         String method = request.getMethod().toUpperCase(Locale.ENGLISH);
@@ -210,7 +346,50 @@ public class OrionRestHandler implements HTTPSourceHandler {
                 } // if else
             } // if else if
         } // for
-
+        
+        if (service == null) {
+            service = defaultService;
+        } // if
+        
+        if (servicePath == null) {
+            servicePath = defaultServicePath;
+        } // if
+        
+        // check if the agent can accept the notification before reading and processing its content
+        if (admissionController == null) {
+            return buildEvents(request, transId, contentType, service, servicePath);
+        } // if
+        
+        if (!admissionController.admit(service)) {
+            return rejectNotification(service);
+        } // if
+        
+        boolean built = false;
+        
+        try {
+            List<Event> events = buildEvents(request, transId, contentType, service, servicePath);
+            built = true;
+            return events;
+        } finally {
+            // otherwise the notification is released by the source once the events are put in the channel
+            if (!built || !releasedBySource) {
+                admissionController.release(service);
+            } // if
+        } // try finally
+    } // handleNotification
+    
+    /**
+     * Reads the notification content and creates the Flume events for it.
+     * @param request
+     * @param transId
+     * @param contentType
+     * @param service
+     * @param servicePath
+     * @return The list of events regarding the notification
+     * @throws Exception
+     */
+    private List<Event> buildEvents(javax.servlet.http.HttpServletRequest request, String transId,
+            String contentType, String service, String servicePath) throws Exception {
         // get the data content
         String data = "";
         String line;
@@ -236,31 +415,47 @@ public class OrionRestHandler implements HTTPSourceHandler {
         } // if
 
         data = data.replaceAll(">[ ]*<", "><");
-        logger.info("Received data (" + data + ")");
+        CygnusLogger.logEventInfo(logger, "Received data ({})", data);
         
         // create the appropiate headers
         Map<String, String> eventHeaders = new HashMap<String, String>();
         eventHeaders.put(Constants.HEADER_CONTENT_TYPE, contentType);
-        logger.debug("Adding flume event header (name=" + Constants.HEADER_CONTENT_TYPE + ", value=" + contentType
-                + ")");
-        eventHeaders.put(Constants.HEADER_SERVICE, service == null ? defaultService : service);
-        logger.debug("Adding flume event header (name=" + Constants.HEADER_SERVICE
-                + ", value=" + (service == null ? defaultService : service) + ")");
-        eventHeaders.put(Constants.HEADER_SERVICE_PATH, servicePath == null ? defaultServicePath : servicePath);
-        logger.debug("Adding flume event header (name=" + Constants.HEADER_SERVICE_PATH
-                + ", value=" + (servicePath == null ? defaultServicePath : servicePath) + ")");
+        CygnusLogger.logDebug(logger, "Adding flume event header (name={}, value={})", Constants.HEADER_CONTENT_TYPE,
+                contentType);
+        eventHeaders.put(Constants.HEADER_SERVICE, service);
+        CygnusLogger.logDebug(logger, "Adding flume event header (name={}, value={})", Constants.HEADER_SERVICE,
+                service);
+        eventHeaders.put(Constants.HEADER_SERVICE_PATH, servicePath);
+        CygnusLogger.logDebug(logger, "Adding flume event header (name={}, value={})", Constants.HEADER_SERVICE_PATH,
+                servicePath);
         eventHeaders.put(Constants.HEADER_TRANSACTION_ID, transId);
-        logger.debug("Adding flume event header (name=" + Constants.HEADER_TRANSACTION_ID + ", value=" + transId + ")");
+        CygnusLogger.logDebug(logger, "Adding flume event header (name={}, value={})",
+                Constants.HEADER_TRANSACTION_ID, transId);
         eventHeaders.put(Constants.HEADER_TTL, eventsTTL);
-        logger.debug("Adding flume event header (name=" + Constants.HEADER_TTL + ", value=" + eventsTTL + ")");
+        CygnusLogger.logDebug(logger, "Adding flume event header (name={}, value={})", Constants.HEADER_TTL,
+                eventsTTL);
         
         // create the event list containing only one event
         ArrayList<Event> eventList = new ArrayList<Event>();
         Event event = EventBuilder.withBody(data.getBytes(), eventHeaders);
         eventList.add(event);
-        logger.info("Event put in the channel (id=" + event.hashCode() + ", ttl=" + eventsTTL + ")");
+        CygnusLogger.logEventInfo(logger, "Event put in the channel (id={}, ttl={})", event.hashCode(), eventsTTL);
         return eventList;
-    } // getEvents
+    } // buildEvents
+    
+    /**
+     * Rejects a notification because the agent is overloaded. No events are created; the OrionHTTPSource answers the
+     * thrown exception with a 503 Service Unavailable response including a Retry-After header.
+     * @param service
+     * @return Nothing, it always throws
+     * @throws CygnusOverloaded
+     */
+    private List<Event> rejectNotification(String service) throws CygnusOverloaded {
+        int retryAfter = admissionController.getRetryAfter();
+        logger.warn("Notification rejected, the agent is overloaded (service=" + service + ", retryAfter="
+                + retryAfter + ")");
+        throw new CygnusOverloaded(retryAfter);
+    } // rejectNotification
     
     /**
      * Generates a new unique transaction identifier. The format for this id is:
@@ -54,6 +54,17 @@ public class JettyServer extends Thread {
         return server;
     } // getServer
     
+    /**
+     * Stops the server, if running.
+     */
+    public void shutdown() {
+        try {
+            server.stop();
+        } catch (Exception ex) {
+            logger.error("Error stopping the Management Interface. Details=" + ex.getMessage());
+        } // try catch
+    } // shutdown
+    
     @Override
     public void run() {
         try {
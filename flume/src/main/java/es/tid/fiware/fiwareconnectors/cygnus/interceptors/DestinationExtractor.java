@@ -23,9 +23,12 @@ import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElementResponse;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequestSAXHandler;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
+import es.tid.fiware.fiwareconnectors.cygnus.interceptors.MatchingTable.Destination;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Utils;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -34,8 +37,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import org.apache.flume.Context;
@@ -52,16 +61,42 @@ import org.xml.sax.InputSource;
  */
 public class DestinationExtractor implements Interceptor {
     
+    // all the initialized instances, in order to be reloaded through the management interface
+    private static final Set<DestinationExtractor> INSTANCES = new CopyOnWriteArraySet<DestinationExtractor>();
+    // default maximum number of resolved destinations cached by the matching table
+    static final int DEFAULT_CACHE_SIZE = 10000;
+    
     private Logger logger;
     private String matchingTableFile;
-    private ArrayList<MatchingRule> matchingTable;
+    private int reloadInterval;
+    private int cacheSize;
+    // the compiled matching table is swapped as a whole when reloading, thus it is never seen half updated
+    private volatile MatchingTable matchingTable;
+    private final Object reloadLock;
+    private ScheduledExecutorService reloader;
+    private String loadedFileStamp;
+    private String pendingFileStamp;
     
     /**
      * Constructor.
+     * @param matchingTableFile
      */
     public DestinationExtractor(String matchingTableFile) {
+        this(matchingTableFile, 0, DEFAULT_CACHE_SIZE);
+    } // DestinationExtractor
+    
+    /**
+     * Constructor.
+     * @param matchingTableFile
+     * @param reloadInterval Seconds between checks of the matching table file for changes (0 means no checks)
+     * @param cacheSize Maximum number of resolved destinations to be cached (0 means no cache)
+     */
+    public DestinationExtractor(String matchingTableFile, int reloadInterval, int cacheSize) {
         logger = Logger.getLogger(DestinationExtractor.class);
         this.matchingTableFile = matchingTableFile;
+        this.reloadInterval = reloadInterval;
+        this.cacheSize = cacheSize;
+        reloadLock = new Object();
     } // DestinationExtractor
     
     /**
@@ -69,20 +104,163 @@ public class DestinationExtractor implements Interceptor {
      * @return
      */
     protected ArrayList<MatchingRule> getMatchingTable() {
-        return matchingTable;
+        return new ArrayList<MatchingRule>(matchingTable.getRules());
     } // getMatchingTable
     
     @Override
     public void initialize() {
         // load the matching table from the file where it is described
-        matchingTable = new ArrayList<MatchingRule>();
+        synchronized (reloadLock) {
+            loadedFileStamp = getFileStamp();
+            pendingFileStamp = loadedFileStamp;
+
+            try {
+                matchingTable = loadMatchingTable();
+            } catch (CygnusBadConfiguration e) {
+                logger.error(e.getMessage());
+                matchingTable = new MatchingTable(new ArrayList<MatchingRule>(), cacheSize);
+            } // try catch
+        } // synchronized
+        
+        INSTANCES.add(this);
+        
+        if (reloadInterval > 0) {
+            reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "matching-table-reloader");
+                    thread.setDaemon(true);
+                    return thread;
+                } // newThread
+                
+            });
+            reloader.scheduleWithFixedDelay(new Runnable() {
+                
+                @Override
+                public void run() {
+                    checkMatchingTableFile();
+                } // run
+                
+            }, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        } // if
+    } // initialize
+    
+    /**
+     * Reloads the matching table from its file. The new matching table is validated and compiled before replacing
+     * the current one; if not valid, the current one is kept.
+     * @return True if the matching table was reloaded, false otherwise
+     */
+    public boolean reloadMatchingTable() {
+        synchronized (reloadLock) {
+            try {
+                String fileStamp = getFileStamp();
+                MatchingTable newMatchingTable = loadMatchingTable();
+                matchingTable = newMatchingTable;
+                loadedFileStamp = fileStamp;
+                pendingFileStamp = fileStamp;
+                logger.info("Matching table reloaded (file=" + matchingTableFile + ", rules="
+                        + newMatchingTable.getRules().size() + ")");
+                return true;
+            } catch (CygnusBadConfiguration e) {
+                logger.error("The matching table could not be reloaded, the current one is kept. " + e.getMessage());
+                return false;
+            } // try catch
+        } // synchronized
+    } // reloadMatchingTable
+    
+    /**
+     * Reloads the matching table of all the initialized instances.
+     * @return The number of instances whose matching table could not be reloaded
+     */
+    public static int reloadAllMatchingTables() {
+        int failed = 0;
+        
+        for (DestinationExtractor instance : INSTANCES) {
+            if (!instance.reloadMatchingTable()) {
+                failed++;
+            } // if
+        } // for
+        
+        return failed;
+    } // reloadAllMatchingTables
+    
+    /**
+     * Gets the current matching tables of all the initialized instances.
+     * @return The current matching tables of all the initialized instances
+     */
+    public static List<MatchingTable> getAllMatchingTables() {
+        ArrayList<MatchingTable> matchingTables = new ArrayList<MatchingTable>();
+        
+        for (DestinationExtractor instance : INSTANCES) {
+            matchingTables.add(instance.matchingTable);
+        } // for
+        
+        return matchingTables;
+    } // getAllMatchingTables
+    
+    /**
+     * Gets the number of initialized instances.
+     * @return The number of initialized instances
+     */
+    public static int getNumInstances() {
+        return INSTANCES.size();
+    } // getNumInstances
+    
+    /**
+     * Checks if the matching table file has changed, reloading it if so. In order to not to load a file while being
+     * written, the reload is done once the file has not changed during a whole check interval.
+     */
+    protected void checkMatchingTableFile() {
+        synchronized (reloadLock) {
+            String fileStamp = getFileStamp();
+            
+            if (fileStamp.equals(loadedFileStamp)) {
+                pendingFileStamp = fileStamp;
+                return;
+            } // if
+            
+            if (!fileStamp.equals(pendingFileStamp)) {
+                logger.debug("The matching table file has changed, waiting for it to be stable (file="
+                        + matchingTableFile + ")");
+                pendingFileStamp = fileStamp;
+                return;
+            } // if
+            
+            if (!reloadMatchingTable()) {
+                // do not retry until the file changes again
+                loadedFileStamp = fileStamp;
+            } // if
+        } // synchronized
+    } // checkMatchingTableFile
+    
+    private String getFileStamp() {
+        if (matchingTableFile == null) {
+            return "";
+        } // if
+        
+        File file = new File(matchingTableFile);
+        return file.lastModified() + "_" + file.length();
+    } // getFileStamp
+    
+    /**
+     * Loads and compiles the matching table. Malformed lines are discarded, as done since the first versions, but
+     * invalid identifiers or regular expressions invalidate the whole matching table.
+     * @return The compiled matching table
+     * @throws CygnusBadConfiguration
+     */
+    private MatchingTable loadMatchingTable() throws CygnusBadConfiguration {
+        ArrayList<MatchingRule> rules = new ArrayList<MatchingRule>();
         BufferedReader reader = null;
         
+        if (matchingTableFile == null) {
+            throw new CygnusBadConfiguration("No matching table file has been configured");
+        } // if
+        
         try {
             reader = new BufferedReader(new FileReader(matchingTableFile));
         } catch (FileNotFoundException e) {
-            logger.error("Runtime error (File not found. Details=" + e.getMessage() + ")");
-            return;
+            throw new CygnusBadConfiguration("File not found. Details=" + e.getMessage());
         } // try catch
         
         String line;
@@ -101,14 +279,28 @@ public class DestinationExtractor implements Interceptor {
                     continue;
                 } // if
                 
-                int id = new Integer(tokens[0]).intValue();
-                ArrayList<String> fields = new ArrayList<String>(Arrays.asList(tokens[1].split(",")));
-                matchingTable.add(new MatchingRule(id, fields, tokens[2], tokens[3], tokens[4]));
+                try {
+                    int id = new Integer(tokens[0]).intValue();
+                    ArrayList<String> fields = new ArrayList<String>(Arrays.asList(tokens[1].split(",")));
+                    rules.add(new MatchingRule(id, fields, tokens[2], tokens[3], tokens[4]));
+                } catch (NumberFormatException e) {
+                    throw new CygnusBadConfiguration("Invalid matching rule id. Details=" + line);
+                } catch (PatternSyntaxException e) {
+                    throw new CygnusBadConfiguration("Invalid matching rule regex. Details=" + line);
+                } // try catch
             } // while
         } catch (IOException e) {
-            logger.error("Runtime error (I/O exception. Details=" + e.getMessage() + ")");
-        } // try catch
-    } // initialize
+            throw new CygnusBadConfiguration("I/O exception. Details=" + e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.warn("The matching table file could not be closed. Details=" + e.getMessage());
+            } // try catch
+        } // try catch finally
+        
+        return new MatchingTable(rules, cacheSize);
+    } // loadMatchingTable
  
     @Override
     public Event intercept(Event event) {
@@ -155,38 +347,22 @@ public class DestinationExtractor implements Interceptor {
         ArrayList<String> datasets = new ArrayList<String>();
         ArrayList<ContextElementResponse> contextResponses = notification.getContextResponses();
         
+        // the same matching table is used for the whole notification, even if reloaded in the meantime
+        MatchingTable currentMatchingTable = matchingTable;
+        
         for (ContextElementResponse contextElementResponse : contextResponses) {
             ContextElement contextElement = contextElementResponse.getContextElement();
             
-            // iterate on the matching rules
-            boolean added = false;
-            
-            for (MatchingRule rule : matchingTable) {
-                String concat = concatenateFields(rule.fields, contextElement,
-                        headers.get(Constants.HEADER_SERVICE_PATH));
-                Matcher matcher = rule.pattern.matcher(concat);
-                
-                if (matcher.matches()) {
-                    destinations.add(rule.destination);
-                    datasets.add(rule.dataset);
-                    added = true;
-                    break;
-                } // if
-            } // for
-            
-            // check if no matching was found, in that case the default destination ('<entityId>_<entityType>') and the
-            // notified fiware-servicePath are used
-            if (!added) {
-                destinations.add(Utils.encode(contextElement.getId() + "_" + contextElement.getType()));
-                datasets.add(fiwareServicePath);
-            } // if
+            // get the destination of the first matching rule; if no matching is found, the default destination
+            // ('<entityId>_<entityType>') and the notified fiware-servicePath are used
+            Destination destination = currentMatchingTable.resolve(contextElement, fiwareServicePath);
+            destinations.add(destination.getDestination());
+            datasets.add(destination.getDataset());
         } // for
  
         // set the final header values
-        headers.put(Constants.DESTINATION,
-                destinations.toString().replaceAll("\\[", "").replaceAll("\\]", "").replaceAll(" ", ""));
-        headers.put(Constants.HEADER_SERVICE_PATH,
-                datasets.toString().replaceAll("\\[", "").replaceAll("\\]", "").replaceAll(" ", ""));
+        headers.put(Constants.DESTINATION, joinHeaderValues(destinations));
+        headers.put(Constants.HEADER_SERVICE_PATH, joinHeaderValues(datasets));
         event.setHeaders(headers);
         return event;
     } // intercept
@@ -205,41 +381,63 @@ public class DestinationExtractor implements Interceptor {
  
     @Override
     public void close() {
+        INSTANCES.remove(this);
+        
+        if (reloader != null) {
+            reloader.shutdownNow();
+            reloader = null;
+        } // if
     } // close
  
+    /**
+     * Joins a list of header values with commas, removing any '[', ']' and ' ' characters, as historically done by
+     * replacing them in the string representation of the list.
+     * @param values
+     * @return The joined header values
+     */
+    private String joinHeaderValues(List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                joined.append(',');
+            } // if
+            
+            String value = String.valueOf(values.get(i));
+            
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                
+                if (c != '[' && c != ']' && c != ' ') {
+                    joined.append(c);
+                } // if
+            } // for
+        } // for
+        
+        return joined.toString();
+    } // joinHeaderValues
+    
     /**
      * Builder class for this new interceptor.
      */
     public static class Builder implements Interceptor.Builder {
         private String matchingTableFile;
+        private int reloadInterval;
+        private int cacheSize;
  
         @Override
         public void configure(Context context) {
             matchingTableFile = context.getString("matching_table");
+            reloadInterval = context.getInteger("matching_table_reload_interval", 0);
+            cacheSize = context.getInteger("matching_table_cache_size", DEFAULT_CACHE_SIZE);
         } // configure
  
         @Override
         public Interceptor build() {
-            return new DestinationExtractor(matchingTableFile);
+            return new DestinationExtractor(matchingTableFile, reloadInterval, cacheSize);
         } // build
     } // Builder
     
-    private String concatenateFields(ArrayList<String> fields, ContextElement contextElement, String servicePath) {
-        String concat = "";
-
-        for (String field : fields) {
-            if (field.equals("entityId")) {
-                concat += contextElement.getString(field);
-            } else if (field.equals("entityType")) {
-                concat += contextElement.getString(field);
-            } else if (field.equals("servicePath")) {
-                concat += servicePath;
-            } // if else
-        } // for
-        
-        return concat;
-    } // concatenateFields
-    
     /**
      * Each one of the entries of the matching table.
      */
@@ -290,6 +488,14 @@ public class DestinationExtractor implements Interceptor {
             return pattern.toString();
         } // getRegex
         
+        /**
+         * Gets the rule's compiled regular expression.
+         * @return the rule's compiled regular expression.
+         */
+        public Pattern getPattern() {
+            return pattern;
+        } // getPattern
+        
         /**
          * Gets the rule's destination.
          * @return The rule's destination.
@@ -0,0 +1,491 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.interceptors;
+
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
+import es.tid.fiware.fiwareconnectors.cygnus.interceptors.DestinationExtractor.MatchingRule;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.LRUCache;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Utils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ *
+ * @author frb
+ * 
+ * Compiled version of the matching table, giving the same result than checking the matching rules one by one in the
+ * order they were defined (the first matching rule wins), but much faster:
+ *  - The rules are grouped by their fields list, thus the fields concatenation is built once per group.
+ *  - Within a group, rules whose regex is a plain literal are indexed in a hash map, and rules whose regex starts
+ *    with a literal prefix are indexed in a trie, thus only the rules whose prefix matches are evaluated.
+ *  - The remaining regexes of a group are combined into a single alternation pattern, evaluated at once. Regexes
+ *    that cannot be combined (backreferences, named groups) are evaluated one by one.
+ *  - The groups are evaluated in the order of their first rule, and a group is skipped if it cannot contain a rule
+ *    defined before the best matching rule found so far.
+ * The resolved destinations are cached as well, since most of the entities notify once and again.
+ */
+public class MatchingTable {
+    
+    // regexes with backreferences cannot be combined since the groups numbering changes, and regexes with named
+    // groups cannot be combined since a group name cannot be defined twice in the same pattern
+    private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\(\\d|k<)|\\(\\?<[a-zA-Z]");
+    private static final String METACHARS = "\\^$.|?*+()[]{}";
+    
+    private final ArrayList<MatchingRule> rules;
+    private final ArrayList<RuleGroup> groups;
+    private final LRUCache<String, Destination> cache;
+    
+    /**
+     * Constructor.
+     * @param rules Matching rules, in the order they must be checked
+     */
+    public MatchingTable(List<MatchingRule> rules) {
+        this(rules, DestinationExtractor.DEFAULT_CACHE_SIZE);
+    } // MatchingTable
+    
+    /**
+     * Constructor.
+     * @param rules Matching rules, in the order they must be checked
+     * @param cacheSize Maximum number of resolved destinations to be cached (0 means no cache)
+     */
+    public MatchingTable(List<MatchingRule> rules, int cacheSize) {
+        this.rules = new ArrayList<MatchingRule>(rules);
+        LinkedHashMap<List<String>, RuleGroup> groupsByFields = new LinkedHashMap<List<String>, RuleGroup>();
+        
+        for (int i = 0; i < this.rules.size(); i++) {
+            MatchingRule rule = this.rules.get(i);
+            RuleGroup group = groupsByFields.get(rule.getFields());
+            
+            if (group == null) {
+                group = new RuleGroup(rule.getFields(), i);
+                groupsByFields.put(rule.getFields(), group);
+            } // if
+            
+            group.add(rule, i);
+        } // for
+        
+        groups = new ArrayList<RuleGroup>(groupsByFields.values());
+        
+        for (RuleGroup group : groups) {
+            group.compile();
+        } // for
+        
+        // cache of resolved destinations; they only depend on the entity id and type and the service path, and the
+        // cache is discarded together with this matching table when reloading
+        cache = new LRUCache<String, Destination>(cacheSize);
+    } // MatchingTable
+    
+    /**
+     * Gets the matching rules, in the order they are checked.
+     * @return The matching rules
+     */
+    public List<MatchingRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    } // getRules
+    
+    /**
+     * Gets the cache of resolved destinations.
+     * @return The cache of resolved destinations
+     */
+    public LRUCache<String, Destination> getCache() {
+        return cache;
+    } // getCache
+    
+    /**
+     * Resolves the destination and dataset for a context element. If no rule matches, the default destination
+     * ('<entityId>_<entityType>') and the given service path are used.
+     * @param contextElement
+     * @param servicePath
+     * @return The destination and dataset for the context element
+     */
+    public Destination resolve(ContextElement contextElement, String servicePath) {
+        String key = contextElement.getId() + '\u0000' + contextElement.getType() + '\u0000' + servicePath;
+        Destination destination = cache.get(key);
+        
+        if (destination != null) {
+            return destination;
+        } // if
+        
+        MatchingRule rule = match(contextElement, servicePath);
+        
+        if (rule != null) {
+            destination = new Destination(rule.getDestination(), rule.getDataset());
+        } else {
+            destination = new Destination(Utils.encode(contextElement.getId() + "_" + contextElement.getType()),
+                    servicePath);
+        } // if else
+        
+        cache.put(key, destination);
+        return destination;
+    } // resolve
+    
+    /**
+     * Gets the first matching rule for a context element.
+     * @param contextElement
+     * @param servicePath
+     * @return The first matching rule, or null if no rule matches
+     */
+    public MatchingRule match(ContextElement contextElement, String servicePath) {
+        int best = Integer.MAX_VALUE;
+        
+        for (RuleGroup group : groups) {
+            if (group.minPosition >= best) {
+                // the groups are sorted by their first rule, no remaining group can improve the result
+                break;
+            } // if
+            
+            best = group.match(concatenateFields(group.fields, contextElement, servicePath), best);
+        } // for
+        
+        return best == Integer.MAX_VALUE ? null : rules.get(best);
+    } // match
+    
+    /**
+     * Concatenates the values of a list of fields.
+     * @param fields
+     * @param contextElement
+     * @param servicePath
+     * @return The concatenation of the values of the fields
+     */
+    protected static String concatenateFields(List<String> fields, ContextElement contextElement,
+            String servicePath) {
+        StringBuilder concat = new StringBuilder();
+        
+        for (String field : fields) {
+            if (field.equals("entityId")) {
+                concat.append(contextElement.getString(field));
+            } else if (field.equals("entityType")) {
+                concat.append(contextElement.getString(field));
+            } else if (field.equals("servicePath")) {
+                concat.append(servicePath);
+            } // if else
+        } // for
+        
+        return concat.toString();
+    } // concatenateFields
+    
+    /**
+     * Gets the literal prefix of a regex, i.e. the string any matching input must start with.
+     * @param regex
+     * @return The literal prefix of the regex, and a flag telling if the whole regex is a literal
+     */
+    protected static LiteralPrefix getLiteralPrefix(String regex) {
+        if (hasTopLevelAlternation(regex)) {
+            return new LiteralPrefix("", false);
+        } // if
+        
+        StringBuilder prefix = new StringBuilder();
+        int i = 0;
+        
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int next;
+            char literal;
+            
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // escaped letters and digits are character classes, anchors or backreferences
+                    break;
+                } // if
+                
+                literal = regex.charAt(i + 1);
+                next = i + 2;
+            } else if (METACHARS.indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            } // if else
+            
+            if (next < regex.length() && "?*+{".indexOf(regex.charAt(next)) >= 0) {
+                // the last literal is quantified, thus it is not mandatory
+                break;
+            } // if
+            
+            prefix.append(literal);
+            i = next;
+        } // while
+        
+        return new LiteralPrefix(prefix.toString(), i == regex.length());
+    } // getLiteralPrefix
+    
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                } // if
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            } // if else
+        } // for
+        
+        return false;
+    } // hasTopLevelAlternation
+    
+    /**
+     * Resolved destination and dataset.
+     */
+    public static class Destination {
+        
+        private final String destination;
+        private final String dataset;
+        
+        /**
+         * Constructor.
+         * @param destination
+         * @param dataset
+         */
+        public Destination(String destination, String dataset) {
+            this.destination = destination;
+            this.dataset = dataset;
+        } // Destination
+        
+        /**
+         * Gets the destination.
+         * @return The destination
+         */
+        public String getDestination() {
+            return destination;
+        } // getDestination
+        
+        /**
+         * Gets the dataset.
+         * @return The dataset
+         */
+        public String getDataset() {
+            return dataset;
+        } // getDataset
+        
+    } // Destination
+    
+    /**
+     * Literal prefix of a regex.
+     */
+    protected static class LiteralPrefix {
+        
+        private final String prefix;
+        private final boolean wholeRegex;
+        
+        LiteralPrefix(String prefix, boolean wholeRegex) {
+            this.prefix = prefix;
+            this.wholeRegex = wholeRegex;
+        } // LiteralPrefix
+        
+        /**
+         * Gets the literal prefix.
+         * @return The literal prefix
+         */
+        public String getPrefix() {
+            return prefix;
+        } // getPrefix
+        
+        /**
+         * Gets if the whole regex is a literal.
+         * @return True if the whole regex is a literal, false otherwise
+         */
+        public boolean isWholeRegex() {
+            return wholeRegex;
+        } // isWholeRegex
+        
+    } // LiteralPrefix
+    
+    /**
+     * Trie node, indexing the rules by their literal prefix.
+     */
+    private static class TrieNode {
+        
+        private final HashMap<Character, TrieNode> children = new HashMap<Character, TrieNode>();
+        private final ArrayList<Integer> positions = new ArrayList<Integer>();
+        
+    } // TrieNode
+    
+    /**
+     * Rules sharing the same fields list.
+     */
+    private class RuleGroup {
+        
+        private final List<String> fields;
+        private final int minPosition;
+        private final HashMap<String, Integer> literals;
+        private final TrieNode trie;
+        private final ArrayList<Integer> alternatives;
+        private Pattern combined;
+        private int[] combinedGroups;
+        private int minCombinedPosition;
+        
+        RuleGroup(List<String> fields, int minPosition) {
+            this.fields = fields;
+            this.minPosition = minPosition;
+            literals = new HashMap<String, Integer>();
+            trie = new TrieNode();
+            alternatives = new ArrayList<Integer>();
+            combined = null;
+            minCombinedPosition = Integer.MAX_VALUE;
+        } // RuleGroup
+        
+        void add(MatchingRule rule, int position) {
+            String regex = rule.getRegex();
+            LiteralPrefix literalPrefix = getLiteralPrefix(regex);
+            
+            if (literalPrefix.isWholeRegex()) {
+                // rules are added in order, thus the first rule with a given literal wins
+                if (!literals.containsKey(literalPrefix.getPrefix())) {
+                    literals.put(literalPrefix.getPrefix(), position);
+                } // if
+            } else if (literalPrefix.getPrefix().length() > 0 || NOT_COMBINABLE.matcher(regex).find()) {
+                TrieNode node = trie;
+                
+                for (char c : literalPrefix.getPrefix().toCharArray()) {
+                    TrieNode child = node.children.get(c);
+                    
+                    if (child == null) {
+                        child = new TrieNode();
+                        node.children.put(c, child);
+                    } // if
+                    
+                    node = child;
+                } // for
+                
+                node.positions.add(position);
+            } else {
+                alternatives.add(position);
+            } // if else
+        } // add
+        
+        void compile() {
+            if (alternatives.isEmpty()) {
+                return;
+            } // if
+            
+            StringBuilder regex = new StringBuilder();
+            combinedGroups = new int[alternatives.size()];
+            int groupIndex = 1;
+            
+            for (int i = 0; i < alternatives.size(); i++) {
+                Pattern pattern = rules.get(alternatives.get(i)).getPattern();
+                
+                if (i > 0) {
+                    regex.append('|');
+                } // if
+                
+                regex.append('(').append(pattern.pattern()).append(')');
+                combinedGroups[i] = groupIndex;
+                groupIndex += 1 + pattern.matcher("").groupCount();
+            } // for
+            
+            try {
+                combined = Pattern.compile(regex.toString());
+                minCombinedPosition = alternatives.get(0);
+            } catch (PatternSyntaxException e) {
+                // the rules are still valid one by one, thus they are evaluated as the rules indexed by an empty
+                // prefix
+                trie.positions.addAll(alternatives);
+                alternatives.clear();
+                combinedGroups = null;
+            } // try catch
+        } // compile
+        
+        /**
+         * Gets the position of the first matching rule of this group, if before the given best position.
+         * @param concat
+         * @param best
+         * @return The position of the first matching rule, or the given best position
+         */
+        int match(String concat, int best) {
+            Integer literal = literals.get(concat);
+            
+            if (literal != null && literal < best) {
+                best = literal;
+            } // if
+            
+            // rules indexed by prefix; the candidates are got walking the trie along the concatenation
+            ArrayList<Integer> candidates = new ArrayList<Integer>(trie.positions);
+            TrieNode node = trie;
+            
+            for (int i = 0; i < concat.length() && node != null; i++) {
+                node = node.children.get(concat.charAt(i));
+                
+                if (node != null) {
+                    candidates.addAll(node.positions);
+                } // if
+            } // for
+            
+            if (candidates.size() > 1) {
+                Collections.sort(candidates);
+            } // if
+            
+            for (Integer candidate : candidates) {
+                if (candidate >= best) {
+                    break;
+                } // if
+                
+                if (rules.get(candidate).getPattern().matcher(concat).matches()) {
+                    best = candidate;
+                    break;
+                } // if
+            } // for
+            
+            // rules combined into a single pattern; the alternation returns the first matching alternative
+            if (combined != null && minCombinedPosition < best) {
+                Matcher matcher = combined.matcher(concat);
+                
+                if (matcher.matches()) {
+                    for (int i = 0; i < combinedGroups.length; i++) {
+                        int position = alternatives.get(i);
+                        
+                        if (position >= best) {
+                            break;
+                        } // if
+                        
+                        // the alternative is double checked, a failed alternative may leave its group captured
+                        if (matcher.start(combinedGroups[i]) != -1
+                                && rules.get(position).getPattern().matcher(concat).matches()) {
+                            best = position;
+                            break;
+                        } // if
+                    } // for
+                } // if
+            } // if
+            
+            return best;
+        } // match
+        
+    } // RuleGroup
+    
+} // MatchingTable
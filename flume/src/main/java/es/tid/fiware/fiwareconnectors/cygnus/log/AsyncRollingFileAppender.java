@@ -0,0 +1,239 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.RollingFileAppender;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ *
+ * @author frb
+ * 
+ * Rolling file appender writing the traces asynchronously: the logging threads only put the traces in a bounded
+ * buffer, and a background thread writes them to the file, flushing once per written block instead of once per
+ * trace. Its configuration is the same than the org.apache.log4j.RollingFileAppender one, plus:
+ *  - BufferSize, the maximum number of traces waiting to be written (8192 by default).
+ *  - Blocking, if true the logging threads wait for room in the buffer when it is full, otherwise the traces are
+ *    discarded (and the number of discarded traces is written afterwards). False by default.
+ *  - LocationInfo, if true the class, method and line of each trace are got by the logging thread, being available
+ *    for %C, %M and %L in the layout. This is expensive, thus it is false by default.
+ */
+public class AsyncRollingFileAppender extends RollingFileAppender {
+    
+    // the background thread checks if it has to finish once per this interval
+    private static final long POLL_INTERVAL_MS = 100;
+    
+    private int bufferSize;
+    private boolean blocking;
+    private boolean locationInfo;
+    private ArrayBlockingQueue<LoggingEvent> buffer;
+    private final AtomicLong discarded;
+    private volatile boolean running;
+    private Thread writer;
+    
+    /**
+     * Constructor.
+     */
+    public AsyncRollingFileAppender() {
+        super();
+        bufferSize = 8192;
+        blocking = false;
+        locationInfo = false;
+        discarded = new AtomicLong(0);
+        running = false;
+        
+        // the background thread flushes after each written block
+        setImmediateFlush(false);
+    } // AsyncRollingFileAppender
+    
+    /**
+     * Sets the maximum number of traces waiting to be written.
+     * @param bufferSize
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(1, bufferSize);
+    } // setBufferSize
+    
+    /**
+     * Gets the maximum number of traces waiting to be written.
+     * @return The maximum number of traces waiting to be written
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    } // getBufferSize
+    
+    /**
+     * Sets if the logging threads wait for room in the buffer when it is full.
+     * @param blocking
+     */
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    } // setBlocking
+    
+    /**
+     * Gets if the logging threads wait for room in the buffer when it is full.
+     * @return True if the logging threads wait for room in the buffer when it is full, false otherwise
+     */
+    public boolean getBlocking() {
+        return blocking;
+    } // getBlocking
+    
+    /**
+     * Sets if the class, method and line of each trace are got.
+     * @param locationInfo
+     */
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    } // setLocationInfo
+    
+    /**
+     * Gets if the class, method and line of each trace are got.
+     * @return True if the class, method and line of each trace are got, false otherwise
+     */
+    public boolean getLocationInfo() {
+        return locationInfo;
+    } // getLocationInfo
+    
+    /**
+     * Gets the number of traces discarded since the buffer was full.
+     * @return The number of traces discarded since the buffer was full
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    } // getDiscarded
+    
+    @Override
+    public void activateOptions() {
+        super.activateOptions();
+        stopWriter();
+        buffer = new ArrayBlockingQueue<LoggingEvent>(bufferSize);
+        running = true;
+        writer = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                writeTraces();
+            } // run
+            
+        }, "async-log-writer-" + getName());
+        writer.setDaemon(true);
+        writer.start();
+    } // activateOptions
+    
+    @Override
+    public void append(LoggingEvent event) {
+        if (buffer == null) {
+            super.append(event);
+            return;
+        } // if
+        
+        // everything depending on the logging thread must be got now
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        event.getRenderedMessage();
+        event.getThrowableStrRep();
+        
+        if (locationInfo) {
+            event.getLocationInformation();
+        } // if
+        
+        if (blocking) {
+            try {
+                buffer.put(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                discarded.incrementAndGet();
+            } // try catch
+        } else if (!buffer.offer(event)) {
+            discarded.incrementAndGet();
+        } // if else if
+    } // append
+    
+    @Override
+    public synchronized void close() {
+        stopWriter();
+        super.close();
+    } // close
+    
+    private void stopWriter() {
+        if (writer == null) {
+            return;
+        } // if
+        
+        running = false;
+        
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } // try catch
+        
+        writer = null;
+    } // stopWriter
+    
+    private void writeTraces() {
+        ArrayList<LoggingEvent> block = new ArrayList<LoggingEvent>();
+        long reportedDiscarded = 0;
+        
+        while (running || !buffer.isEmpty()) {
+            try {
+                LoggingEvent first = buffer.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                
+                if (first == null) {
+                    continue;
+                } // if
+                
+                block.add(first);
+                buffer.drainTo(block);
+                
+                for (LoggingEvent event : block) {
+                    super.append(event);
+                } // for
+                
+                block.clear();
+                long currentDiscarded = discarded.get();
+                
+                if (currentDiscarded > reportedDiscarded) {
+                    super.append(new LoggingEvent(AsyncRollingFileAppender.class.getName(),
+                            Logger.getLogger(AsyncRollingFileAppender.class), Level.WARN, (currentDiscarded
+                            - reportedDiscarded) + " traces discarded since the logging buffer was full", null));
+                    reportedDiscarded = currentDiscarded;
+                } // if
+                
+                if (qw != null) {
+                    qw.flush();
+                } // if
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Exception e) {
+                errorHandler.error("Error writing the traces asynchronously: " + e.getMessage());
+                block.clear();
+            } // try catch
+        } // while
+    } // writeTraces
+    
+} // AsyncRollingFileAppender
@@ -18,14 +18,27 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.log;
 
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 /**
  *
  * @author frb
+ * 
+ * Besides the component based tracing methods, this class provides static methods for the hot path (i.e. traces
+ * written once or several times per notification): the messages are given as a format with "{}" placeholders and
+ * its arguments, and the message is only built if the level is enabled. In addition, the per event INFO traces
+ * (logEventInfo) are rate limited per logger to a maximum number of traces per second, given by the
+ * "cygnus.log.max_event_rate" system property (0, the default, means no limit).
  */
 public class CygnusLogger extends Logger {
     
+    private static final String FQCN = CygnusLogger.class.getName();
+    private static final ConcurrentHashMap<String, RateLimiter> RATE_LIMITERS =
+            new ConcurrentHashMap<String, RateLimiter>();
+    private static volatile int maxEventRate = Integer.getInteger("cygnus.log.max_event_rate", 0);
+    
     /**
      * Constructor.
      * @param name
@@ -79,4 +92,146 @@ public class CygnusLogger extends Logger {
         debug("[" + componentName + "] " + message);
     } // debug
     
+    /**
+     * Traces a message with DEBUG level, only building the message if that level is enabled.
+     * @param logger
+     * @param format Message format, where each "{}" is replaced by the next argument
+     * @param args
+     */
+    public static void logDebug(Logger logger, String format, Object... args) {
+        if (logger.isDebugEnabled()) {
+            logger.log(FQCN, Level.DEBUG, format(format, args), null);
+        } // if
+    } // logDebug
+    
+    /**
+     * Traces a message with INFO level, only building the message if that level is enabled.
+     * @param logger
+     * @param format Message format, where each "{}" is replaced by the next argument
+     * @param args
+     */
+    public static void logInfo(Logger logger, String format, Object... args) {
+        if (logger.isInfoEnabled()) {
+            logger.log(FQCN, Level.INFO, format(format, args), null);
+        } // if
+    } // logInfo
+    
+    /**
+     * Traces a per event message with INFO level, only building the message if that level is enabled and the
+     * maximum event traces rate of the logger has not been reached in the current second. The first trace written
+     * after some others have been suppressed informs about the number of suppressed traces.
+     * @param logger
+     * @param format Message format, where each "{}" is replaced by the next argument
+     * @param args
+     */
+    public static void logEventInfo(Logger logger, String format, Object... args) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        } // if
+        
+        int rate = maxEventRate;
+        
+        if (rate <= 0) {
+            logger.log(FQCN, Level.INFO, format(format, args), null);
+            return;
+        } // if
+        
+        long suppressed = getRateLimiter(logger.getName()).acquire(rate);
+        
+        if (suppressed == 0) {
+            logger.log(FQCN, Level.INFO, format(format, args), null);
+        } else if (suppressed > 0) {
+            logger.log(FQCN, Level.INFO, format(format, args) + " [" + suppressed + " similar traces suppressed]",
+                    null);
+        } // if else if
+    } // logEventInfo
+    
+    /**
+     * Sets the maximum number of per event INFO traces per second and logger.
+     * @param maxEventRate Maximum number of per event INFO traces per second, 0 means no limit
+     */
+    public static void setMaxEventRate(int maxEventRate) {
+        CygnusLogger.maxEventRate = maxEventRate;
+    } // setMaxEventRate
+    
+    /**
+     * Builds a message given its format and arguments, each "{}" in the format being replaced by the next argument.
+     * Placeholders without argument are kept as they are, and arguments without placeholder are ignored.
+     * @param format
+     * @param args
+     * @return The message
+     */
+    public static String format(String format, Object... args) {
+        if (args == null || args.length == 0) {
+            return format;
+        } // if
+        
+        StringBuilder message = new StringBuilder(format.length() + 16 * args.length);
+        int start = 0;
+        
+        for (Object arg : args) {
+            int placeholder = format.indexOf("{}", start);
+            
+            if (placeholder < 0) {
+                break;
+            } // if
+            
+            message.append(format, start, placeholder).append(arg);
+            start = placeholder + 2;
+        } // for
+        
+        return message.append(format, start, format.length()).toString();
+    } // format
+    
+    private static RateLimiter getRateLimiter(String name) {
+        RateLimiter rateLimiter = RATE_LIMITERS.get(name);
+        
+        if (rateLimiter == null) {
+            RateLimiter newRateLimiter = new RateLimiter();
+            rateLimiter = RATE_LIMITERS.putIfAbsent(name, newRateLimiter);
+            
+            if (rateLimiter == null) {
+                rateLimiter = newRateLimiter;
+            } // if
+        } // if
+        
+        return rateLimiter;
+    } // getRateLimiter
+    
+    /**
+     * Counts the traces written during the current second.
+     */
+    private static class RateLimiter {
+        
+        private long currentSecond = 0;
+        private int written = 0;
+        private long suppressed = 0;
+        
+        /**
+         * Tries to write a new trace.
+         * @param rate Maximum number of traces per second
+         * @return -1 if the trace must be suppressed, otherwise the number of traces suppressed since the last
+         * written one
+         */
+        synchronized long acquire(int rate) {
+            long second = System.currentTimeMillis() / 1000;
+            
+            if (second != currentSecond) {
+                currentSecond = second;
+                written = 0;
+            } // if
+            
+            if (written >= rate) {
+                suppressed++;
+                return -1;
+            } // if
+            
+            written++;
+            long previouslySuppressed = suppressed;
+            suppressed = 0;
+            return previouslySuppressed;
+        } // acquire
+        
+    } // RateLimiter
+    
 } // CygnusLogger
@@ -19,13 +19,25 @@
 package es.tid.fiware.fiwareconnectors.cygnus.management;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import es.tid.fiware.fiwareconnectors.cygnus.interceptors.DestinationExtractor;
+import es.tid.fiware.fiwareconnectors.cygnus.interceptors.MatchingTable;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.JmxGauge;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.MetricsRegistry;
+import es.tid.fiware.fiwareconnectors.cygnus.sinks.OrionSink;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Utils;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.flume.Channel;
-import org.apache.flume.SinkRunner;
 import org.apache.flume.SourceRunner;
 import org.mortbay.jetty.HttpConnection;
 import org.mortbay.jetty.Request;
@@ -37,22 +49,35 @@ import org.mortbay.jetty.handler.AbstractHandler;
  */
 public class ManagementInterface extends AbstractHandler {
     
-    private ImmutableMap<String, SourceRunner> sources;
+    // default seconds to wait for the sinks to be flushed and the channels to be drained
+    private static final int DEFAULT_FLUSH_TIMEOUT = 30;
+    private static final int DEFAULT_DRAIN_TIMEOUT = 60;
+    
+    // the flush and drain progress is checked once per this interval
+    private static final long WAIT_INTERVAL_MS = 100;
+    
     private ImmutableMap<String, Channel> channels;
-    private ImmutableMap<String, SinkRunner> sinks;
     
     /**
      * Constructor.
      * @param sources
      * @param channels
-     * @param sinks
      */
-    public ManagementInterface(ImmutableMap<String, SourceRunner> sources, ImmutableMap<String, Channel> channels,
-            ImmutableMap<String, SinkRunner> sinks) {
-        // FIXME: these references are ready to be used for more advanced Management Interface operations
-        this.sources = sources;
+    public ManagementInterface(ImmutableMap<String, SourceRunner> sources, ImmutableMap<String, Channel> channels) {
         this.channels = channels;
-        this.sinks = sinks;
+        
+        // the metrics of the sources and channels are got from their JMX counters
+        if (sources != null) {
+            for (String source : sources.keySet()) {
+                JmxGauge.registerSource(source);
+            } // for
+        } // if
+        
+        if (channels != null) {
+            for (String channel : channels.keySet()) {
+                JmxGauge.registerChannel(channel);
+            } // for
+        } // if
     } // ManagementInterface
     
     @Override
@@ -74,10 +99,260 @@ public class ManagementInterface extends AbstractHandler {
             response.setStatus(HttpServletResponse.SC_OK);
             response.getWriter().println("{\"version\":\"" + Utils.getCygnusVersion() + "." + Utils.getLastCommit()
                     + "\"}");
+        } else if (uri.equals("/matching_table/reload")) {
+            handleMatchingTableReload(request, response);
+        } else if (uri.equals("/matching_table/cache")) {
+            handleMatchingTableCache(response);
+        } else if (uri.equals("/metrics")) {
+            handleMetrics(request, response);
+        } else if (uri.equals("/sinks")) {
+            handleSinks(response);
+        } else if (uri.equals("/sinks/flush")) {
+            handleSinksFlush(request, response);
+        } else if (uri.startsWith("/sinks/")) {
+            handleSink(uri.substring("/sinks/".length()), request, response);
+        } else if (uri.startsWith("/channels/") && uri.endsWith("/drain")) {
+            handleChannelDrain(uri.substring("/channels/".length(), uri.length() - "/drain".length()), request,
+                    response);
+        } else if (uri.equals("/backends/latency")) {
+            response.setContentType("json;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(BackendLatency.toJson().toString());
         } else {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             response.getWriter().println("404 - Not found");
         } // if else
     } // handle
     
+    private void handleMetrics(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String format = request.getParameter("format");
+        String accept = request.getHeader("Accept");
+        
+        if ("json".equals(format) || (format == null && accept != null && accept.contains("application/json"))) {
+            response.setContentType("json;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(MetricsRegistry.getInstance().toJson().toString());
+        } else {
+            response.setContentType("text/plain;version=0.0.4;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().print(MetricsRegistry.getInstance().toPrometheus());
+        } // if else
+    } // handleMetrics
+    
+    private void handleSinks(HttpServletResponse response) throws IOException {
+        JsonArray jsonSinks = new JsonArray();
+        
+        for (OrionSink sink : new TreeMap<String, OrionSink>(getSinksByName()).values()) {
+            jsonSinks.add(toJson(sink));
+        } // for
+        
+        JsonObject json = new JsonObject();
+        json.add("sinks", jsonSinks);
+        response.setContentType("json;charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println(json.toString());
+    } // handleSinks
+    
+    private void handleSink(String path, HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+        int slash = path.indexOf('/');
+        
+        if (slash < 0) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println("404 - Not found");
+            return;
+        } // if
+        
+        String operation = path.substring(slash + 1);
+        OrionSink sink = OrionSink.getInstance(path.substring(0, slash));
+        
+        if (sink == null || !(operation.equals("pause") || operation.equals("resume") || operation.equals("batch"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println("404 - Not found");
+            return;
+        } // if
+        
+        if (!"POST".equals(request.getMethod()) && !"PUT".equals(request.getMethod())) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            response.getWriter().println("405 - Method not allowed");
+            return;
+        } // if
+        
+        if (operation.equals("pause")) {
+            sink.setPaused(true);
+        } else if (operation.equals("resume")) {
+            sink.setPaused(false);
+        } else {
+            try {
+                String batchSize = request.getParameter("batch_size");
+                String batchTimeout = request.getParameter("batch_timeout");
+                
+                if (batchSize != null) {
+                    sink.setBatchSize(Integer.parseInt(batchSize));
+                } // if
+                
+                if (batchTimeout != null) {
+                    sink.setBatchTimeout(Integer.parseInt(batchTimeout));
+                } // if
+            } catch (NumberFormatException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().println("400 - Bad request (batch_size and batch_timeout must be integers)");
+                return;
+            } // try catch
+        } // if else
+        
+        response.setContentType("json;charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println(toJson(sink).toString());
+    } // handleSink
+    
+    private void handleSinksFlush(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!"POST".equals(request.getMethod())) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            response.getWriter().println("405 - Method not allowed");
+            return;
+        } // if
+        
+        long deadline = System.currentTimeMillis() + getTimeout(request, DEFAULT_FLUSH_TIMEOUT) * 1000L;
+        HashMap<OrionSink, Long> flushRequests = new HashMap<OrionSink, Long>();
+        
+        for (OrionSink sink : OrionSink.getInstances()) {
+            flushRequests.put(sink, sink.requestFlush());
+        } // for
+        
+        int pending = flushRequests.size();
+        
+        while (true) {
+            pending = 0;
+            
+            for (Map.Entry<OrionSink, Long> flushRequest : flushRequests.entrySet()) {
+                if (!flushRequest.getKey().isFlushed(flushRequest.getValue())) {
+                    pending++;
+                } // if
+            } // for
+            
+            if (pending == 0 || System.currentTimeMillis() >= deadline || !sleep(WAIT_INTERVAL_MS)) {
+                break;
+            } // if
+        } // while
+        
+        response.setContentType("json;charset=utf-8");
+        response.setStatus(pending == 0 ? HttpServletResponse.SC_OK : HttpServletResponse.SC_ACCEPTED);
+        response.getWriter().println("{\"flushed\":" + (flushRequests.size() - pending) + ",\"pending\":" + pending
+                + "}");
+    } // handleSinksFlush
+    
+    private void handleChannelDrain(String channel, HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+        if (channels == null || !channels.containsKey(channel)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println("404 - Not found");
+            return;
+        } // if
+        
+        if (!"POST".equals(request.getMethod())) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            response.getWriter().println("405 - Method not allowed");
+            return;
+        } // if
+        
+        long deadline = System.currentTimeMillis() + getTimeout(request, DEFAULT_DRAIN_TIMEOUT) * 1000L;
+        long size = getChannelSize(channel);
+        
+        while (size > 0 && System.currentTimeMillis() < deadline && sleep(WAIT_INTERVAL_MS)) {
+            size = getChannelSize(channel);
+        } // while
+        
+        response.setContentType("json;charset=utf-8");
+        response.setStatus(size == 0 ? HttpServletResponse.SC_OK : HttpServletResponse.SC_ACCEPTED);
+        response.getWriter().println("{\"channel\":\"" + channel + "\",\"drained\":" + (size == 0) + ",\"size\":"
+                + size + "}");
+    } // handleChannelDrain
+    
+    /**
+     * Gets the number of events within a channel, as published by Flume through JMX. It is protected since it is
+     * overridden by the tests.
+     * @param channel
+     * @return The number of events within the channel, or -1 if it cannot be got
+     */
+    protected long getChannelSize(String channel) {
+        try {
+            return ((Long) ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName("org.apache.flume.channel:type=" + channel), "ChannelSize")).longValue();
+        } catch (Exception e) {
+            return -1;
+        } // try catch
+    } // getChannelSize
+    
+    private HashMap<String, OrionSink> getSinksByName() {
+        HashMap<String, OrionSink> sinksByName = new HashMap<String, OrionSink>();
+        
+        for (OrionSink sink : OrionSink.getInstances()) {
+            sinksByName.put(sink.getName(), sink);
+        } // for
+        
+        return sinksByName;
+    } // getSinksByName
+    
+    private JsonObject toJson(OrionSink sink) {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", sink.getName());
+        json.addProperty("paused", sink.isPaused());
+        json.addProperty("batch_size", sink.getBatchSize());
+        json.addProperty("batch_timeout", sink.getBatchTimeout());
+        return json;
+    } // toJson
+    
+    private int getTimeout(HttpServletRequest request, int defaultTimeout) {
+        try {
+            String timeout = request.getParameter("timeout");
+            return timeout == null ? defaultTimeout : Integer.parseInt(timeout);
+        } catch (NumberFormatException e) {
+            return defaultTimeout;
+        } // try catch
+    } // getTimeout
+    
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } // try catch
+    } // sleep
+    
+    private void handleMatchingTableReload(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+        if (!"POST".equals(request.getMethod())) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            response.getWriter().println("405 - Method not allowed");
+            return;
+        } // if
+        
+        int numInstances = DestinationExtractor.getNumInstances();
+        int failed = DestinationExtractor.reloadAllMatchingTables();
+        response.setContentType("json;charset=utf-8");
+        response.setStatus(failed == 0 ? HttpServletResponse.SC_OK : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        response.getWriter().println("{\"reloaded\":" + (numInstances - failed) + ",\"failed\":" + failed + "}");
+    } // handleMatchingTableReload
+    
+    private void handleMatchingTableCache(HttpServletResponse response) throws IOException {
+        long hits = 0;
+        long misses = 0;
+        long size = 0;
+        
+        for (MatchingTable matchingTable : DestinationExtractor.getAllMatchingTables()) {
+            hits += matchingTable.getCache().getHits();
+            misses += matchingTable.getCache().getMisses();
+            size += matchingTable.getCache().size();
+        } // for
+        
+        double hitRatio = (hits + misses) == 0 ? 0 : (double) hits / (hits + misses);
+        response.setContentType("json;charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println("{\"size\":" + size + ",\"hits\":" + hits + ",\"misses\":" + misses
+                + ",\"hit_ratio\":" + hitRatio + "}");
+    } // handleMatchingTableCache
+    
 } // ManagementInterface
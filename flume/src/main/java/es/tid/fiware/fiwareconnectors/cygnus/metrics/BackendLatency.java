@@ -0,0 +1,212 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ * 
+ * Latency of the operations done against the persistence backends (MySQL, HDFS, CKAN, Hive). There is a histogram,
+ * in microseconds, per backend, operation and status (ok or error), kept by the MetricsRegistry. Besides, a summary
+ * of the latencies measured during the last interval can be periodically logged.
+ */
+public final class BackendLatency {
+    
+    /**
+     * Name of the histograms in the MetricsRegistry.
+     */
+    public static final String METRIC_NAME = "cygnus_backend_latency_us";
+    
+    /**
+     * Status of the operations having succeeded.
+     */
+    public static final String STATUS_OK = "ok";
+    
+    /**
+     * Status of the operations having failed.
+     */
+    public static final String STATUS_ERROR = "error";
+    
+    private static final String METRIC_HELP = "Latency of the backend operations, in microseconds";
+    private static final Logger LOGGER = Logger.getLogger(BackendLatency.class);
+    private static final Map<Histogram, long[]> LAST_COUNTS = new HashMap<Histogram, long[]>();
+    private static ScheduledExecutorService reporter = null;
+    
+    /**
+     * Constructor. It is private since this is an utility class.
+     */
+    private BackendLatency() {
+    } // BackendLatency
+    
+    /**
+     * Records the latency of a backend operation, started at the given System.nanoTime() value.
+     * @param backend
+     * @param operation
+     * @param success
+     * @param startNanos
+     */
+    public static void record(String backend, String operation, boolean success, long startNanos) {
+        MetricsRegistry.getInstance().histogram(METRIC_NAME, METRIC_HELP, "backend", backend, "operation",
+                operation, "status", success ? STATUS_OK : STATUS_ERROR).recordSince(startNanos);
+    } // record
+    
+    /**
+     * Gets all the backend latency histograms, sorted by backend, operation and status.
+     * @return All the backend latency histograms
+     */
+    public static List<Histogram> getHistograms() {
+        ArrayList<Histogram> histograms = new ArrayList<Histogram>();
+        
+        for (Metric metric : MetricsRegistry.getInstance().getMetrics()) {
+            if (metric.getName().equals(METRIC_NAME)) {
+                histograms.add((Histogram) metric);
+            } // if
+        } // for
+        
+        return histograms;
+    } // getHistograms
+    
+    /**
+     * Gets the backend latencies as a Json object, nested by backend, operation and status, e.g.
+     * {"mysql":{"insertContextData":{"ok":{"count":10,"p50":850,"p99":2047,"p999":2047,...}}}}.
+     * @return The backend latencies as a Json object
+     */
+    public static JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        
+        for (Histogram histogram : getHistograms()) {
+            Map<String, String> labels = histogram.getLabels();
+            JsonObject backend = getOrCreate(json, labels.get("backend"));
+            JsonObject operation = getOrCreate(backend, labels.get("operation"));
+            operation.add(labels.get("status"), histogram.toJson());
+        } // for
+        
+        return json;
+    } // toJson
+    
+    /**
+     * Starts logging a summary of the backend latencies every given number of seconds. If already started, the
+     * interval is changed.
+     * @param intervalSeconds Logging interval, 0 or less means no logging
+     */
+    public static synchronized void startReporter(long intervalSeconds) {
+        stopReporter();
+        
+        if (intervalSeconds <= 0) {
+            return;
+        } // if
+        
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "backend-latency-reporter");
+                thread.setDaemon(true);
+                return thread;
+            } // newThread
+            
+        });
+        
+        reporter.scheduleAtFixedRate(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    for (String line : summarize()) {
+                        LOGGER.info(line);
+                    } // for
+                } catch (Exception e) {
+                    LOGGER.warn("The backend latency summary could not be logged (details=" + e.getMessage() + ")");
+                } // try catch
+            } // run
+            
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        LOGGER.info("Backend latency summaries will be logged every " + intervalSeconds + " seconds");
+    } // startReporter
+    
+    /**
+     * Stops logging the summary of the backend latencies.
+     */
+    public static synchronized void stopReporter() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        } // if
+    } // stopReporter
+    
+    /**
+     * Gets a summary line per backend, operation and status of the latencies recorded since the previous summary.
+     * Combinations without new operations are skipped.
+     * @return A summary line per backend, operation and status
+     */
+    static synchronized List<String> summarize() {
+        ArrayList<String> lines = new ArrayList<String>();
+        
+        for (Histogram histogram : getHistograms()) {
+            long[] counts = histogram.getBucketCounts();
+            long[] lastCounts = LAST_COUNTS.get(histogram);
+            long[] intervalCounts = new long[counts.length];
+            long intervalTotal = 0;
+            
+            for (int i = 0; i < counts.length; i++) {
+                intervalCounts[i] = counts[i] - (lastCounts == null ? 0 : lastCounts[i]);
+                intervalTotal += intervalCounts[i];
+            } // for
+            
+            LAST_COUNTS.put(histogram, counts);
+            
+            if (intervalTotal == 0) {
+                continue;
+            } // if
+            
+            Map<String, String> labels = histogram.getLabels();
+            lines.add("Backend latency (backend=" + labels.get("backend") + ", operation=" + labels.get("operation")
+                    + ", status=" + labels.get("status") + ", count=" + intervalTotal + ", p50="
+                    + Histogram.getValueAtQuantile(intervalCounts, 0.5) + "us, p99="
+                    + Histogram.getValueAtQuantile(intervalCounts, 0.99) + "us, p999="
+                    + Histogram.getValueAtQuantile(intervalCounts, 0.999) + "us)");
+        } // for
+        
+        return lines;
+    } // summarize
+    
+    private static JsonObject getOrCreate(JsonObject parent, String name) {
+        JsonObject child = parent.getAsJsonObject(name);
+        
+        if (child == null) {
+            child = new JsonObject();
+            parent.add(name, child);
+        } // if
+        
+        return child;
+    } // getOrCreate
+    
+} // BackendLatency
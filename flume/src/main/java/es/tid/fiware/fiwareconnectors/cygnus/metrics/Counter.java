@@ -0,0 +1,90 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author frb
+ * 
+ * Monotonically increasing count.
+ */
+public class Counter extends Metric {
+    
+    private final AtomicLong count;
+    
+    /**
+     * Constructor.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     */
+    public Counter(String name, String help, String... labels) {
+        super(name, help, labels);
+        count = new AtomicLong(0);
+    } // Counter
+    
+    /**
+     * Increments the count by one.
+     */
+    public void inc() {
+        count.incrementAndGet();
+    } // inc
+    
+    /**
+     * Increments the count.
+     * @param delta
+     */
+    public void inc(long delta) {
+        count.addAndGet(delta);
+    } // inc
+    
+    /**
+     * Gets the count.
+     * @return The count
+     */
+    public long getCount() {
+        return count.get();
+    } // getCount
+    
+    @Override
+    public String getType() {
+        return "counter";
+    } // getType
+    
+    @Override
+    public String getPrometheusName() {
+        return getName() + "_total";
+    } // getPrometheusName
+    
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        writeSample(out, getPrometheusName(), null, null, getCount());
+    } // writePrometheus
+    
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", getCount());
+        return json;
+    } // toJson
+    
+} // Counter
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * @author frb
+ * 
+ * Instantaneous value, got each time the metrics are exposed.
+ */
+public abstract class Gauge extends Metric {
+    
+    /**
+     * Constructor.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     */
+    public Gauge(String name, String help, String... labels) {
+        super(name, help, labels);
+    } // Gauge
+    
+    /**
+     * Gets the current value. NaN means the value is not available, and the gauge is not exposed.
+     * @return The current value
+     */
+    public abstract double getValue();
+    
+    @Override
+    public String getType() {
+        return "gauge";
+    } // getType
+    
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        writeSample(out, getPrometheusName(), null, null, getValue());
+    } // writePrometheus
+    
+    @Override
+    public JsonObject toJson() {
+        double value = getValue();
+        
+        if (Double.isNaN(value)) {
+            return null;
+        } // if
+        
+        JsonObject json = new JsonObject();
+        json.addProperty("value", value);
+        return json;
+    } // toJson
+    
+} // Gauge
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * @author frb
+ * 
+ * Distribution of values, typically latencies in microseconds, giving percentiles with a bounded relative error. The
+ * values are counted in log-linear buckets (HDR-style): values under 64 have their own bucket, and each power of two
+ * above is split into 32 buckets, thus the relative error is under 3.2%. Recording a value is lock-free and does not
+ * allocate anything; the memory footprint is fixed (less than 16 KB) whatever the number of recorded values.
+ */
+public class Histogram extends Metric {
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+    private static final int NUM_BUCKETS = LINEAR_BUCKETS + (63 - LINEAR_BITS) * SUB_BUCKETS;
+    private static final double[] QUANTILES = {0.5, 0.75, 0.9, 0.99, 0.999};
+    
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+    
+    /**
+     * Constructor.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     */
+    public Histogram(String name, String help, String... labels) {
+        super(name, help, labels);
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new AtomicLong(0);
+        sum = new AtomicLong(0);
+        max = new AtomicLong(0);
+    } // Histogram
+    
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } // if
+        
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        } // while
+    } // record
+    
+    /**
+     * Records the time elapsed since a given System.nanoTime() value, in microseconds.
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    } // recordSince
+    
+    /**
+     * Gets the number of recorded values.
+     * @return The number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    } // getCount
+    
+    /**
+     * Gets the sum of the recorded values.
+     * @return The sum of the recorded values
+     */
+    public long getSum() {
+        return sum.get();
+    } // getSum
+    
+    /**
+     * Gets the maximum recorded value.
+     * @return The maximum recorded value
+     */
+    public long getMax() {
+        return max.get();
+    } // getMax
+    
+    /**
+     * Gets the mean of the recorded values.
+     * @return The mean of the recorded values
+     */
+    public double getMean() {
+        long currentCount = count.get();
+        return currentCount == 0 ? 0 : (double) sum.get() / currentCount;
+    } // getMean
+    
+    /**
+     * Gets the value at a given quantile, i.e. the value under which the given ratio of values are.
+     * @param quantile Between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return The value at the given quantile, or 0 if no value has been recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = count.get();
+        
+        if (total == 0) {
+            return 0;
+        } // if
+        
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long accumulated = 0;
+        long currentMax = max.get();
+        
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            accumulated += buckets.get(i);
+            
+            if (accumulated >= rank) {
+                return Math.min(getUpperBound(i), currentMax);
+            } // if
+        } // for
+        
+        return currentMax;
+    } // getValueAtQuantile
+    
+    /**
+     * Gets a copy of the number of values counted in each bucket. Subtracting two copies taken at different moments
+     * gives the distribution of the values recorded in between.
+     * @return A copy of the number of values counted in each bucket
+     */
+    long[] getBucketCounts() {
+        long[] counts = new long[NUM_BUCKETS];
+        
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        } // for
+        
+        return counts;
+    } // getBucketCounts
+    
+    /**
+     * Gets the value at a given quantile of a distribution given as bucket counts, as returned by getBucketCounts.
+     * @param counts
+     * @param quantile Between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return The highest value of the bucket the quantile falls in, or 0 if the distribution is empty
+     */
+    static long getValueAtQuantile(long[] counts, double quantile) {
+        long total = 0;
+        
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        } // for
+        
+        if (total == 0) {
+            return 0;
+        } // if
+        
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long accumulated = 0;
+        
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            
+            if (accumulated >= rank) {
+                return getUpperBound(i);
+            } // if
+        } // for
+        
+        return getUpperBound(counts.length - 1);
+    } // getValueAtQuantile
+    
+    @Override
+    public String getType() {
+        return "summary";
+    } // getType
+    
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        for (double quantile : QUANTILES) {
+            writeSample(out, getName(), "quantile", Double.toString(quantile), getValueAtQuantile(quantile));
+        } // for
+        
+        writeSample(out, getName() + "_sum", null, null, getSum());
+        writeSample(out, getName() + "_count", null, null, getCount());
+    } // writePrometheus
+    
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", getCount());
+        json.addProperty("mean", getMean());
+        json.addProperty("max", getMax());
+        json.addProperty("p50", getValueAtQuantile(0.5));
+        json.addProperty("p75", getValueAtQuantile(0.75));
+        json.addProperty("p90", getValueAtQuantile(0.9));
+        json.addProperty("p99", getValueAtQuantile(0.99));
+        json.addProperty("p999", getValueAtQuantile(0.999));
+        return json;
+    } // toJson
+    
+    /**
+     * Gets the bucket a value is counted in.
+     * @param value
+     * @return The bucket the value is counted in
+     */
+    static int getBucket(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        } // if
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    } // getBucket
+    
+    /**
+     * Gets the lowest value counted in a bucket.
+     * @param bucket
+     * @return The lowest value counted in the bucket
+     */
+    static long getLowerBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        } // if
+        
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    } // getLowerBound
+    
+    /**
+     * Gets the highest value counted in a bucket.
+     * @param bucket
+     * @return The highest value counted in the bucket
+     */
+    static long getUpperBound(int bucket) {
+        return bucket + 1 >= NUM_BUCKETS ? Long.MAX_VALUE : getLowerBound(bucket + 1) - 1;
+    } // getUpperBound
+    
+} // Histogram
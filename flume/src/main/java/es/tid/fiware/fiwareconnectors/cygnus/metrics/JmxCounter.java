@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * @author frb
+ * 
+ * Counter whose value is got from a JMX attribute, typically a Flume component counter. The rate is computed from the
+ * differences between consecutive reads, thus it is only updated when the metrics are exposed.
+ */
+public class JmxCounter extends JmxGauge {
+    
+    private final Meter meter;
+    
+    /**
+     * Constructor.
+     * @param name
+     * @param help
+     * @param objectName
+     * @param attribute
+     * @param labels Label names and values, alternatively
+     */
+    public JmxCounter(String name, String help, String objectName, String attribute, String... labels) {
+        super(name, help, objectName, attribute, labels);
+        meter = new Meter(name, help, labels);
+    } // JmxCounter
+    
+    @Override
+    public double getValue() {
+        double value = super.getValue();
+        
+        if (!Double.isNaN(value)) {
+            meter.markTotal((long) value);
+        } // if
+        
+        return value;
+    } // getValue
+    
+    @Override
+    public String getType() {
+        return "counter";
+    } // getType
+    
+    @Override
+    public String getPrometheusName() {
+        return getName() + "_total";
+    } // getPrometheusName
+    
+    @Override
+    public JsonObject toJson() {
+        double value = getValue();
+        
+        if (Double.isNaN(value)) {
+            return null;
+        } // if
+        
+        JsonObject json = new JsonObject();
+        json.addProperty("count", (long) value);
+        json.addProperty("one_minute_rate", meter.getOneMinuteRate());
+        return json;
+    } // toJson
+    
+} // JmxCounter
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *
+ * @author frb
+ * 
+ * Gauge whose value is got from a numeric JMX attribute, typically a Flume component counter.
+ */
+public class JmxGauge extends Gauge {
+    
+    private final String objectName;
+    private final String attribute;
+    
+    /**
+     * Constructor.
+     * @param name
+     * @param help
+     * @param objectName
+     * @param attribute
+     * @param labels Label names and values, alternatively
+     */
+    public JmxGauge(String name, String help, String objectName, String attribute, String... labels) {
+        super(name, help, labels);
+        this.objectName = objectName;
+        this.attribute = attribute;
+    } // JmxGauge
+    
+    @Override
+    public double getValue() {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            
+            if (!mbeanServer.isRegistered(name)) {
+                return Double.NaN;
+            } // if
+            
+            return ((Number) mbeanServer.getAttribute(name, attribute)).doubleValue();
+        } catch (Exception e) {
+            return Double.NaN;
+        } // try catch
+    } // getValue
+    
+    /**
+     * Registers the JMX based metrics of a Flume channel.
+     * @param channel
+     */
+    public static void registerChannel(String channel) {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        String objectName = "org.apache.flume.channel:type=" + channel;
+        registry.register(new JmxGauge("cygnus_channel_fill_percentage", "Channel fill percentage", objectName,
+                "ChannelFillPercentage", "channel", channel));
+        registry.register(new JmxGauge("cygnus_channel_size", "Events within the channel", objectName,
+                "ChannelSize", "channel", channel));
+        registry.register(new JmxGauge("cygnus_channel_capacity", "Channel capacity", objectName,
+                "ChannelCapacity", "channel", channel));
+        registry.register(new JmxCounter("cygnus_channel_puts", "Events successfully put into the channel",
+                objectName, "EventPutSuccessCount", "channel", channel));
+        registry.register(new JmxCounter("cygnus_channel_takes", "Events successfully taken from the channel",
+                objectName, "EventTakeSuccessCount", "channel", channel));
+    } // registerChannel
+    
+    /**
+     * Registers the JMX based metrics of a Flume source.
+     * @param source
+     */
+    public static void registerSource(String source) {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        String objectName = "org.apache.flume.source:type=" + source;
+        registry.register(new JmxCounter("cygnus_source_events_received", "Events received by the source",
+                objectName, "EventReceivedCount", "source", source));
+        registry.register(new JmxCounter("cygnus_source_events_accepted", "Events accepted by the channels",
+                objectName, "EventAcceptedCount", "source", source));
+    } // registerSource
+    
+} // JmxGauge
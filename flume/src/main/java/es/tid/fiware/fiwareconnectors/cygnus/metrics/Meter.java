@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author frb
+ * 
+ * Counter of events also giving the rate of events per second, both the mean rate and the one minute exponentially
+ * weighted moving average (the same than the Unix load average). The moving average is updated lazily, when marking
+ * or reading the meter, thus no background thread is needed.
+ */
+public class Meter extends Counter {
+    
+    private static final long TICK_INTERVAL_NANOS = 5000000000L;
+    private static final double ALPHA = 1 - Math.exp(-5.0 / 60.0);
+    
+    private final long startTime;
+    private final AtomicLong uncounted;
+    private final Object tickLock;
+    private long lastTick;
+    private long lastTotal;
+    private double rate;
+    private boolean initialized;
+    
+    /**
+     * Constructor.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     */
+    public Meter(String name, String help, String... labels) {
+        super(name, help, labels);
+        startTime = System.nanoTime();
+        uncounted = new AtomicLong(0);
+        tickLock = new Object();
+        lastTick = startTime;
+        lastTotal = -1;
+        rate = 0;
+        initialized = false;
+    } // Meter
+    
+    /**
+     * Marks the occurrence of an event.
+     */
+    public void mark() {
+        mark(1);
+    } // mark
+    
+    /**
+     * Marks the occurrence of a number of events.
+     * @param n
+     */
+    public void mark(long n) {
+        tickIfNecessary();
+        uncounted.addAndGet(n);
+        inc(n);
+    } // mark
+    
+    /**
+     * Sets the total number of events, marking the difference with the previous total. This is useful for metering
+     * counts kept elsewhere, e.g. in JMX.
+     * @param total
+     */
+    public void markTotal(long total) {
+        synchronized (tickLock) {
+            if (lastTotal >= 0 && total > lastTotal) {
+                mark(total - lastTotal);
+            } // if
+            
+            lastTotal = total;
+        } // synchronized
+    } // markTotal
+    
+    /**
+     * Gets the mean rate of events per second since the meter was created.
+     * @return The mean rate of events per second
+     */
+    public double getMeanRate() {
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+        return elapsedSeconds <= 0 ? 0 : getCount() / elapsedSeconds;
+    } // getMeanRate
+    
+    /**
+     * Gets the one minute exponentially weighted moving average rate of events per second.
+     * @return The one minute rate of events per second
+     */
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        
+        synchronized (tickLock) {
+            return rate;
+        } // synchronized
+    } // getOneMinuteRate
+    
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = super.toJson();
+        json.addProperty("mean_rate", getMeanRate());
+        json.addProperty("one_minute_rate", getOneMinuteRate());
+        return json;
+    } // toJson
+    
+    private void tickIfNecessary() {
+        long now = System.nanoTime();
+        
+        synchronized (tickLock) {
+            long elapsed = now - lastTick;
+            
+            if (elapsed < TICK_INTERVAL_NANOS) {
+                return;
+            } // if
+            
+            long ticks = elapsed / TICK_INTERVAL_NANOS;
+            lastTick += ticks * TICK_INTERVAL_NANOS;
+            
+            // the events not counted yet happened during the first tick, the rest of ticks had no events
+            double instantRate = uncounted.getAndSet(0) / (TICK_INTERVAL_NANOS / 1e9);
+            
+            if (initialized) {
+                rate += ALPHA * (instantRate - rate);
+            } else {
+                rate = instantRate;
+                initialized = true;
+            } // if else
+            
+            for (long i = 1; i < ticks && rate > 0; i++) {
+                rate -= ALPHA * rate;
+            } // for
+        } // synchronized
+    } // tickIfNecessary
+    
+} // Meter
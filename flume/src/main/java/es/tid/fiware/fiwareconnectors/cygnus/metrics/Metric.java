@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author frb
+ * 
+ * Base class for all the metrics kept by the MetricsRegistry. A metric is identified by its name and its labels,
+ * e.g. the name "cygnus_sink_events" and the labels {sink="hdfs-sink", status="persisted"}.
+ */
+public abstract class Metric {
+    
+    private final String name;
+    private final String help;
+    private final Map<String, String> labels;
+    
+    /**
+     * Constructor.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     */
+    protected Metric(String name, String help, String... labels) {
+        this.name = name;
+        this.help = help;
+        this.labels = Collections.unmodifiableMap(toLabelMap(labels));
+    } // Metric
+    
+    /**
+     * Gets the name of the metric.
+     * @return The name of the metric
+     */
+    public String getName() {
+        return name;
+    } // getName
+    
+    /**
+     * Gets the description of the metric.
+     * @return The description of the metric
+     */
+    public String getHelp() {
+        return help;
+    } // getHelp
+    
+    /**
+     * Gets the labels of the metric.
+     * @return The labels of the metric
+     */
+    public Map<String, String> getLabels() {
+        return labels;
+    } // getLabels
+    
+    /**
+     * Gets the Prometheus type of the metric (counter, gauge or summary).
+     * @return The Prometheus type of the metric
+     */
+    public abstract String getType();
+    
+    /**
+     * Gets the name of the metric in the Prometheus exposition format.
+     * @return The name of the metric in the Prometheus exposition format
+     */
+    public String getPrometheusName() {
+        return name;
+    } // getPrometheusName
+    
+    /**
+     * Appends the samples of the metric in the Prometheus text exposition format, without HELP and TYPE lines.
+     * @param out
+     */
+    public abstract void writePrometheus(StringBuilder out);
+    
+    /**
+     * Gets the values of the metric as a Json object, without the name and the labels.
+     * @return The values of the metric as a Json object
+     */
+    public abstract JsonObject toJson();
+    
+    /**
+     * Appends a sample in the Prometheus text exposition format.
+     * @param out
+     * @param sampleName
+     * @param extraLabel Additional label name, or null if none
+     * @param extraLabelValue Additional label value
+     * @param value
+     */
+    protected void writeSample(StringBuilder out, String sampleName, String extraLabel, String extraLabelValue,
+            double value) {
+        if (Double.isNaN(value)) {
+            return;
+        } // if
+        
+        out.append(sampleName);
+        
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{');
+            boolean first = true;
+            
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                } // if
+                
+                appendLabel(out, label.getKey(), label.getValue());
+                first = false;
+            } // for
+            
+            if (extraLabel != null) {
+                if (!first) {
+                    out.append(',');
+                } // if
+                
+                appendLabel(out, extraLabel, extraLabelValue);
+            } // if
+            
+            out.append('}');
+        } // if
+        
+        out.append(' ');
+        
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        } // if else
+        
+        out.append('\n');
+    } // writeSample
+    
+    /**
+     * Gets a unique key for a metric name and its labels.
+     * @param name
+     * @param labels Label names and values, alternatively
+     * @return A unique key for the metric name and its labels
+     */
+    static String getKey(String name, String... labels) {
+        StringBuilder key = new StringBuilder(name);
+        
+        for (String label : labels) {
+            key.append('\u0000').append(label);
+        } // for
+        
+        return key.toString();
+    } // getKey
+    
+    private static Map<String, String> toLabelMap(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        } // if
+        
+        LinkedHashMap<String, String> labelMap = new LinkedHashMap<String, String>();
+        
+        for (int i = 0; i < labels.length; i += 2) {
+            labelMap.put(labels[i], labels[i + 1]);
+        } // for
+        
+        return labelMap;
+    } // toLabelMap
+    
+    private static void appendLabel(StringBuilder out, String label, String value) {
+        out.append(label).append("=\"");
+        String escaped = String.valueOf(value);
+        
+        for (int i = 0; i < escaped.length(); i++) {
+            char c = escaped.charAt(i);
+            
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            } // if else
+        } // for
+        
+        out.append('"');
+    } // appendLabel
+    
+} // Metric
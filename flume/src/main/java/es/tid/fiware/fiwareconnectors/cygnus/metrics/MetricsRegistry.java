@@ -0,0 +1,209 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author frb
+ * 
+ * Registry of all the metrics of the agent. Since the Flume components are created by Flume itself, there is a
+ * single registry shared by all of them, got through getInstance(). The metrics are created the first time they are
+ * requested, and the same instance is returned for the same name and labels afterwards.
+ */
+public final class MetricsRegistry {
+    
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    
+    private final ConcurrentHashMap<String, Metric> metrics;
+    
+    /**
+     * Constructor. It is private since there is a single registry, got through getInstance().
+     */
+    private MetricsRegistry() {
+        metrics = new ConcurrentHashMap<String, Metric>();
+    } // MetricsRegistry
+    
+    /**
+     * Gets the registry.
+     * @return The registry
+     */
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    } // getInstance
+    
+    /**
+     * Gets a counter, creating it if not existing.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     * @return The counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        String key = Metric.getKey(name, labels);
+        Metric metric = metrics.get(key);
+        
+        if (metric == null) {
+            metric = putIfAbsent(key, new Counter(name, help, labels));
+        } // if
+        
+        return (Counter) metric;
+    } // counter
+    
+    /**
+     * Gets a meter, creating it if not existing.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     * @return The meter
+     */
+    public Meter meter(String name, String help, String... labels) {
+        String key = Metric.getKey(name, labels);
+        Metric metric = metrics.get(key);
+        
+        if (metric == null) {
+            metric = putIfAbsent(key, new Meter(name, help, labels));
+        } // if
+        
+        return (Meter) metric;
+    } // meter
+    
+    /**
+     * Gets a histogram, creating it if not existing.
+     * @param name
+     * @param help
+     * @param labels Label names and values, alternatively
+     * @return The histogram
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        String key = Metric.getKey(name, labels);
+        Metric metric = metrics.get(key);
+        
+        if (metric == null) {
+            metric = putIfAbsent(key, new Histogram(name, help, labels));
+        } // if
+        
+        return (Histogram) metric;
+    } // histogram
+    
+    /**
+     * Registers a gauge, replacing any previous gauge with the same name and labels.
+     * @param gauge
+     */
+    public void register(Gauge gauge) {
+        String[] labels = new String[gauge.getLabels().size() * 2];
+        int i = 0;
+        
+        for (Map.Entry<String, String> label : gauge.getLabels().entrySet()) {
+            labels[i++] = label.getKey();
+            labels[i++] = label.getValue();
+        } // for
+        
+        metrics.put(Metric.getKey(gauge.getName(), labels), gauge);
+    } // register
+    
+    /**
+     * Gets all the metrics, sorted by name.
+     * @return All the metrics, sorted by name
+     */
+    public List<Metric> getMetrics() {
+        return new ArrayList<Metric>(new TreeMap<String, Metric>(metrics).values());
+    } // getMetrics
+    
+    /**
+     * Gets all the metrics in the Prometheus text exposition format (version 0.0.4).
+     * @return All the metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        String lastName = null;
+        
+        for (Metric metric : getMetrics()) {
+            if (!metric.getName().equals(lastName)) {
+                out.append("# HELP ").append(metric.getPrometheusName()).append(' ')
+                        .append(metric.getHelp().replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+                out.append("# TYPE ").append(metric.getPrometheusName()).append(' ').append(metric.getType())
+                        .append('\n');
+                lastName = metric.getName();
+            } // if
+            
+            metric.writePrometheus(out);
+        } // for
+        
+        return out.toString();
+    } // toPrometheus
+    
+    /**
+     * Gets all the metrics as a Json object, having an entry per metric name with the type, the description and the
+     * values for each combination of labels.
+     * @return All the metrics as a Json object
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        
+        for (Metric metric : getMetrics()) {
+            JsonObject values = metric.toJson();
+            
+            if (values == null) {
+                continue;
+            } // if
+            
+            JsonObject family = json.getAsJsonObject(metric.getName());
+            
+            if (family == null) {
+                family = new JsonObject();
+                family.addProperty("type", metric.getType());
+                family.addProperty("help", metric.getHelp());
+                family.add("values", new JsonArray());
+                json.add(metric.getName(), family);
+            } // if
+            
+            JsonObject labels = new JsonObject();
+            
+            for (Map.Entry<String, String> label : metric.getLabels().entrySet()) {
+                labels.addProperty(label.getKey(), label.getValue());
+            } // for
+            
+            values.add("labels", labels);
+            family.getAsJsonArray("values").add(values);
+        } // for
+        
+        return json;
+    } // toJson
+    
+    /**
+     * Removes all the metrics. This is protected since it is only used by the tests.
+     */
+    protected void clear() {
+        metrics.clear();
+    } // clear
+    
+    private Metric putIfAbsent(String key, Metric metric) {
+        Metric previous = metrics.putIfAbsent(key, metric);
+        return previous == null ? metric : previous;
+    } // putIfAbsent
+    
+} // MetricsRegistry
@@ -23,6 +23,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import es.tid.fiware.fiwareconnectors.cygnus.http.JettyServer;
 import es.tid.fiware.fiwareconnectors.cygnus.management.ManagementInterface;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.BackendLatency;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -82,9 +83,15 @@ public class CygnusApplication extends Application {
      * @param conf
      */
     private void startManagementInterface(MaterializedConfiguration conf) {
+        // a configuration reload creates new components, thus the previous server (if any) is replaced, otherwise
+        // the port would be already in use
+        if (server != null) {
+            logger.info("Stopping the previous Jetty server (Management Interface)");
+            server.shutdown();
+        } // if
+        
         logger.info("Starting a Jetty server listening on port " + mgmtIfPort + " (Management Interface)");
-        server = new JettyServer(mgmtIfPort, new ManagementInterface(conf.getSourceRunners(), conf.getChannels(),
-                conf.getSinkRunners()));
+        server = new JettyServer(mgmtIfPort, new ManagementInterface(conf.getSourceRunners(), conf.getChannels()));
         server.start();
     } // startManagementInterface
    
@@ -115,6 +122,10 @@ public class CygnusApplication extends Application {
             option = new Option("p", "mgmt-if-port", true, "the management interface port");
             option.setRequired(false);
             options.addOption(option);
+            
+            option = new Option("l", "latency-log-interval", true, "seconds between backend latency log summaries");
+            option.setRequired(false);
+            options.addOption(option);
 
             CommandLineParser parser = new GnuParser();
             CommandLine commandLine = parser.parse(options, args);
@@ -134,6 +145,12 @@ public class CygnusApplication extends Application {
                 mgmtIfPort = new Integer(commandLine.getOptionValue('p')).intValue();
             } // if
             
+            long latencyLogInterval = 300; // default value
+            
+            if (commandLine.hasOption('l')) {
+                latencyLogInterval = new Long(commandLine.getOptionValue('l')).longValue();
+            } // if
+            
             // the following is to ensure that by default the agent will fail on startup if the file does not exist
             
             if (!configurationFile.exists()) {
@@ -169,6 +186,7 @@ public class CygnusApplication extends Application {
             } // if else
             
             application.start();
+            BackendLatency.startReporter(latencyLogInterval);
 
             final CygnusApplication appReference = application;
             Runtime.getRuntime().addShutdownHook(new Thread("agent-shutdown-hook") {
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import com.google.gson.JsonObject;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.flume.Event;
+
+/**
+ *
+ * @author frb
+ *
+ * Rolling file where the sinks write the events they discard because of their data or the configuration, in order
+ * they can be inspected and replayed (see DeadLetterReplay). Each line is a Json object with these fields:
+ *  - time, the ISO 8601 UTC time the event was discarded
+ *  - sink, the name of the sink discarding the event
+ *  - error and message, the class and the message of the exception thrown when persisting the event
+ *  - headers, the original headers of the event
+ *  - body, the original body of the event
+ * When the file reaches a maximum size, it is renamed by appending ".1" (the previous ".1" file is renamed to ".2",
+ * and so on, up to a maximum number of files) and a new file is started. The sinks writing to the same file share
+ * the same instance.
+ */
+public final class DeadLetterFile {
+    
+    private static final ConcurrentHashMap<String, DeadLetterFile> INSTANCES =
+            new ConcurrentHashMap<String, DeadLetterFile>();
+    
+    private final File file;
+    private final long maxBytes;
+    private final int maxBackups;
+    private final SimpleDateFormat dateFormat;
+    private Writer writer;
+    private long bytes;
+    
+    /**
+     * Constructor.
+     * @param file
+     * @param maxBytes Maximum size of the file before being rolled
+     * @param maxBackups Maximum number of rolled files kept
+     * @throws IOException
+     */
+    private DeadLetterFile(File file, long maxBytes, int maxBackups) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxBackups = maxBackups;
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        File parent = file.getAbsoluteFile().getParentFile();
+        
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("The dead letter directory could not be created (dir=" + parent + ")");
+        } // if
+        
+        open();
+    } // DeadLetterFile
+    
+    /**
+     * Gets the dead letter file having the given path, opening it if not yet opened. If already opened, the given
+     * size limits are ignored.
+     * @param path
+     * @param maxBytes Maximum size of the file before being rolled
+     * @param maxBackups Maximum number of rolled files kept
+     * @return The dead letter file having the given path
+     * @throws IOException
+     */
+    public static DeadLetterFile getInstance(String path, long maxBytes, int maxBackups) throws IOException {
+        String key = new File(path).getCanonicalPath();
+        DeadLetterFile deadLetterFile = INSTANCES.get(key);
+        
+        if (deadLetterFile == null) {
+            synchronized (INSTANCES) {
+                deadLetterFile = INSTANCES.get(key);
+                
+                if (deadLetterFile == null) {
+                    deadLetterFile = new DeadLetterFile(new File(key), maxBytes, maxBackups);
+                    INSTANCES.put(key, deadLetterFile);
+                } // if
+            } // synchronized
+        } // if
+        
+        return deadLetterFile;
+    } // getInstance
+    
+    /**
+     * Gets the file being written.
+     * @return The file being written
+     */
+    public File getFile() {
+        return file;
+    } // getFile
+    
+    /**
+     * Writes a discarded event.
+     * @param sink Name of the sink discarding the event
+     * @param event
+     * @param error Exception thrown when persisting the event
+     * @throws IOException
+     */
+    public synchronized void write(String sink, Event event, Exception error) throws IOException {
+        JsonObject headers = new JsonObject();
+        
+        for (Map.Entry<String, String> header : event.getHeaders().entrySet()) {
+            headers.addProperty(header.getKey(), header.getValue());
+        } // for
+        
+        JsonObject line = new JsonObject();
+        line.addProperty("time", dateFormat.format(new Date()));
+        line.addProperty("sink", sink);
+        line.addProperty("error", error.getClass().getSimpleName());
+        line.addProperty("message", error.getMessage());
+        line.add("headers", headers);
+        line.addProperty("body", new String(event.getBody(), "UTF-8"));
+        String str = line.toString() + "\n";
+        
+        if (bytes > 0 && bytes + str.length() > maxBytes) {
+            roll();
+        } // if
+        
+        writer.write(str);
+        
+        // dead letters are rare, thus each one is flushed in order it is not lost if the agent crashes
+        writer.flush();
+        bytes += str.length();
+    } // write
+    
+    private void open() throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        bytes = file.length();
+    } // open
+    
+    private void roll() throws IOException {
+        writer.close();
+        new File(file.getPath() + "." + maxBackups).delete();
+        
+        for (int i = maxBackups - 1; i >= 1; i--) {
+            new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+        } // for
+        
+        if (maxBackups > 0) {
+            file.renameTo(new File(file.getPath() + ".1"));
+        } else {
+            file.delete();
+        } // if else
+        
+        open();
+    } // roll
+    
+} // DeadLetterFile
@@ -25,6 +25,8 @@ import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.Con
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElementResponse;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
 import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import java.sql.Timestamp;
@@ -33,12 +35,17 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.flume.Context;
+import org.apache.flume.Event;
 
 /**
  * 
  * @author fermin
  *
  * CKAN sink for Orion Context Broker.
+ * 
+ * In the per column mode, the datastore of each resource has a field per attribute and metadata, and the fields are
+ * added as soon as new attributes are notified. The rows are upserted in a single request per resource when the batch
+ * is flushed; the events of the rows rejected by CKAN because of their data are written to the dead letter file.
  *
  */
 public class OrionCKANSink extends OrionSink {
@@ -51,6 +58,7 @@ public class OrionCKANSink extends OrionSink {
     private boolean rowAttrPersistence;
     private boolean ssl;
     private CKANBackend persistenceBackend;
+    private final ArrayList<Event> bufferedEvents;
     
     /**
      * Constructor.
@@ -58,6 +66,7 @@ public class OrionCKANSink extends OrionSink {
     public OrionCKANSink() {
         super();
         logger = CygnusLogger.getLogger(OrionCKANSink.class);
+        bufferedEvents = new ArrayList<Event>();
     } // OrionCKANSink
 
     /**
@@ -111,6 +120,7 @@ public class OrionCKANSink extends OrionSink {
     
     @Override
     public void configure(Context context) {
+        super.configure(context);
         apiKey = context.getString("api_key", "nokey");
         logger.debug("[" + this.getName() + "] Reading configuration (api_key=" + apiKey + ")");
         ckanHost = context.getString("ckan_host", "localhost");
@@ -138,6 +148,11 @@ public class OrionCKANSink extends OrionSink {
         logger.info("[" + this.getName() + "] Startup completed");
     } // start
     
+    @Override
+    protected String getBackendId() {
+        return "ckan://" + ckanHost + ":" + ckanPort;
+    } // getBackendId
+    
     @Override
     void persist(Map<String, String> eventHeaders, NotifyContextRequest notification) throws Exception {
         // get some header values
@@ -161,8 +176,8 @@ public class OrionCKANSink extends OrionSink {
             ContextElement contextElement = contextElementResponse.getContextElement();
             String entityId = contextElement.getId();
             String entityType = contextElement.getType();
-            logger.debug("[" + this.getName() + "] Processing context element (id=" + entityId + ", type=" + entityType
-                    + ")");
+            CygnusLogger.logDebug(logger, "[{}] Processing context element (id={}, type={})", this.getName(), entityId,
+                    entityType);
             
             // build the pavkage and resource name
             String pkgName = buildPkgName(fiwareService, fiwareServicePath);
@@ -192,13 +207,13 @@ public class OrionCKANSink extends OrionSink {
                 String attrType = contextAttribute.getType();
                 String attrValue = contextAttribute.getContextValue(true);
                 String attrMd = contextAttribute.getContextMetadata();
-                logger.debug("[" + this.getName() + "] Processing context attribute (name=" + attrName + ", type="
-                        + attrType + ")");
+                CygnusLogger.logDebug(logger, "[{}] Processing context attribute (name={}, type={})", this.getName(),
+                        attrName, attrType);
 
                 if (rowAttrPersistence) {
-                    logger.info("[" + this.getName() + "] Persisting data at OrionCKANSink (orgName=" + orgName
-                            + ", pkgName=" + pkgName + ", resName=" + resName + ", data=" + recvTimeTs + ", "
-                            + recvTime + ", " + attrName + ", " + attrType + ", " + attrValue + ", " + attrMd + ")");
+                    CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionCKANSink (orgName={}, pkgName={}, "
+                            + "resName={}, data={}, {}, {}, {}, {}, {})", this.getName(), orgName, pkgName, resName,
+                            recvTimeTs, recvTime, attrName, attrType, attrValue, attrMd);
                     persistenceBackend.persist(recvTimeTs, recvTime, orgName, pkgName, resName, attrName, attrType,
                             attrValue, attrMd);
                 } else {
@@ -210,14 +225,39 @@ public class OrionCKANSink extends OrionSink {
             // if the attribute persistence mode is per column, now is the time to insert a new row containing full
             // attribute list of name-values.
             if (!rowAttrPersistence) {
-                logger.info("[" + this.getName() + "] Persisting data at OrionCKANSink (orgName=" + orgName
-                        + ", pkgName=" + pkgName + ", resName=" + resName + ", data=" + recvTime + ", "
-                        + attrs.toString() + ", " + mds.toString() + ")");
+                CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionCKANSink (orgName={}, pkgName={}, "
+                        + "resName={}, data={}, {}, {})", this.getName(), orgName, pkgName, resName, recvTime, attrs,
+                        mds);
                 persistenceBackend.persist(recvTime, orgName, pkgName, resName, attrs, mds);
+                bufferedEvents.add(getCurrentEvent());
             } // if
         } // for
     } // persist
     
+    /**
+     * Upserts the column rows accumulated during the batch, a request per resource. It is invoked once per batch.
+     * @throws Exception
+     */
+    @Override
+    protected void flush() throws Exception {
+        try {
+            persistenceBackend.flush();
+        } catch (CygnusRejectedRows e) {
+            // the rest of the rows have been upserted, only the events of the rejected ones are not persisted
+            for (Map.Entry<Integer, String> rejection : e.getRejections().entrySet()) {
+                reject(bufferedEvents.get(rejection.getKey()), new CygnusBadContextData(rejection.getValue()));
+            } // for
+        } finally {
+            bufferedEvents.clear();
+        } // try catch finally
+    } // flush
+    
+    @Override
+    protected void discard() {
+        persistenceBackend.discard();
+        bufferedEvents.clear();
+    } // discard
+    
     /**
      * Builds an organization name given a fiwareService. It throws an exception if the naming conventions are violated.
      * @param fiwareService
@@ -0,0 +1,322 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextAttribute;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElementResponse;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import org.apache.flume.Context;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Custom local file system sink for Orion Context Broker, intended for edge deployments without a HDFS, MySQL or CKAN
+ * backend, for staging and as a baseline for benchmarking the rest of sinks. The data is persisted as the same Json
+ * lines than OrionHDFSSink, in a SegmentLog per entity:
+ *  - Log directories: <data_dir>/<fiware-service>/<fiware-servicePath>/<entityDescriptor>/
+ *  - Segment files: <entityDescriptor>-<offset>.seg, indexed by <entityDescriptor>-<offset>.idx
+ * The appended lines are synced to disk once per batch (group sync), before the transaction is committed. Since each
+ * open log maps its current segment and holds two file descriptors, the least recently used logs are closed once
+ * more than max_open_logs are open; a closed log is reopened the next time it is appended.
+ */
+public class OrionFileSink extends OrionSink {
+    
+    /**
+     * Maximum size of a segment file, in megabytes.
+     */
+    public static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE / (1024 * 1024);
+    
+    private Logger logger;
+    private String dataDir;
+    private long segmentSize;
+    private int maxOpenLogs;
+    private boolean rowAttrPersistence;
+    private final LinkedHashMap<String, SegmentLog> logs;
+    private final LinkedHashSet<SegmentLog> pendingLogs;
+    
+    /**
+     * Constructor.
+     */
+    public OrionFileSink() {
+        super();
+        logger = CygnusLogger.getLogger(OrionFileSink.class);
+        // access order, thus the eldest entry is the least recently used log
+        logs = new LinkedHashMap<String, SegmentLog>(16, 0.75f, true);
+        pendingLogs = new LinkedHashSet<SegmentLog>();
+    } // OrionFileSink
+    
+    /**
+     * Gets the directory where the data is persisted. It is protected due to it is only required for testing
+     * purposes.
+     * @return The directory where the data is persisted
+     */
+    protected String getDataDir() {
+        return dataDir;
+    } // getDataDir
+    
+    /**
+     * Gets the maximum size of the segment files, in megabytes. It is protected due to it is only required for testing
+     * purposes.
+     * @return The maximum size of the segment files, in megabytes
+     */
+    protected long getSegmentSize() {
+        return segmentSize;
+    } // getSegmentSize
+    
+    /**
+     * Gets the maximum number of open logs. It is protected due to it is only required for testing purposes.
+     * @return The maximum number of open logs
+     */
+    protected int getMaxOpenLogs() {
+        return maxOpenLogs;
+    } // getMaxOpenLogs
+    
+    /**
+     * Gets the number of open logs. It is protected due to it is only required for testing purposes.
+     * @return The number of open logs
+     */
+    protected int getNumOpenLogs() {
+        return logs.size();
+    } // getNumOpenLogs
+    
+    /**
+     * Returns if the attribute persistence is row-based. It is protected due to it is only required for testing
+     * purposes.
+     * @return True if the attribute persistence is row-based, false otherwise
+     */
+    protected boolean getRowAttrPersistence() {
+        return rowAttrPersistence;
+    } // getRowAttrPersistence
+    
+    @Override
+    public void configure(Context context) {
+        super.configure(context);
+        dataDir = context.getString("data_dir", System.getProperty("java.io.tmpdir") + "/cygnus-files");
+        logger.debug("[" + this.getName() + "] Reading configuration (data_dir=" + dataDir + ")");
+        segmentSize = Math.max(1, context.getLong("segment_size", 64L));
+        
+        // the segments are memory mapped, thus they cannot be larger than Integer.MAX_VALUE bytes
+        if (segmentSize > MAX_SEGMENT_SIZE) {
+            logger.error("[" + this.getName() + "] Bad configuration (segment_size=" + segmentSize + " is greater "
+                    + "than " + MAX_SEGMENT_SIZE + " megabytes)");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } else {
+            logger.debug("[" + this.getName() + "] Reading configuration (segment_size=" + segmentSize + ")");
+        } // if else
+        
+        maxOpenLogs = Math.max(1, context.getInteger("max_open_logs", 100));
+        logger.debug("[" + this.getName() + "] Reading configuration (max_open_logs=" + maxOpenLogs + ")");
+        rowAttrPersistence = context.getString("attr_persistence", "row").equals("row");
+        logger.debug("[" + this.getName() + "] Reading configuration (attr_persistence="
+                + (rowAttrPersistence ? "row" : "column") + ")");
+    } // configure
+    
+    @Override
+    public void start() {
+        super.start();
+        logger.info("[" + this.getName() + "] Startup completed");
+    } // start
+    
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        
+        for (Map.Entry<String, SegmentLog> entry : logs.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                logger.error("[" + this.getName() + "] A log could not be closed (log=" + entry.getKey()
+                        + ", details=" + e.getMessage() + ")");
+            } // try catch
+        } // for
+        
+        logs.clear();
+        pendingLogs.clear();
+    } // stop
+    
+    @Override
+    protected String getBackendId() {
+        return "file://" + new File(dataDir).getAbsolutePath();
+    } // getBackendId
+    
+    @Override
+    void persist(Map<String, String> eventHeaders, NotifyContextRequest notification) throws Exception {
+        // get some header values
+        Long recvTimeTs = new Long(eventHeaders.get("timestamp")).longValue();
+        String fiwareService = eventHeaders.get(Constants.HEADER_SERVICE);
+        String fiwareServicePath = eventHeaders.get(Constants.HEADER_SERVICE_PATH);
+        String[] destinations = eventHeaders.get(Constants.DESTINATION).split(",");
+        
+        // human readable version of the reception time
+        String recvTime = new Timestamp(recvTimeTs).toString().replaceAll(" ", "T");
+        
+        // iterate on the contextResponses
+        ArrayList<ContextElementResponse> contextResponses = notification.getContextResponses();
+        
+        for (int i = 0; i < contextResponses.size(); i++) {
+            ContextElement contextElement = contextResponses.get(i).getContextElement();
+            String entityId = contextElement.getId();
+            String entityType = contextElement.getType();
+            CygnusLogger.logDebug(logger, "[{}] Processing context element (id={}, type={})", this.getName(), entityId,
+                    entityType);
+            
+            // the same naming than the HDFS folders is used
+            String firstLevel = OrionHDFSSink.buildFirstLevel(fiwareService);
+            String secondLevel = OrionHDFSSink.buildSecondLevel(fiwareServicePath);
+            String thirdLevel = OrionHDFSSink.buildThirdLevel(destinations[i]);
+            SegmentLog log = getLog(checkLogPath(firstLevel + "/" + secondLevel + "/" + thirdLevel), thirdLevel);
+            pendingLogs.add(log);
+            
+            // iterate on all this entity's attributes, if there are attributes
+            ArrayList<ContextAttribute> contextAttributes = contextElement.getAttributes();
+            
+            if (contextAttributes == null || contextAttributes.isEmpty()) {
+                logger.warn("No attributes within the notified entity, nothing is done (id=" + entityId + ", type="
+                        + entityType + ")");
+                continue;
+            } // if
+            
+            // this is used for storing the attribute's names and values in a Json-like way when dealing with a per
+            // column attributes persistence
+            String columnLine = "{\"" + Constants.RECV_TIME + "\":\"" + recvTime + "\",";
+            
+            for (ContextAttribute contextAttribute : contextAttributes) {
+                String attrName = contextAttribute.getName();
+                String attrType = contextAttribute.getType();
+                String attrValue = contextAttribute.getContextValue(true);
+                String attrMetadata = contextAttribute.getContextMetadata();
+                CygnusLogger.logDebug(logger, "[{}] Processing context attribute (name={}, type={})", this.getName(),
+                        attrName, attrType);
+                
+                if (rowAttrPersistence) {
+                    String rowLine = "{"
+                            + "\"" + Constants.RECV_TIME_TS + "\":\"" + recvTimeTs / 1000 + "\","
+                            + "\"" + Constants.RECV_TIME + "\":\"" + recvTime + "\","
+                            + "\"" + Constants.ENTITY_ID + "\":\"" + entityId + "\","
+                            + "\"" + Constants.ENTITY_TYPE + "\":\"" + entityType + "\","
+                            + "\"" + Constants.ATTR_NAME + "\":\"" + attrName + "\","
+                            + "\"" + Constants.ATTR_TYPE + "\":\"" + attrType + "\","
+                            + "\"" + Constants.ATTR_VALUE + "\":" + attrValue + ","
+                            + "\"" + Constants.ATTR_MD + "\":" + attrMetadata
+                            + "}";
+                    log.append(entityId, entityType, recvTimeTs, rowLine);
+                } else {
+                    columnLine += "\"" + attrName + "\":" + attrValue + ", \"" + attrName + "_md\":" + attrMetadata
+                            + ",";
+                } // if else
+            } // for
+            
+            if (!rowAttrPersistence) {
+                columnLine = columnLine.subSequence(0, columnLine.length() - 1) + "}";
+                log.append(entityId, entityType, recvTimeTs, columnLine);
+            } // if
+        } // for
+    } // persist
+    
+    /**
+     * Syncs the logs appended within the batch. It is invoked once per batch.
+     * @throws Exception
+     */
+    @Override
+    protected void flush() throws Exception {
+        try {
+            for (SegmentLog log : pendingLogs) {
+                log.sync();
+            } // for
+        } finally {
+            // if failed, the whole batch is taken again from the channel
+            pendingLogs.clear();
+            closeEldestLogs();
+        } // try finally
+    } // flush
+    
+    /**
+     * Checks the path of a log, relative to the data directory, has no "." nor ".." components, since the encoded
+     * fiware-service and fiware-servicePath may contain them and the log would be outside the data directory.
+     * @param path
+     * @return The checked path
+     * @throws CygnusBadContextData
+     */
+    static String checkLogPath(String path) throws CygnusBadContextData {
+        for (String component : path.split("/")) {
+            if (component.equals(".") || component.equals("..")) {
+                throw new CygnusBadContextData("Building the log path (" + path + ") and it contains \"" + component
+                        + "\" components");
+            } // if
+        } // for
+        
+        return path;
+    } // checkLogPath
+    
+    /**
+     * Closes the least recently used logs if more than the maximum number of them are open. It is invoked once the
+     * batch logs have been synced, thus no appended line is lost.
+     */
+    private void closeEldestLogs() {
+        Iterator<Map.Entry<String, SegmentLog>> it = logs.entrySet().iterator();
+        
+        while (logs.size() > maxOpenLogs && it.hasNext()) {
+            Map.Entry<String, SegmentLog> eldest = it.next();
+            it.remove();
+            
+            try {
+                eldest.getValue().close();
+                CygnusLogger.logDebug(logger, "[{}] Too many open logs, the least recently used one is closed "
+                        + "(log={})", this.getName(), eldest.getKey());
+            } catch (IOException e) {
+                logger.error("[" + this.getName() + "] A log could not be closed (log=" + eldest.getKey()
+                        + ", details=" + e.getMessage() + ")");
+            } // try catch
+        } // while
+    } // closeEldestLogs
+    
+    /**
+     * Gets the log of the given path, opening it if not yet opened.
+     * @param path
+     * @param name
+     * @return The log of the given path
+     * @throws IOException
+     */
+    private SegmentLog getLog(String path, String name) throws IOException {
+        SegmentLog log = logs.get(path);
+        
+        if (log == null) {
+            log = new SegmentLog(new File(dataDir, path), name, segmentSize * 1024 * 1024);
+            logs.put(path, log);
+        } // if
+        
+        return log;
+    } // getLog
+    
+} // OrionFileSink
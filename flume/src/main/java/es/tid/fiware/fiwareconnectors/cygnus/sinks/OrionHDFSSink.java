@@ -18,19 +18,33 @@
  
 package es.tid.fiware.fiwareconnectors.cygnus.sinks;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs.HDFSBackend;
 import es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs.HDFSBackendImpl;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs.HDFSBackendImplBinary;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs.ORCFileRoller;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextAttribute;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElementResponse;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
 import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Counter;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.MetricsRegistry;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.flume.Context;
 import org.apache.log4j.Logger;
 
@@ -73,6 +87,20 @@ import org.apache.log4j.Logger;
  *    -- Column types: recvTime string, <attr_name_1> string, <attr_name_1>_md array<string>,...,
  *                     <attr_name_N> string, <attr_name_N>_md array<string>
  * 
+ * Alternatively, the data may be persisted in ORC files (file_format=orc) instead of Json lines. In that case the rows
+ * are accumulated per entity into local ORC files, which are rolled and uploaded to the same HDFS folders as
+ * <entityDescriptor>-<timestamp>-<sequence>.orc files; the Hive tables have the same columns, but their names end
+ * with _row_orc or _column_orc, and they are stored as ORC. The rows of the not yet rolled files are synced to a local
+ * write-ahead log before committing each batch, and recovered from it after a crash.
+ * 
+ * The Json files may be compressed as well (file_compression=gzip|bzip2), being named <entityDescriptor>.txt.gz or
+ * <entityDescriptor>.txt.bz2. In that case the lines are buffered per file during a batch and appended as a single
+ * gzip member or bzip2 stream when the batch is flushed. Hadoop, and thus Hive, reads such concatenated members as a
+ * single compressed file since version 0.23 (2.x); older versions, e.g. 0.20 or 1.x, only read the first member.
+ * 
+ * Finally, the HDFS files may be written through the native Hadoop API (hdfs_api=binary) instead of HttpFS/WebHDFS.
+ * In that case an output stream is kept open per file and synced once per batch.
+ * 
  */
 public class OrionHDFSSink extends OrionSink {
 
@@ -85,11 +113,24 @@ public class OrionHDFSSink extends OrionSink {
     private boolean rowAttrPersistence;
     private String hiveHost;
     private String hivePort;
+    private String hiveRegistryFile;
+    private boolean orcFileFormat;
+    private long orcRowsPerFile;
+    private long orcRollInterval;
+    private long orcStripeSize;
+    private String orcCompression;
+    private String orcLocalDir;
+    private ORCFileRoller orcRoller;
+    private String fileCompression;
+    private final LinkedHashMap<String, CompressedBuffer> compressedBuffers;
+    private Counter[] compressionMetrics;
     private boolean krb5;
     private String krb5User;
     private String krb5Password;
     private String krb5LoginConfFile;
     private String krb5ConfFile;
+    private int binaryMaxOpenFiles;
+    private long binaryIdleTimeout;
     private HDFSBackend persistenceBackend;
     
     /**
@@ -98,6 +139,7 @@ public class OrionHDFSSink extends OrionSink {
     public OrionHDFSSink() {
         super();
         logger = CygnusLogger.getLogger(OrionHDFSSink.class);
+        compressedBuffers = new LinkedHashMap<String, CompressedBuffer>();
     } // OrionHDFSSink
     
     /**
@@ -149,6 +191,30 @@ public class OrionHDFSSink extends OrionSink {
         return hivePort;
     } // getHivePort
 
+    /**
+     * Gets if the data is persisted in ORC files. It is protected due to it is only required for testing purposes.
+     * @return True if the data is persisted in ORC files, false if it is persisted in Json files
+     */
+    protected boolean getORCFileFormat() {
+        return orcFileFormat;
+    } // getORCFileFormat
+    
+    /**
+     * Gets the compression of the Json files. It is protected due to it is only required for testing purposes.
+     * @return The compression of the Json files, i.e. none, gzip or bzip2
+     */
+    protected String getFileCompression() {
+        return fileCompression;
+    } // getFileCompression
+    
+    /**
+     * Returns the ORC files roller. It is protected due to it is only required for testing purposes.
+     * @return The ORC files roller, null if the data is not persisted in ORC files
+     */
+    protected ORCFileRoller getORCRoller() {
+        return orcRoller;
+    } // getORCRoller
+    
     /**
      * Returns the persistence backend. It is protected due to it is only required for testing purposes.
      * @return The persistence backend
@@ -167,6 +233,7 @@ public class OrionHDFSSink extends OrionSink {
        
     @Override
     public void configure(Context context) {
+        super.configure(context);
         cosmosHost = context.getString("cosmos_host", "localhost").split(",");
         logger.debug("[" + this.getName() + "] Reading configuration (cosmos_host=" + Arrays.toString(cosmosHost)
                 + ")");
@@ -181,7 +248,7 @@ public class OrionHDFSSink extends OrionSink {
                 + ")");
         hdfsAPI = context.getString("hdfs_api", "httpfs");
         
-        if (!hdfsAPI.equals("webhdfs") && !hdfsAPI.equals("httpfs")) {
+        if (!hdfsAPI.equals("webhdfs") && !hdfsAPI.equals("httpfs") && !hdfsAPI.equals("binary")) {
             logger.error("[" + this.getName() + "] Bad configuration (Unrecognized HDFS API " + hdfsAPI + ")");
             logger.info("[" + this.getName() + "] Exiting Cygnus");
             System.exit(-1);
@@ -196,6 +263,49 @@ public class OrionHDFSSink extends OrionSink {
         logger.debug("[" + this.getName() + "] Reading configuration (hive_host=" + hiveHost + ")");
         hivePort = context.getString("hive_port", "10000");
         logger.debug("[" + this.getName() + "] Reading configuration (hive_port=" + hivePort + ")");
+        hiveRegistryFile = context.getString("hive_registry_file", "");
+        logger.debug("[" + this.getName() + "] Reading configuration (hive_registry_file=" + hiveRegistryFile + ")");
+        String fileFormat = context.getString("file_format", "json");
+        
+        if (!fileFormat.equals("json") && !fileFormat.equals("orc")) {
+            logger.error("[" + this.getName() + "] Bad configuration (Unrecognized file format " + fileFormat + ")");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } else {
+            logger.debug("[" + this.getName() + "] Reading configuration (file_format=" + fileFormat + ")");
+        } // if else
+        
+        orcFileFormat = fileFormat.equals("orc");
+        orcRowsPerFile = context.getLong("orc.rows_per_file", 100000L);
+        logger.debug("[" + this.getName() + "] Reading configuration (orc.rows_per_file=" + orcRowsPerFile + ")");
+        orcRollInterval = context.getLong("orc.roll_interval", 300L);
+        logger.debug("[" + this.getName() + "] Reading configuration (orc.roll_interval=" + orcRollInterval + ")");
+        orcStripeSize = context.getLong("orc.stripe_size", 64L);
+        logger.debug("[" + this.getName() + "] Reading configuration (orc.stripe_size=" + orcStripeSize + ")");
+        orcCompression = context.getString("orc.compression", "zlib");
+        
+        if (!orcCompression.equalsIgnoreCase("none") && !orcCompression.equalsIgnoreCase("zlib")
+                && !orcCompression.equalsIgnoreCase("snappy")) {
+            logger.error("[" + this.getName() + "] Bad configuration (Unrecognized ORC compression " + orcCompression
+                    + ")");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } else {
+            logger.debug("[" + this.getName() + "] Reading configuration (orc.compression=" + orcCompression + ")");
+        } // if else
+        
+        orcLocalDir = context.getString("orc.local_dir", System.getProperty("java.io.tmpdir") + "/cygnus-orc");
+        logger.debug("[" + this.getName() + "] Reading configuration (orc.local_dir=" + orcLocalDir + ")");
+        fileCompression = context.getString("file_compression", "none");
+        
+        if (!fileCompression.equals("none") && !fileCompression.equals("gzip") && !fileCompression.equals("bzip2")) {
+            logger.error("[" + this.getName() + "] Bad configuration (Unrecognized file compression "
+                    + fileCompression + ")");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } else {
+            logger.debug("[" + this.getName() + "] Reading configuration (file_compression=" + fileCompression + ")");
+        } // if else
         krb5 = context.getBoolean("krb5_auth", false);
         logger.debug("[" + this.getName() + "] Reading configuration (krb5_auth=" + (krb5 ? "true" : "false") + ")");
         krb5User = context.getString("krb5_auth.krb5_user", "");
@@ -206,6 +316,19 @@ public class OrionHDFSSink extends OrionSink {
         logger.debug("[" + this.getName() + "] Reading configuration (krb5_login_conf_file=" + krb5LoginConfFile + ")");
         krb5ConfFile = context.getString("krb5_auth.krb5_conf_file", "");
         logger.debug("[" + this.getName() + "] Reading configuration (krb5_conf_file=" + krb5ConfFile + ")");
+        
+        if (hdfsAPI.equals("binary") && krb5) {
+            logger.error("[" + this.getName() + "] Bad configuration (Kerberos authentication is not supported by the "
+                    + "binary HDFS API)");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } // if
+        
+        binaryMaxOpenFiles = context.getInteger("binary.max_open_files", 100);
+        logger.debug("[" + this.getName() + "] Reading configuration (binary.max_open_files=" + binaryMaxOpenFiles
+                + ")");
+        binaryIdleTimeout = context.getLong("binary.idle_timeout", 60L);
+        logger.debug("[" + this.getName() + "] Reading configuration (binary.idle_timeout=" + binaryIdleTimeout + ")");
     } // configure
 
     @Override
@@ -222,12 +345,27 @@ public class OrionHDFSSink extends OrionSink {
                         cosmosDefaultPassword, hiveHost, hivePort, krb5, krb5User, krb5Password, krb5LoginConfFile,
                         krb5ConfFile);
                 logger.debug("[" + this.getName() + "] WebHDFS persistence backend created");
+            } else if (hdfsAPI.equals("binary")) {
+                persistenceBackend = new HDFSBackendImplBinary(cosmosHost, cosmosPort, cosmosDefaultUsername,
+                        cosmosDefaultPassword, hiveHost, hivePort, binaryMaxOpenFiles, binaryIdleTimeout * 1000);
+                logger.debug("[" + this.getName() + "] Binary persistence backend created");
             } else {
                 // this point should never be reached since the HDFS API has been checked while configuring the sink
                 logger.error("[" + this.getName() + "] Bad configuration (Unrecognized HDFS API " + hdfsAPI + ")");
                 logger.info("[" + this.getName() + "] Exiting Cygnus");
                 System.exit(-1);
             } // if else if
+            
+            persistenceBackend.setHiveRegistryFile(hiveRegistryFile);
+            
+            // create the ORC files roller, a local directory per sink
+            if (orcFileFormat) {
+                orcRoller = new ORCFileRoller(persistenceBackend, cosmosDefaultUsername,
+                        new File(orcLocalDir, this.getName()), orcRowsPerFile, orcRollInterval * 1000,
+                        orcStripeSize * 1024 * 1024, orcCompression);
+                orcRoller.start();
+                logger.debug("[" + this.getName() + "] ORC files roller created");
+            } // if
         } catch (Exception e) {
             logger.error(e.getMessage());
         } // try catch
@@ -235,6 +373,31 @@ public class OrionHDFSSink extends OrionSink {
         super.start();
         logger.info("[" + this.getName() + "] Startup completed");
     } // start
+    
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        
+        if (orcRoller != null) {
+            orcRoller.close();
+            orcRoller = null;
+        } // if
+        
+        if (persistenceBackend != null) {
+            persistenceBackend.close();
+        } // if
+    } // stop
+
+    @Override
+    protected String getBackendId() {
+        StringBuilder hosts = new StringBuilder();
+        
+        for (String host : cosmosHost) {
+            hosts.append(hosts.length() == 0 ? "" : ",").append(host);
+        } // for
+        
+        return "hdfs://" + hosts + ":" + cosmosPort;
+    } // getBackendId
 
     @Override
     void persist(Map<String, String> eventHeaders, NotifyContextRequest notification) throws Exception {
@@ -256,20 +419,28 @@ public class OrionHDFSSink extends OrionSink {
             ContextElement contextElement = contextElementResponse.getContextElement();
             String entityId = contextElement.getId();
             String entityType = contextElement.getType();
-            logger.debug("[" + this.getName() + "] Processing context element (id=" + entityId + ", type="
-                    + entityType + ")");
+            CygnusLogger.logDebug(logger, "[{}] Processing context element (id={}, type={})", this.getName(), entityId,
+                    entityType);
             
             // build the effective HDFS stuff
             String firstLevel = buildFirstLevel(fiwareService);
             String secondLevel = buildSecondLevel(fiwareServicePath);
             String thirdLevel = buildThirdLevel(destinations[i]);
             String hdfsFolder = firstLevel + "/" + secondLevel + "/" + thirdLevel;
-            String hdfsFile = hdfsFolder + "/" + thirdLevel + ".txt";
+            String hdfsFile = hdfsFolder + "/" + thirdLevel + ".txt" + getFileExtension();
+            
+            // ORC files are not appended but rolled, thus there is no need to check if the file exists
+            if (orcFileFormat) {
+                persistORC(contextElement, hdfsFolder, thirdLevel, recvTimeTs, recvTime);
+                continue;
+            } // if
             
-            // check if the fileName exists in HDFS right now, i.e. when its attrName has been got
+            // check if the fileName exists in HDFS right now, i.e. when its attrName has been got; the files already
+            // buffered in this batch have already been checked
             boolean fileExists = false;
             
-            if (persistenceBackend.exists(cosmosDefaultUsername, hdfsFile)) {
+            if (compressedBuffers.containsKey(hdfsFile)
+                    || persistenceBackend.exists(cosmosDefaultUsername, hdfsFile)) {
                 fileExists = true;
             } // if
             
@@ -297,8 +468,8 @@ public class OrionHDFSSink extends OrionSink {
                 String attrType = contextAttribute.getType();
                 String attrValue = contextAttribute.getContextValue(true);
                 String attrMetadata = contextAttribute.getContextMetadata();
-                logger.debug("[" + this.getName() + "] Processing context attribute (name=" + attrName + ", type="
-                        + attrType + ")");
+                CygnusLogger.logDebug(logger, "[{}] Processing context attribute (name={}, type={})", this.getName(),
+                        attrName, attrType);
                 
                 if (rowAttrPersistence) {
                     // create a Json document to be persisted
@@ -312,20 +483,23 @@ public class OrionHDFSSink extends OrionSink {
                             + "\"" + Constants.ATTR_VALUE + "\":" + attrValue + ","
                             + "\"" + Constants.ATTR_MD + "\":" + attrMetadata
                             + "}";
-                    logger.info("[" + this.getName() + "] Persisting data at OrionHDFSSink. HDFS file ("
-                            + hdfsFile + "), Data (" + rowLine + ")");
+                    CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionHDFSSink. HDFS file ({}), "
+                            + "Data ({})", this.getName(), hdfsFile, rowLine);
                     
                     // if the fileName exists, append the Json document to it; otherwise, create it with initial content
                     // and mark as existing (this avoids checking if the fileName exists each time a Json document is
-                    // going to be persisted)
-                    if (fileExists) {
+                    // going to be persisted); compressed files are buffered until the batch is flushed
+                    if (!fileCompression.equals("none")) {
+                        buffer(hdfsFolder, hdfsFile, rowLine, fileExists, null);
+                    } else if (fileExists) {
                         persistenceBackend.append(cosmosDefaultUsername, hdfsFile, rowLine);
                     } else {
                         persistenceBackend.createDir(cosmosDefaultUsername, hdfsFolder);
                         persistenceBackend.createFile(cosmosDefaultUsername, hdfsFile, rowLine);
                         persistenceBackend.provisionHiveTable(cosmosDefaultUsername, hdfsFolder);
-                        fileExists = true;
                     } // if else
+                    
+                    fileExists = true;
                 } else {
                     columnLine += "\"" + attrName + "\":" + attrValue + ", \"" + attrName + "_md\":" + attrMetadata
                             + ",";
@@ -338,21 +512,227 @@ public class OrionHDFSSink extends OrionSink {
             if (!rowAttrPersistence) {
                 // insert a new row containing full attribute list
                 columnLine = columnLine.subSequence(0, columnLine.length() - 1) + "}";
-                logger.info("[" + this.getName() + "] Persisting data at OrionHDFSSink. HDFS file (" + hdfsFile
-                        + "), Data (" + columnLine + ")");
+                CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionHDFSSink. HDFS file ({}), Data ({})",
+                        this.getName(), hdfsFile, columnLine);
                 
-                if (fileExists) {
+                if (!fileCompression.equals("none")) {
+                    buffer(hdfsFolder, hdfsFile, columnLine, fileExists, hiveFields);
+                } else if (fileExists) {
                     persistenceBackend.append(cosmosDefaultUsername, hdfsFile, columnLine);
                 } else {
                     persistenceBackend.createDir(cosmosDefaultUsername, hdfsFolder);
                     persistenceBackend.createFile(cosmosDefaultUsername, hdfsFile, columnLine);
                     persistenceBackend.provisionHiveTable(cosmosDefaultUsername, hdfsFolder, hiveFields);
-                    fileExists = true;
                 } // if else
             } // if
         } // for
     } // persist
     
+    /**
+     * Appends the compressed buffers to their files, creating them if not existing, and syncs the backend, thus the
+     * data of the whole batch is visible to the readers; the write-ahead logs of the open ORC files are synced as
+     * well. It is invoked once per batch.
+     * @throws Exception
+     */
+    @Override
+    protected void flush() throws Exception {
+        try {
+            for (Map.Entry<String, CompressedBuffer> entry : compressedBuffers.entrySet()) {
+                String hdfsFile = entry.getKey();
+                CompressedBuffer buffer = entry.getValue();
+                byte[] raw = buffer.data.toString().getBytes("UTF-8");
+                byte[] data = compress(raw);
+                
+                if (buffer.fileExists) {
+                    persistenceBackend.append(cosmosDefaultUsername, hdfsFile, data);
+                } else {
+                    persistenceBackend.createDir(cosmosDefaultUsername, buffer.hdfsFolder);
+                    persistenceBackend.createFile(cosmosDefaultUsername, hdfsFile, data);
+                    
+                    if (buffer.hiveFields == null) {
+                        persistenceBackend.provisionHiveTable(cosmosDefaultUsername, buffer.hdfsFolder);
+                    } else {
+                        persistenceBackend.provisionHiveTable(cosmosDefaultUsername, buffer.hdfsFolder,
+                                buffer.hiveFields);
+                    } // if else
+                } // if else
+                
+                getCompressionMetrics()[0].inc(raw.length);
+                getCompressionMetrics()[1].inc(data.length);
+                CygnusLogger.logDebug(logger, "[{}] Compressed data appended (file={}, rawBytes={}, bytes={})",
+                        this.getName(), hdfsFile, raw.length, data.length);
+            } // for
+        } finally {
+            // if failed, the whole batch is taken again from the channel, thus the buffers must be emptied anyway
+            compressedBuffers.clear();
+        } // try finally
+        
+        persistenceBackend.sync();
+        
+        // the rows of the not yet rolled ORC files must survive a crash once the batch is committed
+        if (orcRoller != null) {
+            orcRoller.sync();
+        } // if
+    } // flush
+    
+    @Override
+    protected void discard() {
+        compressedBuffers.clear();
+    } // discard
+    
+    /**
+     * Buffers a Json line of a compressed file until the batch is flushed.
+     * @param hdfsFolder
+     * @param hdfsFile
+     * @param line
+     * @param fileExists True if the file already exists in HDFS, thus it must be appended instead of created
+     * @param hiveFields Hive columns in column mode, null in row mode
+     */
+    private void buffer(String hdfsFolder, String hdfsFile, String line, boolean fileExists, String hiveFields) {
+        CompressedBuffer buffer = compressedBuffers.get(hdfsFile);
+        
+        if (buffer == null) {
+            buffer = new CompressedBuffer(hdfsFolder, fileExists, hiveFields);
+            compressedBuffers.put(hdfsFile, buffer);
+        } // if
+        
+        buffer.data.append(line).append('\n');
+    } // buffer
+    
+    /**
+     * Compresses data as a whole gzip member or bzip2 stream, which can be concatenated to previous ones.
+     * @param data
+     * @return The compressed data
+     * @throws Exception
+     */
+    private byte[] compress(byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        OutputStream out;
+        
+        if (fileCompression.equals("gzip")) {
+            out = new GZIPOutputStream(bytes);
+        } else {
+            out = new BZip2CompressorOutputStream(bytes);
+        } // if else
+        
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    } // compress
+    
+    /**
+     * Gets the extension of the Json files, which Hadoop uses for choosing the decompression codec.
+     * @return The extension of the Json files
+     */
+    private String getFileExtension() {
+        if (fileCompression.equals("gzip")) {
+            return ".gz";
+        } else if (fileCompression.equals("bzip2")) {
+            return ".bz2";
+        } else {
+            return "";
+        } // if else if
+    } // getFileExtension
+    
+    /**
+     * Gets the counters of raw and compressed bytes, creating them if not yet created. They cannot be created in the
+     * constructor since the name of the sink is not known at that moment.
+     * @return The counters of raw and compressed bytes
+     */
+    private Counter[] getCompressionMetrics() {
+        if (compressionMetrics == null) {
+            String help = "Bytes of Json lines written to HDFS, before (raw) and after compressing them";
+            compressionMetrics = new Counter[] {
+                MetricsRegistry.getInstance().counter("cygnus_hdfs_written_bytes", help, "sink", this.getName(),
+                        "encoding", "raw"),
+                MetricsRegistry.getInstance().counter("cygnus_hdfs_written_bytes", help, "sink", this.getName(),
+                        "encoding", fileCompression)
+            };
+        } // if
+        
+        return compressionMetrics;
+    } // getCompressionMetrics
+    
+    /**
+     * Persists the attributes of a context element as ORC rows, a row per attribute (row mode) or a single row for
+     * all the attributes (column mode). The metadata are stored as an array of Json strings.
+     * @param contextElement
+     * @param hdfsFolder
+     * @param fileName
+     * @param recvTimeTs
+     * @param recvTime
+     * @throws Exception
+     */
+    private void persistORC(ContextElement contextElement, String hdfsFolder, String fileName, long recvTimeTs,
+            String recvTime) throws Exception {
+        String entityId = contextElement.getId();
+        String entityType = contextElement.getType();
+        ArrayList<ContextAttribute> contextAttributes = contextElement.getAttributes();
+
+        if (contextAttributes == null || contextAttributes.isEmpty()) {
+            logger.warn("No attributes within the notified entity, nothing is done (id=" + entityId + ", type="
+                    + entityType + ")");
+            return;
+        } // if
+        
+        if (orcRoller == null) {
+            throw new CygnusBadConfiguration("The ORC files roller could not be created");
+        } // if
+        
+        if (rowAttrPersistence) {
+            String fields = Constants.RECV_TIME_TS + " bigint," + Constants.RECV_TIME + " string,"
+                    + Constants.ENTITY_ID + " string," + Constants.ENTITY_TYPE + " string," + Constants.ATTR_NAME
+                    + " string," + Constants.ATTR_TYPE + " string," + Constants.ATTR_VALUE + " string,"
+                    + Constants.ATTR_MD + " array<string>";
+            
+            for (ContextAttribute contextAttribute : contextAttributes) {
+                List<Object> row = new ArrayList<Object>(8);
+                row.add(recvTimeTs / 1000);
+                row.add(recvTime);
+                row.add(entityId);
+                row.add(entityType);
+                row.add(contextAttribute.getName());
+                row.add(contextAttribute.getType());
+                row.add(contextAttribute.getContextValue(false));
+                row.add(toStringList(contextAttribute.getContextMetadata()));
+                CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionHDFSSink. HDFS folder ({}), "
+                        + "ORC row ({})", this.getName(), hdfsFolder, row);
+                orcRoller.append(hdfsFolder, fileName, fields, true, row);
+            } // for
+        } else {
+            String fields = Constants.RECV_TIME + " string";
+            List<Object> row = new ArrayList<Object>(1 + 2 * contextAttributes.size());
+            row.add(recvTime);
+            
+            for (ContextAttribute contextAttribute : contextAttributes) {
+                String attrName = contextAttribute.getName();
+                fields += "," + attrName + " string," + attrName + "_md array<string>";
+                row.add(contextAttribute.getContextValue(false));
+                row.add(toStringList(contextAttribute.getContextMetadata()));
+            } // for
+            
+            CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionHDFSSink. HDFS folder ({}), ORC row ({})",
+                    this.getName(), hdfsFolder, row);
+            orcRoller.append(hdfsFolder, fileName, fields, false, row);
+        } // if else
+    } // persistORC
+    
+    /**
+     * Converts a Json array into a list of strings, a string per element.
+     * @param jsonArray
+     * @return The list of strings
+     */
+    private static List<String> toStringList(String jsonArray) {
+        JsonArray array = new JsonParser().parse(jsonArray).getAsJsonArray();
+        List<String> list = new ArrayList<String>(array.size());
+        
+        for (JsonElement element : array) {
+            list.add(element.toString());
+        } // for
+        
+        return list;
+    } // toStringList
+    
     /**
      * Builds the first level of a HDFS path given a fiwareService. It throws an exception if the naming conventions are
      * violated.
@@ -360,7 +740,7 @@ public class OrionHDFSSink extends OrionSink {
      * @return
      * @throws Exception
      */
-    private String buildFirstLevel(String fiwareService) throws Exception {
+    static String buildFirstLevel(String fiwareService) throws Exception {
         String firstLevel = fiwareService;
         
         if (firstLevel.length() > Constants.MAX_NAME_LEN) {
@@ -379,7 +759,7 @@ public class OrionHDFSSink extends OrionSink {
      * @return
      * @throws Exception
      */
-    private String buildSecondLevel(String fiwareServicePath) throws Exception {
+    static String buildSecondLevel(String fiwareServicePath) throws Exception {
         String secondLevel = fiwareServicePath;
         
         if (secondLevel.length() > Constants.MAX_NAME_LEN) {
@@ -397,7 +777,7 @@ public class OrionHDFSSink extends OrionSink {
      * @return
      * @throws Exception
      */
-    private String buildThirdLevel(String destination) throws Exception {
+    static String buildThirdLevel(String destination) throws Exception {
         String thirdLevel = destination;
         
         if (thirdLevel.length() > Constants.MAX_NAME_LEN) {
@@ -408,4 +788,29 @@ public class OrionHDFSSink extends OrionSink {
         return thirdLevel;
     } // buildThirdLevel
     
+    /**
+     * Json lines of a compressed file buffered during a batch.
+     */
+    private static class CompressedBuffer {
+        
+        private final String hdfsFolder;
+        private final boolean fileExists;
+        private final String hiveFields;
+        private final StringBuilder data;
+        
+        /**
+         * Constructor.
+         * @param hdfsFolder
+         * @param fileExists
+         * @param hiveFields
+         */
+        public CompressedBuffer(String hdfsFolder, boolean fileExists, String hiveFields) {
+            this.hdfsFolder = hdfsFolder;
+            this.fileExists = fileExists;
+            this.hiveFields = hiveFields;
+            data = new StringBuilder();
+        } // CompressedBuffer
+        
+    } // CompressedBuffer
+    
 } // OrionHDFSSink
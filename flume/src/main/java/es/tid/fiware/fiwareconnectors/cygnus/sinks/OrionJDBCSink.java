@@ -0,0 +1,606 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.H2Dialect;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend.Row;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.MySQLDialect;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.PostgreSQLDialect;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.SQLDialect;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextAttribute;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElementResponse;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ * 
+ * Custom relational database sink for Orion Context Broker, the database being accessed through JDBC. The SQL syntax
+ * and the JDBC driver are given by a dialect (jdbc_dialect=mysql|postgresql|h2). The design for this sink is:
+ *  - There is a schema per fiware-service (a database in MySQL), being its name:
+ *    <fiware-service>
+ *  - Each destination has its data stored in a specific table within the schema, being its name:
+ *    <fiware-servicePath>_<destination>
+ *  - Each event data is stored in the appropriate table as a new row (attr_persistence=row), having each row the
+ *    following fields: recvTimeTs, recvTime, entityId, entityType, attrName, attrType, attrValue, attrMd
+ *  - Alternatively (attr_persistence=column), the table has a column per attribute and metadata, the columns being
+ *    added as soon as new attributes are notified.
+ *  - Alternatively (attr_persistence=last), only the current value of each entity's attribute is kept, in a table
+ *    named <table>_last having entityId and attrName as primary key. The historical row-like table may be kept as
+ *    well (last_value.keep_history=true).
+ * 
+ * The rows are buffered during a batch and inserted, when the batch is flushed, in a single JDBC batch per table. If
+ * certain rows are rejected because of bad data, the rest of the rows are persisted and the events the rejected rows
+ * come from are written to the dead letter file.
+ * 
+ * The sinks for a specific database (e.g. OrionMySQLSink) extend this one, having a fixed dialect and their own
+ * configuration parameter names (e.g. mysql_host instead of jdbc_host).
+ */
+public class OrionJDBCSink extends OrionSink {
+    
+    private Logger logger;
+    private final String keyPrefix;
+    private final SQLDialect fixedDialect;
+    private SQLDialect dialect;
+    private String jdbcHost;
+    private String jdbcPort;
+    private String jdbcDatabase;
+    private String jdbcUsername;
+    private String jdbcPassword;
+    private int jdbcMaxIdleConnections;
+    private boolean rowAttrPersistence;
+    private boolean lastValuePersistence;
+    private boolean lastValueKeepHistory;
+    private final LinkedHashMap<String, PendingTable> pendingTables;
+    private JDBCBackend persistenceBackend;
+    
+    /**
+     * Constructor.
+     */
+    public OrionJDBCSink() {
+        this("jdbc_", null);
+    } // OrionJDBCSink
+    
+    /**
+     * Constructor for the sinks for a specific database.
+     * @param keyPrefix Prefix of the configuration parameters, e.g. "jdbc_"
+     * @param fixedDialect Fixed SQL dialect, or null if given by the jdbc_dialect configuration parameter
+     */
+    protected OrionJDBCSink(String keyPrefix, SQLDialect fixedDialect) {
+        super();
+        logger = CygnusLogger.getLogger(OrionJDBCSink.class);
+        this.keyPrefix = keyPrefix;
+        this.fixedDialect = fixedDialect;
+        pendingTables = new LinkedHashMap<String, PendingTable>();
+    } // OrionJDBCSink
+    
+    /**
+     * Gets the SQL dialect. It is protected due to it is only required for testing purposes.
+     * @return The SQL dialect
+     */
+    protected SQLDialect getDialect() {
+        return dialect;
+    } // getDialect
+    
+    /**
+     * Gets the database host. It is protected due to it is only required for testing purposes.
+     * @return The database host
+     */
+    protected String getJDBCHost() {
+        return jdbcHost;
+    } // getJDBCHost
+    
+    /**
+     * Gets the database port. It is protected due to it is only required for testing purposes.
+     * @return The database port
+     */
+    protected String getJDBCPort() {
+        return jdbcPort;
+    } // getJDBCPort
+    
+    /**
+     * Gets the database the connections are bound to. It is protected due to it is only required for testing
+     * purposes.
+     * @return The database the connections are bound to
+     */
+    protected String getJDBCDatabase() {
+        return jdbcDatabase;
+    } // getJDBCDatabase
+    
+    /**
+     * Gets the database username. It is protected due to it is only required for testing purposes.
+     * @return The database username
+     */
+    protected String getJDBCUsername() {
+        return jdbcUsername;
+    } // getJDBCUsername
+    
+    /**
+     * Gets the database password. It is protected due to it is only required for testing purposes.
+     * @return The database password
+     */
+    protected String getJDBCPassword() {
+        return jdbcPassword;
+    } // getJDBCPassword
+    
+    /**
+     * Returns if the attribute persistence is row-based. It is protected due to it is only required for testing
+     * purposes.
+     * @return True if the attribute persistence is row-based, false otherwise
+     */
+    protected boolean getRowAttrPersistence() {
+        return rowAttrPersistence;
+    } // getRowAttrPersistence
+    
+    /**
+     * Returns if the last value of each attribute is persisted. It is protected due to it is only required for testing
+     * purposes.
+     * @return True if the last value of each attribute is persisted, false otherwise
+     */
+    protected boolean getLastValuePersistence() {
+        return lastValuePersistence;
+    } // getLastValuePersistence
+    
+    /**
+     * Returns the persistence backend. It is protected due to it is only required for testing purposes.
+     * @return The persistence backend
+     */
+    protected JDBCBackend getPersistenceBackend() {
+        return persistenceBackend;
+    } // getPersistenceBackend
+    
+    /**
+     * Sets the persistence backend. It is protected due to it is only required for testing purposes.
+     * @param persistenceBackend
+     */
+    protected void setPersistenceBackend(JDBCBackend persistenceBackend) {
+        this.persistenceBackend = persistenceBackend;
+    } // setPersistenceBackend
+    
+    @Override
+    public void configure(Context context) {
+        super.configure(context);
+        
+        if (fixedDialect != null) {
+            dialect = fixedDialect;
+        } else {
+            String dialectName = context.getString("jdbc_dialect", "postgresql");
+            
+            if (dialectName.equals("mysql")) {
+                dialect = new MySQLDialect();
+            } else if (dialectName.equals("postgresql")) {
+                dialect = new PostgreSQLDialect();
+            } else if (dialectName.equals("h2")) {
+                dialect = new H2Dialect();
+            } else {
+                logger.error("[" + this.getName() + "] Bad configuration (Unrecognized JDBC dialect " + dialectName
+                        + ")");
+                logger.info("[" + this.getName() + "] Exiting Cygnus");
+                System.exit(-1);
+            } // if else if
+            
+            logger.debug("[" + this.getName() + "] Reading configuration (jdbc_dialect=" + dialectName + ")");
+        } // if else
+        
+        jdbcHost = context.getString(keyPrefix + "host", "localhost");
+        logger.debug("[" + this.getName() + "] Reading configuration (" + keyPrefix + "host=" + jdbcHost + ")");
+        jdbcPort = context.getString(keyPrefix + "port", dialect.getDefaultPort());
+        logger.debug("[" + this.getName() + "] Reading configuration (" + keyPrefix + "port=" + jdbcPort + ")");
+        jdbcDatabase = context.getString(keyPrefix + "database", "cygnus");
+        logger.debug("[" + this.getName() + "] Reading configuration (" + keyPrefix + "database=" + jdbcDatabase
+                + ")");
+        jdbcUsername = context.getString(keyPrefix + "username", "opendata");
+        logger.debug("[" + this.getName() + "] Reading configuration (" + keyPrefix + "username=" + jdbcUsername
+                + ")");
+        jdbcPassword = context.getString(keyPrefix + "password", "unknown");
+        logger.debug("[" + this.getName() + "] Reading configuration (" + keyPrefix + "password=" + jdbcPassword
+                + ")");
+        jdbcMaxIdleConnections = context.getInteger(keyPrefix + "max_idle_connections", 2);
+        logger.debug("[" + this.getName() + "] Reading configuration (" + keyPrefix + "max_idle_connections="
+                + jdbcMaxIdleConnections + ")");
+        String attrPersistence = context.getString("attr_persistence", "row");
+        
+        // the last value tables are row-like ones
+        rowAttrPersistence = attrPersistence.equals("row") || attrPersistence.equals("last");
+        lastValuePersistence = attrPersistence.equals("last");
+        logger.debug("[" + this.getName() + "] Reading configuration (attr_persistence="
+                + (lastValuePersistence ? "last" : (rowAttrPersistence ? "row" : "column")) + ")");
+        lastValueKeepHistory = context.getBoolean("last_value.keep_history", false);
+        logger.debug("[" + this.getName() + "] Reading configuration (last_value.keep_history="
+                + (lastValueKeepHistory ? "true" : "false") + ")");
+    } // configure
+    
+    @Override
+    public void start() {
+        // create the persistence backend
+        persistenceBackend = createPersistenceBackend(dialect, jdbcHost, jdbcPort, jdbcDatabase, jdbcUsername,
+                jdbcPassword, jdbcMaxIdleConnections);
+        logger.debug("[" + this.getName() + "] JDBC persistence backend created (url=" + persistenceBackend.getURL()
+                + ")");
+        super.start();
+        logger.info("[" + this.getName() + "] Startup completed");
+    } // start
+    
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        
+        if (persistenceBackend != null) {
+            persistenceBackend.close();
+        } // if
+    } // stop
+    
+    /**
+     * Creates the persistence backend. It is protected since the sinks for a specific database may create a backend
+     * having additional features.
+     * @param dialect
+     * @param host
+     * @param port
+     * @param database
+     * @param username
+     * @param password
+     * @param maxIdleConnections
+     * @return The persistence backend
+     */
+    protected JDBCBackend createPersistenceBackend(SQLDialect dialect, String host, String port, String database,
+            String username, String password, int maxIdleConnections) {
+        return new JDBCBackend(dialect, host, port, database, username, password, maxIdleConnections);
+    } // createPersistenceBackend
+    
+    @Override
+    protected String getBackendId() {
+        return dialect.getName() + "://" + jdbcHost + ":" + jdbcPort;
+    } // getBackendId
+    
+    @Override
+    void persist(Map<String, String> eventHeaders, NotifyContextRequest notification) throws Exception {
+        // get some header values
+        Long recvTimeTs = new Long(eventHeaders.get("timestamp")).longValue();
+        String fiwareService = eventHeaders.get(Constants.HEADER_SERVICE);
+        String fiwareServicePath = eventHeaders.get(Constants.HEADER_SERVICE_PATH);
+        String[] destinations = eventHeaders.get(Constants.DESTINATION).split(",");
+        
+        // human readable version of the reception time
+        String recvTime = new Timestamp(recvTimeTs).toString().replaceAll(" ", "T");
+        String schemaName = buildSchemaName(fiwareService);
+        
+        // iterate on the contextResponses
+        ArrayList contextResponses = notification.getContextResponses();
+        
+        // the column names are checked before buffering any row, thus a bad event is not partially persisted
+        if (!rowAttrPersistence) {
+            for (int i = 0; i < contextResponses.size(); i++) {
+                checkColumnNames(((ContextElementResponse) contextResponses.get(i)).getContextElement());
+            } // for
+        } // if
+        
+        for (int i = 0; i < contextResponses.size(); i++) {
+            // get the i-th contextElement
+            ContextElementResponse contextElementResponse = (ContextElementResponse) contextResponses.get(i);
+            ContextElement contextElement = contextElementResponse.getContextElement();
+            String entityId = contextElement.getId();
+            String entityType = contextElement.getType();
+            CygnusLogger.logDebug(logger, "[{}] Processing context element (id={}, type={})", this.getName(), entityId,
+                    entityType);
+            
+            // build the table name
+            String tableName = buildTableName(fiwareServicePath, destinations[i]);
+            
+            // iterate on all this entity's attributes, if there are attributes
+            ArrayList<ContextAttribute> contextAttributes = contextElement.getAttributes();
+            
+            if (contextAttributes == null || contextAttributes.isEmpty()) {
+                logger.warn("No attributes within the notified entity, nothing is done (id=" + entityId + ", type="
+                        + entityType + ")");
+                continue;
+            } // if
+            
+            // the historical table is not written when only the last values are persisted
+            boolean history = !lastValuePersistence || lastValueKeepHistory;
+            
+            // in the per column mode a single row contains the full attribute list, recvTime being the first column
+            LinkedHashMap<String, String> columnRow = new LinkedHashMap<String, String>();
+            columnRow.put(Constants.RECV_TIME, recvTime);
+            LinkedHashMap<String, String> mds = new LinkedHashMap<String, String>();
+            
+            for (ContextAttribute contextAttribute : contextAttributes) {
+                String attrName = contextAttribute.getName();
+                String attrType = contextAttribute.getType();
+                String attrValue = contextAttribute.getContextValue(false);
+                String attrMetadata = contextAttribute.getContextMetadata();
+                CygnusLogger.logDebug(logger, "[{}] Processing context attribute (name={}, type={})", this.getName(),
+                        attrName, attrType);
+                
+                if (!rowAttrPersistence) {
+                    columnRow.put(attrName, attrValue);
+                    mds.put(attrName + "_md", attrMetadata);
+                    continue;
+                } // if
+                
+                Row row = new Row(recvTimeTs / 1000, recvTime, entityId, entityType, attrName, attrType, attrValue,
+                        attrMetadata);
+                
+                if (lastValuePersistence) {
+                    getPendingTable(schemaName, tableName + "_last").bufferLastValue(row, getCurrentEvent());
+                } // if
+                
+                if (history) {
+                    getPendingTable(schemaName, tableName).bufferRow(row, getCurrentEvent());
+                } // if
+            } // for
+            
+            if (!rowAttrPersistence) {
+                columnRow.putAll(mds);
+                getPendingTable(schemaName, tableName).bufferColumnRow(columnRow, getCurrentEvent());
+            } // if
+        } // for
+    } // persist
+    
+    /**
+     * Inserts the rows accumulated during the batch, a JDBC batch per table. It is invoked once per batch.
+     * @throws Exception
+     */
+    @Override
+    protected void flush() throws Exception {
+        try {
+            for (PendingTable table : pendingTables.values()) {
+                // the schemas and tables already created are cached by the backend, thus this is cheap
+                persistenceBackend.createSchema(table.schemaName);
+                
+                if (!table.rows.isEmpty()) {
+                    persistenceBackend.createTable(table.schemaName, table.tableName);
+                    CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionJDBCSink. Schema: {}, Table: {}, "
+                            + "Rows: {}", this.getName(), table.schemaName, table.tableName, table.rows.size());
+                    
+                    try {
+                        persistenceBackend.insertRows(table.schemaName, table.tableName, table.rows);
+                    } catch (CygnusRejectedRows e) {
+                        rejectRows(table.rowEvents, e);
+                    } // try catch
+                } // if
+                
+                if (!table.columnRows.isEmpty()) {
+                    CygnusLogger.logEventInfo(logger, "[{}] Persisting data at OrionJDBCSink. Schema: {}, Table: {}, "
+                            + "Rows: {}", this.getName(), table.schemaName, table.tableName, table.columnRows.size());
+                    
+                    try {
+                        persistenceBackend.insertColumnRows(table.schemaName, table.tableName, table.columnRows);
+                    } catch (CygnusRejectedRows e) {
+                        rejectRows(table.columnRowEvents, e);
+                    } // try catch
+                } // if
+                
+                if (!table.lastValues.isEmpty()) {
+                    persistenceBackend.createLastValueTable(table.schemaName, table.tableName);
+                    CygnusLogger.logEventInfo(logger, "[{}] Persisting last values at OrionJDBCSink. Schema: {}, "
+                            + "Table: {}, Rows: {}", this.getName(), table.schemaName, table.tableName,
+                            table.lastValues.size());
+                    
+                    try {
+                        persistenceBackend.upsertLastValues(table.schemaName, table.tableName,
+                                table.lastValues.values());
+                    } catch (CygnusRejectedRows e) {
+                        rejectRows(new ArrayList<Event>(table.lastValueEvents.values()), e);
+                    } // try catch
+                } // if
+            } // for
+        } finally {
+            // if failed, the whole batch is taken again from the channel, thus the buffers must be emptied anyway
+            pendingTables.clear();
+        } // try finally
+    } // flush
+    
+    @Override
+    protected void discard() {
+        pendingTables.clear();
+    } // discard
+    
+    /**
+     * Rejects the events the given rejected rows come from, thus they are written to the dead letter file; the rest
+     * of the rows have been persisted.
+     * @param events Event each row comes from, by position
+     * @param rejectedRows
+     */
+    private void rejectRows(List<Event> events, CygnusRejectedRows rejectedRows) {
+        for (Map.Entry<Integer, String> rejection : rejectedRows.getRejections().entrySet()) {
+            reject(events.get(rejection.getKey()), new CygnusBadContextData(rejection.getValue()));
+        } // for
+    } // rejectRows
+    
+    private PendingTable getPendingTable(String schemaName, String tableName) {
+        String key = schemaName + "\t" + tableName;
+        PendingTable table = pendingTables.get(key);
+        
+        if (table == null) {
+            table = new PendingTable(schemaName, tableName);
+            pendingTables.put(key, table);
+        } // if
+        
+        return table;
+    } // getPendingTable
+    
+    /**
+     * Builds a schema name given a fiwareService. It throws an exception if the naming conventions are violated.
+     * @param fiwareService
+     * @return
+     * @throws Exception
+     */
+    private String buildSchemaName(String fiwareService) throws Exception {
+        String schemaName = fiwareService;
+        
+        if (schemaName.length() > Constants.MAX_NAME_LEN) {
+            throw new CygnusBadConfiguration("Building schemaName=fiwareService (" + schemaName + ") and its length is "
+                    + "greater than " + Constants.MAX_NAME_LEN);
+        } // if
+        
+        return schemaName;
+    } // buildSchemaName
+    
+    /**
+     * Builds a table name given a fiwareServicePath and a destination. It throws an exception if the naming
+     * conventions are violated.
+     * @param fiwareServicePath
+     * @param destination
+     * @return
+     * @throws Exception
+     */
+    private String buildTableName(String fiwareServicePath, String destination) throws Exception {
+        String tableName;
+                
+        if (fiwareServicePath.length() == 0) {
+            tableName = destination;
+        } else {
+            tableName = fiwareServicePath + '_' + destination;
+        } // if else
+
+        if (tableName.length() > Constants.MAX_NAME_LEN) {
+            throw new CygnusBadConfiguration("Building tableName=fiwareServicePath + '_' + destination (" + tableName
+                    + ") and its length is greater than " + Constants.MAX_NAME_LEN);
+        } // if
+        
+        return tableName;
+    } // buildTableName
+    
+    /**
+     * Checks the columns of the per column row of a context element, i.e. recvTime and the attribute and metadata
+     * columns, are valid for the dialect. It throws an exception if any name is too long, or if two columns are the
+     * same one (e.g. names only differing in case, or an attribute named as the metadata column of another one), since
+     * the database would reject the whole batch once and again.
+     * @param contextElement
+     * @throws CygnusBadContextData
+     */
+    private void checkColumnNames(ContextElement contextElement) throws CygnusBadContextData {
+        ArrayList<ContextAttribute> contextAttributes = contextElement.getAttributes();
+        
+        if (contextAttributes == null) {
+            return;
+        } // if
+        
+        // normalized column name -> what the column is for, thus a repeated attribute is not a clash
+        HashMap<String, String> columns = new HashMap<String, String>();
+        checkColumnName(columns, Constants.RECV_TIME, Constants.RECV_TIME, contextElement);
+        
+        for (ContextAttribute contextAttribute : contextAttributes) {
+            String attrName = contextAttribute.getName();
+            checkColumnName(columns, attrName, "value of " + attrName, contextElement);
+            checkColumnName(columns, attrName + "_md", "metadata of " + attrName, contextElement);
+        } // for
+    } // checkColumnNames
+    
+    private void checkColumnName(HashMap<String, String> columns, String columnName, String usage,
+            ContextElement contextElement) throws CygnusBadContextData {
+        if (columnName.length() > dialect.getMaxColumnNameLength()) {
+            throw new CygnusBadContextData("Building the column " + columnName + " (entityId="
+                    + contextElement.getId() + ") and its length is greater than "
+                    + dialect.getMaxColumnNameLength());
+        } // if
+        
+        String previous = columns.put(dialect.isCaseSensitive() ? columnName : columnName.toLowerCase(), usage);
+        
+        if (previous != null && !previous.equals(usage)) {
+            throw new CygnusBadContextData("Building the column " + columnName + " (entityId="
+                    + contextElement.getId() + ") and it is the same column than the " + previous + " one");
+        } // if
+    } // checkColumnName
+    
+    /**
+     * Rows of a table accumulated during a batch, together with the events they come from.
+     */
+    private static class PendingTable {
+        
+        private final String schemaName;
+        private final String tableName;
+        private final ArrayList<Row> rows;
+        private final ArrayList<Event> rowEvents;
+        private final ArrayList<Map<String, String>> columnRows;
+        private final ArrayList<Event> columnRowEvents;
+        private final LinkedHashMap<String, Row> lastValues;
+        private final LinkedHashMap<String, Event> lastValueEvents;
+        
+        /**
+         * Constructor.
+         * @param schemaName
+         * @param tableName
+         */
+        public PendingTable(String schemaName, String tableName) {
+            this.schemaName = schemaName;
+            this.tableName = tableName;
+            this.rows = new ArrayList<Row>();
+            this.rowEvents = new ArrayList<Event>();
+            this.columnRows = new ArrayList<Map<String, String>>();
+            this.columnRowEvents = new ArrayList<Event>();
+            this.lastValues = new LinkedHashMap<String, Row>();
+            this.lastValueEvents = new LinkedHashMap<String, Event>();
+        } // PendingTable
+        
+        /**
+         * Buffers a row of a row-like table.
+         * @param row
+         * @param event Event the row comes from
+         */
+        public void bufferRow(Row row, Event event) {
+            rows.add(row);
+            rowEvents.add(event);
+        } // bufferRow
+        
+        /**
+         * Buffers a row of a column-like table.
+         * @param columnRow
+         * @param event Event the row comes from
+         */
+        public void bufferColumnRow(Map<String, String> columnRow, Event event) {
+            columnRows.add(columnRow);
+            columnRowEvents.add(event);
+        } // bufferColumnRow
+        
+        /**
+         * Buffers the last value of an attribute. If the batch already contains a value for the same entity and
+         * attribute, the newest one is kept, together with the event it comes from.
+         * @param lastValue
+         * @param event Event the last value comes from
+         */
+        public void bufferLastValue(Row lastValue, Event event) {
+            String key = lastValue.getEntityId() + "\t" + lastValue.getAttrName();
+            Row buffered = lastValues.get(key);
+            
+            if (buffered == null || buffered.getRecvTimeTs() <= lastValue.getRecvTimeTs()) {
+                lastValues.put(key, lastValue);
+                lastValueEvents.put(key, event);
+            } // if
+        } // bufferLastValue
+        
+    } // PendingTable
+    
+} // OrionJDBCSink
@@ -18,18 +18,12 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.sinks;
 
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.MySQLDialect;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.SQLDialect;
 import es.tid.fiware.fiwareconnectors.cygnus.backends.mysql.MySQLBackend;
-import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
-import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextAttribute;
-import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
-import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElementResponse;
-import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.mysql.MySQLPartitioning;
 import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
-import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
-import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import org.apache.flume.Context;
 import org.apache.log4j.Logger;
 
@@ -37,35 +31,40 @@ import org.apache.log4j.Logger;
  *
  * @author frb
  * 
- * Custom MySQL sink for Orion Context Broker. The MySQL design for this sink is:
- *  - There is a database per user, being its attrName:
- *    cygnus_<username>
- *  - Each entity has its data stored in a specific table, being its attrName:
- *    cygnus_<entity_id>_<entity_type>
+ * Custom MySQL sink for Orion Context Broker. It is an OrionJDBCSink having the MySQL dialect and the mysql_ prefixed
+ * configuration parameters (mysql_host, mysql_port, mysql_username, mysql_password, mysql_max_idle_connections), thus
+ * the MySQL design for this sink is:
+ *  - There is a database per fiware-service, being its name:
+ *    <fiware-service>
+ *  - Each destination has its data stored in a specific table within the database, being its name:
+ *    <fiware-servicePath>_<destination>
  *  - Each event data is stored in the appropriate table as a new row, having each row the following fields:
- *    recvTimeTs, recvTime, entityId, entityType, attrName, attrType, attrValue
+ *    recvTimeTs, recvTime, entityId, entityType, attrName, attrType, attrValue, attrMd
  * 
- * As can be seen, a table is created per each entity, containing all the historical values this entity's attributes
- * have had.
+ * In the per column mode, the table has a column per attribute and metadata, and the columns are added as soon as new
+ * attributes are notified. Alternatively (attr_persistence=last), only the current value of each entity's attribute is
+ * kept, in a table named <table>_last having entityId and attrName as primary key.
  * 
- * It is important to note that certain degree of reliability is achieved by using a rolling back mechanism in the
- * channel, i.e. an event is not removed from the channel until it is not appropriately persisted.
+ * The rows are buffered during a batch and inserted, when the batch is flushed, in a single batch per table; the
+ * events of the rows rejected because of bad data are written to the dead letter file.
+ * 
+ * Additionally, the row-like tables may be time partitioned by day or month (partitioning=day|month), having typed
+ * columns and an index on (entityId, recvTimeTs). The partitions are created ahead of time and dropped after a
+ * retention period in background.
  */
-public class OrionMySQLSink extends OrionSink {
+public class OrionMySQLSink extends OrionJDBCSink {
     
     private Logger logger;
-    private String mysqlHost;
-    private String mysqlPort;
-    private String mysqlUsername;
-    private String mysqlPassword;
-    private boolean rowAttrPersistence;
-    private MySQLBackend persistenceBackend;
+    private String partitioning;
+    private int partitioningAhead;
+    private int partitioningRetention;
+    private long partitioningCheckInterval;
     
     /**
      * Constructor.
      */
     public OrionMySQLSink() {
-        super();
+        super("mysql_", new MySQLDialect());
         logger = CygnusLogger.getLogger(OrionMySQLSink.class);
     } // OrionMySQLSink
     
@@ -74,7 +73,7 @@ public class OrionMySQLSink extends OrionSink {
      * @return The MySQL host
      */
     protected String getMySQLHost() {
-        return mysqlHost;
+        return getJDBCHost();
     } // getMySQLHost
     
     /**
@@ -82,7 +81,7 @@ public class OrionMySQLSink extends OrionSink {
      * @return The MySQL port
      */
     protected String getMySQLPort() {
-        return mysqlPort;
+        return getJDBCPort();
     } // getMySQLPort
     
     /**
@@ -90,7 +89,7 @@ public class OrionMySQLSink extends OrionSink {
      * @return The MySQL username
      */
     protected String getMySQLUsername() {
-        return mysqlUsername;
+        return getJDBCUsername();
     } // getMySQLUsername
     
     /**
@@ -98,195 +97,68 @@ public class OrionMySQLSink extends OrionSink {
      * @return The MySQL password
      */
     protected String getMySQLPassword() {
-        return mysqlPassword;
+        return getJDBCPassword();
     } // getMySQLPassword
     
     /**
-     * Returns if the attribute persistence is row-based. It is protected due to it is only required for testing
-     * purposes.
-     * @return True if the attribute persistence is row-based, false otherwise
-     */
-    protected boolean getRowAttrPersistence() {
-        return rowAttrPersistence;
-    } // getRowAttrPersistence
-
-    /**
-     * Returns the persistence backend. It is protected due to it is only required for testing purposes.
-     * @return The persistence backend
-     */
-    protected MySQLBackend getPersistenceBackend() {
-        return persistenceBackend;
-    } // getPersistenceBackend
-    
-    /**
-     * Sets the persistence backend. It is protected due to it is only required for testing purposes.
-     * @param persistenceBackend
+     * Gets the partitioning of the row-like tables. It is protected due to it is only required for testing purposes.
+     * @return The partitioning of the row-like tables
      */
-    protected void setPersistenceBackend(MySQLBackend persistenceBackend) {
-        this.persistenceBackend = persistenceBackend;
-    } // setPersistenceBackend
+    protected String getPartitioning() {
+        return partitioning;
+    } // getPartitioning
     
     @Override
     public void configure(Context context) {
-        mysqlHost = context.getString("mysql_host", "localhost");
-        logger.debug("[" + this.getName() + "] Reading configuration (mysql_host=" + mysqlHost + ")");
-        mysqlPort = context.getString("mysql_port", "3306");
-        logger.debug("[" + this.getName() + "] Reading configuration (mysql_port=" + mysqlPort + ")");
-        mysqlUsername = context.getString("mysql_username", "opendata");
-        logger.debug("[" + this.getName() + "] Reading configuration (mysql_username=" + mysqlUsername + ")");
-        // FIXME: cosmosPassword should be read as a SHA1 and decoded here
-        mysqlPassword = context.getString("mysql_password", "unknown");
-        logger.debug("[" + this.getName() + "] Reading configuration (mysql_password=" + mysqlPassword + ")");
-        rowAttrPersistence = context.getString("attr_persistence", "row").equals("row");
-        logger.debug("[" + this.getName() + "] Reading configuration (attr_persistence="
-                + (rowAttrPersistence ? "row" : "column") + ")");
-    } // configure
-
-    @Override
-    public void start() {
-        // create the persistence backend
-        logger.debug("[" + this.getName() + "] MySQL persistence backend created");
-        persistenceBackend = new MySQLBackend(mysqlHost, mysqlPort, mysqlUsername, mysqlPassword);
-        super.start();
-        logger.info("[" + this.getName() + "] Startup completed");
-    } // start
-
-    @Override
-    void persist(Map<String, String> eventHeaders, NotifyContextRequest notification) throws Exception {
-        // get some header values
-        Long recvTimeTs = new Long(eventHeaders.get("timestamp")).longValue();
-        String fiwareService = eventHeaders.get(Constants.HEADER_SERVICE);
-        String fiwareServicePath = eventHeaders.get(Constants.HEADER_SERVICE_PATH);
-        String[] destinations = eventHeaders.get(Constants.DESTINATION).split(",");
-
-        // human readable version of the reception time
-        String recvTime = new Timestamp(recvTimeTs).toString().replaceAll(" ", "T");
-
-        // create the database for this fiwareService if not yet existing... the cost of trying to create it is the same
-        // than checking if it exits and then creating it
-        String dbName = buildDbName(fiwareService);
+        super.configure(context);
+        partitioning = context.getString("partitioning", "none");
         
-        // the database can be automatically created both in the per-column or per-row mode; anyway, it has no sense to
-        // create it in the per-column mode because there will not be any table within the database
-        if (rowAttrPersistence) {
-            persistenceBackend.createDatabase(dbName);
-        } // if
+        if (!partitioning.equals("none") && !partitioning.equals("day") && !partitioning.equals("month")) {
+            logger.error("[" + this.getName() + "] Bad configuration (Unrecognized partitioning " + partitioning
+                    + ")");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } else {
+            logger.debug("[" + this.getName() + "] Reading configuration (partitioning=" + partitioning + ")");
+        } // if else
         
-        // iterate on the contextResponses
-        ArrayList contextResponses = notification.getContextResponses();
+        if (!partitioning.equals("none") && !getRowAttrPersistence()) {
+            logger.warn("[" + this.getName() + "] Only the row-like tables are partitioned, the partitioning is "
+                    + "ignored (attr_persistence=column)");
+        } // if
         
-        for (int i = 0; i < contextResponses.size(); i++) {
-            // get the i-th contextElement
-            ContextElementResponse contextElementResponse = (ContextElementResponse) contextResponses.get(i);
-            ContextElement contextElement = contextElementResponse.getContextElement();
-            String entityId = contextElement.getId();
-            String entityType = contextElement.getType();
-            logger.debug("[" + this.getName() + "] Processing context element (id=" + entityId + ", type= "
-                    + entityType + ")");
-            
-            // build the table name
-            String tableName = buildTableName(fiwareServicePath, destinations[i]);
-            
-            // if the attribute persistence is based in rows, create the table where the data will be persisted, since
-            // these tables are fixed 7-field row ones; otherwise, the size of the table is unknown and cannot be
-            // created in execution time, it must be previously provisioned
-            if (rowAttrPersistence) {
-                // create the table for this entity if not existing yet... the cost of trying yo create it is the same
-                // than checking if it exits and then creating it
-                persistenceBackend.createTable(dbName, tableName);
-            } // if
-            
-            // iterate on all this entity's attributes, if there are attributes
-            ArrayList<ContextAttribute> contextAttributes = contextElement.getAttributes();
-            
-            if (contextAttributes == null || contextAttributes.isEmpty()) {
-                logger.warn("No attributes within the notified entity, nothing is done (id=" + entityId + ", type="
-                        + entityType + ")");
-                continue;
-            } // if
-            
-            // this is used for storing the attribute's names and values when dealing with a per column attributes
-            // persistence; in that case the persistence is not done attribute per attribute, but persisting all of them
-            // at the same time
-            HashMap<String, String> attrs = new HashMap<String, String>();
-            
-            // this is used for storing the attribute's names (sufixed with "-md") and metadata when dealing with a per
-            // column attributes persistence; in that case the persistence is not done attribute per attribute, but
-            // persisting all of them at the same time
-            HashMap<String, String> mds = new HashMap<String, String>();
-
-            for (ContextAttribute contextAttribute : contextAttributes) {
-                String attrName = contextAttribute.getName();
-                String attrType = contextAttribute.getType();
-                String attrValue = contextAttribute.getContextValue(false);
-                String attrMetadata = contextAttribute.getContextMetadata();
-                logger.debug("[" + this.getName() + "] Processing context attribute (name=" + attrName + ", type="
-                        + attrType + ")");
-                
-                if (rowAttrPersistence) {
-                    logger.info("[" + this.getName() + "] Persisting data at OrionMySQLSink. Database: " + dbName
-                            + ", Table: " + tableName + ", Data: " + recvTimeTs / 1000 + "," + recvTime + ","
-                            + entityId + "," + entityType + "," + attrName + "," + entityType + "," + attrValue + ","
-                            + attrMetadata);
-                    persistenceBackend.insertContextData(dbName, tableName, recvTimeTs / 1000, recvTime,
-                            entityId, entityType, attrName, attrType, attrValue, attrMetadata);
-                } else {
-                    attrs.put(attrName, attrValue);
-                    mds.put(attrName + "_md", attrMetadata);
-                } // if else
-            } // for
-            
-            // if the attribute persistence mode is per column, now is the time to insert a new row containing full
-            // attribute list of attrName-values.
-            if (!rowAttrPersistence) {
-                logger.info("[" + this.getName() + "] Persisting data at OrionMySQLSink. Database: " + dbName
-                        + ", Table: " + tableName + ", Timestamp: " + recvTime + ", Data (attrs): " + attrs.toString()
-                        + ", (metadata): " + mds.toString());
-                persistenceBackend.insertContextData(dbName, tableName, recvTime, attrs, mds);
-            } // if
-        } // for
-    } // persist
+        partitioningAhead = context.getInteger("partitioning.ahead", 3);
+        logger.debug("[" + this.getName() + "] Reading configuration (partitioning.ahead=" + partitioningAhead + ")");
+        partitioningRetention = context.getInteger("partitioning.retention", 0);
+        logger.debug("[" + this.getName() + "] Reading configuration (partitioning.retention="
+                + partitioningRetention + ")");
+        partitioningCheckInterval = context.getLong("partitioning.check_interval", 3600L);
+        logger.debug("[" + this.getName() + "] Reading configuration (partitioning.check_interval="
+                + partitioningCheckInterval + ")");
+    } // configure
     
     /**
-     * Builds a database name given a fiwareService. It throws an exception if the naming conventions are violated.
-     * @param fiwareService
-     * @return
-     * @throws Exception
+     * Creates a MySQL persistence backend, partitioning the row-like tables if configured.
+     * @param dialect
+     * @param host
+     * @param port
+     * @param database Not used, since the schemas are MySQL databases
+     * @param username
+     * @param password
+     * @param maxIdleConnections
+     * @return The persistence backend
      */
-    private String buildDbName(String fiwareService) throws Exception {
-        String dbName = fiwareService;
+    @Override
+    protected JDBCBackend createPersistenceBackend(SQLDialect dialect, String host, String port, String database,
+            String username, String password, int maxIdleConnections) {
+        MySQLBackend backend = new MySQLBackend(host, port, username, password, maxIdleConnections);
         
-        if (dbName.length() > Constants.MAX_NAME_LEN) {
-            throw new CygnusBadConfiguration("Building dbName=fiwareService (" + dbName + ") and its length is greater "
-                    + "than " + Constants.MAX_NAME_LEN);
+        if (!partitioning.equals("none") && getRowAttrPersistence()) {
+            backend.setPartitioning(new MySQLPartitioning(partitioning, partitioningAhead, partitioningRetention),
+                    partitioningCheckInterval * 1000);
         } // if
         
-        return dbName;
-    } // buildDbName
+        return backend;
+    } // createPersistenceBackend
     
-    /**
-     * Builds a package name given a fiwareServicePath and a destination. It throws an exception if the naming
-     * conventions are violated.
-     * @param fiwareServicePath
-     * @param destination
-     * @return
-     * @throws Exception
-     */
-    private String buildTableName(String fiwareServicePath, String destination) throws Exception {
-        String tableName;
-                
-        if (fiwareServicePath.length() == 0) {
-            tableName = destination;
-        } else {
-            tableName = fiwareServicePath + '_' + destination;
-        } // if else
-
-        if (tableName.length() > Constants.MAX_NAME_LEN) {
-            throw new CygnusBadConfiguration("Building tableName=fiwareServicePath + '_' + destination (" + tableName
-                    + ") and its length is greater than " + Constants.MAX_NAME_LEN);
-        } // if
-        
-        return tableName;
-    } // buildTableName
-
-} // OrionMySQLSink
\ No newline at end of file
+} // OrionMySQLSink
@@ -19,23 +19,40 @@
 package es.tid.fiware.fiwareconnectors.cygnus.sinks;
 
 import com.google.gson.Gson;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.CircuitBreaker;
+import es.tid.fiware.fiwareconnectors.cygnus.log.CygnusLogger;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequestSAXHandler;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
 import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRuntimeError;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Histogram;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Meter;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.MetricsRegistry;
 import java.util.Map;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import es.tid.fiware.fiwareconnectors.cygnus.metrics.Gauge;
+import java.io.File;
+import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import org.apache.flume.Channel;
+import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.Sink.Status;
 import org.apache.flume.Transaction;
 import org.apache.flume.conf.Configurable;
+import org.apache.flume.lifecycle.LifecycleState;
 import org.apache.flume.sink.AbstractSink;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
@@ -48,19 +65,75 @@ import org.xml.sax.InputSource;
  * Abstract class containing the common code to all the sinks persisting data comming from Orion Context Broker.
  * 
  * The common attributes are:
- *  - there is no common attributes
+ *  - batch_size, the maximum number of events persisted within the same Flume transaction
+ *  - batch_timeout, the maximum number of seconds a not full batch waits for more events
+ *  - spill_dir, the directory where the events are spilled when the backend is down (by default, not spilled)
+ *  - spill_retries, spill_max_size, spill_segment_size, spill_sync and spill_replay_interval, tuning the spilling
+ *  - circuit_breaker.failure_threshold, circuit_breaker.initial_backoff and circuit_breaker.max_backoff, tuning the
+ *    circuit breaker of the backend
+ *  - dead_letter_file, the file where the events discarded because of bad context data or bad configuration are
+ *    written (by default, not written); dead_letter_max_size and dead_letter_max_files, tuning its rolling
  * The common methods are:
  *  - void stop()
  *  - Status process() throws EventDeliveryException
  *  - void persist(Event event) throws Exception
  * The non common parts, and therefore those that are sink dependant and must be implemented are:
- *  - void configure(Context context)
+ *  - void configure(Context context), invoking super.configure(context)
  *  - void start()
  *  - void persist(Map<String, String> eventHeaders, NotifyContextRequest notification) throws Exception
+ * Optionally, void flush() and void discard() can be overridden by the sinks buffering data while persisting a batch;
+ * such sinks may reject the events whose buffered data is rejected by the backend when flushing (see getCurrentEvent
+ * and reject), which are written to the dead letter file instead of retrying the whole batch.
+ * 
+ * When persisting a batch, a persistence error puts the whole batch again in the channel, thus the events already
+ * persisted within that batch will be persisted again (at least once semantics).
+ * 
+ * If spilling is enabled, a batch failing spill_retries consecutive times (or containing an event whose TTL has
+ * expired) is moved from the channel to a local SpillStore instead of being put again in the channel. While the store
+ * is not empty, the events within the channel are spilled as well, and the persistence of the spilled events is
+ * retried once per spill_replay_interval; once the backend recovers, the spilled events are persisted in the same
+ * order they were spilled, before any other event within the channel. A failed replay consumes the TTL of the replayed
+ * events as if they were put again in the channel, thus the events whose TTL expires are removed from the store.
+ * 
+ * The persistence errors are notified to the CircuitBreaker of the backend (see getBackendId). While the breaker is
+ * open, the backend is not used: the events are kept in the channel, or spilled if spilling is enabled.
  */
 public abstract class OrionSink extends AbstractSink implements Configurable {
 
+    // the running sinks, in order they can be controlled through the management interface
+    private static final CopyOnWriteArraySet<OrionSink> INSTANCES = new CopyOnWriteArraySet<OrionSink>();
+    
+    // a not full batch checks the channel for new events once per this interval
+    private static final long EMPTY_CHANNEL_WAIT_MS = 100;
+    
     private Logger logger;
+    private SinkMetrics sinkMetrics;
+    private volatile int batchSize;
+    private volatile int batchTimeout;
+    private volatile boolean paused;
+    private final AtomicLong flushRequests;
+    private volatile long completedFlushRequests;
+    private String spillDir;
+    private int spillRetries;
+    private long spillMaxSize;
+    private long spillSegmentSize;
+    private boolean spillSync;
+    private int spillReplayInterval;
+    private SpillStore spillStore;
+    private int consecutiveFailures;
+    private long nextReplay;
+    // failed replays of the oldest spilled events, whose TTL is consumed in memory since the store is append only
+    private int spillReplayFailures;
+    private int circuitBreakerThreshold;
+    private int circuitBreakerInitialBackoff;
+    private int circuitBreakerMaxBackoff;
+    private CircuitBreaker circuitBreaker;
+    private String deadLetterPath;
+    private long deadLetterMaxSize;
+    private int deadLetterMaxFiles;
+    private DeadLetterFile deadLetterFile;
+    private Event currentEvent;
+    private final IdentityHashMap<Event, Exception> rejectedEvents;
 
     /**
      * Constructor.
@@ -71,19 +144,260 @@ public abstract class OrionSink extends AbstractSink implements Configurable {
 
         // create a logger
         logger = Logger.getLogger(OrionSink.class);
+        
+        // by default, events are persisted one by one
+        batchSize = 1;
+        batchTimeout = 30;
+        paused = false;
+        flushRequests = new AtomicLong(0);
+        completedFlushRequests = 0;
+        circuitBreakerThreshold = 5;
+        circuitBreakerInitialBackoff = 1;
+        circuitBreakerMaxBackoff = 60;
+        rejectedEvents = new IdentityHashMap<Event, Exception>();
     } // OrionSink
 
     @Override
-    public void stop() {
+    public synchronized void start() {
+        circuitBreaker = CircuitBreaker.getInstance(getBackendId(), circuitBreakerThreshold,
+                circuitBreakerInitialBackoff * 1000L, circuitBreakerMaxBackoff * 1000L);
+        
+        if (deadLetterPath != null) {
+            try {
+                deadLetterFile = DeadLetterFile.getInstance(deadLetterPath, deadLetterMaxSize * 1024 * 1024,
+                        deadLetterMaxFiles);
+            } catch (IOException e) {
+                logger.error("[" + this.getName() + "] The dead letter file could not be opened, the discarded events "
+                        + "will not be written (details=" + e.getMessage() + ")");
+            } // try catch
+        } // if
+        
+        if (spillDir != null) {
+            try {
+                spillStore = new SpillStore(new File(spillDir, getName()), spillSegmentSize * 1024 * 1024,
+                        spillMaxSize * 1024 * 1024, spillSync);
+                registerSpillGauges();
+            } catch (IOException e) {
+                logger.error("[" + this.getName() + "] The spill store could not be opened, the events will not be "
+                        + "spilled (details=" + e.getMessage() + ")");
+            } // try catch
+        } // if
+        
+        INSTANCES.add(this);
+        super.start();
+    } // start
+
+    @Override
+    public synchronized void stop() {
+        INSTANCES.remove(this);
         super.stop();
+        
+        if (spillStore != null) {
+            try {
+                spillStore.close();
+            } catch (IOException e) {
+                logger.error("[" + this.getName() + "] The spill store could not be closed (details="
+                        + e.getMessage() + ")");
+            } // try catch
+            
+            spillStore = null;
+        } // if
     } // stop
+    
+    @Override
+    public void configure(Context context) {
+        batchSize = Math.max(1, context.getInteger("batch_size", 1));
+        logger.debug("[" + this.getName() + "] Reading configuration (batch_size=" + batchSize + ")");
+        batchTimeout = Math.max(0, context.getInteger("batch_timeout", 30));
+        logger.debug("[" + this.getName() + "] Reading configuration (batch_timeout=" + batchTimeout + ")");
+        spillDir = context.getString("spill_dir");
+        
+        if (spillDir != null && spillDir.trim().length() == 0) {
+            spillDir = null;
+        } // if
+        
+        logger.debug("[" + this.getName() + "] Reading configuration (spill_dir=" + spillDir + ")");
+        spillRetries = Math.max(1, context.getInteger("spill_retries", 3));
+        logger.debug("[" + this.getName() + "] Reading configuration (spill_retries=" + spillRetries + ")");
+        spillMaxSize = Math.max(1, context.getLong("spill_max_size", 1024L));
+        logger.debug("[" + this.getName() + "] Reading configuration (spill_max_size=" + spillMaxSize + ")");
+        spillSegmentSize = Math.max(1, context.getLong("spill_segment_size", 64L));
+        logger.debug("[" + this.getName() + "] Reading configuration (spill_segment_size=" + spillSegmentSize + ")");
+        spillSync = context.getBoolean("spill_sync", false);
+        logger.debug("[" + this.getName() + "] Reading configuration (spill_sync=" + spillSync + ")");
+        spillReplayInterval = Math.max(0, context.getInteger("spill_replay_interval", 30));
+        logger.debug("[" + this.getName() + "] Reading configuration (spill_replay_interval=" + spillReplayInterval
+                + ")");
+        circuitBreakerThreshold = context.getInteger("circuit_breaker.failure_threshold", 5);
+        logger.debug("[" + this.getName() + "] Reading configuration (circuit_breaker.failure_threshold="
+                + circuitBreakerThreshold + ")");
+        circuitBreakerInitialBackoff = Math.max(1, context.getInteger("circuit_breaker.initial_backoff", 1));
+        logger.debug("[" + this.getName() + "] Reading configuration (circuit_breaker.initial_backoff="
+                + circuitBreakerInitialBackoff + ")");
+        circuitBreakerMaxBackoff = Math.max(1, context.getInteger("circuit_breaker.max_backoff", 60));
+        logger.debug("[" + this.getName() + "] Reading configuration (circuit_breaker.max_backoff="
+                + circuitBreakerMaxBackoff + ")");
+        deadLetterPath = context.getString("dead_letter_file");
+        
+        if (deadLetterPath != null && deadLetterPath.trim().length() == 0) {
+            deadLetterPath = null;
+        } // if
+        
+        logger.debug("[" + this.getName() + "] Reading configuration (dead_letter_file=" + deadLetterPath + ")");
+        deadLetterMaxSize = Math.max(1, context.getLong("dead_letter_max_size", 100L));
+        logger.debug("[" + this.getName() + "] Reading configuration (dead_letter_max_size=" + deadLetterMaxSize
+                + ")");
+        deadLetterMaxFiles = Math.max(0, context.getInteger("dead_letter_max_files", 5));
+        logger.debug("[" + this.getName() + "] Reading configuration (dead_letter_max_files=" + deadLetterMaxFiles
+                + ")");
+    } // configure
+    
+    /**
+     * Gets the identifier of the backend the sink persists in, e.g. its type, host and port. The sinks persisting
+     * in the same backend share the same circuit breaker. By default, each sink has its own one.
+     * @return The identifier of the backend the sink persists in
+     */
+    protected String getBackendId() {
+        return String.valueOf(getName());
+    } // getBackendId
+    
+    /**
+     * Gets the circuit breaker of the backend the sink persists in.
+     * @return The circuit breaker of the backend the sink persists in, null if the sink is not started
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    } // getCircuitBreaker
+    
+    /**
+     * Gets the running sink having the given name.
+     * @param name
+     * @return The running sink having the given name, or null if not existing
+     */
+    public static OrionSink getInstance(String name) {
+        for (OrionSink sink : INSTANCES) {
+            if (name.equals(sink.getName())) {
+                return sink;
+            } // if
+        } // for
+        
+        return null;
+    } // getInstance
+    
+    /**
+     * Gets all the running sinks.
+     * @return All the running sinks
+     */
+    public static Set<OrionSink> getInstances() {
+        return Collections.unmodifiableSet(INSTANCES);
+    } // getInstances
+    
+    /**
+     * Gets the maximum number of events persisted within the same Flume transaction.
+     * @return The maximum number of events persisted within the same Flume transaction
+     */
+    public int getBatchSize() {
+        return batchSize;
+    } // getBatchSize
+    
+    /**
+     * Sets the maximum number of events persisted within the same Flume transaction. It can be changed at runtime,
+     * but it must not be greater than the transaction capacity of the channel.
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        logger.info("[" + this.getName() + "] Batch size changed (batch_size=" + this.batchSize + ")");
+    } // setBatchSize
+    
+    /**
+     * Gets the maximum number of seconds a not full batch waits for more events before being persisted.
+     * @return The maximum number of seconds a not full batch waits for more events before being persisted
+     */
+    public int getBatchTimeout() {
+        return batchTimeout;
+    } // getBatchTimeout
+    
+    /**
+     * Sets the maximum number of seconds a not full batch waits for more events before being persisted. It can be
+     * changed at runtime.
+     * @param batchTimeout
+     */
+    public void setBatchTimeout(int batchTimeout) {
+        this.batchTimeout = Math.max(0, batchTimeout);
+        logger.info("[" + this.getName() + "] Batch timeout changed (batch_timeout=" + this.batchTimeout + ")");
+    } // setBatchTimeout
+    
+    /**
+     * Gets if the sink is paused.
+     * @return True if the sink is paused, false otherwise
+     */
+    public boolean isPaused() {
+        return paused;
+    } // isPaused
+    
+    /**
+     * Pauses or resumes the sink. A paused sink does not take events from its channel, thus they are kept there
+     * (and accumulate) until the sink is resumed. The batch being persisted when pausing is finished.
+     * @param paused
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        logger.info("[" + this.getName() + "] Sink " + (paused ? "paused" : "resumed"));
+    } // setPaused
+    
+    /**
+     * Asks the sink to persist the batch being accumulated right now, without waiting for it to be full or for the
+     * batch timeout.
+     * @return The flush request number, to be given to isFlushed
+     */
+    public long requestFlush() {
+        return flushRequests.incrementAndGet();
+    } // requestFlush
+    
+    /**
+     * Gets if a flush request has been completed, i.e. all the events taken from the channel before the request
+     * have been either persisted and committed or given back to the channel.
+     * @param flushRequest
+     * @return True if the flush request has been completed, false otherwise
+     */
+    public boolean isFlushed(long flushRequest) {
+        return completedFlushRequests >= flushRequest || getLifecycleState() != LifecycleState.START;
+    } // isFlushed
 
     @Override
     public Status process() throws EventDeliveryException {
+        // any flush request made before this point is completed once this batch is finished
+        long flushRequest = flushRequests.get();
+        
+        try {
+            if (paused) {
+                return Status.BACKOFF;
+            } // if
+            
+            return processBatch(flushRequest);
+        } finally {
+            completedFlushRequests = flushRequest;
+        } // try finally
+    } // process
+    
+    private Status processBatch(long flushRequest) throws EventDeliveryException {
+        boolean backendAvailable = circuitBreaker.allowRequest();
+        
+        // the spilled events are persisted before any event within the channel, keeping the order
+        if (spillStore != null && !spillStore.isEmpty()) {
+            return processSpilled(backendAvailable);
+        } // if
+        
+        // while the circuit breaker is open, the backend is not even tried
+        if (!backendAvailable) {
+            return spillStore == null ? Status.BACKOFF : spillChannel(getSinkMetrics());
+        } // if
+        
         Status status = null;
         Channel ch = null;
         Transaction txn = null;
-        Event event = null;
+        ArrayList<Event> batch = new ArrayList<Event>();
 
         try {
             // get the channel
@@ -103,93 +417,694 @@ public abstract class OrionSink extends AbstractSink implements Configurable {
         } // try catch
 
         try {
-            // get the event
-            event = ch.take();
+            // get the events; if the channel becomes empty, a not full batch waits for more events until the batch
+            // timeout expires, a flush is requested or the sink is paused
+            long deadline = 0;
+            int currentBatchSize = batchSize;
+            
+            while (batch.size() < currentBatchSize) {
+                Event event = ch.take();
+                
+                if (event != null) {
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + batchTimeout * 1000L;
+                    } // if
+                    
+                    batch.add(event);
+                    continue;
+                } // if
+                
+                if (batch.isEmpty() || paused || flushRequests.get() != flushRequest
+                        || System.currentTimeMillis() >= deadline) {
+                    break;
+                } // if
+                
+                try {
+                    Thread.sleep(EMPTY_CHANNEL_WAIT_MS);
+                } catch (InterruptedException e) {
+                    // the sink is being stopped, persist what has been got
+                    Thread.currentThread().interrupt();
+                    break;
+                } // try catch
+            } // while
 
-            if (event == null) {
+            if (batch.isEmpty()) {
                 txn.commit();
                 txn.close();
+                circuitBreaker.onNotUsed();
                 return Status.READY;
             } // if
         } catch (Exception e) {
             logger.error("Channel error (The event could not be got. Details=" + e.getMessage() + ")");
+            txn.rollback();
+            txn.close();
+            circuitBreaker.onNotUsed();
             throw new EventDeliveryException(e);
         } // try catch
 
-        try {
-            // set the transactionId in MDC
-            MDC.put(Constants.HEADER_TRANSACTION_ID, event.getHeaders().get(Constants.HEADER_TRANSACTION_ID));
-        } catch (Exception e) {
-            logger.error("Runtime error (" + e.getMessage() + ")");
-        } // catch
-
-        logger.info("Event got from the channel (id=" + event.hashCode() + ", headers=" + event.getHeaders().toString()
-                + ", bodyLength=" + event.getBody().length + ")");
+        SinkMetrics metrics = getSinkMetrics();
+        int expired = 0;
+        int discarded = 0;
+        int deadLettered = 0;
+        boolean backendFailed = false;
+        ArrayList<Event> persistedEvents = new ArrayList<Event>();
+        rejectedEvents.clear();
 
         try {
-            // persist the event
-            persist(event);
+            for (int i = 0; i < batch.size(); i++) {
+                Event event = batch.get(i);
+                
+                try {
+                    // set the transactionId in MDC
+                    MDC.put(Constants.HEADER_TRANSACTION_ID,
+                            event.getHeaders().get(Constants.HEADER_TRANSACTION_ID));
+                } catch (Exception e) {
+                    logger.error("Runtime error (" + e.getMessage() + ")");
+                } // catch
 
-            // the transaction has succeded
-            txn.commit();
-            status = Status.READY;
-        } catch (Exception e) {
-            // rollback only if the exception is about a persistence error
-            if (e instanceof CygnusPersistenceError) {
-                logger.error(e.getMessage());
+                CygnusLogger.logEventInfo(logger, "Event got from the channel (id={}, headers={}, bodyLength={})",
+                        event.hashCode(), event.getHeaders(), event.getBody().length);
+                long start = System.nanoTime();
 
-                // check the event HEADER_TTL
-                int ttl;
-                String ttlStr = event.getHeaders().get(Constants.HEADER_TTL);
-                
                 try {
-                    ttl = Integer.parseInt(ttlStr);
-                } catch (NumberFormatException nfe) {
-                    ttl = 0;
-                    logger.error("Invalid TTL value (id=" + event.hashCode() + ", ttl=" + ttlStr
-                          +  ", " + nfe.getMessage() + ")");
+                    // persist the event
+                    persist(event);
+                    metrics.persistLatency.recordSince(start);
+                    persistedEvents.add(event);
+                } catch (Exception e) {
+                    metrics.persistLatency.recordSince(start);
+                    metrics.error(e);
+
+                    // rollback only if the exception is about a persistence error
+                    if (e instanceof CygnusPersistenceError) {
+                        logger.error(e.getMessage());
+                        circuitBreaker.onFailure();
+                        backendFailed = true;
+                        
+                        // the whole batch is retried, thus the TTL of all its events is decremented
+                        boolean batchExpired = decrementTTL(batch);
+
+                        // instead of being put again in the channel, the batch may be spilled; the batch is not
+                        // flushed, anything buffered will be buffered again when replaying it
+                        if (spill(batch, batchExpired, metrics)) {
+                            discard();
+                            txn.commit();
+                            return Status.BACKOFF;
+                        } // if
+
+                        // the backend is failing, thus the rest of the batch is not even tried; the events already
+                        // persisted are flushed below
+                        if (batchExpired) {
+                            logger.warn("The events TTL has expired, they are no more re-injected in the channel "
+                                    + "(numEvents=" + (batch.size() - i) + ", ttl=0)");
+                            expired = batch.size() - i;
+                            break;
+                        } // if
+                        
+                        // the whole batch is put again in the channel, anything buffered will be buffered again
+                        discard();
+                        txn.rollback();
+                        metrics.retriedEvents.mark(batch.size());
+                        CygnusLogger.logEventInfo(logger, "The batch was put again in the channel (batchSize={})",
+                                batch.size());
+                        return Status.BACKOFF;
+                    } else {
+                        if (e instanceof CygnusRuntimeError) {
+                            logger.error(e.getMessage());
+                        } else if (e instanceof CygnusBadConfiguration) {
+                            logger.warn(e.getMessage());
+                        } else if (e instanceof CygnusBadContextData) {
+                            logger.warn(e.getMessage());
+                        } else {
+                            logger.warn(e.getMessage());
+                        } // if else if
+
+                        if (deadLetter(event, e)) {
+                            deadLettered++;
+                        } else {
+                            discarded++;
+                        } // if else
+                    } // if else
                 } // try catch
+            } // for
+            
+            try {
+                // persist anything the sink may have buffered
+                flush();
+            } catch (Exception e) {
+                metrics.error(e);
+                rejectedEvents.clear();
                 
-                if (ttl == -1) {
-                    txn.rollback();
-                    status = Status.BACKOFF;
-                    logger.info("An event was put again in the channel (id=" + event.hashCode() + ", ttl=-1)");
-                } else if (ttl == 0) {
-                    logger.warn("The event TTL has expired, it is no more re-injected in the channel (id="
-                            + event.hashCode() + ", ttl=0)");
-                    txn.commit();
-                    status = Status.READY;
+                if (e instanceof CygnusBadContextData || e instanceof CygnusBadConfiguration) {
+                    // retrying the batch would fail again, thus the persisted events are not put again in the channel
+                    logger.warn("The batch could not be flushed because of its data, the persisted events are "
+                            + "discarded (numEvents=" + persistedEvents.size() + ", details=" + e.getMessage() + ")");
+                    
+                    for (Event event : persistedEvents) {
+                        if (deadLetter(event, e)) {
+                            deadLettered++;
+                        } else {
+                            discarded++;
+                        } // if else
+                    } // for
                 } else {
-                    ttl--;
-                    String newTTLStr = Integer.toString(ttl);
-                    event.getHeaders().put(Constants.HEADER_TTL, newTTLStr);
-                    txn.rollback();
-                    status = Status.BACKOFF;
-                    logger.info("An event was put again in the channel (id=" + event.hashCode() + ", ttl=" + ttl + ")");
+                    logger.error("The batch could not be flushed (batchSize=" + batch.size() + ", details="
+                            + e.getMessage() + ")");
+                    circuitBreaker.onFailure();
+                    backendFailed = true;
+                    
+                    // the whole batch is retried, thus the TTL of all its events is decremented
+                    boolean batchExpired = decrementTTL(batch);
+
+                    if (spill(batch, batchExpired, metrics)) {
+                        txn.commit();
+                        return Status.BACKOFF;
+                    } // if
+                    
+                    if (!batchExpired) {
+                        txn.rollback();
+                        metrics.retriedEvents.mark(batch.size());
+                        CygnusLogger.logEventInfo(logger, "The batch was put again in the channel (batchSize={})",
+                                batch.size());
+                        return Status.BACKOFF;
+                    } // if
+                    
+                    logger.warn("The events TTL has expired, they are no more re-injected in the channel (numEvents="
+                            + (batch.size() - discarded - deadLettered) + ", ttl=0)");
+                    expired = batch.size() - discarded - deadLettered;
                 } // if else
-            } else {
-                if (e instanceof CygnusRuntimeError) {
-                    logger.error(e.getMessage());
-                } else if (e instanceof CygnusBadConfiguration) {
-                    logger.warn(e.getMessage());
-                } else if (e instanceof CygnusBadContextData) {
-                    logger.warn(e.getMessage());
+            } // try catch
+            
+            // the events whose buffered data was rejected by the backend are not persisted
+            for (Map.Entry<Event, Exception> rejection : getRejectedEvents(persistedEvents).entrySet()) {
+                if (deadLetter(rejection.getKey(), rejection.getValue())) {
+                    deadLettered++;
                 } else {
-                    logger.warn(e.getMessage());
-                } // if else if
+                    discarded++;
+                } // if else
+            } // for
 
-                txn.commit();
-                status = Status.READY;
-            } // if else
+            // the transaction has succeded
+            txn.commit();
+            
+            if (!backendFailed) {
+                consecutiveFailures = 0;
+                circuitBreaker.onSuccess();
+            } // if
+            
+            metrics.persistedEvents.mark(batch.size() - expired - discarded - deadLettered);
+            metrics.expiredEvents.mark(expired);
+            metrics.discardedEvents.mark(discarded);
+            metrics.deadLetterEvents.mark(deadLettered);
+            metrics.batchSize.record(batch.size());
+            status = Status.READY;
         } finally {
             // close the transaction
             txn.close();
-            logger.info("Finishing transaction (" + MDC.get(Constants.HEADER_TRANSACTION_ID) + ")");
+            CygnusLogger.logEventInfo(logger, "Finishing transaction ({})", MDC.get(Constants.HEADER_TRANSACTION_ID));
         } // try catch finally
 
         return status;
-    } // process
+    } // processBatch
+    
+    /**
+     * Persists a batch of spilled events. If the backend is still down, the events within the channel are spilled
+     * until the replay interval expires and the circuit breaker allows using the backend.
+     * @param backendAvailable
+     * @return The status of the sink
+     * @throws EventDeliveryException
+     */
+    private Status processSpilled(boolean backendAvailable) throws EventDeliveryException {
+        SinkMetrics metrics = getSinkMetrics();
+        
+        if (!backendAvailable || System.currentTimeMillis() < nextReplay) {
+            if (backendAvailable) {
+                circuitBreaker.onNotUsed();
+            } // if
+            
+            return spillChannel(metrics);
+        } // if
+        
+        List<Event> batch;
+        
+        try {
+            batch = spillStore.peek(batchSize);
+        } catch (IOException e) {
+            logger.error("Spill error (The spilled events could not be read. Details=" + e.getMessage() + ")");
+            throw new EventDeliveryException(e);
+        } // try catch
+        
+        int discarded = 0;
+        int deadLettered = 0;
+        ArrayList<Event> persistedEvents = new ArrayList<Event>();
+        rejectedEvents.clear();
+        
+        for (Event event : batch) {
+            String transactionId = event.getHeaders().get(Constants.HEADER_TRANSACTION_ID);
+            
+            if (transactionId != null) {
+                MDC.put(Constants.HEADER_TRANSACTION_ID, transactionId);
+            } // if
+            
+            long start = System.nanoTime();
+            
+            try {
+                persist(event);
+                metrics.persistLatency.recordSince(start);
+                persistedEvents.add(event);
+            } catch (Exception e) {
+                metrics.persistLatency.recordSince(start);
+                metrics.error(e);
+                
+                if (e instanceof CygnusPersistenceError) {
+                    circuitBreaker.onFailure();
+                    logger.error("The spilled events could not be persisted, the backend is still down (spilledEvents="
+                            + spillStore.getNumEvents() + ", details=" + e.getMessage() + ")");
+                    discard();
+                    return failReplay(batch, metrics);
+                } // if
+                
+                logger.warn(e.getMessage());
+                
+                if (deadLetter(event, e)) {
+                    deadLettered++;
+                } else {
+                    discarded++;
+                } // if else
+            } // try catch
+        } // for
+        
+        try {
+            flush();
+        } catch (Exception e) {
+            metrics.error(e);
+            rejectedEvents.clear();
+            
+            if (!(e instanceof CygnusBadContextData || e instanceof CygnusBadConfiguration)) {
+                circuitBreaker.onFailure();
+                logger.error("The spilled events could not be flushed, the backend is still down (spilledEvents="
+                        + spillStore.getNumEvents() + ", details=" + e.getMessage() + ")");
+                return failReplay(batch, metrics);
+            } // if
+            
+            // replaying the spilled events would fail again, thus the persisted events are not replayed
+            logger.warn("The spilled events could not be flushed because of their data, the persisted events are "
+                    + "discarded (numEvents=" + persistedEvents.size() + ", details=" + e.getMessage() + ")");
+            
+            for (Event event : persistedEvents) {
+                if (deadLetter(event, e)) {
+                    deadLettered++;
+                } else {
+                    discarded++;
+                } // if else
+            } // for
+        } // try catch
+        
+        for (Map.Entry<Event, Exception> rejection : getRejectedEvents(persistedEvents).entrySet()) {
+            if (deadLetter(rejection.getKey(), rejection.getValue())) {
+                deadLettered++;
+            } else {
+                discarded++;
+            } // if else
+        } // for
+        
+        try {
+            spillStore.commit();
+        } catch (IOException e) {
+            logger.error("Spill error (The spill checkpoint could not be written. Details=" + e.getMessage() + ")");
+            throw new EventDeliveryException(e);
+        } // try catch
+        
+        spillReplayFailures = 0;
+        consecutiveFailures = 0;
+        circuitBreaker.onSuccess();
+        metrics.persistedEvents.mark(batch.size() - discarded - deadLettered);
+        metrics.discardedEvents.mark(discarded);
+        metrics.deadLetterEvents.mark(deadLettered);
+        metrics.replayedEvents.mark(batch.size());
+        
+        if (spillStore.isEmpty()) {
+            logger.info("[" + this.getName() + "] All the spilled events have been persisted");
+        } // if
+        
+        return Status.READY;
+    } // processSpilled
+    
+    /**
+     * Consumes the TTL of the oldest spilled events after a failed replay, as if they were put again in the channel.
+     * Since the store cannot be modified, the failed replays are counted in memory; once the TTL of any event
+     * expires, the events are removed from the store, and those not expired are appended again with their TTL
+     * decremented.
+     * @param batch
+     * @param metrics
+     * @return BACKOFF, the replay is retried once spill_replay_interval expires
+     * @throws EventDeliveryException
+     */
+    private Status failReplay(List<Event> batch, SinkMetrics metrics) throws EventDeliveryException {
+        nextReplay = System.currentTimeMillis() + spillReplayInterval * 1000L;
+        spillReplayFailures++;
+        ArrayList<Event> notExpired = new ArrayList<Event>();
+        
+        for (Event event : batch) {
+            // a negative TTL means the event is retried forever
+            int ttl = getTTL(event);
+            
+            if (ttl < 0 || ttl >= spillReplayFailures) {
+                notExpired.add(event);
+            } // if
+        } // for
+        
+        if (notExpired.size() == batch.size()) {
+            return Status.BACKOFF;
+        } // if
+        
+        for (Event event : notExpired) {
+            int ttl = getTTL(event);
+            
+            if (ttl > 0) {
+                event.getHeaders().put(Constants.HEADER_TTL, Integer.toString(ttl - spillReplayFailures));
+            } // if
+        } // for
+        
+        try {
+            // appended before removing the batch, thus a crash in between replays the events twice instead of losing
+            // them
+            if (!notExpired.isEmpty() && !spillStore.append(notExpired)) {
+                logger.warn("The spill store is full, the expired spilled events are kept until there is room for the "
+                        + "rest of the batch (batchSize=" + batch.size() + ")");
+                return Status.BACKOFF;
+            } // if
+            
+            spillStore.commit();
+        } catch (IOException e) {
+            logger.error("Spill error (The expired spilled events could not be removed. Details=" + e.getMessage()
+                    + ")");
+            throw new EventDeliveryException(e);
+        } // try catch
+        
+        spillReplayFailures = 0;
+        int expired = batch.size() - notExpired.size();
+        metrics.expiredEvents.mark(expired);
+        logger.warn("The TTL of the spilled events has expired, they are no more replayed (numEvents=" + expired
+                + ", ttl=0)");
+        return Status.BACKOFF;
+    } // failReplay
+    
+    /**
+     * Moves a batch of events from the channel to the spill store, without waiting for the batch to be full.
+     * @param metrics
+     * @return READY if a full batch was spilled, BACKOFF otherwise
+     * @throws EventDeliveryException
+     */
+    private Status spillChannel(SinkMetrics metrics) throws EventDeliveryException {
+        Channel ch = getChannel();
+        Transaction txn = ch.getTransaction();
+        txn.begin();
+        
+        try {
+            ArrayList<Event> batch = new ArrayList<Event>();
+            Event event = batch.size() < batchSize ? ch.take() : null;
+            
+            while (event != null) {
+                batch.add(event);
+                event = batch.size() < batchSize ? ch.take() : null;
+            } // while
+            
+            if (batch.isEmpty()) {
+                txn.commit();
+                return Status.BACKOFF;
+            } // if
+            
+            if (!spillStore.append(batch)) {
+                logger.warn("The spill store is full, the events are kept in the channel (spilledEvents="
+                        + spillStore.getNumEvents() + ")");
+                txn.rollback();
+                return Status.BACKOFF;
+            } // if
+            
+            txn.commit();
+            metrics.spilledEvents.mark(batch.size());
+            return batch.size() == batchSize ? Status.READY : Status.BACKOFF;
+        } catch (Exception e) {
+            logger.error("Spill error (The events could not be spilled. Details=" + e.getMessage() + ")");
+            txn.rollback();
+            throw new EventDeliveryException(e);
+        } finally {
+            txn.close();
+        } // try catch finally
+    } // spillChannel
+    
+    /**
+     * Spills a batch that could not be persisted, if spilling is enabled and the batch has failed spill_retries
+     * consecutive times or it must be spilled anyway.
+     * @param batch
+     * @param force True if the batch must be spilled even if spill_retries has not been reached
+     * @param metrics
+     * @return True if the batch has been spilled, false if it must be put again in the channel
+     */
+    private boolean spill(List<Event> batch, boolean force, SinkMetrics metrics) {
+        consecutiveFailures++;
+        
+        if (spillStore == null || (!force && consecutiveFailures < spillRetries)) {
+            return false;
+        } // if
+        
+        try {
+            if (!spillStore.append(batch)) {
+                logger.warn("The spill store is full, the batch is put again in the channel (batchSize="
+                        + batch.size() + ", spilledEvents=" + spillStore.getNumEvents() + ")");
+                return false;
+            } // if
+        } catch (IOException e) {
+            logger.error("Spill error (The batch could not be spilled, it is put again in the channel. Details="
+                    + e.getMessage() + ")");
+            return false;
+        } // try catch
+        
+        nextReplay = System.currentTimeMillis() + spillReplayInterval * 1000L;
+        metrics.spilledEvents.mark(batch.size());
+        logger.warn("[" + this.getName() + "] The backend seems to be down, the batch has been spilled (batchSize="
+                + batch.size() + ", consecutiveFailures=" + consecutiveFailures + ")");
+        return true;
+    } // spill
+    
+    /**
+     * Writes an event discarded because of bad context data or bad configuration to the dead letter file, if any.
+     * @param event
+     * @param e Exception thrown when persisting the event
+     * @return True if the event has been written, false otherwise
+     */
+    private boolean deadLetter(Event event, Exception e) {
+        if (deadLetterFile == null || !(e instanceof CygnusBadContextData || e instanceof CygnusBadConfiguration)) {
+            return false;
+        } // if
+        
+        try {
+            deadLetterFile.write(String.valueOf(getName()), event, e);
+            return true;
+        } catch (IOException ioe) {
+            logger.error("The discarded event could not be written to the dead letter file (file="
+                    + deadLetterFile.getFile() + ", details=" + ioe.getMessage() + ")");
+            return false;
+        } // try catch
+    } // deadLetter
+    
+    /**
+     * Gets the events rejected by the backend while flushing the current batch, among the given persisted events; an
+     * event failing when persisted has already been discarded, even if part of its data was buffered and rejected.
+     * @param persistedEvents
+     * @return The rejected events, together with the reason of their rejection
+     */
+    private Map<Event, Exception> getRejectedEvents(List<Event> persistedEvents) {
+        IdentityHashMap<Event, Exception> rejected = new IdentityHashMap<Event, Exception>();
+        
+        for (Event event : persistedEvents) {
+            Exception e = rejectedEvents.get(event);
+            
+            if (e != null) {
+                logger.warn(e.getMessage());
+                rejected.put(event, e);
+            } // if
+        } // for
+        
+        rejectedEvents.clear();
+        return rejected;
+    } // getRejectedEvents
+    
+    /**
+     * Decrements the TTL of every event within a batch that could not be persisted, since the whole batch is going to
+     * be retried. Events having an invalid TTL are considered as expired.
+     * @param batch
+     * @return True if the TTL of all the events had already expired, false otherwise
+     */
+    private boolean decrementTTL(List<Event> batch) {
+        boolean batchExpired = true;
+        
+        for (Event event : batch) {
+            int ttl = getTTL(event);
+            
+            if (ttl == 0) {
+                continue;
+            } // if
+            
+            // a negative TTL means the event is retried forever
+            batchExpired = false;
+            
+            if (ttl > 0) {
+                event.getHeaders().put(Constants.HEADER_TTL, Integer.toString(ttl - 1));
+            } // if
+        } // for
+        
+        return batchExpired;
+    } // decrementTTL
+    
+    /**
+     * Gets the TTL of an event. An invalid TTL is considered as expired.
+     * @param event
+     * @return The TTL of the event, 0 if invalid
+     */
+    private int getTTL(Event event) {
+        String ttlStr = event.getHeaders().get(Constants.HEADER_TTL);
+        
+        try {
+            return Integer.parseInt(ttlStr);
+        } catch (NumberFormatException nfe) {
+            logger.error("Invalid TTL value (id=" + event.hashCode() + ", ttl=" + ttlStr + ", " + nfe.getMessage()
+                    + ")");
+            return 0;
+        } // try catch
+    } // getTTL
+    
+    private void registerSpillGauges() {
+        final SpillStore store = spillStore;
+        MetricsRegistry.getInstance().register(new Gauge("cygnus_sink_spilled_events", "Events within the spill store",
+                "sink", String.valueOf(getName())) {
+            
+            @Override
+            public double getValue() {
+                return store.getNumEvents();
+            } // getValue
+            
+        });
+        MetricsRegistry.getInstance().register(new Gauge("cygnus_sink_spill_bytes", "Size of the spill store files",
+                "sink", String.valueOf(getName())) {
+            
+            @Override
+            public double getValue() {
+                return store.getBytes();
+            } // getValue
+            
+        });
+    } // registerSpillGauges
+    
+    /**
+     * Persists anything the sink may have buffered while persisting the events of the current batch. It is invoked
+     * once per batch, before committing the Flume transaction; if it fails because of bad context data or bad
+     * configuration, the persisted events of the batch are discarded, otherwise the whole batch is retried (as long as
+     * its TTL has not expired). By default nothing is buffered, thus nothing is done.
+     * @throws Exception
+     */
+    protected void flush() throws Exception {
+    } // flush
+    
+    /**
+     * Discards anything the sink may have buffered while persisting the events of the current batch. It is invoked
+     * instead of flush() when the batch is put again in the channel or spilled, since the whole batch will be persisted
+     * again. A batch whose TTL has expired is flushed, in order to persist the events persisted before the failure.
+     * By default nothing is buffered, thus nothing is done.
+     */
+    protected void discard() {
+    } // discard
+    
+    /**
+     * Gets the event being persisted. The sinks buffering data while persisting a batch may keep it, in order to
+     * reject it if its buffered data is rejected by the backend when flushing.
+     * @return The event being persisted, null if the notification is not being persisted from an event
+     */
+    protected Event getCurrentEvent() {
+        return currentEvent;
+    } // getCurrentEvent
+    
+    /**
+     * Rejects an event whose buffered data has been rejected by the backend when flushing, while the rest of the
+     * buffered data has been persisted. Once the batch is flushed, the rejected events are written to the dead letter
+     * file, if any, or discarded, instead of putting again the whole batch in the channel.
+     * @param event
+     * @param e Exception explaining the rejection
+     */
+    protected void reject(Event event, Exception e) {
+        if (event != null && !rejectedEvents.containsKey(event)) {
+            rejectedEvents.put(event, e);
+        } // if
+    } // reject
 
+    /**
+     * Gets the metrics of this sink, creating them if not yet created. They cannot be created in the constructor
+     * since the name of the sink is not known at that moment.
+     * @return The metrics of this sink
+     */
+    private SinkMetrics getSinkMetrics() {
+        if (sinkMetrics == null) {
+            sinkMetrics = new SinkMetrics(String.valueOf(getName()));
+        } // if
+        
+        return sinkMetrics;
+    } // getSinkMetrics
+    
+    /**
+     * Metrics common to all the sinks.
+     */
+    private static class SinkMetrics {
+        
+        private final String sink;
+        private final Histogram persistLatency;
+        private final Histogram batchSize;
+        private final Meter persistedEvents;
+        private final Meter retriedEvents;
+        private final Meter expiredEvents;
+        private final Meter discardedEvents;
+        private final Meter spilledEvents;
+        private final Meter replayedEvents;
+        private final Meter deadLetterEvents;
+        
+        SinkMetrics(String sink) {
+            this.sink = sink;
+            MetricsRegistry registry = MetricsRegistry.getInstance();
+            String help = "Events processed by the sink, by outcome";
+            persistLatency = registry.histogram("cygnus_sink_persist_latency_us",
+                    "Time spent persisting an event, in microseconds", "sink", sink);
+            batchSize = registry.histogram("cygnus_sink_batch_size", "Events per committed transaction", "sink",
+                    sink);
+            persistedEvents = registry.meter("cygnus_sink_events", help, "sink", sink, "status", "persisted");
+            retriedEvents = registry.meter("cygnus_sink_events", help, "sink", sink, "status", "retried");
+            expiredEvents = registry.meter("cygnus_sink_events", help, "sink", sink, "status", "ttl_expired");
+            discardedEvents = registry.meter("cygnus_sink_events", help, "sink", sink, "status", "discarded");
+            spilledEvents = registry.meter("cygnus_sink_events", help, "sink", sink, "status", "spilled");
+            replayedEvents = registry.meter("cygnus_sink_events", help, "sink", sink, "status", "replayed");
+            deadLetterEvents = registry.meter("cygnus_sink_events", help, "sink", sink, "status", "dead_letter");
+        } // SinkMetrics
+        
+        void error(Exception e) {
+            String type;
+            
+            if (e instanceof CygnusPersistenceError) {
+                type = "persistence";
+            } else if (e instanceof CygnusRuntimeError) {
+                type = "runtime";
+            } else if (e instanceof CygnusBadConfiguration) {
+                type = "bad_configuration";
+            } else if (e instanceof CygnusBadContextData) {
+                type = "bad_context_data";
+            } else {
+                type = "other";
+            } // if else if
+            
+            MetricsRegistry.getInstance().counter("cygnus_sink_errors", "Errors while persisting, by type", "sink",
+                    sink, "type", type).inc();
+        } // error
+        
+    } // SinkMetrics
+    
     /**
      * Given an event, it is preprocessed before it is persisted. Depending on the content type, it is appropriately
      * parsed (Json or XML) in order to obtain a NotifyContextRequest instance.
@@ -229,7 +1144,13 @@ public abstract class OrionSink extends AbstractSink implements Configurable {
             throw new Exception("Unrecognized content type (not Json nor XML)");
         } // if else if
 
-        persist(eventHeaders, notification);
+        currentEvent = event;
+        
+        try {
+            persist(eventHeaders, notification);
+        } finally {
+            currentEvent = null;
+        } // try finally
     } // persist
 
     /**
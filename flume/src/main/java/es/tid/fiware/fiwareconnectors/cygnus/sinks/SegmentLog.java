@@ -0,0 +1,275 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Local append-only log of Json lines, split into segment files of a maximum size. Each segment is named
+ * <name>-<offset>.seg, being <offset> the logical offset of its first byte within the whole log, and it is written
+ * through a memory mapped buffer of the maximum segment size; once full, the segment is truncated to its actual size
+ * and a new one is started (rolling).
+ * The lines are indexed in a <name>-<offset>.idx file per segment, having a line per appended Json line with this
+ * format: <entityId> TAB <entityType> TAB <recvTimeTs> TAB <offset>, thus the lines of a given entity or time range
+ * can be found without scanning the segments.
+ * Nothing is guaranteed to be in disk until sync() is invoked, which forces both the segment and its index (group
+ * sync). When opening the log, the last segment is recovered: its size is given by its last complete line, and the
+ * index entries pointing beyond it are discarded.
+ * This class is not thread-safe, it is intended to be used by the single thread of a sink.
+ */
+public class SegmentLog {
+    
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    
+    private final Logger logger;
+    private final File dir;
+    private final String name;
+    private final long maxSegmentBytes;
+    private int numSegments;
+    private long segmentOffset;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segmentBuffer;
+    private FileChannel indexChannel;
+    private final StringBuilder pendingIndex;
+    
+    /**
+     * Constructor. It opens the log, recovering the last segment if already existing.
+     * @param dir Directory of the log, created if not existing
+     * @param name Name of the log, prefixing the segment files
+     * @param maxSegmentBytes Maximum size of a segment file
+     * @throws IOException
+     */
+    public SegmentLog(File dir, String name, long maxSegmentBytes) throws IOException {
+        logger = Logger.getLogger(SegmentLog.class);
+        this.dir = dir;
+        this.name = name;
+        this.maxSegmentBytes = maxSegmentBytes;
+        pendingIndex = new StringBuilder();
+        
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("The log directory could not be created (dir=" + dir.getAbsolutePath() + ")");
+        } // if
+        
+        long[] offsets = listSegments();
+        numSegments = offsets.length;
+        
+        if (offsets.length == 0) {
+            openSegment(0, 0);
+            numSegments = 1;
+        } else {
+            recover(offsets[offsets.length - 1]);
+        } // if else
+    } // SegmentLog
+    
+    /**
+     * Gets the number of segment files, including the one being written.
+     * @return The number of segment files
+     */
+    public int getNumSegments() {
+        return numSegments;
+    } // getNumSegments
+    
+    /**
+     * Gets the logical offset the next appended line will be written at.
+     * @return The logical offset the next appended line will be written at
+     */
+    public long getOffset() {
+        return segmentOffset + segmentBuffer.position();
+    } // getOffset
+    
+    /**
+     * Appends a Json line, rolling the segment being written if it has no room for it. A new line character is added.
+     * @param entityId
+     * @param entityType
+     * @param recvTimeTs
+     * @param line
+     * @throws IOException
+     */
+    public void append(String entityId, String entityType, long recvTimeTs, String line) throws IOException {
+        byte[] data = (line + "\n").getBytes("UTF-8");
+        
+        if (data.length > segmentBuffer.remaining()) {
+            roll(data.length);
+        } // if
+        
+        pendingIndex.append(entityId).append('\t').append(entityType).append('\t').append(recvTimeTs).append('\t')
+                .append(getOffset()).append('\n');
+        segmentBuffer.put(data);
+    } // append
+    
+    /**
+     * Forces the appended lines and their index entries to disk.
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        segmentBuffer.force();
+        
+        if (pendingIndex.length() > 0) {
+            ByteBuffer index = ByteBuffer.wrap(pendingIndex.toString().getBytes("UTF-8"));
+            
+            while (index.hasRemaining()) {
+                indexChannel.write(index);
+            } // while
+            
+            indexChannel.force(false);
+            pendingIndex.setLength(0);
+        } // if
+    } // sync
+    
+    /**
+     * Closes the log, syncing it and truncating the segment being written to its actual size.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        sync();
+        closeSegment();
+    } // close
+    
+    private void roll(int minBytes) throws IOException {
+        // the index entries refer to the current segment, thus they must be written before switching
+        sync();
+        long nextOffset = getOffset();
+        closeSegment();
+        openSegment(nextOffset, minBytes);
+        numSegments++;
+        logger.debug("Segment rolled (dir=" + dir.getAbsolutePath() + ", name=" + name + ", offset=" + nextOffset
+                + ")");
+    } // roll
+    
+    /**
+     * Opens a segment for writing, mapping it with the maximum segment size (or more, if the first line does not fit).
+     * @param offset Logical offset of the first byte of the segment
+     * @param minBytes Bytes the segment must have room for
+     * @throws IOException
+     */
+    private void openSegment(long offset, int minBytes) throws IOException {
+        segmentOffset = offset;
+        segmentFile = new RandomAccessFile(getFile(offset, SEGMENT_SUFFIX), "rw");
+        segmentBuffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(maxSegmentBytes, minBytes));
+        indexChannel = new RandomAccessFile(getFile(offset, INDEX_SUFFIX), "rw").getChannel();
+        indexChannel.position(indexChannel.size());
+    } // openSegment
+    
+    private void closeSegment() throws IOException {
+        int size = segmentBuffer.position();
+        segmentBuffer = null;
+        segmentFile.getChannel().truncate(size);
+        segmentFile.close();
+        indexChannel.close();
+    } // closeSegment
+    
+    /**
+     * Recovers the last segment, which may have not been closed; the mapping fills it with zeros up to the maximum
+     * segment size, and a line may have been partially written when the agent crashed.
+     * @param offset Logical offset of the last segment
+     * @throws IOException
+     */
+    private void recover(long offset) throws IOException {
+        // the mapping extends the file, thus its size must be got before
+        int size = (int) getFile(offset, SEGMENT_SUFFIX).length();
+        openSegment(offset, size);
+        
+        while (size > 0 && segmentBuffer.get(size - 1) != '\n') {
+            size--;
+        } // while
+        
+        segmentBuffer.position(size);
+        
+        // zero the partially written line, if any, since the bytes after the last line are assumed to be zero
+        for (int i = size; i < segmentBuffer.capacity() && segmentBuffer.get(i) != 0; i++) {
+            segmentBuffer.put(i, (byte) 0);
+        } // for
+        
+        // keep the index entries pointing to complete lines
+        StringBuilder validIndex = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(getFile(offset, INDEX_SUFFIX)), "UTF-8"));
+        
+        try {
+            String entry;
+            
+            while ((entry = reader.readLine()) != null) {
+                String[] fields = entry.split("\t");
+                
+                if (fields.length == 4 && Long.parseLong(fields[3]) < offset + size) {
+                    validIndex.append(entry).append('\n');
+                } // if
+            } // while
+        } catch (NumberFormatException e) {
+            logger.warn("Corrupted index entry, the rest of the index is discarded (dir=" + dir.getAbsolutePath()
+                    + ", name=" + name + ", offset=" + offset + ")");
+        } finally {
+            reader.close();
+        } // try catch finally
+        
+        indexChannel.truncate(0);
+        indexChannel.position(0);
+        pendingIndex.append(validIndex);
+        sync();
+        logger.info("Segment recovered (dir=" + dir.getAbsolutePath() + ", name=" + name + ", offset=" + offset
+                + ", bytes=" + size + ")");
+    } // recover
+    
+    private long[] listSegments() {
+        final String prefix = name + "-";
+        String[] files = dir.list(new FilenameFilter() {
+            
+            @Override
+            public boolean accept(File dir, String fileName) {
+                return fileName.startsWith(prefix) && fileName.endsWith(SEGMENT_SUFFIX);
+            } // accept
+            
+        });
+        
+        if (files == null) {
+            return new long[0];
+        } // if
+        
+        long[] offsets = new long[files.length];
+        
+        for (int i = 0; i < files.length; i++) {
+            offsets[i] = Long.parseLong(files[i].substring(prefix.length(),
+                    files[i].length() - SEGMENT_SUFFIX.length()));
+        } // for
+        
+        Arrays.sort(offsets);
+        return offsets;
+    } // listSegments
+    
+    private File getFile(long offset, String suffix) {
+        return new File(dir, name + "-" + String.format("%020d", offset) + suffix);
+    } // getFile
+    
+} // SegmentLog
@@ -0,0 +1,525 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * @author frb
+ *
+ * Local and persistent FIFO store of events, where a sink parks the events it cannot persist while its backend is
+ * down. The events are appended to segment files, each event being a record having this format:
+ *  - length of the serialized event (4 bytes)
+ *  - CRC32 checksum of the serialized event (4 bytes)
+ *  - serialized event: number of headers, the headers (name and value) and the body
+ * The segments are read through memory mapping; the appended events are read in the same order they were appended,
+ * and they are not removed until commit() is invoked after successfully persisting them. The read position is saved
+ * in a checkpoint file, thus the not committed events are read again after a restart. When opening the store, the
+ * records are validated against their checksums; a segment is truncated at its first invalid record (typically a
+ * record partially written when the agent crashed).
+ * This class is not thread-safe, it is intended to be used by the single thread of a sink; only the getters of the
+ * size of the store may be invoked from other threads.
+ */
+public class SpillStore {
+    
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_BYTES = 8;
+    
+    private final Logger logger;
+    private final File dir;
+    private final long maxSegmentBytes;
+    private final long maxBytes;
+    private final boolean sync;
+    
+    // the segments, oldest first; the last one is the segment being written
+    private final LinkedList<Segment> segments;
+    private FileChannel writeChannel;
+    private volatile long totalBytes;
+    private volatile long numEvents;
+    
+    // read position within the oldest segment
+    private int readOffset;
+    private int readEvents;
+    
+    // read position after the last peeked events, applied when committing
+    private int peekSegments;
+    private int peekOffset;
+    private int peekEvents;
+    private int peekCount;
+    
+    /**
+     * Segment file.
+     */
+    private static class Segment {
+        
+        private final long id;
+        private final File file;
+        private long bytes;
+        private int events;
+        private MappedByteBuffer buffer;
+        
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        } // Segment
+        
+    } // Segment
+    
+    /**
+     * Constructor. It opens the store, recovering the events not committed the last time the store was used.
+     * @param dir Directory of the store, created if not existing
+     * @param maxSegmentBytes Maximum size of a segment file
+     * @param maxBytes Maximum size of the store; once reached, no more events are appended
+     * @param sync True if the appended events must be synchronized to disk before append returns
+     * @throws IOException
+     */
+    public SpillStore(File dir, long maxSegmentBytes, long maxBytes, boolean sync) throws IOException {
+        logger = Logger.getLogger(SpillStore.class);
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxBytes = maxBytes;
+        this.sync = sync;
+        segments = new LinkedList<Segment>();
+        
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("The spill directory could not be created (dir=" + dir.getAbsolutePath() + ")");
+        } // if
+        
+        recover();
+        openSegment(segments.isEmpty() ? 0 : segments.getLast().id + 1);
+    } // SpillStore
+    
+    /**
+     * Gets the number of events within the store, i.e. appended and not yet committed.
+     * @return The number of events within the store
+     */
+    public long getNumEvents() {
+        return numEvents;
+    } // getNumEvents
+    
+    /**
+     * Gets the size of the segment files, including the already committed events not yet removed.
+     * @return The size of the segment files
+     */
+    public long getBytes() {
+        return totalBytes;
+    } // getBytes
+    
+    /**
+     * Gets if the store has no events.
+     * @return True if the store has no events, false otherwise
+     */
+    public boolean isEmpty() {
+        return numEvents == 0;
+    } // isEmpty
+    
+    /**
+     * Appends the given events, all or none of them.
+     * @param events
+     * @return True if the events were appended, false if the store has no room for them
+     * @throws IOException
+     */
+    public boolean append(List<Event> events) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        
+        for (Event event : events) {
+            writeRecord(out, event);
+        } // for
+        
+        out.flush();
+        
+        if (totalBytes + bytes.size() > maxBytes) {
+            return false;
+        } // if
+        
+        Segment segment = segments.getLast();
+        
+        if (segment.bytes > 0 && segment.bytes + bytes.size() > maxSegmentBytes) {
+            roll();
+            segment = segments.getLast();
+        } // if
+        
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        
+        while (buffer.hasRemaining()) {
+            writeChannel.write(buffer);
+        } // while
+        
+        if (sync) {
+            writeChannel.force(false);
+        } // if
+        
+        segment.bytes += bytes.size();
+        segment.events += events.size();
+        totalBytes += bytes.size();
+        numEvents += events.size();
+        return true;
+    } // append
+    
+    /**
+     * Reads the oldest events, without removing them. Successive invocations return the same events until commit()
+     * is invoked.
+     * @param maxEvents
+     * @return Up to maxEvents events, oldest first
+     * @throws IOException
+     */
+    public List<Event> peek(int maxEvents) throws IOException {
+        ArrayList<Event> events = new ArrayList<Event>();
+        int segmentIndex = 0;
+        int offset = readOffset;
+        int eventsInSegment = readEvents;
+        long available = numEvents;
+        
+        while (events.size() < maxEvents && events.size() < available) {
+            // the segment being written is closed before being read, since it is mapped once
+            if (segmentIndex == segments.size() - 1) {
+                if (segments.getLast().bytes == 0) {
+                    break;
+                } // if
+                
+                roll();
+            } // if
+            
+            Segment segment = segments.get(segmentIndex);
+            ByteBuffer buffer = map(segment);
+            
+            if (eventsInSegment >= segment.events || offset >= buffer.limit()) {
+                segmentIndex++;
+                offset = 0;
+                eventsInSegment = 0;
+                continue;
+            } // if
+            
+            byte[] payload = readRecord(buffer, offset);
+            
+            if (payload == null) {
+                // the record was valid when appended or recovered, thus the disk content has been damaged
+                int lost = segment.events - eventsInSegment;
+                logger.error("Corrupted spilled event, the rest of the segment is discarded (segment="
+                        + segment.file.getAbsolutePath() + ", offset=" + offset + ", discardedEvents=" + lost + ")");
+                segment.events = eventsInSegment;
+                numEvents -= lost;
+                available -= lost;
+                continue;
+            } // if
+            
+            events.add(deserialize(payload));
+            offset += RECORD_HEADER_BYTES + payload.length;
+            eventsInSegment++;
+        } // while
+        
+        peekSegments = segmentIndex;
+        peekOffset = offset;
+        peekEvents = eventsInSegment;
+        peekCount = events.size();
+        return events;
+    } // peek
+    
+    /**
+     * Removes the events returned by the last peek.
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        for (int i = 0; i < peekSegments; i++) {
+            delete(segments.removeFirst());
+        } // for
+        
+        readOffset = peekOffset;
+        readEvents = peekEvents;
+        numEvents -= peekCount;
+        peekSegments = 0;
+        peekCount = 0;
+        
+        // a fully read segment not being written is no more needed
+        if (segments.size() > 1 && readEvents >= segments.getFirst().events) {
+            delete(segments.removeFirst());
+            readOffset = 0;
+            readEvents = 0;
+        } // if
+        
+        writeCheckpoint();
+    } // commit
+    
+    /**
+     * Closes the store. The events not committed are kept for the next time the store is opened.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        writeChannel.close();
+        
+        for (Segment segment : segments) {
+            segment.buffer = null;
+        } // for
+        
+        // an empty segment being written is useless
+        if (segments.getLast().bytes == 0 && segments.size() > 1) {
+            delete(segments.removeLast());
+        } // if
+    } // close
+    
+    private void writeRecord(DataOutputStream out, Event event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(event.getBody().length + 256);
+        DataOutputStream payloadOut = new DataOutputStream(bytes);
+        Map<String, String> headers = event.getHeaders();
+        payloadOut.writeInt(headers.size());
+        
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            payloadOut.writeUTF(header.getKey());
+            payloadOut.writeUTF(header.getValue() == null ? "" : header.getValue());
+        } // for
+        
+        payloadOut.writeInt(event.getBody().length);
+        payloadOut.write(event.getBody());
+        payloadOut.flush();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    } // writeRecord
+    
+    /**
+     * Reads the record at the given offset.
+     * @param buffer
+     * @param offset
+     * @return The payload of the record, or null if the record is truncated or its checksum does not match
+     */
+    private byte[] readRecord(ByteBuffer buffer, int offset) {
+        if (offset + RECORD_HEADER_BYTES > buffer.limit()) {
+            return null;
+        } // if
+        
+        int length = buffer.getInt(offset);
+        int checksum = buffer.getInt(offset + 4);
+        
+        if (length < 0 || length > buffer.limit() - offset - RECORD_HEADER_BYTES) {
+            return null;
+        } // if
+        
+        byte[] payload = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset + RECORD_HEADER_BYTES);
+        slice.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : null;
+    } // readRecord
+    
+    private Event deserialize(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int numHeaders = in.readInt();
+        HashMap<String, String> headers = new HashMap<String, String>();
+        
+        for (int i = 0; i < numHeaders; i++) {
+            headers.put(in.readUTF(), in.readUTF());
+        } // for
+        
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return EventBuilder.withBody(body, headers);
+    } // deserialize
+    
+    private MappedByteBuffer map(Segment segment) throws IOException {
+        if (segment.buffer == null) {
+            FileChannel channel = new FileInputStream(segment.file).getChannel();
+            
+            try {
+                segment.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.bytes);
+            } finally {
+                channel.close();
+            } // try finally
+        } // if
+        
+        return segment.buffer;
+    } // map
+    
+    private void openSegment(long id) throws IOException {
+        File file = new File(dir, String.format("%020d", id) + SEGMENT_SUFFIX);
+        writeChannel = new FileOutputStream(file, true).getChannel();
+        Segment segment = new Segment(id, file);
+        segment.bytes = writeChannel.size();
+        segments.add(segment);
+    } // openSegment
+    
+    private void roll() throws IOException {
+        writeChannel.close();
+        openSegment(segments.getLast().id + 1);
+    } // roll
+    
+    private void delete(Segment segment) {
+        segment.buffer = null;
+        totalBytes -= segment.bytes;
+        
+        if (!segment.file.delete()) {
+            logger.warn("A spill segment could not be deleted (segment=" + segment.file.getAbsolutePath() + ")");
+        } // if
+    } // delete
+    
+    private void writeCheckpoint() throws IOException {
+        File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        
+        try {
+            DataOutputStream dataOut = new DataOutputStream(out);
+            dataOut.writeLong(segments.getFirst().id);
+            dataOut.writeInt(readOffset);
+            dataOut.flush();
+            
+            if (sync) {
+                out.getFD().sync();
+            } // if
+        } finally {
+            out.close();
+        } // try finally
+        
+        if (!tmp.renameTo(new File(dir, CHECKPOINT_FILE))) {
+            throw new IOException("The spill checkpoint could not be written (dir=" + dir.getAbsolutePath() + ")");
+        } // if
+    } // writeCheckpoint
+    
+    /**
+     * Loads the existing segments, removing those already read according to the checkpoint and validating the
+     * records of the others.
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        long checkpointId = -1;
+        int checkpointOffset = 0;
+        File checkpoint = new File(dir, CHECKPOINT_FILE);
+        
+        if (checkpoint.exists()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(checkpoint));
+            
+            try {
+                checkpointId = in.readLong();
+                checkpointOffset = in.readInt();
+            } finally {
+                in.close();
+            } // try finally
+        } // if
+        
+        File[] files = dir.listFiles(new FilenameFilter() {
+            
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            } // accept
+            
+        });
+        
+        Arrays.sort(files);
+        
+        for (File file : files) {
+            long id = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file);
+            segment.bytes = file.length();
+            totalBytes += segment.bytes;
+            
+            if (id < checkpointId || segment.bytes == 0) {
+                delete(segment);
+                continue;
+            } // if
+            
+            int skippedEvents = scan(segment, id == checkpointId ? checkpointOffset : 0);
+            
+            if (segments.isEmpty()) {
+                readOffset = id == checkpointId ? (int) Math.min(checkpointOffset, segment.bytes) : 0;
+                readEvents = skippedEvents;
+            } // if
+            
+            segments.add(segment);
+            numEvents += segment.events - (segments.size() == 1 ? skippedEvents : 0);
+        } // for
+        
+        if (numEvents > 0) {
+            logger.info("Spilled events recovered (dir=" + dir.getAbsolutePath() + ", events=" + numEvents + ")");
+        } // if
+    } // recover
+    
+    /**
+     * Counts the valid records of a segment, truncating it at the first invalid one.
+     * @param segment
+     * @param readOffset
+     * @return The number of records before the given read offset
+     * @throws IOException
+     */
+    private int scan(Segment segment, int readOffset) throws IOException {
+        ByteBuffer buffer = map(segment);
+        int offset = 0;
+        int skippedEvents = 0;
+        byte[] payload = readRecord(buffer, offset);
+        
+        while (payload != null) {
+            segment.events++;
+            offset += RECORD_HEADER_BYTES + payload.length;
+            
+            if (offset <= readOffset) {
+                skippedEvents++;
+            } // if
+            
+            payload = readRecord(buffer, offset);
+        } // while
+        
+        if (offset < segment.bytes) {
+            logger.warn("Invalid spilled events, the segment is truncated (segment=" + segment.file.getAbsolutePath()
+                    + ", offset=" + offset + ", truncatedBytes=" + (segment.bytes - offset) + ")");
+            segment.buffer = null;
+            RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+            
+            try {
+                file.setLength(offset);
+            } finally {
+                file.close();
+            } // try finally
+            
+            totalBytes -= segment.bytes - offset;
+            segment.bytes = offset;
+        } // if
+        
+        return skippedEvents;
+    } // scan
+    
+} // SpillStore
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sources;
+
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusOverloaded;
+import es.tid.fiware.fiwareconnectors.cygnus.handlers.OrionRestHandler;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.EventDrivenSource;
+import org.apache.flume.conf.Configurable;
+import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.source.AbstractSource;
+import org.apache.flume.source.http.HTTPBadRequestException;
+import org.apache.flume.source.http.HTTPSourceConfigurationConstants;
+import org.apache.flume.source.http.HTTPSourceHandler;
+import org.apache.log4j.Logger;
+import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.servlet.ServletHolder;
+
+/**
+ *
+ * @author frb
+ * 
+ * HTTP source behaving as the default Flume HTTP source (same port, bind, handler and handler.* parameters), but
+ * answering the notifications rejected by the handler because the agent is overloaded (CygnusOverloaded) with a 503
+ * Service Unavailable response including a Retry-After header. Such notifications are counted as received, but not
+ * as accepted.
+ * 
+ * If the handler is an OrionRestHandler, the notifications it admits are released once their events have been put in
+ * the channels, thus the admission control limits the notifications being processed until then.
+ */
+public class OrionHTTPSource extends AbstractSource implements EventDrivenSource, Configurable {
+    
+    private Logger logger;
+    private int port;
+    private String host;
+    private HTTPSourceHandler handler;
+    private Server server;
+    private SourceCounter sourceCounter;
+    
+    /**
+     * Constructor.
+     */
+    public OrionHTTPSource() {
+        logger = Logger.getLogger(OrionHTTPSource.class);
+    } // OrionHTTPSource
+    
+    /**
+     * Sets the handler. It is protected due to it is only required for testing purposes.
+     * @param handler
+     */
+    protected void setHandler(HTTPSourceHandler handler) {
+        this.handler = handler;
+    } // setHandler
+    
+    @Override
+    public void configure(Context context) {
+        port = context.getInteger(HTTPSourceConfigurationConstants.CONFIG_PORT, 0);
+        logger.debug("[" + this.getName() + "] Reading configuration (port=" + port + ")");
+        host = context.getString(HTTPSourceConfigurationConstants.CONFIG_BIND,
+                HTTPSourceConfigurationConstants.DEFAULT_BIND);
+        logger.debug("[" + this.getName() + "] Reading configuration (bind=" + host + ")");
+        String handlerClassName = context.getString(HTTPSourceConfigurationConstants.CONFIG_HANDLER,
+                HTTPSourceConfigurationConstants.DEFAULT_HANDLER);
+        logger.debug("[" + this.getName() + "] Reading configuration (handler=" + handlerClassName + ")");
+        
+        if (port <= 0) {
+            logger.error("[" + this.getName() + "] Bad configuration (Invalid port " + port + ")");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } // if
+        
+        try {
+            handler = (HTTPSourceHandler) Class.forName(handlerClassName).newInstance();
+        } catch (Exception e) {
+            logger.error("[" + this.getName() + "] Bad configuration (The handler " + handlerClassName
+                    + " could not be instantiated. Details=" + e.getMessage() + ")");
+            logger.info("[" + this.getName() + "] Exiting Cygnus");
+            System.exit(-1);
+        } // try catch
+        
+        handler.configure(new Context(context.getSubProperties(
+                HTTPSourceConfigurationConstants.CONFIG_HANDLER_PREFIX)));
+        
+        if (handler instanceof OrionRestHandler) {
+            ((OrionRestHandler) handler).setReleasedBySource(true);
+        } // if
+        
+        if (sourceCounter == null) {
+            sourceCounter = new SourceCounter(getName());
+        } // if
+    } // configure
+    
+    @Override
+    public void start() {
+        server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(port);
+        connector.setHost(host);
+        server.setConnectors(new Connector[] {connector});
+        org.mortbay.jetty.servlet.Context root = new org.mortbay.jetty.servlet.Context(server, "/",
+                org.mortbay.jetty.servlet.Context.SESSIONS);
+        root.addServlet(new ServletHolder(new NotificationServlet()), "/");
+        
+        try {
+            server.start();
+        } catch (Exception e) {
+            logger.error("[" + this.getName() + "] The HTTP server could not be started. Details=" + e.getMessage());
+            throw new IllegalStateException(e);
+        } // try catch
+        
+        sourceCounter.start();
+        super.start();
+        logger.info("[" + this.getName() + "] Startup completed (port=" + port + ")");
+    } // start
+    
+    @Override
+    public void stop() {
+        try {
+            server.stop();
+            server.join();
+        } catch (Exception e) {
+            logger.error("[" + this.getName() + "] The HTTP server could not be stopped. Details=" + e.getMessage());
+        } // try catch
+        
+        sourceCounter.stop();
+        super.stop();
+    } // stop
+    
+    /**
+     * Servlet getting the events from the handler and putting them into the channels.
+     */
+    private class NotificationServlet extends HttpServlet {
+        
+        @Override
+        public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            List<Event> events;
+            
+            try {
+                events = handler.getEvents(request);
+            } catch (CygnusOverloaded e) {
+                response.setHeader(Constants.HEADER_RETRY_AFTER, Integer.toString(e.getRetryAfter()));
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+                return;
+            } catch (HTTPBadRequestException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Bad request from client. " + e.getMessage());
+                return;
+            } catch (Exception e) {
+                logger.warn("[" + getName() + "] The handler threw an unexpected exception. Details="
+                        + e.getMessage());
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Deserializer threw unexpected "
+                        + "exception. " + e.getMessage());
+                return;
+            } // try catch
+            
+            sourceCounter.incrementAppendBatchReceivedCount();
+            sourceCounter.addToEventReceivedCount(events.size());
+            
+            try {
+                getChannelProcessor().processEventBatch(events);
+            } catch (ChannelException e) {
+                logger.warn("[" + getName() + "] The events could not be put in the channels. Details="
+                        + e.getMessage());
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Error appending event to channel. "
+                        + "Channel might be full. " + e.getMessage());
+                return;
+            } catch (Exception e) {
+                logger.warn("[" + getName() + "] Unexpected error appending the events to the channels. Details="
+                        + e.getMessage());
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Unexpected error while appending "
+                        + "event to channel. " + e.getMessage());
+                return;
+            } finally {
+                if (handler instanceof OrionRestHandler) {
+                    ((OrionRestHandler) handler).release(events);
+                } // if
+            } // try catch finally
+            
+            response.setCharacterEncoding(request.getCharacterEncoding());
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.flushBuffer();
+            sourceCounter.incrementAppendBatchAcceptedCount();
+            sourceCounter.addToEventAcceptedCount(events.size());
+        } // doPost
+        
+        @Override
+        public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            doPost(request, response);
+        } // doGet
+        
+    } // NotificationServlet
+    
+} // OrionHTTPSource
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.tools;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Map;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+
+/**
+ *
+ * @author frb
+ *
+ * Command line tool replaying the events of a dead letter file (see DeadLetterFile): the body of each event is sent
+ * again as a notification to a Cygnus agent, with its original content type, fiware-service and fiware-servicepath.
+ * The events can be filtered by error and by sink, e.g. in order to replay only the events discarded because of a
+ * bad configuration once it has been fixed.
+ */
+public class DeadLetterReplay {
+    
+    private final HttpClient httpClient;
+    private final String url;
+    private final String errorFilter;
+    private final String sinkFilter;
+    private final boolean dryRun;
+    private final double rate;
+    private int replayed;
+    private int failed;
+    private int skipped;
+    private int invalid;
+    
+    /**
+     * Constructor.
+     * @param httpClient
+     * @param url Notification URL of the agent
+     * @param errorFilter Error of the events to be replayed, null for all of them
+     * @param sinkFilter Sink of the events to be replayed, null for all of them
+     * @param dryRun True if the events must be only printed, not sent
+     * @param rate Maximum events sent per second, 0 means no limit
+     */
+    public DeadLetterReplay(HttpClient httpClient, String url, String errorFilter, String sinkFilter,
+            boolean dryRun, double rate) {
+        this.httpClient = httpClient;
+        this.url = url;
+        this.errorFilter = errorFilter;
+        this.sinkFilter = sinkFilter;
+        this.dryRun = dryRun;
+        this.rate = rate;
+    } // DeadLetterReplay
+    
+    /**
+     * Main method.
+     * @param args
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        
+        Option option = new Option("f", "file", true, "dead letter file");
+        option.setRequired(true);
+        options.addOption(option);
+        
+        option = new Option("u", "url", true, "notification URL of the agent (default http://localhost:5050/notify)");
+        options.addOption(option);
+        
+        option = new Option("e", "error", true, "replay only the events discarded because of this error, e.g. "
+                + "CygnusBadConfiguration");
+        options.addOption(option);
+        
+        option = new Option("s", "sink", true, "replay only the events discarded by this sink");
+        options.addOption(option);
+        
+        option = new Option("r", "rate", true, "maximum events sent per second (default no limit)");
+        options.addOption(option);
+        
+        option = new Option("d", "dry-run", false, "print the events to be replayed, without sending them");
+        options.addOption(option);
+        
+        option = new Option("h", "help", false, "display help text");
+        options.addOption(option);
+        
+        int exitCode = 0;
+        
+        try {
+            if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+                new HelpFormatter().printHelp("dead-letter-replay", options, true);
+                return;
+            } // if
+            
+            CommandLineParser parser = new GnuParser();
+            CommandLine commandLine = parser.parse(options, args);
+            DeadLetterReplay replay = new DeadLetterReplay(new DefaultHttpClient(),
+                    commandLine.getOptionValue('u', "http://localhost:5050/notify"), commandLine.getOptionValue('e'),
+                    commandLine.getOptionValue('s'), commandLine.hasOption('d'),
+                    Double.parseDouble(commandLine.getOptionValue('r', "0")));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(commandLine.getOptionValue('f')), "UTF-8"));
+            
+            try {
+                replay.replay(reader);
+            } finally {
+                reader.close();
+            } // try finally
+            
+            System.out.println("Replayed=" + replay.getReplayed() + ", failed=" + replay.getFailed() + ", skipped="
+                    + replay.getSkipped() + ", invalid=" + replay.getInvalid());
+            exitCode = replay.getFailed() + replay.getInvalid() > 0 ? 1 : 0;
+        } catch (Exception e) {
+            System.err.println("Dead letter replay error. Details=" + e.getMessage());
+            exitCode = 1;
+        } // try catch
+        
+        System.exit(exitCode);
+    } // main
+    
+    /**
+     * Replays the events read from the given reader, one per line.
+     * @param reader
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void replay(BufferedReader reader) throws IOException, InterruptedException {
+        JsonParser parser = new JsonParser();
+        long start = System.currentTimeMillis();
+        int sent = 0;
+        String line = reader.readLine();
+        
+        while (line != null) {
+            if (line.trim().length() > 0) {
+                JsonObject deadLetter;
+                
+                try {
+                    deadLetter = parser.parse(line).getAsJsonObject();
+                } catch (Exception e) {
+                    System.err.println("Invalid dead letter line (line=" + line + ")");
+                    invalid++;
+                    line = reader.readLine();
+                    continue;
+                } // try catch
+                
+                if (matches(deadLetter)) {
+                    // keep the rate, if any
+                    if (rate > 0) {
+                        long wait = start + (long) (sent * 1000 / rate) - System.currentTimeMillis();
+                        
+                        if (wait > 0) {
+                            Thread.sleep(wait);
+                        } // if
+                    } // if
+                    
+                    send(deadLetter);
+                    sent++;
+                } else {
+                    skipped++;
+                } // if else
+            } // if
+            
+            line = reader.readLine();
+        } // while
+    } // replay
+    
+    public int getReplayed() {
+        return replayed;
+    } // getReplayed
+    
+    public int getFailed() {
+        return failed;
+    } // getFailed
+    
+    public int getSkipped() {
+        return skipped;
+    } // getSkipped
+    
+    public int getInvalid() {
+        return invalid;
+    } // getInvalid
+    
+    private boolean matches(JsonObject deadLetter) {
+        return (errorFilter == null || errorFilter.equals(getString(deadLetter, "error")))
+                && (sinkFilter == null || sinkFilter.equals(getString(deadLetter, "sink")));
+    } // matches
+    
+    private void send(JsonObject deadLetter) {
+        String description = "time=" + getString(deadLetter, "time") + ", sink=" + getString(deadLetter, "sink")
+                + ", error=" + getString(deadLetter, "error");
+        
+        if (dryRun) {
+            System.out.println("Event to be replayed (" + description + ", body=" + getString(deadLetter, "body")
+                    + ")");
+            replayed++;
+            return;
+        } // if
+        
+        HttpPost request = new HttpPost(url);
+        request.setHeader("User-Agent", "orion/cygnus-dead-letter-replay");
+        JsonObject headers = deadLetter.has("headers") ? deadLetter.getAsJsonObject("headers") : new JsonObject();
+        
+        for (Map.Entry<String, JsonElement> header : headers.entrySet()) {
+            String name = header.getKey();
+            
+            if (name.equals(Constants.HEADER_CONTENT_TYPE) || name.equals(Constants.HEADER_SERVICE)
+                    || name.equals(Constants.HEADER_SERVICE_PATH)) {
+                request.setHeader(name, header.getValue().getAsString());
+            } // if
+        } // for
+        
+        try {
+            request.setEntity(new StringEntity(getString(deadLetter, "body"), "UTF-8"));
+            HttpResponse response = httpClient.execute(request);
+            int status = response.getStatusLine().getStatusCode();
+            EntityUtils.consume(response.getEntity());
+            
+            if (status >= 200 && status < 300) {
+                replayed++;
+            } else {
+                System.err.println("Event not replayed (" + description + ", status=" + status + ")");
+                failed++;
+            } // if else
+        } catch (Exception e) {
+            request.abort();
+            System.err.println("Event not replayed (" + description + ", details=" + e.getMessage() + ")");
+            failed++;
+        } // try catch
+    } // send
+    
+    private String getString(JsonObject object, String field) {
+        JsonElement element = object.get(field);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    } // getString
+    
+} // DeadLetterReplay
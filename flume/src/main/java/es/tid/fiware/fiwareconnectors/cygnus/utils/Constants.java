@@ -35,6 +35,7 @@ public final class Constants {
     public static final String HEADER_SERVICE_PATH = "fiware-servicepath";
     public static final String HEADER_CONTENT_TYPE = "content-type";
     public static final String HEADER_USER_AGENT   = "user-agent";
+    public static final String HEADER_RETRY_AFTER  = "Retry-After";
     public static final int SERVICE_HEADER_MAX_LEN = 32;
     public static final int SERVICE_PATH_HEADER_MAX_LEN = 32;
     
@@ -66,5 +67,11 @@ public final class Constants {
     public static final String PARAM_DEFAULT_SERVICE_PATH = "default_service_path";
     public static final String PARAM_NOTIFICATION_TARGET = "notification_target";
     public static final String PARAM_EVENTS_TTL = "events_ttl";
+    public static final String PARAM_ADMISSION_CONTROL = "admission_control";
+    public static final String PARAM_ADMISSION_MAX_IN_FLIGHT = "admission_control.max_in_flight";
+    public static final String PARAM_ADMISSION_MAX_CHANNEL_FILL = "admission_control.max_channel_fill";
+    public static final String PARAM_ADMISSION_CHANNELS = "admission_control.channels";
+    public static final String PARAM_ADMISSION_RETRY_AFTER = "admission_control.retry_after";
+    public static final String PARAM_ADMISSION_SERVICES = "admission_control.services.";
 
 } // Constants
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author frb
+ * 
+ * Bounded least recently used cache, safe to be used by several threads at the same time. The entries are spread
+ * among several segments, each one with its own lock, in order to reduce the contention; each segment evicts its
+ * least recently used entry when full. Null keys and values are not allowed. A maximum size of 0 disables the cache.
+ * 
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ */
+public class LRUCache<K, V> {
+    
+    private static final int DEFAULT_SEGMENTS = 16;
+    
+    private final int maxSize;
+    private final Segment<K, V>[] segments;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    
+    /**
+     * Segment of the cache, evicting the least recently used entry when full.
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        
+        private final int maxSize;
+        
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        } // Segment
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        } // removeEldestEntry
+        
+    } // Segment
+    
+    /**
+     * Constructor.
+     * @param maxSize Maximum number of entries
+     */
+    public LRUCache(int maxSize) {
+        this(maxSize, DEFAULT_SEGMENTS);
+    } // LRUCache
+    
+    /**
+     * Constructor.
+     * @param maxSize Maximum number of entries
+     * @param numSegments Number of segments the entries are spread among
+     */
+    @SuppressWarnings("unchecked")
+    public LRUCache(int maxSize, int numSegments) {
+        this.maxSize = Math.max(maxSize, 0);
+        int effectiveSegments = Math.max(1, Math.min(numSegments, this.maxSize));
+        segments = new Segment[this.maxSize == 0 ? 0 : effectiveSegments];
+        
+        for (int i = 0; i < segments.length; i++) {
+            // the segments may hold slightly more entries than maxSize in total, never less
+            segments[i] = new Segment<K, V>((this.maxSize + effectiveSegments - 1) / effectiveSegments);
+        } // for
+        
+        hits = new AtomicLong(0);
+        misses = new AtomicLong(0);
+    } // LRUCache
+    
+    /**
+     * Gets the value cached for a key.
+     * @param key
+     * @return The value cached for the key, or null if not cached
+     */
+    public V get(K key) {
+        V value = null;
+        
+        if (segments.length > 0) {
+            Segment<K, V> segment = getSegment(key);
+            
+            synchronized (segment) {
+                value = segment.get(key);
+            } // synchronized
+        } // if
+        
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        } // if else
+        
+        return value;
+    } // get
+    
+    /**
+     * Caches a value for a key.
+     * @param key
+     * @param value
+     */
+    public void put(K key, V value) {
+        if (segments.length == 0) {
+            return;
+        } // if
+        
+        Segment<K, V> segment = getSegment(key);
+        
+        synchronized (segment) {
+            segment.put(key, value);
+        } // synchronized
+    } // put
+    
+    /**
+     * Removes all the cached entries. The hits and misses counters are not reset.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            } // synchronized
+        } // for
+    } // clear
+    
+    /**
+     * Gets the number of cached entries.
+     * @return The number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            } // synchronized
+        } // for
+        
+        return size;
+    } // size
+    
+    /**
+     * Gets the maximum number of entries.
+     * @return The maximum number of entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    } // getMaxSize
+    
+    /**
+     * Gets the number of lookups finding a cached value.
+     * @return The number of lookups finding a cached value
+     */
+    public long getHits() {
+        return hits.get();
+    } // getHits
+    
+    /**
+     * Gets the number of lookups not finding a cached value.
+     * @return The number of lookups not finding a cached value
+     */
+    public long getMisses() {
+        return misses.get();
+    } // getMisses
+    
+    /**
+     * Gets the ratio of lookups finding a cached value.
+     * @return The ratio of lookups finding a cached value, between 0 and 1
+     */
+    public double getHitRatio() {
+        long currentHits = hits.get();
+        long total = currentHits + misses.get();
+        return total == 0 ? 0 : (double) currentHits / total;
+    } // getHitRatio
+    
+    private Segment<K, V> getSegment(K key) {
+        // spread the hash bits, since the lower ones are used for selecting the segment
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    } // getSegment
+    
+} // LRUCache
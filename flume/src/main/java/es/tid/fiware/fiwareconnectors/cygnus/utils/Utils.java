@@ -37,6 +37,33 @@ import org.w3c.dom.NodeList;
  */
 public final class Utils {
     
+    // maximum number of memoized encodings; service, service path and destination names are highly recurrent
+    private static final int ENCODING_CACHE_SIZE = 4096;
+    // strings longer than this are not memoized, they are rarely recurrent
+    private static final int ENCODING_CACHE_MAX_LENGTH = 256;
+    // ASCII characters kept as they are by encode and encodeHive, respectively (upper case letters are lower cased)
+    private static final boolean[] ENCODE_KEPT = new boolean[128];
+    private static final boolean[] ENCODE_HIVE_KEPT = new boolean[128];
+    private static final LRUCache<String, String> ENCODE_CACHE =
+            new LRUCache<String, String>(ENCODING_CACHE_SIZE);
+    private static final LRUCache<String, String> ENCODE_HIVE_CACHE =
+            new LRUCache<String, String>(ENCODING_CACHE_SIZE);
+    
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ENCODE_KEPT[c] = true;
+            ENCODE_HIVE_KEPT[c] = true;
+        } // for
+        
+        for (char c = '0'; c <= '9'; c++) {
+            ENCODE_KEPT[c] = true;
+            ENCODE_HIVE_KEPT[c] = true;
+        } // for
+        
+        ENCODE_KEPT['.'] = true;
+        ENCODE_KEPT['-'] = true;
+    } // static
+    
     /**
      * Constructor. It is private since utility classes should not have a public or default constructor.
      */
@@ -50,8 +77,7 @@ public final class Utils {
      * @return The encoded version of the input string.
      */
     public static String encode(String in) {
-        String res = in.replaceAll("[^a-zA-Z0-9\\.\\-]", "_").toLowerCase();
-        return (res.startsWith("_") ? res.substring(1, res.length()) : res);
+        return encode(in, ENCODE_KEPT, ENCODE_CACHE, true);
     } // encode
     
     /**
@@ -61,9 +87,80 @@ public final class Utils {
      * @return The encoded version of the input string.
      */
     public static String encodeHive(String in) {
-        return in.replaceAll("[^a-zA-Z0-9]", "_").toLowerCase();
+        return encode(in, ENCODE_HIVE_KEPT, ENCODE_HIVE_CACHE, false);
     } // encodeHive
     
+    /**
+     * Encodes a string in a single pass, replacing each character (code point) not kept by '_', and lower casing the
+     * ASCII upper case letters. Already encoded strings are returned as they are, without allocating anything.
+     * @param in
+     * @param kept
+     * @param cache
+     * @param removeLeadingUnderscore
+     * @return The encoded version of the input string.
+     */
+    private static String encode(String in, boolean[] kept, LRUCache<String, String> cache,
+            boolean removeLeadingUnderscore) {
+        int length = in.length();
+        int i = 0;
+        
+        while (i < length) {
+            char c = in.charAt(i);
+            
+            if (c >= 128 || !kept[c]) {
+                break;
+            } // if
+            
+            i++;
+        } // while
+        
+        if (i == length) {
+            return in;
+        } // if
+        
+        boolean cacheable = length <= ENCODING_CACHE_MAX_LENGTH;
+        
+        if (cacheable) {
+            String cached = cache.get(in);
+            
+            if (cached != null) {
+                return cached;
+            } // if
+        } // if
+        
+        char[] out = new char[length];
+        in.getChars(0, i, out, 0);
+        int outLength = i;
+        
+        while (i < length) {
+            char c = in.charAt(i);
+            
+            if (c < 128 && kept[c]) {
+                out[outLength++] = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                out[outLength++] = (char) (c + ('a' - 'A'));
+            } else {
+                out[outLength++] = '_';
+                
+                // a surrogate pair is a single code point, thus it is replaced by a single '_'
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(in.charAt(i + 1))) {
+                    i++;
+                } // if
+            } // if else
+            
+            i++;
+        } // while
+        
+        int start = (removeLeadingUnderscore && outLength > 0 && out[0] == '_') ? 1 : 0;
+        String res = new String(out, start, outLength - start);
+        
+        if (cacheable) {
+            cache.put(in, res);
+        } // if
+        
+        return res;
+    } // encode
+    
     /**
      * Converts a XML node into Json.
      * @param xmlNode
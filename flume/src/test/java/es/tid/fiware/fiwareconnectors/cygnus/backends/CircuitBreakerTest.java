@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends;
+
+import es.tid.fiware.fiwareconnectors.cygnus.backends.CircuitBreaker.State;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CircuitBreakerTest {
+    
+    // instance to be tested
+    private ClockedCircuitBreaker breaker;
+    
+    /**
+     * Circuit breaker whose clock is set by the tests.
+     */
+    private static class ClockedCircuitBreaker extends CircuitBreaker {
+        
+        private long now = 0;
+        
+        ClockedCircuitBreaker(int failureThreshold) {
+            super("test-backend", failureThreshold, 1000, 4000);
+        } // ClockedCircuitBreaker
+        
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        } // currentTimeMillis
+        
+    } // ClockedCircuitBreaker
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        breaker = new ClockedCircuitBreaker(3);
+    } // setUp
+    
+    /**
+     * Test of onFailure and allowRequest methods, of class CircuitBreaker.
+     */
+    @Test
+    public void testOpen() {
+        System.out.println("Testing CircuitBreaker.onFailure");
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(State.CLOSED, breaker.getState());
+        breaker.onSuccess(); // the failures must be consecutive
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        long retryDelay = breaker.getRetryDelay();
+        assertTrue(retryDelay >= 500 && retryDelay <= 1000);
+    } // testOpen
+    
+    /**
+     * Test of the half open state, of class CircuitBreaker.
+     */
+    @Test
+    public void testHalfOpen() {
+        System.out.println("Testing CircuitBreaker (half open)");
+        
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        } // for
+        
+        breaker.now = 1000;
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest()); // a single probe at a time
+        breaker.onNotUsed();
+        assertTrue(breaker.allowRequest());
+        breaker.now += 4000; // the probe result has not been notified within the maximum backoff
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure(); // a single failure opens the breaker again, with a larger backoff
+        assertEquals(State.OPEN, breaker.getState());
+        long retryDelay = breaker.getRetryDelay();
+        assertTrue(retryDelay >= 1000 && retryDelay <= 2000);
+        breaker.now += 2000;
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+    } // testHalfOpen
+    
+    /**
+     * Test of getBackoff method, of class CircuitBreaker.
+     */
+    @Test
+    public void testGetBackoff() {
+        System.out.println("Testing CircuitBreaker.getBackoff");
+        
+        for (int i = 0; i < 100; i++) {
+            long backoff = breaker.getBackoff(10); // limited to the maximum backoff
+            assertTrue(backoff >= 2000 && backoff <= 4000);
+        } // for
+        
+        // a 0 threshold disables the breaker
+        breaker = new ClockedCircuitBreaker(0);
+        
+        for (int i = 0; i < 10; i++) {
+            breaker.onFailure();
+        } // for
+        
+        assertEquals(State.CLOSED, breaker.getState());
+    } // testGetBackoff
+    
+} // CircuitBreakerTest
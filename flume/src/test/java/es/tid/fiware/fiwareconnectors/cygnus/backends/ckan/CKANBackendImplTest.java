@@ -18,9 +18,11 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.ckan;
 
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRuntimeError;
 import org.json.simple.JSONObject;
-import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadConfiguration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import org.mockito.Mockito;
 import org.junit.Before;
 import org.junit.Test;
@@ -114,28 +116,93 @@ public class CKANBackendImplTest {
     } // testPersistRow
     
     /**
-     * Test of persist (column) method, of class CKANBackendImpl.
+     * Test of persist (column) and flush methods, of class CKANBackendImpl.
      */
     @Test
-    public void testPersistColumn() {
-        System.out.println("Testing MySQLBackend.persist (column)");
+    public void testPersistColumn() throws Exception {
+        System.out.println("Testing CKANBackendImpl.persist (column) and CKANBackendImpl.flush");
+        backend.setCache(mockCache);
+        backend.setRequester(mockRequester);
+        attrList.put(attrName, "\"" + attrValue + "\"");
+        attrMdList.put(attrName + "_md", attrMd);
         
-        try {
-            backend.setCache(mockCache);
-            backend.setRequester(mockRequester);
-            backend.persist(recvTime, orgName, pkgName, resName, attrList, attrMdList);
-        } catch (Exception e) {
-            // Check if the raised exception type is CygnusBadConfiguration. This exception means the resource does not
-            // exist in CKAN and, due to we are running in "column" mode, it cannot be created. By checking this
-            // exception is the most far we can go with this test.
-            if (e instanceof CygnusBadConfiguration) {
-                assertTrue(true);
-            } else {
-                fail(e.getMessage());
-            } // if else
-        } finally {
-            assertTrue(true);
-        } // try catch finally
+        // the datastore does not exist the first time, its fields are cached once created
+        LinkedHashMap<String, String> fields = new LinkedHashMap<String, String>();
+        fields.put("recvTime", "timestamp");
+        fields.put(attrName, "json");
+        fields.put(attrName + "_md", "json");
+        when(mockCache.getFields(resId)).thenReturn(new LinkedHashMap<String, String>(), fields);
+        
+        // the datastore is created once, with a field per attribute and metadata, and nothing is upserted
+        backend.persist(recvTime, orgName, pkgName, resName, attrList, attrMdList);
+        backend.persist(recvTime, orgName, pkgName, resName, attrList, attrMdList);
+        verify(mockRequester, times(1)).doCKANRequest("POST", "/api/3/action/datastore_create", "{ \"resource_id\": "
+                + "\"res_id\", \"fields\": [ { \"id\": \"recvTime\", \"type\": \"timestamp\"},"
+                + "{ \"id\": \"temperature\", \"type\": \"json\"},{ \"id\": \"temperature_md\", \"type\": \"json\"}], "
+                + "\"force\": \"true\" }");
+        verify(mockCache, times(1)).setFields(resId, fields);
+        verify(mockRequester, never()).doCKANRequest(eq("POST"), eq("/api/3/action/datastore_upsert"), anyString());
+        
+        // both rows are upserted within the same request
+        backend.flush();
+        String record = "{ \"recvTime\": \"" + recvTime + "\", \"temperature\": \"26.5\" }";
+        verify(mockRequester, times(1)).doCKANRequest("POST", "/api/3/action/datastore_upsert", "{ \"resource_id\": "
+                + "\"res_id\", \"records\": [ " + record + ", " + record + " ], \"method\": \"insert\", "
+                + "\"force\": \"true\" }");
+        
+        // nothing is pending after flushing
+        backend.flush();
+        verify(mockRequester, times(1)).doCKANRequest(eq("POST"), eq("/api/3/action/datastore_upsert"), anyString());
     } // testPersistColumn
     
+    /**
+     * Test of flush method, of class CKANBackendImpl, when CKAN rejects certain records.
+     */
+    @Test
+    public void testFlushRejected() throws Exception {
+        System.out.println("Testing CKANBackendImpl.flush (rejected records)");
+        backend.setCache(mockCache);
+        backend.setRequester(mockRequester);
+        attrList.put(attrName, "\"" + attrValue + "\"");
+        attrMdList.put(attrName + "_md", attrMd);
+        LinkedHashMap<String, String> fields = new LinkedHashMap<String, String>();
+        fields.put("recvTime", "timestamp");
+        fields.put(attrName, "json");
+        fields.put(attrName + "_md", "json");
+        when(mockCache.getFields(resId)).thenReturn(fields);
+        backend.persist(recvTime, orgName, pkgName, resName, attrList, attrMdList);
+        backend.persist("not a timestamp", orgName, pkgName, resName, attrList, attrMdList);
+        backend.persist(recvTime, orgName, pkgName, resName, attrList, attrMdList);
+        
+        // the request and the second record are rejected because of a validation error
+        CKANResponse ok = new CKANResponse(new JSONObject(), 200);
+        CKANResponse conflict = new CKANResponse(new JSONObject(), 409);
+        when(mockRequester.doCKANRequest(eq("POST"), eq("/api/3/action/datastore_upsert"), anyString()))
+                .thenReturn(conflict, ok, conflict, ok);
+        
+        // the records are inserted one by one, and only the bad one is rejected
+        try {
+            backend.flush();
+            fail("The bad record was not rejected");
+        } catch (CygnusRejectedRows e) {
+            assertEquals(1, e.getRejections().size());
+            assertTrue(e.getRejections().containsKey(1));
+        } // try catch
+        
+        verify(mockRequester, times(4)).doCKANRequest(eq("POST"), eq("/api/3/action/datastore_upsert"), anyString());
+        
+        // any other error is not about the data, the records are not inserted one by one
+        backend.persist(recvTime, orgName, pkgName, resName, attrList, attrMdList);
+        when(mockRequester.doCKANRequest(eq("POST"), eq("/api/3/action/datastore_upsert"), anyString()))
+                .thenReturn(new CKANResponse(new JSONObject(), 403));
+        
+        try {
+            backend.flush();
+            fail("The authorization error was not an error");
+        } catch (CygnusRuntimeError e) {
+            verify(mockRequester, times(5)).doCKANRequest(eq("POST"), eq("/api/3/action/datastore_upsert"),
+                    anyString());
+        } // try catch
+    } // testFlushRejected
+    
 } // CKANBackendImplTest
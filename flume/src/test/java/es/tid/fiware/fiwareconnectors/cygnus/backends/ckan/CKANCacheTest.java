@@ -19,7 +19,10 @@
 package es.tid.fiware.fiwareconnectors.cygnus.backends.ckan;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -187,4 +190,32 @@ public class CKANCacheTest {
         } // try catch
     } // testIsCachedRes
     
+    /**
+     * Test of getFields method, of class CKANCache.
+     */
+    @Test
+    public void testGetFields() throws Exception {
+        System.out.println("Testing CKANCache.getFields");
+        JSONObject result = (JSONObject) new JSONParser().parse("{\"result\": {\"fields\": ["
+                + "{\"id\": \"_id\", \"type\": \"int4\"}, {\"id\": \"recvTime\", \"type\": \"timestamp\"}, "
+                + "{\"id\": \"temperature\", \"type\": \"json\"}]}}");
+        when(mockRequester.doCKANRequest("GET", "/api/3/action/datastore_search?resource_id=" + resId + "&limit=0"))
+                .thenReturn(new CKANResponse(result, 200));
+        when(mockRequester.doCKANRequest("GET", "/api/3/action/datastore_search?resource_id=other&limit=0"))
+                .thenReturn(new CKANResponse(new JSONObject(), 404));
+        
+        // the internal fields are not returned, and CKAN is queried only once
+        assertEquals(Arrays.asList("recvTime", "temperature"), new ArrayList<String>(cache.getFields(resId).keySet()));
+        assertEquals("json", cache.getFields(resId).get("temperature"));
+        verify(mockRequester, times(1)).doCKANRequest(eq("GET"), startsWith("/api/3/action/datastore_search"));
+        
+        // a resource without datastore has no fields
+        assertTrue(cache.getFields("other").isEmpty());
+        
+        // the removed fields are queried again
+        cache.removeFields(resId);
+        cache.getFields(resId);
+        verify(mockRequester, times(3)).doCKANRequest(eq("GET"), startsWith("/api/3/action/datastore_search"));
+    } // testGetFields
+    
 } // CKANCacheTest
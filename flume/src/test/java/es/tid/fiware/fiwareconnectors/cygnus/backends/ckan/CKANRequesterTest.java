@@ -18,6 +18,7 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.ckan;
 
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.message.BasicHttpResponse;
@@ -106,4 +107,23 @@ public class CKANRequesterTest {
         } // try catch
     } // testDoCKANRequestWithPayload
     
+    /**
+     * Test of doCKANRequest method, of class CKANRequester, when CKAN answers with a server error.
+     */
+    @Test
+    public void testDoCKANRequestServerError() throws Exception {
+        System.out.println("Testing CKANRequester.doCKANRequest (server error)");
+        BasicHttpResponse response = new BasicHttpResponse(new ProtocolVersion("http", 1, 1), 503,
+                "Service Unavailable");
+        response.setEntity(new StringEntity("<html><body>Service Unavailable</body></html>"));
+        when(mockHttpClient.execute(Mockito.any(HttpUriRequest.class))).thenReturn(response);
+        
+        try {
+            requester.doCKANRequest(method, url);
+            fail("A server error was not a persistence error");
+        } catch (CygnusPersistenceError e) {
+            assertTrue(e.getMessage().contains("respCode=503"));
+        } // try catch
+    } // testDoCKANRequestServerError
+    
 } // CKANRequesterTest
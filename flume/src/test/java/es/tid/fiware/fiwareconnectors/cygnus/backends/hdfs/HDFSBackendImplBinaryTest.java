@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.URI;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HDFSBackendImplBinaryTest {
+    
+    // instance to be tested
+    private HDFSBackendImplBinary backend;
+    
+    // other instances
+    private File dir;
+    
+    // constants
+    private final String[] host = {"localhost"};
+    private final String port = "8020";
+    private final String user = "hdfs-user";
+    private final String password = "12345abcde";
+    private final String folder = "rooms/numeric-rooms";
+    private final String file1 = folder + "/room1.txt";
+    private final String file2 = folder + "/room2.txt";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("hdfs", "");
+        dir.delete();
+        
+        // the HDFS paths are mapped to a local temporal directory
+        backend = new HDFSBackendImplBinary(host, port, user, password, "localhost", "10000", 1, 0) {
+            
+            @Override
+            protected Path toPath(String username, String filePath) {
+                return new Path(dir.getAbsolutePath() + "/" + username + "/" + filePath);
+            } // toPath
+            
+        };
+        
+        RawLocalFileSystem fs = new RawLocalFileSystem();
+        fs.initialize(URI.create("file:///"), new Configuration());
+        backend.setFileSystem(fs);
+    } // setUp
+    
+    /**
+     * Removes the local files.
+     */
+    @After
+    public void tearDown() {
+        backend.close();
+        delete(dir);
+    } // tearDown
+    
+    /**
+     * Test of createFile, append and sync methods, of class HDFSBackendImplBinary.
+     */
+    @Test
+    public void testCreateFileAppendSync() throws Exception {
+        System.out.println("Testing HDFSBackendImplBinary.createFile, HDFSBackendImplBinary.append and "
+                + "HDFSBackendImplBinary.sync");
+        backend.createDir(user, folder);
+        assertFalse(backend.exists(user, file1));
+        backend.createFile(user, file1, "line1");
+        backend.append(user, file1, "line2");
+        assertTrue(backend.exists(user, file1));
+        assertEquals(1, backend.getNumOpenFiles());
+        backend.sync();
+        assertEquals("line1\nline2\n", read(file1));
+        
+        // a second file closes the first one, since a single open file is allowed, which is reopened when appending
+        backend.createFile(user, file2, "line1");
+        assertEquals(1, backend.getNumOpenFiles());
+        backend.append(user, file1, "line3");
+        backend.sync();
+        assertEquals("line1\nline2\nline3\n", read(file1));
+        assertEquals("line1\n", read(file2));
+        
+        // the files not written since the last sync are closed, since the idle timeout is 0
+        backend.sync();
+        assertEquals(0, backend.getNumOpenFiles());
+    } // testCreateFileAppendSync
+    
+    /**
+     * Test of closeIdleFiles method, of class HDFSBackendImplBinary.
+     */
+    @Test
+    public void testCloseIdleFiles() throws Exception {
+        System.out.println("Testing HDFSBackendImplBinary.closeIdleFiles");
+        HDFSBackendImplBinary idleBackend = new HDFSBackendImplBinary(host, port, user, password, "localhost",
+                "10000", 10, 1) {
+            
+            @Override
+            protected Path toPath(String username, String filePath) {
+                return new Path(dir.getAbsolutePath() + "/" + username + "/" + filePath);
+            } // toPath
+            
+        };
+        
+        RawLocalFileSystem fs = new RawLocalFileSystem();
+        fs.initialize(URI.create("file:///"), new Configuration());
+        idleBackend.setFileSystem(fs);
+        
+        try {
+            idleBackend.createDir(user, folder);
+            idleBackend.createFile(user, file1, "line1");
+            
+            // a written but not synced file is not closed
+            Thread.sleep(10);
+            idleBackend.closeIdleFiles();
+            assertEquals(1, idleBackend.getNumOpenFiles());
+            
+            // once synced, the file is closed in background although no more batches are synced
+            idleBackend.sync();
+            long deadline = System.currentTimeMillis() + 5000;
+            
+            while (idleBackend.getNumOpenFiles() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            } // while
+            
+            assertEquals(0, idleBackend.getNumOpenFiles());
+            assertEquals("line1\n", read(file1));
+        } finally {
+            idleBackend.close();
+        } // try finally
+    } // testCloseIdleFiles
+    
+    /**
+     * Test of rename method, of class HDFSBackendImplBinary.
+     */
+    @Test
+    public void testRename() throws Exception {
+        System.out.println("Testing HDFSBackendImplBinary.rename");
+        backend.createDir(user, folder);
+        backend.createFile(user, file1, "line1");
+        backend.rename(user, file1, file2);
+        assertFalse(backend.exists(user, file1));
+        assertEquals("line1\n", read(file2));
+    } // testRename
+    
+    private String read(String filePath) throws Exception {
+        FileInputStream in = new FileInputStream(new File(dir, user + "/" + filePath));
+        
+        try {
+            byte[] data = new byte[(int) in.getChannel().size()];
+            in.read(data);
+            return new String(data, "UTF-8");
+        } finally {
+            in.close();
+        } // try finally
+    } // read
+    
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            } // for
+        } // if
+        
+        file.delete();
+    } // delete
+    
+} // HDFSBackendImplBinaryTest
@@ -18,6 +18,9 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs;
 
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.mockito.Mockito;
@@ -51,6 +54,8 @@ public class HDFSBackendImplTest {
     private HttpClient mockHttpClientAppend;
     @Mock
     private HttpClient mockHttpClientExistsCreateDir;
+    @Mock
+    private HttpClient mockHttpClientRename;
     
     // constants
     private final String[] hdfsHosts = {"1.2.3.4", "5.6.7.8."};
@@ -84,6 +89,14 @@ public class HDFSBackendImplTest {
         when(mockHttpClientExistsCreateDir.execute(Mockito.any(HttpUriRequest.class))).thenReturn(resp200);
         when(mockHttpClientCreateFile.execute(Mockito.any(HttpUriRequest.class))).thenReturn(resp307, resp201);
         when(mockHttpClientAppend.execute(Mockito.any(HttpUriRequest.class))).thenReturn(resp307, resp200);
+        
+        // a failed rename is answered with 200 OK as well
+        BasicHttpResponse respRenamed = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), 200, "OK");
+        respRenamed.setEntity(new StringEntity("{\"boolean\": true}", ContentType.APPLICATION_JSON));
+        BasicHttpResponse respNotRenamed = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), 200, "OK");
+        respNotRenamed.setEntity(new StringEntity("{\"boolean\": false}", ContentType.APPLICATION_JSON));
+        when(mockHttpClientRename.execute(Mockito.any(HttpUriRequest.class))).thenReturn(respRenamed,
+                respNotRenamed);
     } // setUp
     
     /**
@@ -154,4 +167,21 @@ public class HDFSBackendImplTest {
         } // try catch finally
     } // testExists
     
+    /**
+     * Test of rename method, of class HDFSBackendImpl.
+     */
+    @Test
+    public void testRename() throws Exception {
+        System.out.println("Testing HDFSBackendImpl.rename");
+        backend.setHttpClient(mockHttpClientRename);
+        backend.rename(user, dirPath + "/_file.tmp", dirPath + "/file");
+        
+        try {
+            backend.rename(user, dirPath + "/_file.tmp", dirPath + "/file");
+            fail("A not renamed file must be a persistence error");
+        } catch (CygnusPersistenceError e) {
+            assertTrue(e.getMessage().contains("could not be renamed"));
+        } // try catch
+    } // testRename
+    
 } // HDFSBackendImplTest
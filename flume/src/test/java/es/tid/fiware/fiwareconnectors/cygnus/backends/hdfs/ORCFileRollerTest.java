@@ -0,0 +1,216 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.hdfs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import static org.mockito.Mockito.*; // this is required by "when" like functions
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ORCFileRollerTest {
+    
+    // mocks
+    @Mock
+    private HDFSBackend mockBackend;
+    
+    // other instances
+    private File dir;
+    private List<Long> uploadedRows;
+    
+    // constants
+    private final String user = "hdfs-user";
+    private final String folder = "rooms/numeric-rooms/room1-room";
+    private final String fileName = "room1-room";
+    private final String fields = "recvTime string,temperature string,temperature_md array<string>";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("orc", "");
+        dir.delete();
+        uploadedRows = new ArrayList<Long>();
+        
+        // the uploaded files are read, since they are deleted once uploaded
+        doAnswer(new Answer<Object>() {
+            
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                File file = (File) invocation.getArguments()[2];
+                Configuration conf = new Configuration();
+                uploadedRows.add(OrcFile.createReader(FileSystem.getLocal(conf),
+                        new Path(file.getAbsolutePath())).getNumberOfRows());
+                return null;
+            } // answer
+            
+        }).when(mockBackend).uploadFile(eq(user), anyString(), any(File.class));
+    } // setUp
+    
+    /**
+     * Removes the local files.
+     */
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            } // for
+        } // if
+        
+        dir.delete();
+    } // tearDown
+    
+    /**
+     * Test of append, upload and close methods, of class ORCFileRoller.
+     */
+    @Test
+    public void testAppendUpload() throws Exception {
+        System.out.println("Testing ORCFileRoller.append, ORCFileRoller.upload and ORCFileRoller.close");
+        ORCFileRoller roller = new ORCFileRoller(mockBackend, user, dir, 2, 60000, 1024 * 1024, "zlib");
+        
+        for (int i = 0; i < 3; i++) {
+            roller.append(folder, fileName, fields, false, buildRow(i));
+        } // for
+        
+        // the first file has been rolled once reaching 2 rows, the second one is still open
+        assertEquals(1, roller.getNumRolledFiles());
+        assertEquals(1, roller.getNumOpenFiles());
+        roller.upload();
+        assertEquals(0, roller.getNumRolledFiles());
+        assertEquals(Arrays.asList(2L), uploadedRows);
+        verify(mockBackend).uploadFile(eq(user), startsWith(folder + "/_" + fileName + "-"), any(File.class));
+        verify(mockBackend).rename(eq(user), startsWith(folder + "/_" + fileName + "-"),
+                startsWith(folder + "/" + fileName + "-"));
+        verify(mockBackend).provisionORCHiveTable(user, folder, fields, false);
+        
+        // closing rolls and uploads the open file
+        roller.close();
+        assertEquals(0, roller.getNumOpenFiles());
+        assertEquals(Arrays.asList(2L, 1L), uploadedRows);
+        assertEquals(0, dir.listFiles().length);
+    } // testAppendUpload
+    
+    /**
+     * Test of upload method, of class ORCFileRoller.
+     */
+    @Test
+    public void testUploadRecovery() throws Exception {
+        System.out.println("Testing ORCFileRoller.upload (recovery after restarting)");
+        doThrow(new Exception("HDFS is down")).when(mockBackend).rename(anyString(), anyString(), anyString());
+        ORCFileRoller roller = new ORCFileRoller(mockBackend, user, dir, 100, 60000, 1024 * 1024, "none");
+        roller.append(folder, fileName, fields, false, buildRow(0));
+        roller.close();
+        assertEquals(1, roller.getNumRolledFiles()); // kept locally
+        
+        // the rolled file is found and uploaded by a new roller
+        doNothing().when(mockBackend).rename(anyString(), anyString(), anyString());
+        ORCFileRoller restarted = new ORCFileRoller(mockBackend, user, dir, 100, 60000, 1024 * 1024, "none");
+        assertEquals(1, restarted.getNumRolledFiles());
+        restarted.upload();
+        assertEquals(0, restarted.getNumRolledFiles());
+        assertEquals(0, dir.listFiles().length);
+    } // testUploadRecovery
+    
+    /**
+     * Test of upload method, of class ORCFileRoller.
+     */
+    @Test
+    public void testUploadAlreadyRenamed() throws Exception {
+        System.out.println("Testing ORCFileRoller.upload (recovery after crashing once renamed)");
+        doThrow(new Exception("The destination already exists")).when(mockBackend).rename(anyString(), anyString(),
+                anyString());
+        when(mockBackend.exists(eq(user), startsWith(folder + "/" + fileName + "-"))).thenReturn(true);
+        ORCFileRoller roller = new ORCFileRoller(mockBackend, user, dir, 100, 60000, 1024 * 1024, "none");
+        roller.append(folder, fileName, fields, false, buildRow(0));
+        roller.close();
+        
+        // the uploaded copy is deleted and the local file is not kept
+        verify(mockBackend).delete(eq(user), startsWith(folder + "/_" + fileName + "-"));
+        assertEquals(0, roller.getNumRolledFiles());
+        assertEquals(0, dir.listFiles().length);
+    } // testUploadAlreadyRenamed
+    
+    /**
+     * Test of sync method, of class ORCFileRoller.
+     */
+    @Test
+    public void testSyncRecovery() throws Exception {
+        System.out.println("Testing ORCFileRoller.sync (recovery after crashing)");
+        ORCFileRoller roller = new ORCFileRoller(mockBackend, user, dir, 100, 60000, 1024 * 1024, "zlib");
+        
+        for (int i = 0; i < 3; i++) {
+            roller.append(folder, fileName, fields, false, buildRow(i));
+        } // for
+        
+        roller.sync();
+        roller.append(folder, fileName, fields, false, buildRow(3)); // not synced, the agent crashes before
+        
+        // the synced rows of the not rolled file are recovered by a new roller
+        ORCFileRoller restarted = new ORCFileRoller(mockBackend, user, dir, 100, 60000, 1024 * 1024, "zlib");
+        assertEquals(1, restarted.getNumRolledFiles());
+        restarted.upload();
+        assertEquals(Arrays.asList(3L), uploadedRows);
+        verify(mockBackend).provisionORCHiveTable(user, folder, fields, false);
+        assertEquals(0, dir.listFiles().length);
+    } // testSyncRecovery
+    
+    /**
+     * Test of getStructType method, of class ORCFileRoller.
+     */
+    @Test
+    public void testGetStructType() {
+        System.out.println("Testing ORCFileRoller.getStructType");
+        assertEquals("struct<recvTime:string,temperature:string,temperature_md:array<string>>",
+                ORCFileRoller.getStructType(fields));
+    } // testGetStructType
+    
+    private List<Object> buildRow(int i) {
+        List<Object> row = new ArrayList<Object>();
+        row.add("2014-02-27T14:46:2" + i);
+        row.add("2" + i + ".5");
+        row.add(Arrays.asList("{\"name\":\"ID\",\"type\":\"string\",\"value\":\"ground\"}"));
+        return row;
+    } // buildRow
+    
+} // ORCFileRollerTest
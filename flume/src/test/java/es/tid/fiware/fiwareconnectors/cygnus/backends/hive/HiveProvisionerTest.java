@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.hive;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HiveProvisionerTest {
+    
+    // other instances
+    private File registryFile;
+    private HiveBackend hiveBackend;
+    
+    // constants
+    private final String tableName = "frb_room1_row";
+    private final String query = "create external table if not exists frb_room1_row (recvTime string)";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        registryFile = File.createTempFile("hive", ".registry");
+        registryFile.delete();
+        hiveBackend = new HiveBackend("localhost", "10000", "frb", "frb");
+    } // setUp
+    
+    /**
+     * Removes the registry file.
+     */
+    @After
+    public void tearDown() {
+        registryFile.delete();
+    } // tearDown
+    
+    /**
+     * Test of provision method, of class HiveProvisioner.
+     */
+    @Test
+    public void testProvision() throws Exception {
+        System.out.println("Testing HiveProvisioner.provision");
+        TestProvisioner provisioner = new TestProvisioner(registryFile.getPath(), 0);
+        assertTrue(provisioner.provision(tableName, query));
+        waitProvisioned(provisioner, tableName);
+        assertFalse(provisioner.provision(tableName, query)); // already provisioned
+        assertEquals(1, provisioner.getQueries().size());
+        assertEquals(0, provisioner.getNumPending());
+        provisioner.stop();
+        
+        // the registry is persisted, thus the table is not provisioned again after a restart
+        TestProvisioner restarted = new TestProvisioner(registryFile.getPath(), 0);
+        assertTrue(restarted.isProvisioned(tableName));
+        assertFalse(restarted.provision(tableName, query));
+        assertTrue(restarted.getQueries().isEmpty());
+        restarted.stop();
+    } // testProvision
+    
+    /**
+     * Test of provision method, of class HiveProvisioner.
+     */
+    @Test
+    public void testProvisionRetries() throws Exception {
+        System.out.println("Testing HiveProvisioner.provision (retries)");
+        TestProvisioner provisioner = new TestProvisioner(null, 2);
+        assertTrue(provisioner.provision(tableName, query));
+        assertFalse(provisioner.provision(tableName, query)); // already queued
+        waitProvisioned(provisioner, tableName);
+        assertEquals(3, provisioner.getQueries().size()); // two failures and a success
+        assertFalse(registryFile.exists());
+        provisioner.stop();
+    } // testProvisionRetries
+    
+    private void waitProvisioned(HiveProvisioner provisioner, String table) throws InterruptedException {
+        for (int i = 0; i < 100 && !provisioner.isProvisioned(table); i++) {
+            Thread.sleep(50);
+        } // for
+        
+        assertTrue(provisioner.isProvisioned(table));
+    } // waitProvisioned
+    
+    /**
+     * Hive provisioner recording the queries instead of running them, failing the given number of times.
+     */
+    private class TestProvisioner extends HiveProvisioner {
+        
+        private final List<String> queries;
+        private int failures;
+        
+        public TestProvisioner(String registryFile, int failures) {
+            super(hiveBackend, registryFile, 5, 10, 20);
+            queries = Collections.synchronizedList(new ArrayList<String>());
+            this.failures = failures;
+        } // TestProvisioner
+        
+        public List<String> getQueries() {
+            return queries;
+        } // getQueries
+        
+        @Override
+        protected boolean createTable(String query) {
+            queries.add(query);
+            return failures-- <= 0;
+        } // createTable
+        
+    } // TestProvisioner
+    
+} // HiveProvisionerTest
@@ -0,0 +1,346 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import static org.mockito.Mockito.*; // this is required by "when" like functions
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend.Row;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JDBCBackendTest {
+    
+    // instance to be tested
+    private JDBCBackend backend;
+    
+    // other instances
+    private AtomicInteger openedConnections;
+    
+    // constants
+    private final String schemaName = "rooms";
+    private final String tableName = "numeric-rooms_room1";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        // set up the instance of the tested class, an in-memory H2 database per test
+        openedConnections = new AtomicInteger(0);
+        backend = new JDBCBackend(new H2Dialect(), "localhost", "9092", "jdbcbackendtest" + System.nanoTime(), "sa",
+                "", 2) {
+            
+            @Override
+            protected Connection openConnection() throws Exception {
+                openedConnections.incrementAndGet();
+                return super.openConnection();
+            } // openConnection
+            
+        };
+    } // setUp
+    
+    /**
+     * Releases the resources used by the tests.
+     */
+    @After
+    public void tearDown() {
+        backend.close();
+    } // tearDown
+    
+    /**
+     * Test of createSchema, createTable and insertRows methods, of class JDBCBackend.
+     */
+    @Test
+    public void testInsertRows() throws Exception {
+        System.out.println("Testing JDBCBackend.insertRows");
+        backend.createSchema(schemaName);
+        backend.createTable(schemaName, tableName);
+        ArrayList<Row> rows = new ArrayList<Row>();
+        rows.add(new Row(1, "2014-11-20T10:00:01", "room1", "room", "temperature", "float", "26.5", "[]"));
+        rows.add(new Row(2, "2014-11-20T10:00:02", "room1", "room", "temperature", "float", "27.5", "[]"));
+        backend.insertRows(schemaName, tableName, rows);
+        
+        // the schema and the table already created are cached, nothing is queried
+        backend.createSchema(schemaName);
+        backend.createTable(schemaName, tableName);
+        backend.insertRows(schemaName, tableName, rows);
+        
+        // a single connection has been used, and it is kept open
+        assertEquals(1, openedConnections.get());
+        assertEquals(1, backend.getNumIdleConnections());
+        assertEquals(4, count("select count(*) from \"rooms\".\"numeric-rooms_room1\""));
+        assertEquals(2, count("select count(*) from \"rooms\".\"numeric-rooms_room1\" where \"attrValue\" = '26.5'"));
+    } // testInsertRows
+    
+    /**
+     * Test of getConnection method, of class JDBCBackend, when a pooled connection has been closed by the server.
+     */
+    @Test
+    public void testGetConnectionNotValid() throws Exception {
+        System.out.println("Testing JDBCBackend.getConnection (not valid pooled connection)");
+        final ArrayList<Connection> connections = new ArrayList<Connection>();
+        JDBCBackend staleBackend = new JDBCBackend(new H2Dialect(), "localhost", "9092",
+                "jdbcbackendtest" + System.nanoTime(), "sa", "", 2) {
+            
+            @Override
+            protected Connection openConnection() throws Exception {
+                Connection con = spy(super.openConnection());
+                connections.add(con);
+                return con;
+            } // openConnection
+            
+        };
+        
+        try {
+            staleBackend.createSchema(schemaName);
+            assertEquals(1, staleBackend.getNumIdleConnections());
+            
+            // the pooled connection looks open, but the server has closed it
+            doReturn(false).when(connections.get(0)).isValid(anyInt());
+            staleBackend.createTable(schemaName, tableName);
+            assertEquals(2, connections.size());
+            verify(connections.get(0)).close();
+            assertEquals(1, staleBackend.getNumIdleConnections());
+        } finally {
+            staleBackend.close();
+        } // try finally
+    } // testGetConnectionNotValid
+    
+    /**
+     * Test of insertColumnRows method, of class JDBCBackend.
+     */
+    @Test
+    public void testInsertColumnRows() throws Exception {
+        System.out.println("Testing JDBCBackend.insertColumnRows");
+        backend.createSchema(schemaName);
+        ArrayList<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+        rows.add(buildColumnRow("2014-11-20T10:00:01", "temperature", "26.5"));
+        backend.insertColumnRows(schemaName, tableName, rows);
+        assertEquals(new HashSet<String>(Arrays.asList("recvTime", "temperature", "temperature_md")), readColumns());
+        
+        // a new attribute is notified, the table is altered
+        rows.clear();
+        rows.add(buildColumnRow("2014-11-20T10:00:02", "temperature", "27.5"));
+        rows.add(buildColumnRow("2014-11-20T10:00:02", "pressure", "1013"));
+        backend.insertColumnRows(schemaName, tableName, rows);
+        assertEquals(new HashSet<String>(Arrays.asList("recvTime", "temperature", "temperature_md", "pressure",
+                "pressure_md")), readColumns());
+        assertEquals(3, count("select count(*) from \"rooms\".\"numeric-rooms_room1\""));
+        assertEquals(1, count("select count(*) from \"rooms\".\"numeric-rooms_room1\" where \"pressure\" = '1013'"));
+    } // testInsertColumnRows
+    
+    /**
+     * Test of createLastValueTable and upsertLastValues methods, of class JDBCBackend.
+     */
+    @Test
+    public void testUpsertLastValues() throws Exception {
+        System.out.println("Testing JDBCBackend.upsertLastValues");
+        String lastValueTableName = tableName + "_last";
+        backend.createSchema(schemaName);
+        backend.createLastValueTable(schemaName, lastValueTableName);
+        ArrayList<Row> lastValues = new ArrayList<Row>();
+        lastValues.add(new Row(1, "2014-11-20T10:00:01", "room1", "room", "temperature", "float", "26.5", "[]"));
+        lastValues.add(new Row(1, "2014-11-20T10:00:01", "room1", "room", "pressure", "float", "1013", "[]"));
+        backend.upsertLastValues(schemaName, lastValueTableName, lastValues);
+        lastValues.clear();
+        lastValues.add(new Row(2, "2014-11-20T10:00:02", "room1", "room", "temperature", "float", "27.5", "[]"));
+        backend.upsertLastValues(schemaName, lastValueTableName, lastValues);
+        assertEquals(2, count("select count(*) from \"rooms\".\"numeric-rooms_room1_last\""));
+        assertEquals(1, count("select count(*) from \"rooms\".\"numeric-rooms_room1_last\" "
+                + "where \"attrName\" = 'temperature' and \"attrValue\" = '27.5'"));
+    } // testUpsertLastValues
+    
+    /**
+     * Test of insertRows and insertColumnRows methods, of class JDBCBackend, when certain rows have bad data.
+     */
+    @Test
+    public void testInsertRowsRejected() throws Exception {
+        System.out.println("Testing JDBCBackend.insertRows and JDBCBackend.insertColumnRows (rejected rows)");
+        backend.createSchema(schemaName);
+        backend.createTable(schemaName, tableName);
+        execute("alter table \"rooms\".\"numeric-rooms_room1\" add constraint \"short_value\" "
+                + "check (length(\"attrValue\") < 10)");
+        ArrayList<Row> rows = new ArrayList<Row>();
+        rows.add(new Row(1, "2014-11-20T10:00:01", "room1", "room", "temperature", "float", "26.5", "[]"));
+        rows.add(new Row(2, "2014-11-20T10:00:02", "room1", "room", "temperature", "float", "too long value", "[]"));
+        rows.add(new Row(3, "2014-11-20T10:00:03", "room1", "room", "temperature", "float", "27.5", "[]"));
+        
+        // the rows are inserted one by one, and only the bad one is rejected
+        try {
+            backend.insertRows(schemaName, tableName, rows);
+            fail("The bad row was not rejected");
+        } catch (CygnusRejectedRows e) {
+            assertEquals("[1]", e.getRejections().keySet().toString());
+        } // try catch
+        
+        assertEquals(2, count("select count(*) from \"rooms\".\"numeric-rooms_room1\""));
+        
+        // the rejections are given by the position within the rows, whatever the group of columns they belong to
+        String columnTableName = tableName + "_column";
+        ArrayList<Map<String, String>> columnRows = new ArrayList<Map<String, String>>();
+        columnRows.add(buildColumnRow("2014-11-20T10:00:01", "temperature", "26.5"));
+        columnRows.add(buildColumnRow("2014-11-20T10:00:01", "pressure", "1013"));
+        columnRows.add(buildColumnRow("2014-11-20T10:00:02", "pressure", "too long value"));
+        backend.insertColumnRows(schemaName, columnTableName, columnRows.subList(0, 2));
+        execute("alter table \"rooms\".\"numeric-rooms_room1_column\" add constraint \"short_pressure\" "
+                + "check (length(\"pressure\") < 10)");
+        
+        try {
+            backend.insertColumnRows(schemaName, columnTableName, columnRows);
+            fail("The bad row was not rejected");
+        } catch (CygnusRejectedRows e) {
+            assertEquals("[2]", e.getRejections().keySet().toString());
+        } // try catch
+        
+        assertEquals(4, count("select count(*) from \"rooms\".\"numeric-rooms_room1_column\""));
+    } // testInsertRowsRejected
+    
+    /**
+     * Test of insertRows method, of class JDBCBackend, when the table has been dropped.
+     */
+    @Test
+    public void testInsertRowsDroppedTable() throws Exception {
+        System.out.println("Testing JDBCBackend.insertRows (dropped table)");
+        backend.createSchema(schemaName);
+        backend.createTable(schemaName, tableName);
+        execute("drop table \"rooms\".\"numeric-rooms_room1\"");
+        ArrayList<Row> rows = new ArrayList<Row>();
+        rows.add(new Row(1, "2014-11-20T10:00:01", "room1", "room", "temperature", "float", "26.5", "[]"));
+        
+        // it is not a data error, thus it is a persistence error and the rows are not inserted one by one
+        try {
+            backend.insertRows(schemaName, tableName, rows);
+            fail("The dropped table was not a persistence error");
+        } catch (CygnusPersistenceError e) {
+            assertTrue(true);
+        } // try catch
+        
+        // the table is created again when retrying
+        backend.createTable(schemaName, tableName);
+        backend.insertRows(schemaName, tableName, rows);
+        assertEquals(1, count("select count(*) from \"rooms\".\"numeric-rooms_room1\""));
+    } // testInsertRowsDroppedTable
+    
+    /**
+     * Test of upsertLastValues method, of class JDBCBackend, when certain rows have bad data.
+     */
+    @Test
+    public void testUpsertLastValuesRejected() throws Exception {
+        System.out.println("Testing JDBCBackend.upsertLastValues (rejected rows)");
+        String lastValueTableName = tableName + "_last";
+        backend.createSchema(schemaName);
+        backend.createLastValueTable(schemaName, lastValueTableName);
+        StringBuilder longEntityId = new StringBuilder();
+        
+        while (longEntityId.length() <= 255) {
+            longEntityId.append("room");
+        } // while
+        
+        ArrayList<Row> lastValues = new ArrayList<Row>();
+        lastValues.add(new Row(1, "2014-11-20T10:00:01", "room1", "room", "temperature", "float", "26.5", "[]"));
+        lastValues.add(new Row(1, "2014-11-20T10:00:01", longEntityId.toString(), "room", "temperature", "float",
+                "26.5", "[]"));
+        lastValues.add(new Row(1, "2014-11-20T10:00:01", "room2", "room", "temperature", "float", "26.5", "[]"));
+        
+        // the rows are upserted one by one, and only the bad one is rejected
+        try {
+            backend.upsertLastValues(schemaName, lastValueTableName, lastValues);
+            fail("The bad row was not rejected");
+        } catch (CygnusRejectedRows e) {
+            assertEquals("[1]", e.getRejections().keySet().toString());
+        } // try catch
+        
+        assertEquals(2, count("select count(*) from \"rooms\".\"numeric-rooms_room1_last\""));
+    } // testUpsertLastValuesRejected
+    
+    private Map<String, String> buildColumnRow(String recvTime, String attrName, String attrValue) {
+        LinkedHashMap<String, String> row = new LinkedHashMap<String, String>();
+        row.put("recvTime", recvTime);
+        row.put(attrName, attrValue);
+        row.put(attrName + "_md", "[]");
+        return row;
+    } // buildColumnRow
+    
+    private long count(String query) throws Exception {
+        Connection con = backend.openConnection();
+        
+        try {
+            Statement stmt = con.createStatement();
+            ResultSet rs = stmt.executeQuery(query);
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            con.close();
+        } // try finally
+    } // count
+    
+    private void execute(String query) throws Exception {
+        Connection con = backend.openConnection();
+        
+        try {
+            con.createStatement().executeUpdate(query);
+            con.commit();
+        } finally {
+            con.close();
+        } // try finally
+    } // execute
+    
+    private Set<String> readColumns() throws Exception {
+        HashSet<String> columns = new HashSet<String>();
+        Connection con = backend.openConnection();
+        
+        try {
+            Statement stmt = con.createStatement();
+            ResultSet rs = stmt.executeQuery("select column_name from information_schema.columns "
+                    + "where table_schema = 'rooms' and table_name = 'numeric-rooms_room1'");
+            
+            while (rs.next()) {
+                columns.add(rs.getString(1));
+            } // while
+        } finally {
+            con.close();
+        } // try finally
+        
+        return columns;
+    } // readColumns
+    
+} // JDBCBackendTest
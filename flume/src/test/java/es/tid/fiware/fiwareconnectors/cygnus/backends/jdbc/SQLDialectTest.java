@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SQLDialectTest {
+    
+    /**
+     * Test of buildURL and buildTableName methods, of the SQLDialect classes.
+     */
+    @Test
+    public void testNaming() {
+        System.out.println("Testing SQLDialect.buildURL and SQLDialect.buildTableName");
+        assertEquals("jdbc:mysql://localhost:3306/?rewriteBatchedStatements=true",
+                new MySQLDialect().buildURL("localhost", "3306", "cygnus"));
+        assertEquals("jdbc:postgresql://localhost:5432/cygnus?reWriteBatchedInserts=true",
+                new PostgreSQLDialect().buildURL("localhost", "5432", "cygnus"));
+        assertEquals("`rooms`.`numeric``rooms`", new MySQLDialect().buildTableName("rooms", "numeric`rooms"));
+        assertEquals("\"rooms\".\"numeric\"\"rooms\"",
+                new PostgreSQLDialect().buildTableName("rooms", "numeric\"rooms"));
+    } // testNaming
+    
+    /**
+     * Test of buildUpsertQuery method, of the SQLDialect classes.
+     */
+    @Test
+    public void testBuildUpsertQuery() {
+        System.out.println("Testing SQLDialect.buildUpsertQuery");
+        String columns = "(`recvTimeTs`,`recvTime`,`entityId`,`entityType`,`attrName`,`attrType`,`attrValue`,"
+                + "`attrMd`)";
+        assertEquals("insert into `t` " + columns + " values (?,?,?,?,?,?,?,?),(?,?,?,?,?,?,?,?) "
+                + "on duplicate key update "
+                + "`recvTime` = if(values(`recvTimeTs`) >= `recvTimeTs`, values(`recvTime`), `recvTime`), "
+                + "`entityType` = if(values(`recvTimeTs`) >= `recvTimeTs`, values(`entityType`), `entityType`), "
+                + "`attrType` = if(values(`recvTimeTs`) >= `recvTimeTs`, values(`attrType`), `attrType`), "
+                + "`attrValue` = if(values(`recvTimeTs`) >= `recvTimeTs`, values(`attrValue`), `attrValue`), "
+                + "`attrMd` = if(values(`recvTimeTs`) >= `recvTimeTs`, values(`attrMd`), `attrMd`), "
+                + "`recvTimeTs` = greatest(`recvTimeTs`, values(`recvTimeTs`))",
+                new MySQLDialect().buildUpsertQuery("`t`", 2));
+        String query = new PostgreSQLDialect().buildUpsertQuery("\"s\".\"t\"", 1);
+        assertTrue(query.startsWith("insert into \"s\".\"t\" as lv (\"recvTimeTs\","));
+        assertTrue(query.contains(" values (?,?,?,?,?,?,?,?) on conflict (\"entityId\", \"attrName\") do update set "
+                + "\"recvTimeTs\" = excluded.\"recvTimeTs\", "));
+        assertTrue(query.endsWith(" where excluded.\"recvTimeTs\" >= lv.\"recvTimeTs\""));
+    } // testBuildUpsertQuery
+    
+    /**
+     * Test of buildAddColumnsQuery method, of the SQLDialect classes.
+     */
+    @Test
+    public void testBuildAddColumnsQuery() {
+        System.out.println("Testing SQLDialect.buildAddColumnsQuery");
+        assertEquals("alter table \"s\".\"t\" add column \"a\" text, add column \"b\" text",
+                new PostgreSQLDialect().buildAddColumnsQuery("\"s\".\"t\"", Arrays.asList("a", "b")));
+        assertEquals("alter table `s`.`t` add column `a` text, add column `b` text",
+                new MySQLDialect().buildAddColumnsQuery("`s`.`t`", Arrays.asList("a", "b")));
+        assertEquals("alter table \"s\".\"t\" add (\"a\" text, \"b\" text)",
+                new H2Dialect().buildAddColumnsQuery("\"s\".\"t\"", Arrays.asList("a", "b")));
+    } // testBuildAddColumnsQuery
+    
+} // SQLDialectTest
@@ -18,9 +18,23 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.backends.mysql;
 
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import static org.mockito.Mockito.*; // this is required by "when" like functions
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend.Row;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 /**
@@ -33,9 +47,15 @@ public class MySQLBackendTest {
     // instance to be tested
     private MySQLBackend backend;
     
-    // FIXME: the Connection object return by getConnection must be mocked. In order to pass mocked connections to the
-    // MySQLBackend, the connection object must be another argument of the different methods, e.g.:
-    // void createDatabase(Connection connection, String dbName) instead of void createDatabase(String dbName)
+    // mocks
+    @Mock
+    private Connection mockConnection;
+    @Mock
+    private PreparedStatement mockPreparedStatement;
+    @Mock
+    private ResultSet mockResultSet;
+    @Mock
+    private Statement mockStatement;
     
     // constants
     private final String host = "localhost";
@@ -51,51 +71,193 @@ public class MySQLBackendTest {
      */
     @Before
     public void setUp() throws Exception {
-        // set up the instance of the tested class
-        backend = new MySQLBackend(host, port, user, password);
+        // set up the instance of the tested class, the connections are mocked and not pooled
+        backend = new MySQLBackend(host, port, user, password, 0) {
+            
+            @Override
+            protected Connection openConnection() throws Exception {
+                return mockConnection;
+            } // openConnection
+            
+        };
     } // setUp
     
     /**
-     * Test of createDatabase method, of class MySQLBackend.
+     * Test of createTable method, of class MySQLBackend, when the tables are time partitioned.
      */
     @Test
-    public void testCreateDatabase() {
-        System.out.println("Testing MySQLBackend.createDatabase");
-    } // testCreateDatabase
+    public void testCreateTable() throws Exception {
+        System.out.println("Testing MySQLBackend.createTable");
+        when(mockConnection.createStatement()).thenReturn(mockStatement);
+        
+        // the partitions are not checked in background during the test
+        MySQLPartitioning partitioning = new MySQLPartitioning("day", 1, 1);
+        backend.setPartitioning(partitioning, 3600000);
+        
+        try {
+            backend.createTable("rooms", "room1");
+            backend.createTable("rooms", "room1");
+        } finally {
+            backend.close();
+        } // try finally
+        
+        // the table already created is cached, nothing is queried
+        verify(mockStatement, times(1)).executeUpdate(startsWith("create table if not exists `rooms`.`room1` "
+                + "(recvTimeTs bigint not null, "));
+        verify(mockStatement, times(1)).executeUpdate(contains(" partition by range (recvTimeTs) "));
+    } // testCreateTable
     
     /**
-     * Test of createTable method, of class MySQLBackend.
+     * Test of provisionColumns method, of class MySQLBackend, when inserting column-like rows.
      */
     @Test
-    public void testCreateTable() {
-        System.out.println("Testing MySQLBackend.createTable");
-    } // testCreateTable
-
+    public void testProvisionColumns() throws Exception {
+        System.out.println("Testing MySQLBackend.provisionColumns");
+        
+        // the table has the columns of the temperature attribute
+        when(mockConnection.prepareStatement(anyString())).thenReturn(mockPreparedStatement);
+        when(mockPreparedStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, true, true, false, true, true, true, false);
+        when(mockResultSet.getString(1)).thenReturn("recvTime", "temperature", "temperature_md", "recvTime",
+                "temperature", "temperature_md");
+        when(mockConnection.createStatement()).thenReturn(mockStatement);
+        
+        // the existing columns are read once, and nothing is altered
+        backend.provisionColumns("rooms", "room1", Arrays.asList("recvTime", "temperature", "temperature_md"));
+        backend.provisionColumns("rooms", "room1", Arrays.asList("recvTime", "temperature", "temperature_md"));
+        verify(mockConnection, times(1)).prepareStatement(anyString());
+        verify(mockStatement, never()).executeUpdate(startsWith("alter table"));
+        
+        // a new attribute adds its columns in a single query, only once
+        List<String> columnNames = Arrays.asList("recvTime", "temperature", "temperature_md", "humidity",
+                "humidity_md");
+        backend.provisionColumns("rooms", "room1", columnNames);
+        backend.provisionColumns("rooms", "room1", columnNames);
+        verify(mockConnection, times(2)).prepareStatement(anyString());
+        verify(mockStatement, times(1)).executeUpdate(
+                "alter table `rooms`.`room1` add column `humidity` text, add column `humidity_md` text");
+    } // testProvisionColumns
     
     /**
-     * Test of insertContextData method, of class MySQLBackend.
+     * Test of managePartitions method, of class MySQLBackend.
      */
     @Test
-    public void testInsertContextData() {
-        System.out.println("Testing MySQLBackend.insertContextData");
-    } // testInsertContextData
-
+    public void testManagePartitions() throws Exception {
+        System.out.println("Testing MySQLBackend.managePartitions");
+        
+        // the partitions are not checked in background during the test
+        MySQLPartitioning partitioning = new MySQLPartitioning("day", 1, 1);
+        backend.setPartitioning(partitioning, 3600000);
+        
+        // the table has a partition for the current day and for the two previous ones, but none ahead of time
+        long now = System.currentTimeMillis() / 1000;
+        long today = partitioning.getPeriodStart(now);
+        long tomorrow = partitioning.addPeriods(today, 1);
+        String expired = partitioning.getPartitionName(partitioning.addPeriods(today, -2));
+        when(mockConnection.prepareStatement(anyString())).thenReturn(mockPreparedStatement);
+        when(mockPreparedStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, true, true, true, false);
+        when(mockResultSet.getString(1)).thenReturn(expired, partitioning.getPartitionName(partitioning.addPeriods(
+                today, -1)), partitioning.getPartitionName(today));
+        when(mockResultSet.getString(2)).thenReturn("" + partitioning.addPeriods(today, -1), "" + today,
+                "" + tomorrow, "MAXVALUE");
+        when(mockConnection.createStatement()).thenReturn(mockStatement);
+        
+        try {
+            assertTrue(backend.managePartitions("rooms", "room1"));
+        } finally {
+            backend.close();
+        } // try finally
+        
+        verify(mockStatement, times(1)).executeUpdate(partitioning.buildReorganizeQuery("`rooms`.`room1`", tomorrow,
+                now));
+        verify(mockStatement, times(1)).executeUpdate("alter table `rooms`.`room1` drop partition " + expired);
+    } // testManagePartitions
     
     /**
-     * Test of getConnection method, of class MySQLBackend.
+     * Test of managePartitions method, of class MySQLBackend, when the table is not partitioned.
      */
     @Test
-    public void testGetConnection() {
-        System.out.println("Testing MySQLBackend.getConnection");
-    } // testGetConnection
-
+    public void testManagePartitionsNotPartitioned() throws Exception {
+        System.out.println("Testing MySQLBackend.managePartitions (not partitioned table)");
+        
+        // the partitions are not checked in background during the test
+        backend.setPartitioning(new MySQLPartitioning("day", 1, 1), 3600000);
+        when(mockConnection.prepareStatement(anyString())).thenReturn(mockPreparedStatement);
+        when(mockPreparedStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(false);
+        when(mockConnection.createStatement()).thenReturn(mockStatement);
+        
+        try {
+            assertFalse(backend.managePartitions("rooms", "room1"));
+        } finally {
+            backend.close();
+        } // try finally
+        
+        verify(mockStatement, never()).executeUpdate(anyString());
+    } // testManagePartitionsNotPartitioned
     
-        /**
-     * Test of closeMySQLObjects method, of class MySQLBackend.
+    /**
+     * Test of readPartitionedTables method, of class MySQLBackend.
      */
     @Test
-    public void testCloseMySQLObjects() {
-        System.out.println("Testing MySQLBackend.closeMySQLObjects");
-    } // testCloseMySQLObjects
-
+    public void testReadPartitionedTables() throws Exception {
+        System.out.println("Testing MySQLBackend.readPartitionedTables");
+        when(mockConnection.prepareStatement(anyString())).thenReturn(mockPreparedStatement);
+        when(mockPreparedStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, true, false);
+        when(mockResultSet.getString(1)).thenReturn("rooms", "cars");
+        when(mockResultSet.getString(2)).thenReturn("room1", "car1");
+        List<String[]> tables = backend.readPartitionedTables();
+        assertEquals(2, tables.size());
+        assertArrayEquals(new String[] {"rooms", "room1"}, tables.get(0));
+        assertArrayEquals(new String[] {"cars", "car1"}, tables.get(1));
+        verify(mockPreparedStatement).setString(1, "recvTimeTs");
+    } // testReadPartitionedTables
+    
+    /**
+     * Test of upsertLastValues method, of class MySQLBackend, when certain rows have bad data.
+     */
+    @Test
+    public void testUpsertLastValuesRejected() throws Exception {
+        System.out.println("Testing MySQLBackend.upsertLastValues (rejected rows)");
+        
+        // the multi-row query and the second row fail because of a too long value
+        when(mockConnection.prepareStatement(anyString())).thenReturn(mockPreparedStatement);
+        SQLException dataTooLong = new SQLException("Data too long for column 'entityId'", "22001");
+        when(mockPreparedStatement.executeUpdate()).thenThrow(dataTooLong).thenReturn(1).thenThrow(dataTooLong)
+                .thenReturn(1);
+        ArrayList<Row> lastValues = new ArrayList<Row>();
+        
+        for (int i = 0; i < 3; i++) {
+            lastValues.add(new Row(i, "2014-05-13T16:48:13", "room" + i, "room", "temperature", "centigrade",
+                    "26.5", "[]"));
+        } // for
+        
+        // the rows are upserted one by one, and only the bad one is rejected
+        try {
+            backend.upsertLastValues("rooms", "room_last", lastValues);
+            fail("The bad row was not rejected");
+        } catch (CygnusRejectedRows e) {
+            assertEquals(1, e.getRejections().size());
+            assertTrue(e.getRejections().containsKey(1));
+        } // try catch
+        
+        verify(mockPreparedStatement, times(4)).executeUpdate();
+        verify(mockConnection, times(2)).commit();
+        verify(mockConnection, times(1)).close();
+        
+        // any other error is a persistence error, the rows are not upserted one by one
+        reset(mockPreparedStatement);
+        when(mockPreparedStatement.executeUpdate()).thenThrow(
+                new SQLException("Table 'rooms.room_last' doesn't exist", "42S02"));
+        
+        try {
+            backend.upsertLastValues("rooms", "room_last", lastValues);
+            fail("The missing table was not a persistence error");
+        } catch (CygnusPersistenceError e) {
+            verify(mockPreparedStatement, times(1)).executeUpdate();
+        } // try catch
+    } // testUpsertLastValuesRejected
+    
 } // MySQLBackendTest
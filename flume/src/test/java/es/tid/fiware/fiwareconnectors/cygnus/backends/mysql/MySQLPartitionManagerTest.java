@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.mysql;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import static org.mockito.Mockito.*; // this is required by "when" like functions
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MySQLPartitionManagerTest {
+    
+    // instance to be tested
+    private MySQLPartitionManager partitionManager;
+    
+    // mocks
+    @Mock
+    private MySQLBackend mockMySQLBackend;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        // the partitions are not checked in background during the tests
+        partitionManager = new MySQLPartitionManager(mockMySQLBackend, 3600000);
+        when(mockMySQLBackend.managePartitions(anyString(), anyString())).thenReturn(true);
+    } // setUp
+    
+    /**
+     * Stops the partition management.
+     */
+    @After
+    public void tearDown() {
+        partitionManager.stop();
+    } // tearDown
+    
+    /**
+     * Test of manageAll method, of class MySQLPartitionManager, when restarting.
+     */
+    @Test
+    public void testManageAllExistingTables() throws Exception {
+        System.out.println("Testing MySQLPartitionManager.manageAll (existing tables)");
+        
+        // the existing tables cannot be read the first time, thus they are read again in the next round
+        when(mockMySQLBackend.readPartitionedTables()).thenThrow(new CygnusPersistenceError("MySQL is down"))
+                .thenReturn(new ArrayList<String[]>(Arrays.asList(new String[] {"rooms", "room1"},
+                new String[] {"rooms", "room2"})));
+        partitionManager.manageAll();
+        assertEquals(0, partitionManager.getNumTables());
+        partitionManager.manageAll();
+        assertEquals(2, partitionManager.getNumTables());
+        verify(mockMySQLBackend).managePartitions("rooms", "room1");
+        verify(mockMySQLBackend).managePartitions("rooms", "room2");
+        
+        // once read, the existing tables are not read anymore
+        partitionManager.manageAll();
+        verify(mockMySQLBackend, times(2)).readPartitionedTables();
+    } // testManageAllExistingTables
+    
+    /**
+     * Test of manageAll method, of class MySQLPartitionManager, when a table is not partitioned.
+     */
+    @Test
+    public void testManageAllNotPartitioned() throws Exception {
+        System.out.println("Testing MySQLPartitionManager.manageAll (not partitioned table)");
+        when(mockMySQLBackend.readPartitionedTables()).thenReturn(new ArrayList<String[]>(Arrays.asList(
+                new String[] {"rooms", "room1"}, new String[] {"rooms", "room2"})));
+        when(mockMySQLBackend.managePartitions("rooms", "room2")).thenReturn(false);
+        
+        // the not partitioned table is checked once, and unregistered
+        partitionManager.manageAll();
+        assertEquals(1, partitionManager.getNumTables());
+        partitionManager.manageAll();
+        verify(mockMySQLBackend, times(2)).managePartitions("rooms", "room1");
+        verify(mockMySQLBackend, times(1)).managePartitions("rooms", "room2");
+    } // testManageAllNotPartitioned
+    
+} // MySQLPartitionManagerTest
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.backends.mysql;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MySQLPartitioningTest {
+    
+    // instances to be tested
+    private MySQLPartitioning daily;
+    private MySQLPartitioning monthly;
+    
+    // constants
+    private final long now = 1416477600; // 2014-11-20T10:00:00Z
+    private final long nov20 = 1416441600;
+    private final long nov21 = 1416528000;
+    private final long nov22 = 1416614400;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        daily = new MySQLPartitioning("day", 1, 1);
+        monthly = new MySQLPartitioning("month", 1, 0);
+    } // setUp
+    
+    /**
+     * Test of getPeriodStart, addPeriods and getPartitionName methods, of class MySQLPartitioning.
+     */
+    @Test
+    public void testPeriods() {
+        System.out.println("Testing MySQLPartitioning.getPeriodStart, MySQLPartitioning.addPeriods and "
+                + "MySQLPartitioning.getPartitionName");
+        assertEquals(nov20, daily.getPeriodStart(now));
+        assertEquals(nov21, daily.addPeriods(nov20, 1));
+        assertEquals("p20141120", daily.getPartitionName(nov20));
+        assertEquals(1414800000, monthly.getPeriodStart(now)); // 2014-11-01
+        assertEquals(1412121600, monthly.addPeriods(1414800000, -1)); // 2014-10-01
+        assertEquals("p201411", monthly.getPartitionName(1414800000));
+    } // testPeriods
+    
+    /**
+     * Test of buildPartitionByClause method, of class MySQLPartitioning.
+     */
+    @Test
+    public void testBuildPartitionByClause() {
+        System.out.println("Testing MySQLPartitioning.buildPartitionByClause");
+        assertEquals("partition by range (recvTimeTs) (partition p20141120 values less than (" + nov21 + "), "
+                + "partition p20141121 values less than (" + nov22 + "), partition pmax values less than maxvalue)",
+                daily.buildPartitionByClause(now));
+        assertEquals("partition by range (recvTimeTs) (partition p201411 values less than (1417392000), "
+                + "partition p201412 values less than (1420070400), partition pmax values less than maxvalue)",
+                monthly.buildPartitionByClause(now));
+    } // testBuildPartitionByClause
+    
+    /**
+     * Test of buildReorganizeQuery method, of class MySQLPartitioning.
+     */
+    @Test
+    public void testBuildReorganizeQuery() {
+        System.out.println("Testing MySQLPartitioning.buildReorganizeQuery");
+        
+        // the partitions ahead of time already exist
+        assertNull(daily.buildReorganizeQuery("`rooms`.`room1`", nov22, now));
+        
+        // the catch-all partition is split
+        assertEquals("alter table `rooms`.`room1` reorganize partition pmax into (partition p20141121 values less "
+                + "than (" + nov22 + "), partition pmax values less than maxvalue)",
+                daily.buildReorganizeQuery("`rooms`.`room1`", nov21, now));
+    } // testBuildReorganizeQuery
+    
+    /**
+     * Test of getExpiredPartitions method, of class MySQLPartitioning.
+     */
+    @Test
+    public void testGetExpiredPartitions() {
+        System.out.println("Testing MySQLPartitioning.getExpiredPartitions");
+        LinkedHashMap<String, Long> partitions = new LinkedHashMap<String, Long>();
+        partitions.put("p20141118", daily.addPeriods(nov20, -1));
+        partitions.put("p20141119", nov20);
+        partitions.put("p20141120", nov21);
+        
+        // the current partition and the previous one are kept
+        assertEquals(Arrays.asList("p20141118"), daily.getExpiredPartitions(partitions, now));
+        
+        // no retention limit
+        assertTrue(monthly.getExpiredPartitions(partitions, now).isEmpty());
+    } // testGetExpiredPartitions
+    
+} // MySQLPartitioningTest
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.channels;
+
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.util.HashMap;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FairQueueChannelTest {
+    
+    // instance to be tested
+    private FairQueueChannel channel;
+    
+    // constants
+    private final String noisyService = "noisy";
+    private final String quietService = "quiet";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        channel = new FairQueueChannel();
+        channel.setName("fair-channel");
+        Context context = new Context();
+        context.put("capacity", "20");
+        context.put("transactionCapacity", "10");
+        context.put("tenants." + noisyService + ".weight", "2");
+        context.put("tenants." + quietService + ".quota", "2");
+        channel.configure(context);
+        channel.start();
+    } // setUp
+    
+    /**
+     * Stops the tested instance.
+     */
+    @After
+    public void tearDown() {
+        channel.stop();
+    } // tearDown
+    
+    /**
+     * Test of take method, of class FairQueueChannel.
+     */
+    @Test
+    public void testWeightedRoundRobin() {
+        System.out.println("Testing FairQueueChannel.take (weighted round robin)");
+        put(noisyService, 6);
+        put(quietService, 2);
+        String[] expected = {noisyService, noisyService, quietService, noisyService, noisyService, quietService,
+            noisyService, noisyService};
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        
+        for (String service : expected) {
+            assertEquals(service, channel.take().getHeaders().get(Constants.HEADER_SERVICE));
+        } // for
+        
+        assertNull(channel.take());
+        txn.commit();
+        txn.close();
+        assertEquals(0, channel.getSize());
+        assertEquals(6, channel.getTenantCounters().get(noisyService).getEventTakeSuccessCount());
+    } // testWeightedRoundRobin
+    
+    /**
+     * Test of put method, of class FairQueueChannel.
+     */
+    @Test
+    public void testQuota() {
+        System.out.println("Testing FairQueueChannel.put (tenant quota)");
+        put(quietService, 2);
+        
+        try {
+            put(quietService, 1);
+            fail("The tenant quota was not enforced");
+        } catch (ChannelException e) {
+            assertEquals(1, channel.getTenantCounters().get(quietService).getEventPutRejectedCount());
+        } // try catch
+        
+        // other tenants are not affected
+        put(noisyService, 5);
+        assertEquals(7, channel.getSize());
+    } // testQuota
+    
+    /**
+     * Test of the rollback of a take, of class FairQueueChannel.
+     */
+    @Test
+    public void testTakeRollback() {
+        System.out.println("Testing FairQueueChannel.take (rollback)");
+        put(quietService, 2);
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        Event first = channel.take();
+        channel.take();
+        txn.rollback();
+        txn.close();
+        assertEquals(2, channel.getSize());
+        txn = channel.getTransaction();
+        txn.begin();
+        assertSame(first, channel.take());
+        txn.commit();
+        txn.close();
+        assertEquals(1, channel.getSize());
+    } // testTakeRollback
+    
+    /**
+     * Test of configure method, of class FairQueueChannel, when the configured services are not encoded.
+     */
+    @Test
+    public void testConfigureEncodedServices() {
+        System.out.println("Testing FairQueueChannel.configure (encoded services)");
+        channel.stop();
+        channel = new FairQueueChannel();
+        channel.setName("fair-channel");
+        Context context = new Context();
+        context.put("tenants.MyService.weight", "3");
+        channel.configure(context);
+        channel.start();
+        
+        // the fiware-service header of the events is lower cased by the handler
+        put("myservice", 1);
+        assertEquals(3, channel.getTenantCounters().get("myservice").getWeight());
+    } // testConfigureEncodedServices
+    
+    /**
+     * Test of put and take methods, of class FairQueueChannel, when the maximum number of tenants is reached.
+     */
+    @Test
+    public void testMaxTenants() {
+        System.out.println("Testing FairQueueChannel.put (maximum number of tenants)");
+        channel.stop();
+        channel = new FairQueueChannel();
+        channel.setName("fair-channel");
+        Context context = new Context();
+        context.put("max_tenants", "2");
+        context.put("tenants." + quietService + ".quota", "2");
+        channel.configure(context);
+        channel.start();
+        
+        // the configured tenants are not limited, the new services are queued in the default tenant once the limit
+        // is reached
+        put(quietService, 1);
+        put("service1", 1);
+        put("service2", 1);
+        put("service3", 1);
+        assertEquals(4, channel.getNumTenants());
+        assertNull(channel.getTenantCounters().get("service3"));
+        assertEquals(1, channel.getTenantCounters().get("default").getQueueSize());
+        
+        // a drained tenant is removed, thus a new service gets its own tenant
+        take(4);
+        assertEquals(3, channel.getNumTenants());
+        assertNull(channel.getTenantCounters().get("service1"));
+        put("service3", 1);
+        assertEquals(1, channel.getTenantCounters().get("service3").getQueueSize());
+    } // testMaxTenants
+    
+    private void take(int numEvents) {
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        
+        for (int i = 0; i < numEvents; i++) {
+            assertNotNull(channel.take());
+        } // for
+        
+        txn.commit();
+        txn.close();
+    } // take
+    
+    private void put(String service, int numEvents) {
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        
+        try {
+            for (int i = 0; i < numEvents; i++) {
+                HashMap<String, String> headers = new HashMap<String, String>();
+                headers.put(Constants.HEADER_SERVICE, service);
+                channel.put(EventBuilder.withBody(new byte[0], headers));
+            } // for
+            
+            txn.commit();
+        } catch (ChannelException e) {
+            txn.rollback();
+            throw e;
+        } finally {
+            txn.close();
+        } // try catch finally
+    } // put
+    
+} // FairQueueChannelTest
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.handlers;
+
+import java.util.HashMap;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AdmissionControllerTest {
+
+    // other instances
+    private HashMap<String, Integer> maxInFlightPerService;
+    private HashMap<String, Double> maxChannelFillPerService;
+
+    // constants
+    private final String[] channels = {"ch1", "ch2"};
+    private final String quietService = "quiet";
+    private final String noisyService = "noisy";
+    private final String throttledService = "throttled";
+
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        maxInFlightPerService = new HashMap<String, Integer>();
+        maxInFlightPerService.put(noisyService, 1);
+        maxChannelFillPerService = new HashMap<String, Double>();
+        maxChannelFillPerService.put(throttledService, 50.0);
+    } // setUp
+
+    /**
+     * Test of admit and release methods, of class AdmissionController.
+     */
+    @Test
+    public void testInFlightLimits() {
+        System.out.println("Testing AdmissionController.admit (in-flight limits)");
+        AdmissionController controller = new AdmissionController(2, 100, maxInFlightPerService,
+                maxChannelFillPerService, channels, 5);
+        assertTrue(controller.admit(noisyService));
+        assertFalse(controller.admit(noisyService)); // per service limit reached
+        assertTrue(controller.admit(quietService));
+        assertFalse(controller.admit(quietService)); // global limit reached
+        assertEquals(2, controller.getInFlight());
+        controller.release(noisyService);
+        assertTrue(controller.admit(quietService));
+        controller.release(quietService);
+        controller.release(quietService);
+        assertEquals(0, controller.getInFlight());
+    } // testInFlightLimits
+
+    /**
+     * Test of admit method, of class AdmissionController.
+     */
+    @Test
+    public void testChannelFillLimits() {
+        System.out.println("Testing AdmissionController.admit (channel fill limits)");
+        AdmissionController controller = new AdmissionController(0, 90, maxInFlightPerService,
+                maxChannelFillPerService, channels, 5) {
+
+            @Override
+            protected double getChannelFillPercentage() {
+                return 75;
+            } // getChannelFillPercentage
+
+        };
+
+        assertTrue(controller.admit(quietService));
+        assertFalse(controller.admit(throttledService));
+        assertEquals(1, controller.getInFlight());
+    } // testChannelFillLimits
+
+} // AdmissionControllerTest
@@ -18,6 +18,8 @@
 
 package es.tid.fiware.fiwareconnectors.cygnus.handlers;
 
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusOverloaded;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.TestConstants;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.TestUtils;
 import java.io.BufferedReader;
@@ -160,4 +162,53 @@ public class OrionRestHandlerTest {
         assertTrue(eventMessage.length != 0);
     } // testGetEvents
     
+    /**
+     * Test of getEvents method, of class OrionRestHandler, when the admission control rejects the notification.
+     */
+    @Test
+    public void testGetEventsOverloaded() throws Exception {
+        System.out.println("Testing 'getEvents' method from class 'OrionRestHandler' (overloaded agent)");
+        context.put(Constants.PARAM_ADMISSION_CONTROL, "true");
+        context.put(Constants.PARAM_ADMISSION_MAX_CHANNEL_FILL, "0");
+        context.put(Constants.PARAM_ADMISSION_RETRY_AFTER, "7");
+        handler.configure(context);
+        
+        try {
+            handler.getEvents(mockRequest);
+            fail("A rejected notification must not be returned as an empty list of events");
+        } catch (CygnusOverloaded e) {
+            assertEquals(7, e.getRetryAfter());
+        } // try catch
+        
+        verify(mockRequest, never()).getReader();
+        assertEquals(0, handler.getAdmissionController().getInFlight());
+    } // testGetEventsOverloaded
+    
+    /**
+     * Test of getEvents and release methods, of class OrionRestHandler, when the admitted notifications are released
+     * by the source.
+     */
+    @Test
+    public void testReleasedBySource() throws Exception {
+        System.out.println("Testing 'release' method from class 'OrionRestHandler'");
+        context.put(Constants.PARAM_ADMISSION_CONTROL, "true");
+        context.put(Constants.PARAM_ADMISSION_MAX_IN_FLIGHT, "1");
+        handler.configure(context);
+        handler.setReleasedBySource(true);
+        
+        // the notification is in flight until its events are put in the channel
+        List<Event> events = handler.getEvents(mockRequest);
+        assertEquals(1, handler.getAdmissionController().getInFlight());
+        
+        try {
+            handler.getEvents(mockRequest);
+            fail("A second notification was admitted while the first one was in flight");
+        } catch (CygnusOverloaded e) {
+            assertEquals(1, handler.getAdmissionController().getInFlight());
+        } // try catch
+        
+        handler.release(events);
+        assertEquals(0, handler.getAdmissionController().getInFlight());
+    } // testReleasedBySource
+    
 } // OrionRestHandlerTest
\ No newline at end of file
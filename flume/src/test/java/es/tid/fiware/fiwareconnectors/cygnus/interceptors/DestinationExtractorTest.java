@@ -24,6 +24,8 @@ import org.apache.flume.event.EventBuilder;
 import org.apache.flume.Event;
 import es.tid.fiware.fiwareconnectors.cygnus.interceptors.DestinationExtractor.MatchingRule;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.io.File;
+import java.io.FileWriter;
 import java.util.ArrayList;
 import org.junit.Before;
 import org.junit.Test;
@@ -149,5 +151,38 @@ public class DestinationExtractorTest {
         String datasets = interceptedEvent.getHeaders().get(Constants.HEADER_SERVICE_PATH);
         assertEquals(datasets, "rooms,rooms");
     } // testIntercept
+    
+    /**
+     * Test of reloadMatchingTable method, of class DestinationExtractor.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testReloadMatchingTable() throws Exception {
+        System.out.println("Testing DestinationExtractor.reloadMatchingTable");
+        File file = File.createTempFile("matching_table", ".conf");
+        file.deleteOnExit();
+        writeMatchingTable(file, "1|entityId|Car|cars|vehicles\n");
+        DestinationExtractor reloadableExtractor = new DestinationExtractor(file.getAbsolutePath());
+        reloadableExtractor.initialize();
+        assertEquals(1, reloadableExtractor.getMatchingTable().size());
+        
+        // a valid matching table replaces the current one
+        writeMatchingTable(file, "1|entityId|Car|cars|vehicles\n2|entityId|Bus|buses|vehicles\n");
+        assertTrue(reloadableExtractor.reloadMatchingTable());
+        assertEquals(2, reloadableExtractor.getMatchingTable().size());
+        
+        // an invalid matching table is not loaded
+        writeMatchingTable(file, "1|entityId|Car(|cars|vehicles\n");
+        assertFalse(reloadableExtractor.reloadMatchingTable());
+        assertEquals(2, reloadableExtractor.getMatchingTable().size());
+        reloadableExtractor.close();
+    } // testReloadMatchingTable
+    
+    private void writeMatchingTable(File file, String content) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    } // writeMatchingTable
 
 } // DestinationExtractorTest
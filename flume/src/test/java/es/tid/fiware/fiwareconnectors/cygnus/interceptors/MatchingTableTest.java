@@ -0,0 +1,180 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.interceptors;
+
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest.ContextElement;
+import es.tid.fiware.fiwareconnectors.cygnus.interceptors.DestinationExtractor.MatchingRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MatchingTableTest {
+    
+    // instance to be tested
+    private MatchingTable matchingTable;
+    
+    // other instances
+    private ArrayList<MatchingRule> rules;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        DestinationExtractor destExtractor = new DestinationExtractor(null);
+        rules = new ArrayList<MatchingRule>();
+        ArrayList<String> idAndType = new ArrayList<String>(Arrays.asList("entityId", "entityType"));
+        ArrayList<String> id = new ArrayList<String>(Arrays.asList("entityId"));
+        ArrayList<String> servicePath = new ArrayList<String>(Arrays.asList("servicePath"));
+        rules.add(destExtractor.new MatchingRule(1, idAndType, "Room\\.(\\d*)Room", "numeric_rooms", "rooms"));
+        rules.add(destExtractor.new MatchingRule(2, id, "Car", "cars", "vehicles"));
+        rules.add(destExtractor.new MatchingRule(3, servicePath, "GARDENS", "gardens", "city_indicators"));
+        rules.add(destExtractor.new MatchingRule(4, id, ".*\\.(\\w+)", "dotted", "misc"));
+        rules.add(destExtractor.new MatchingRule(5, id, "Car|Bus", "transport", "vehicles"));
+        rules.add(destExtractor.new MatchingRule(6, id, "Bus", "buses", "vehicles"));
+        rules.add(destExtractor.new MatchingRule(7, id, "(\\w)\\1x", "doubled", "misc"));
+        matchingTable = new MatchingTable(rules);
+    } // setUp
+    
+    /**
+     * Test of match method, of class MatchingTable.
+     */
+    @Test
+    public void testMatch() {
+        System.out.println("Testing MatchingTable.match");
+        assertEquals(1, matchingTable.match(element("Room.1", "Room"), "/").getId());
+        assertEquals(2, matchingTable.match(element("Car", "Vehicle"), "/").getId());
+        assertEquals(3, matchingTable.match(element("Tree", "Plant"), "GARDENS").getId());
+        assertEquals(4, matchingTable.match(element("Room.1", "Office"), "/").getId());
+        assertEquals(5, matchingTable.match(element("Bus", "Vehicle"), "/").getId());
+        assertEquals(7, matchingTable.match(element("aax", "Letters"), "/").getId());
+        assertNull(matchingTable.match(element("Tree", "Plant"), "/"));
+    } // testMatch
+    
+    /**
+     * Test of resolve method, of class MatchingTable.
+     */
+    @Test
+    public void testResolve() {
+        System.out.println("Testing MatchingTable.resolve");
+        
+        for (int i = 0; i < 2; i++) {
+            MatchingTable.Destination destination = matchingTable.resolve(element("Room.1", "Room"), "/");
+            assertEquals("numeric_rooms", destination.getDestination());
+            assertEquals("rooms", destination.getDataset());
+            destination = matchingTable.resolve(element("Tree", "Plant"), "/");
+            assertEquals("tree_plant", destination.getDestination());
+            assertEquals("/", destination.getDataset());
+        } // for
+        
+        // the second time the destinations are got from the cache
+        assertEquals(2, matchingTable.getCache().getHits());
+        assertEquals(2, matchingTable.getCache().getMisses());
+    } // testResolve
+    
+    /**
+     * Test of match method, of class MatchingTable, against a sequential evaluation of the rules.
+     */
+    @Test
+    public void testMatchIsSequential() {
+        System.out.println("Testing MatchingTable.match (sequential semantics)");
+        String[] ids = {"Room.1", "Room.x", "Car", "Bus", "bbx", "Tree", "Car.2", ""};
+        String[] types = {"Room", "Vehicle", "Plant"};
+        String[] servicePaths = {"/", "GARDENS"};
+        
+        for (String id : ids) {
+            for (String type : types) {
+                for (String servicePath : servicePaths) {
+                    ContextElement contextElement = element(id, type);
+                    MatchingRule expected = null;
+                    
+                    for (MatchingRule rule : rules) {
+                        String concat = MatchingTable.concatenateFields(rule.getFields(), contextElement,
+                                servicePath);
+                        
+                        if (rule.getPattern().matcher(concat).matches()) {
+                            expected = rule;
+                            break;
+                        } // if
+                    } // for
+                    
+                    assertSame(expected, matchingTable.match(contextElement, servicePath));
+                } // for
+            } // for
+        } // for
+    } // testMatchIsSequential
+    
+    /**
+     * Test of match method, of class MatchingTable, with rules that cannot be combined into a single pattern.
+     */
+    @Test
+    public void testMatchNotCombinable() {
+        System.out.println("Testing MatchingTable.match (named groups and backreferences)");
+        DestinationExtractor destExtractor = new DestinationExtractor(null);
+        ArrayList<String> id = new ArrayList<String>(Arrays.asList("entityId"));
+        ArrayList<MatchingRule> namedRules = new ArrayList<MatchingRule>();
+        namedRules.add(destExtractor.new MatchingRule(1, id, "(?<x>\\d+)-a", "a", "misc"));
+        namedRules.add(destExtractor.new MatchingRule(2, id, "(?<x>\\d+)-b", "b", "misc"));
+        namedRules.add(destExtractor.new MatchingRule(3, id, "(\\w)(\\w)(\\w)(\\w)(\\w)(\\w)(\\w)(\\w)(\\w)(\\w)\\10",
+                "tenth", "misc"));
+        namedRules.add(destExtractor.new MatchingRule(4, id, "\\d+-\\w", "other", "misc"));
+        MatchingTable table = new MatchingTable(namedRules);
+        assertEquals(1, table.match(element("12-a", "Thing"), "/").getId());
+        assertEquals(2, table.match(element("12-b", "Thing"), "/").getId());
+        assertEquals(3, table.match(element("abcdefghijj", "Thing"), "/").getId());
+        assertEquals(4, table.match(element("12-c", "Thing"), "/").getId());
+        assertNull(table.match(element("Tree", "Thing"), "/"));
+    } // testMatchNotCombinable
+    
+    /**
+     * Test of getLiteralPrefix method, of class MatchingTable.
+     */
+    @Test
+    public void testGetLiteralPrefix() {
+        System.out.println("Testing MatchingTable.getLiteralPrefix");
+        assertEquals("Room.", MatchingTable.getLiteralPrefix("Room\\.(\\d*)Room").getPrefix());
+        assertFalse(MatchingTable.getLiteralPrefix("Room\\.(\\d*)Room").isWholeRegex());
+        assertEquals("Room.1", MatchingTable.getLiteralPrefix("Room\\.1").getPrefix());
+        assertTrue(MatchingTable.getLiteralPrefix("Room\\.1").isWholeRegex());
+        assertEquals("Car", MatchingTable.getLiteralPrefix("Cars?").getPrefix());
+        assertEquals("", MatchingTable.getLiteralPrefix("Car|Bus").getPrefix());
+        assertEquals("", MatchingTable.getLiteralPrefix("\\d+").getPrefix());
+    } // testGetLiteralPrefix
+    
+    private ContextElement element(String id, String type) {
+        ContextElement contextElement = new NotifyContextRequest().new ContextElement();
+        contextElement.setId(id);
+        contextElement.setType(type);
+        return contextElement;
+    } // element
+    
+} // MatchingTableTest
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncRollingFileAppenderTest {
+
+    // instance to be tested
+    private AsyncRollingFileAppender appender;
+
+    // other instances
+    private File file;
+    private Logger logger;
+
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("cygnus-async", ".log");
+        appender = new AsyncRollingFileAppender();
+        appender.setName("async");
+        appender.setFile(file.getAbsolutePath());
+        appender.setAppend(false);
+        appender.setBlocking(true);
+        appender.setBufferSize(16);
+        appender.setLayout(new PatternLayout("%p %m%n"));
+        appender.activateOptions();
+        logger = Logger.getLogger("AsyncRollingFileAppenderTest");
+        logger.setAdditivity(false);
+        logger.setLevel(Level.INFO);
+        logger.removeAllAppenders();
+        logger.addAppender(appender);
+    } // setUp
+
+    /**
+     * Removes the log file.
+     */
+    @After
+    public void tearDown() {
+        logger.removeAllAppenders();
+        file.delete();
+    } // tearDown
+
+    /**
+     * Test of append and close methods, of class AsyncRollingFileAppender.
+     */
+    @Test
+    public void testAppend() throws Exception {
+        System.out.println("Testing AsyncRollingFileAppender.append");
+
+        for (int i = 0; i < 1000; i++) {
+            logger.info("trace " + i);
+        } // for
+
+        // closing the appender writes the traces still in the buffer
+        appender.close();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        int lines = 0;
+        String line = reader.readLine();
+
+        while (line != null) {
+            assertEquals("INFO trace " + lines, line);
+            lines++;
+            line = reader.readLine();
+        } // while
+
+        reader.close();
+        assertEquals(1000, lines);
+        assertEquals(0, appender.getDiscarded());
+    } // testAppend
+
+} // AsyncRollingFileAppenderTest
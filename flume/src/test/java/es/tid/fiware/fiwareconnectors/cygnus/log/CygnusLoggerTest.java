@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.log;
+
+import java.util.ArrayList;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CygnusLoggerTest {
+
+    // other instances
+    private Logger logger;
+    private ArrayList<LoggingEvent> events;
+
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        events = new ArrayList<LoggingEvent>();
+        logger = Logger.getLogger("CygnusLoggerTest");
+        logger.setAdditivity(false);
+        logger.removeAllAppenders();
+        logger.addAppender(new AppenderSkeleton() {
+
+            @Override
+            protected void append(LoggingEvent event) {
+                events.add(event);
+            } // append
+
+            @Override
+            public void close() {
+            } // close
+
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            } // requiresLayout
+
+        });
+    } // setUp
+
+    /**
+     * Restores the default maximum event rate.
+     */
+    @After
+    public void tearDown() {
+        CygnusLogger.setMaxEventRate(0);
+    } // tearDown
+
+    /**
+     * Test of format method, of class CygnusLogger.
+     */
+    @Test
+    public void testFormat() {
+        System.out.println("Testing CygnusLogger.format");
+        assertEquals("Event put in the channel (id=12, ttl=10)",
+                CygnusLogger.format("Event put in the channel (id={}, ttl={})", 12, "10"));
+        assertEquals("no placeholders", CygnusLogger.format("no placeholders", "ignored"));
+        assertEquals("a=1, b={}", CygnusLogger.format("a={}, b={}", 1));
+        assertEquals("null value", CygnusLogger.format("{} value", (Object) null));
+    } // testFormat
+
+    /**
+     * Test of logDebug and logInfo methods, of class CygnusLogger.
+     */
+    @Test
+    public void testLevelGuard() {
+        System.out.println("Testing CygnusLogger.logDebug (level guard)");
+        logger.setLevel(Level.INFO);
+        CygnusLogger.logDebug(logger, "Not traced ({})", "x");
+        CygnusLogger.logInfo(logger, "Traced ({})", "y");
+        assertEquals(1, events.size());
+        assertEquals("Traced (y)", events.get(0).getRenderedMessage());
+    } // testLevelGuard
+
+    /**
+     * Test of logEventInfo method, of class CygnusLogger.
+     */
+    @Test
+    public void testLogEventInfo() {
+        System.out.println("Testing CygnusLogger.logEventInfo (rate limit)");
+        logger.setLevel(Level.INFO);
+        CygnusLogger.setMaxEventRate(5);
+
+        for (int i = 0; i < 100; i++) {
+            CygnusLogger.logEventInfo(logger, "Event {}", i);
+        } // for
+
+        // unless the second changed while looping, only 5 traces are written
+        assertTrue(events.size() >= 5 && events.size() < 100);
+        assertEquals("Event 0", events.get(0).getRenderedMessage());
+    } // testLogEventInfo
+
+} // CygnusLoggerTest
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+import java.util.List;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BackendLatencyTest {
+    
+    // other instances
+    private MetricsRegistry registry;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        registry = MetricsRegistry.getInstance();
+        registry.clear();
+    } // setUp
+    
+    /**
+     * Test of record and toJson methods, of class BackendLatency.
+     */
+    @Test
+    public void testToJson() {
+        System.out.println("Testing BackendLatency.toJson");
+        BackendLatency.record("mysql", "insertContextData", true, System.nanoTime());
+        BackendLatency.record("mysql", "insertContextData", false, System.nanoTime());
+        BackendLatency.record("hdfs", "append", true, System.nanoTime());
+        assertEquals(3, BackendLatency.getHistograms().size());
+        JsonObject json = BackendLatency.toJson();
+        JsonObject insert = json.getAsJsonObject("mysql").getAsJsonObject("insertContextData");
+        assertEquals(1, insert.getAsJsonObject(BackendLatency.STATUS_OK).get("count").getAsLong());
+        assertEquals(1, insert.getAsJsonObject(BackendLatency.STATUS_ERROR).get("count").getAsLong());
+        assertTrue(insert.getAsJsonObject(BackendLatency.STATUS_OK).has("p999"));
+        assertEquals(1, json.getAsJsonObject("hdfs").getAsJsonObject("append").getAsJsonObject("ok").get("count")
+                .getAsLong());
+    } // testToJson
+    
+    /**
+     * Test of summarize method, of class BackendLatency.
+     */
+    @Test
+    public void testSummarize() {
+        System.out.println("Testing BackendLatency.summarize");
+        Histogram histogram = registry.histogram(BackendLatency.METRIC_NAME, "Test latency", "backend", "ckan",
+                "operation", "datastore_upsert", "status", "ok");
+        
+        for (int i = 0; i < 99; i++) {
+            histogram.record(10);
+        } // for
+        
+        histogram.record(5000);
+        List<String> lines = BackendLatency.summarize();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("backend=ckan, operation=datastore_upsert, status=ok, count=100, p50=10us"));
+        
+        // nothing new recorded since the previous summary
+        assertTrue(BackendLatency.summarize().isEmpty());
+        
+        // only the values recorded since the previous summary are summarized
+        histogram.record(5000);
+        lines = BackendLatency.summarize();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("count=1, p50=" + Histogram.getUpperBound(Histogram.getBucket(5000))));
+    } // testSummarize
+    
+} // BackendLatencyTest
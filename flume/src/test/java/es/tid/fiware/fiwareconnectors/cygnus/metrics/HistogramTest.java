@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HistogramTest {
+    
+    /**
+     * Test of getBucket, getLowerBound and getUpperBound methods, of class Histogram.
+     */
+    @Test
+    public void testBuckets() {
+        System.out.println("Testing Histogram.getBucket");
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 123456789, Long.MAX_VALUE};
+        
+        for (long value : values) {
+            int bucket = Histogram.getBucket(value);
+            assertTrue(Histogram.getLowerBound(bucket) <= value);
+            assertTrue(Histogram.getUpperBound(bucket) >= value);
+        } // for
+    } // testBuckets
+    
+    /**
+     * Test of getValueAtQuantile method, of class Histogram.
+     */
+    @Test
+    public void testGetValueAtQuantile() {
+        System.out.println("Testing Histogram.getValueAtQuantile");
+        Histogram histogram = new Histogram("test_latency_us", "Test latency");
+        
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        } // for
+        
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000, histogram.getValueAtQuantile(0.5), 50000 * 0.04);
+        assertEquals(99000, histogram.getValueAtQuantile(0.99), 99000 * 0.04);
+        assertEquals(99900, histogram.getValueAtQuantile(0.999), 99900 * 0.04);
+        assertEquals(100000, histogram.getValueAtQuantile(1));
+    } // testGetValueAtQuantile
+    
+} // HistogramTest
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.metrics;
+
+import com.google.gson.JsonObject;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MetricsRegistryTest {
+    
+    // instance to be tested
+    private MetricsRegistry registry;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        registry = MetricsRegistry.getInstance();
+        registry.clear();
+    } // setUp
+    
+    /**
+     * Test of counter method, of class MetricsRegistry.
+     */
+    @Test
+    public void testCounter() {
+        System.out.println("Testing MetricsRegistry.counter");
+        registry.counter("test_errors", "Test errors", "type", "a").inc();
+        registry.counter("test_errors", "Test errors", "type", "a").inc(2);
+        registry.counter("test_errors", "Test errors", "type", "b").inc();
+        assertEquals(3, registry.counter("test_errors", "Test errors", "type", "a").getCount());
+        assertEquals(1, registry.counter("test_errors", "Test errors", "type", "b").getCount());
+    } // testCounter
+    
+    /**
+     * Test of toPrometheus method, of class MetricsRegistry.
+     */
+    @Test
+    public void testToPrometheus() {
+        System.out.println("Testing MetricsRegistry.toPrometheus");
+        registry.meter("test_events", "Test events", "sink", "s1", "status", "ok").mark(5);
+        registry.histogram("test_latency_us", "Test latency", "sink", "s1").record(10);
+        String text = registry.toPrometheus();
+        assertTrue(text.contains("# TYPE test_events_total counter\n"));
+        assertTrue(text.contains("test_events_total{sink=\"s1\",status=\"ok\"} 5\n"));
+        assertTrue(text.contains("# TYPE test_latency_us summary\n"));
+        assertTrue(text.contains("test_latency_us{sink=\"s1\",quantile=\"0.99\"} 10\n"));
+        assertTrue(text.contains("test_latency_us_count{sink=\"s1\"} 1\n"));
+    } // testToPrometheus
+    
+    /**
+     * Test of toJson method, of class MetricsRegistry.
+     */
+    @Test
+    public void testToJson() {
+        System.out.println("Testing MetricsRegistry.toJson");
+        registry.meter("test_events", "Test events", "status", "ok").mark(5);
+        registry.register(new Gauge("test_unavailable", "Not available") {
+            
+            @Override
+            public double getValue() {
+                return Double.NaN;
+            } // getValue
+            
+        });
+        JsonObject json = registry.toJson();
+        JsonObject values = json.getAsJsonObject("test_events").getAsJsonArray("values").get(0).getAsJsonObject();
+        assertEquals(5, values.get("count").getAsLong());
+        assertEquals("ok", values.getAsJsonObject("labels").get("status").getAsString());
+        assertFalse(json.has("test_unavailable"));
+    } // testToJson
+    
+} // MetricsRegistryTest
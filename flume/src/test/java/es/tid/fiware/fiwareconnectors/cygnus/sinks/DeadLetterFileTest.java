@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.HashMap;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DeadLetterFileTest {
+    
+    // other instances
+    private File dir;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("deadletter", "");
+        dir.delete();
+    } // setUp
+    
+    /**
+     * Removes the dead letter files.
+     */
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            } // for
+        } // if
+        
+        dir.delete();
+    } // tearDown
+    
+    /**
+     * Test of write method, of class DeadLetterFile.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("Testing DeadLetterFile.write");
+        File file = new File(dir, "dead_letter.log");
+        DeadLetterFile deadLetterFile = DeadLetterFile.getInstance(file.getPath(), 1024 * 1024, 2);
+        assertSame(deadLetterFile, DeadLetterFile.getInstance(file.getPath(), 1024 * 1024, 2));
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("fiware-service", "vehicles");
+        deadLetterFile.write("test-sink", EventBuilder.withBody("{\"bad\":}".getBytes(), headers),
+                new CygnusBadContextData("Unparseable notification"));
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        JsonObject line = new JsonParser().parse(reader.readLine()).getAsJsonObject();
+        assertNull(reader.readLine());
+        reader.close();
+        assertEquals("test-sink", line.get("sink").getAsString());
+        assertEquals("CygnusBadContextData", line.get("error").getAsString());
+        assertEquals("Bad context data (Unparseable notification)", line.get("message").getAsString());
+        assertEquals("vehicles", line.getAsJsonObject("headers").get("fiware-service").getAsString());
+        assertEquals("{\"bad\":}", line.get("body").getAsString());
+    } // testWrite
+    
+    /**
+     * Test of write method, of class DeadLetterFile.
+     */
+    @Test
+    public void testWriteRolling() throws Exception {
+        System.out.println("Testing DeadLetterFile.write (rolling)");
+        File file = new File(dir, "dead_letter_rolling.log");
+        DeadLetterFile deadLetterFile = DeadLetterFile.getInstance(file.getPath(), 100, 2);
+        
+        for (int i = 0; i < 5; i++) {
+            deadLetterFile.write("test-sink", EventBuilder.withBody(("body" + i).getBytes()),
+                    new CygnusBadContextData("error" + i));
+        } // for
+        
+        // each line exceeds the maximum size, thus there is a file per line and only the last 3 are kept
+        assertTrue(file.exists());
+        assertTrue(new File(file.getPath() + ".1").exists());
+        assertTrue(new File(file.getPath() + ".2").exists());
+        assertFalse(new File(file.getPath() + ".3").exists());
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        assertTrue(reader.readLine().contains("body4"));
+        reader.close();
+    } // testWriteRolling
+    
+} // DeadLetterFileTest
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.TestUtils;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.HashMap;
+import org.apache.flume.Context;
+import org.apache.flume.channel.MemoryChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class OrionFileSinkTest {
+    
+    // instance to be tested
+    private OrionFileSink sink;
+    
+    // other instances
+    private Context context;
+    private NotifyContextRequest notifyContextRequest;
+    private File dataDir;
+    
+    // constants
+    private final String attrPersistence = "row";
+    private final long recvTimeTs = 123456789;
+    private final String normalServiceName = "rooms";
+    private final String abnormalServiceName =
+            "toooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooolongorgname";
+    private final String normalServicePathName = "numeric-rooms";
+    private final String normalDestinationName = "room1-room";
+    private final String notifyXMLSimple = ""
+            + "<notifyContextRequest>"
+            +   "<subscriptionId>51c0ac9ed714fb3b37d7d5a8</subscriptionId>"
+            +   "<originator>localhost</originator>"
+            +   "<contextResponseList>"
+            +     "<contextElementResponse>"
+            +       "<contextElement>"
+            +         "<entityId type=\"AType\" isPattern=\"false\">"
+            +           "<id>Entity</id>"
+            +         "</entityId>"
+            +         "<contextAttributeList>"
+            +           "<contextAttribute>"
+            +             "<name>attribute</name>"
+            +             "<type>attributeType</type>"
+            +             "<contextValue>foo</contextValue>"
+            +           "</contextAttribute>"
+            +         "</contextAttributeList>"
+            +       "</contextElement>"
+            +       "<statusCode>"
+            +         "<code>200</code>"
+            +         "<reasonPhrase>OK</reasonPhrase>"
+            +       "</statusCode>"
+            +     "</contextElementResponse>"
+            +   "</contextResponseList>"
+            + "</notifyContextRequest>";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        // set up the instance of the tested class
+        sink = new OrionFileSink();
+        
+        // set up other instances
+        dataDir = File.createTempFile("files", "");
+        dataDir.delete();
+        context = new Context();
+        context.put("data_dir", dataDir.getAbsolutePath());
+        context.put("segment_size", "1");
+        context.put("attr_persistence", attrPersistence);
+        notifyContextRequest = TestUtils.createXMLNotifyContextRequest(notifyXMLSimple);
+    } // setUp
+    
+    /**
+     * Removes the local files.
+     */
+    @After
+    public void tearDown() {
+        delete(dataDir);
+    } // tearDown
+    
+    /**
+     * Test of configure method, of class OrionFileSink.
+     */
+    @Test
+    public void testConfigure() {
+        System.out.println("Testing OrionFileSink.configure");
+        sink.configure(context);
+        assertEquals(dataDir.getAbsolutePath(), sink.getDataDir());
+        assertEquals(1, sink.getSegmentSize());
+        assertEquals(100, sink.getMaxOpenLogs());
+        assertEquals(attrPersistence, sink.getRowAttrPersistence() ? "row" : "column");
+    } // testConfigure
+    
+    /**
+     * Test of persist and flush methods, of class OrionFileSink.
+     */
+    @Test
+    public void testPersistFlush() throws Exception {
+        System.out.println("Testing OrionFileSink.persist and OrionFileSink.flush (normal resource lengths)");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", new Long(recvTimeTs).toString());
+        headers.put(Constants.HEADER_SERVICE, normalServiceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, normalServicePathName);
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        sink.persist(headers, notifyContextRequest);
+        sink.persist(headers, notifyContextRequest);
+        sink.flush();
+        sink.stop();
+        File logDir = new File(dataDir, normalServiceName + "/" + normalServicePathName + "/" + normalDestinationName);
+        String segmentName = normalDestinationName + "-00000000000000000000";
+        assertEquals(2, countLines(new File(logDir, segmentName + ".seg")));
+        assertEquals(2, countLines(new File(logDir, segmentName + ".idx")));
+        
+        System.out.println("Testing OrionFileSink.persist (too long service name)");
+        headers.put(Constants.HEADER_SERVICE, abnormalServiceName);
+        
+        try {
+            sink.persist(headers, notifyContextRequest);
+            fail("A too long service name was accepted");
+        } catch (Exception e) {
+            assertTrue(true);
+        } // try catch
+    } // testPersistFlush
+    
+    /**
+     * Test of persist method, of class OrionFileSink.
+     */
+    @Test
+    public void testPersistPathTraversal() throws Exception {
+        System.out.println("Testing OrionFileSink.persist (\"..\" service and service path)");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", new Long(recvTimeTs).toString());
+        headers.put(Constants.HEADER_SERVICE, "..");
+        headers.put(Constants.HEADER_SERVICE_PATH, "..");
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        
+        try {
+            sink.persist(headers, notifyContextRequest);
+            fail("A log outside the data directory was accepted");
+        } catch (CygnusBadContextData e) {
+            assertEquals(0, sink.getNumOpenLogs());
+        } // try catch
+    } // testPersistPathTraversal
+    
+    /**
+     * Test of flush method, of class OrionFileSink.
+     */
+    @Test
+    public void testFlushMaxOpenLogs() throws Exception {
+        System.out.println("Testing OrionFileSink.flush (too many open logs)");
+        context.put("max_open_logs", "1");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", new Long(recvTimeTs).toString());
+        headers.put(Constants.HEADER_SERVICE, normalServiceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, normalServicePathName);
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        sink.persist(headers, notifyContextRequest);
+        headers.put(Constants.DESTINATION, "room2-room");
+        sink.persist(headers, notifyContextRequest);
+        sink.flush();
+        assertEquals(1, sink.getNumOpenLogs());
+        
+        // the closed log is reopened and appended
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        sink.persist(headers, notifyContextRequest);
+        sink.flush();
+        assertEquals(1, sink.getNumOpenLogs());
+        sink.stop();
+        File logDir = new File(dataDir, normalServiceName + "/" + normalServicePathName + "/" + normalDestinationName);
+        assertEquals(2, countLines(new File(logDir, normalDestinationName + "-00000000000000000000.seg")));
+    } // testFlushMaxOpenLogs
+    
+    private int countLines(File file) throws Exception {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        int lines = 0;
+        
+        try {
+            while (reader.readLine() != null) {
+                lines++;
+            } // while
+        } finally {
+            reader.close();
+        } // try finally
+        
+        return lines;
+    } // countLines
+    
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            } // for
+        } // if
+        
+        file.delete();
+    } // delete
+    
+} // OrionFileSinkTest
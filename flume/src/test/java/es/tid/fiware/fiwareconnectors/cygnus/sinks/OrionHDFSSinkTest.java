@@ -25,8 +25,14 @@ import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
 import es.tid.fiware.fiwareconnectors.cygnus.http.HttpClientFactory;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.TestUtils;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
 import org.junit.Before;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.apache.flume.Context;
@@ -144,6 +150,7 @@ public class OrionHDFSSinkTest {
         assertEquals(cosmosDefaultPassword, sink.getCosmosDefaultPassword());
         assertEquals(hdfsAPI, sink.getHDFSAPI());
         assertEquals(hivePort, sink.getHivePort());
+        assertFalse(sink.getORCFileFormat());
     } // testConfigure
 
     /**
@@ -247,4 +254,88 @@ public class OrionHDFSSinkTest {
         } // try catch finally
     } // testProcessContextResponses
     
+    /**
+     * Test of flush method, of class OrionHDFSSink.
+     */
+    @Test
+    public void testFlushCompressed() throws Exception {
+        System.out.println("Testing OrionHDFSSinkTest.flush (gzip compression)");
+        context.put("file_compression", "gzip");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        assertEquals("gzip", sink.getFileCompression());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", "123456789");
+        headers.put(Constants.HEADER_SERVICE, normalServiceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, normalServicePathName);
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        String hdfsFile = normalServiceName + "/" + normalServicePathName + "/" + normalDestinationName + "/"
+                + normalDestinationName + ".txt.gz";
+        
+        // the first batch creates the file with a single gzip member containing both lines
+        sink.persist(headers, notifyContextRequest);
+        sink.persist(headers, notifyContextRequest);
+        verify(mockWebHDFSBackend, never()).createFile(anyString(), anyString(), any(byte[].class));
+        sink.flush();
+        ArgumentCaptor<byte[]> created = ArgumentCaptor.forClass(byte[].class);
+        verify(mockWebHDFSBackend).createFile(eq(cosmosDefaultUsername), eq(hdfsFile), created.capture());
+        verify(mockWebHDFSBackend, times(1)).exists(cosmosDefaultUsername, hdfsFile);
+        
+        // the second batch appends another gzip member
+        when(mockWebHDFSBackend.exists(cosmosDefaultUsername, hdfsFile)).thenReturn(true);
+        sink.persist(headers, notifyContextRequest);
+        sink.flush();
+        ArgumentCaptor<byte[]> appended = ArgumentCaptor.forClass(byte[].class);
+        verify(mockWebHDFSBackend).append(eq(cosmosDefaultUsername), eq(hdfsFile), appended.capture());
+        
+        // the concatenated members are read as a single gzip file
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(created.getValue());
+        file.write(appended.getValue());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new ByteArrayInputStream(file.toByteArray())), "UTF-8"));
+        int lines = 0;
+        
+        while (reader.readLine() != null) {
+            lines++;
+        } // while
+        
+        assertEquals(3, lines);
+    } // testFlushCompressed
+    
+    /**
+     * Test of discard method, of class OrionHDFSSink.
+     */
+    @Test
+    public void testDiscardCompressed() throws Exception {
+        System.out.println("Testing OrionHDFSSinkTest.discard (gzip compression)");
+        context.put("file_compression", "gzip");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", "123456789");
+        headers.put(Constants.HEADER_SERVICE, normalServiceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, normalServicePathName);
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        String hdfsFile = normalServiceName + "/" + normalServicePathName + "/" + normalDestinationName + "/"
+                + normalDestinationName + ".txt.gz";
+        
+        // a batch is rolled back, thus its buffered lines must not be written when the batch is retried
+        sink.persist(headers, notifyContextRequest);
+        sink.discard();
+        sink.persist(headers, notifyContextRequest);
+        sink.flush();
+        ArgumentCaptor<byte[]> created = ArgumentCaptor.forClass(byte[].class);
+        verify(mockWebHDFSBackend).createFile(eq(cosmosDefaultUsername), eq(hdfsFile), created.capture());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new ByteArrayInputStream(created.getValue())), "UTF-8"));
+        int lines = 0;
+        
+        while (reader.readLine() != null) {
+            lines++;
+        } // while
+        
+        assertEquals(1, lines);
+    } // testDiscardCompressed
+    
 } // OrionHDFSSinkTest
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import static org.mockito.Mockito.*; // this is required by "when" like functions
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend;
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend.Row;
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.TestUtils;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.MemoryChannel;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class OrionJDBCSinkTest {
+    
+    // instance to be tested
+    private OrionJDBCSink sink;
+    
+    // other instances
+    private Context context;
+    private NotifyContextRequest notifyContextRequest;
+    private HashMap<String, String> headers;
+    
+    // mocks
+    @Mock
+    private JDBCBackend mockJDBCBackend;
+    
+    // constants
+    private final long recvTimeTs = 123456789;
+    private final String serviceName = "rooms";
+    private final String servicePathName = "numeric-rooms";
+    private final String destinationName = "room1-room";
+    private final String tableName = servicePathName + "_" + destinationName;
+    private final String notifyXMLSimple = ""
+            + "<notifyContextRequest>"
+            +   "<subscriptionId>51c0ac9ed714fb3b37d7d5a8</subscriptionId>"
+            +   "<originator>localhost</originator>"
+            +   "<contextResponseList>"
+            +     "<contextElementResponse>"
+            +       "<contextElement>"
+            +         "<entityId type=\"AType\" isPattern=\"false\">"
+            +           "<id>Entity</id>"
+            +         "</entityId>"
+            +         "<contextAttributeList>"
+            +           "<contextAttribute>"
+            +             "<name>attribute</name>"
+            +             "<type>attributeType</type>"
+            +             "<contextValue>foo</contextValue>"
+            +           "</contextAttribute>"
+            +         "</contextAttributeList>"
+            +       "</contextElement>"
+            +       "<statusCode>"
+            +         "<code>200</code>"
+            +         "<reasonPhrase>OK</reasonPhrase>"
+            +       "</statusCode>"
+            +     "</contextElementResponse>"
+            +   "</contextResponseList>"
+            + "</notifyContextRequest>";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        // set up the instance of the tested class
+        sink = new OrionJDBCSink();
+        sink.setPersistenceBackend(mockJDBCBackend);
+        
+        // set up other instances
+        context = new Context();
+        context.put("jdbc_dialect", "postgresql");
+        context.put("jdbc_host", "localhost");
+        context.put("jdbc_username", "user1");
+        context.put("jdbc_password", "pass1234");
+        context.put("attr_persistence", "row");
+        notifyContextRequest = TestUtils.createXMLNotifyContextRequest(notifyXMLSimple);
+        headers = new HashMap<String, String>();
+        headers.put("timestamp", new Long(recvTimeTs).toString());
+        headers.put(Constants.HEADER_SERVICE, serviceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, servicePathName);
+        headers.put(Constants.DESTINATION, destinationName);
+    } // setUp
+    
+    /**
+     * Test of configure method, of class OrionJDBCSink.
+     */
+    @Test
+    public void testConfigure() {
+        System.out.println("Testing OrionJDBCSink.configure");
+        sink.configure(context);
+        assertEquals("postgresql", sink.getDialect().getName());
+        assertEquals("localhost", sink.getJDBCHost());
+        assertEquals("5432", sink.getJDBCPort());
+        assertEquals("cygnus", sink.getJDBCDatabase());
+        assertTrue(sink.getRowAttrPersistence());
+        context.put("jdbc_dialect", "mysql");
+        context.put("attr_persistence", "last");
+        sink.configure(context);
+        assertEquals("3306", sink.getJDBCPort());
+        assertTrue(sink.getLastValuePersistence());
+    } // testConfigure
+    
+    /**
+     * Test of persist and flush methods, of class OrionJDBCSink, when persisting rows.
+     */
+    @Test
+    public void testPersistRow() throws Exception {
+        System.out.println("Testing OrionJDBCSink.persist and OrionJDBCSink.flush (rows)");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        sink.persist(headers, notifyContextRequest);
+        sink.persist(headers, notifyContextRequest);
+        
+        // nothing is inserted until flushing
+        verify(mockJDBCBackend, never()).insertRows(anyString(), anyString(), any(List.class));
+        sink.flush();
+        verify(mockJDBCBackend).createSchema(serviceName);
+        verify(mockJDBCBackend).createTable(serviceName, tableName);
+        ArgumentCaptor<List> rows = ArgumentCaptor.forClass(List.class);
+        verify(mockJDBCBackend).insertRows(eq(serviceName), eq(tableName), rows.capture());
+        assertEquals(2, rows.getValue().size());
+        Row row = (Row) rows.getValue().get(0);
+        assertEquals(recvTimeTs / 1000, row.getRecvTimeTs());
+        assertEquals("Entity", row.getEntityId());
+        assertEquals("attribute", row.getAttrName());
+        assertEquals("foo", row.getAttrValue());
+        
+        // the buffers are emptied once flushed
+        sink.flush();
+        verify(mockJDBCBackend, times(1)).insertRows(anyString(), anyString(), any(List.class));
+    } // testPersistRow
+    
+    /**
+     * Test of persist and flush methods, of class OrionJDBCSink, when persisting columns.
+     */
+    @Test
+    public void testPersistColumn() throws Exception {
+        System.out.println("Testing OrionJDBCSink.persist and OrionJDBCSink.flush (columns)");
+        context.put("attr_persistence", "column");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        sink.persist(headers, notifyContextRequest);
+        sink.flush();
+        verify(mockJDBCBackend, never()).createTable(anyString(), anyString());
+        ArgumentCaptor<List> rows = ArgumentCaptor.forClass(List.class);
+        verify(mockJDBCBackend).insertColumnRows(eq(serviceName), eq(tableName), rows.capture());
+        assertEquals(1, rows.getValue().size());
+        Map<String, String> row = (Map<String, String>) rows.getValue().get(0);
+        assertEquals("[recvTime, attribute, attribute_md]", row.keySet().toString());
+        assertEquals("foo", row.get("attribute"));
+    } // testPersistColumn
+    
+    /**
+     * Test of persist method, of class OrionJDBCSink, when persisting columns not valid for the database.
+     */
+    @Test
+    public void testPersistBadColumns() throws Exception {
+        System.out.println("Testing OrionJDBCSink.persist (bad column names)");
+        context.put("jdbc_dialect", "mysql");
+        context.put("attr_persistence", "column");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        String longName = "a";
+        
+        while (longName.length() < 62) {
+            longName += "a";
+        } // while
+        
+        // too long metadata column, names only differing in case, clash with recvTime or with a metadata column
+        String[][] badAttributes = {{longName}, {"temperature", "Temperature"}, {"RECVTIME"},
+            {"temperature", "temperature_md"}};
+        
+        for (String[] attributes : badAttributes) {
+            try {
+                sink.persist(headers, buildNotification(attributes));
+                fail("Bad columns were accepted");
+            } catch (CygnusBadContextData e) {
+                assertTrue(true);
+            } // try catch
+        } // for
+        
+        // a repeated attribute is the same column
+        sink.persist(headers, buildNotification("temperature", "temperature"));
+        sink.flush();
+        ArgumentCaptor<List> rows = ArgumentCaptor.forClass(List.class);
+        verify(mockJDBCBackend).insertColumnRows(eq(serviceName), eq(tableName), rows.capture());
+        assertEquals(1, rows.getValue().size());
+    } // testPersistBadColumns
+    
+    /**
+     * Test of persist and flush methods, of class OrionJDBCSink, when persisting the last values.
+     */
+    @Test
+    public void testPersistLastValue() throws Exception {
+        System.out.println("Testing OrionJDBCSink.persist and OrionJDBCSink.flush (last values)");
+        context.put("attr_persistence", "last");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        sink.persist(headers, notifyContextRequest);
+        headers.put("timestamp", new Long(recvTimeTs + 1000).toString());
+        sink.persist(headers, notifyContextRequest);
+        sink.flush();
+        
+        // the historical table is not written, and a single row per entity and attribute is upserted, the newest one
+        verify(mockJDBCBackend, never()).insertRows(anyString(), anyString(), any(List.class));
+        verify(mockJDBCBackend).createLastValueTable(serviceName, tableName + "_last");
+        ArgumentCaptor<Collection> lastValues = ArgumentCaptor.forClass(Collection.class);
+        verify(mockJDBCBackend).upsertLastValues(eq(serviceName), eq(tableName + "_last"), lastValues.capture());
+        assertEquals(1, lastValues.getValue().size());
+        assertEquals((recvTimeTs + 1000) / 1000, ((Row) lastValues.getValue().iterator().next()).getRecvTimeTs());
+    } // testPersistLastValue
+    
+    /**
+     * Test of flush method, of class OrionJDBCSink, when the backend rejects certain rows.
+     */
+    @Test
+    public void testFlushRejectedRows() throws Exception {
+        System.out.println("Testing OrionJDBCSink.flush (rejected rows)");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        OrionJDBCSink spiedSink = spy(sink);
+        HashMap<Integer, String> rejections = new HashMap<Integer, String>();
+        rejections.put(1, "Data too long for column 'attrValue'");
+        doThrow(new CygnusRejectedRows(rejections)).when(mockJDBCBackend).insertRows(anyString(), anyString(),
+                any(List.class));
+        spiedSink.persist(headers, notifyContextRequest);
+        spiedSink.persist(headers, notifyContextRequest);
+        
+        // the rejected rows are not a persistence error, thus the batch is not retried; only the event of the second
+        // row is rejected
+        try {
+            spiedSink.flush();
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } // try catch
+        
+        verify(spiedSink, times(1)).reject(any(Event.class), any(CygnusBadContextData.class));
+    } // testFlushRejectedRows
+    
+    /**
+     * Test of discard method, of class OrionJDBCSink.
+     */
+    @Test
+    public void testDiscard() throws Exception {
+        System.out.println("Testing OrionJDBCSink.discard");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        sink.persist(headers, notifyContextRequest);
+        sink.discard();
+        sink.flush();
+        verify(mockJDBCBackend, never()).insertRows(anyString(), anyString(), any(List.class));
+    } // testDiscard
+    
+    private NotifyContextRequest buildNotification(String... attrNames) throws Exception {
+        String attributes = "";
+        
+        for (String attrName : attrNames) {
+            attributes += "<contextAttribute><name>" + attrName + "</name><type>attributeType</type>"
+                    + "<contextValue>foo</contextValue></contextAttribute>";
+        } // for
+        
+        return TestUtils.createXMLNotifyContextRequest(notifyXMLSimple.replaceFirst(
+                "<contextAttributeList>.*</contextAttributeList>",
+                "<contextAttributeList>" + attributes + "</contextAttributeList>"));
+    } // buildNotification
+    
+} // OrionJDBCSinkTest
@@ -20,17 +20,22 @@ package es.tid.fiware.fiwareconnectors.cygnus.sinks;
 
 import static org.junit.Assert.*; // this is required by "fail" like assertions
 import static org.mockito.Mockito.*; // this is required by "when" like functions
+import es.tid.fiware.fiwareconnectors.cygnus.backends.jdbc.JDBCBackend.Row;
 import es.tid.fiware.fiwareconnectors.cygnus.backends.mysql.MySQLBackend;
 import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusRejectedRows;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
 import es.tid.fiware.fiwareconnectors.cygnus.utils.TestUtils;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import org.apache.flume.Context;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.lifecycle.LifecycleState;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -59,7 +64,6 @@ public class OrionMySQLSinkTest {
     private final String mysqlPassword = "pass1234";
     private final String attrPersistence = "row";
     private final long recvTimeTs = 123456789;
-    private final String recvTime = "20140513T16:48:13";
     private final String normalServiceName = "rooms";
     private final String abnormalServiceName =
             "toooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooolongorgname";
@@ -70,15 +74,6 @@ public class OrionMySQLSinkTest {
     private final String normalDestinationName = "room1-room";
     private final String abnormalDestinationName =
             "toooooooooooooooooooooooooooooooooooooooooooooooooooooooooooooolongresname";
-    private static final String ENTITYNAME = "room1";
-    private static final String ENTITYTYPE = "room";
-    private static final String ATTRNAME = "temperature";
-    private static final String ATTRTYPE = "degrees";
-    private static final String ATTRVALUE = "26.5";
-    private static final String ATTRMD =
-            "{\"name\":\"measureTime\", \"type\":\"timestamp\", \"value\":\"20140513T16:47:59\"}";
-    private static final HashMap<String, String> ATTRLIST;
-    private static final HashMap<String, String> ATTRMDLIST;
     private final String notifyXMLSimple = ""
             + "<notifyContextRequest>"
             +   "<subscriptionId>51c0ac9ed714fb3b37d7d5a8</subscriptionId>"
@@ -105,13 +100,6 @@ public class OrionMySQLSinkTest {
             +   "</contextResponseList>"
             + "</notifyContextRequest>";
     
-    static {
-        ATTRLIST = new HashMap<String, String>();
-        ATTRLIST.put(ATTRNAME, ATTRVALUE);
-        ATTRMDLIST = new HashMap<String, String>();
-        ATTRMDLIST.put(ATTRNAME + "_md", ATTRMD);
-    } // static
-
     /**
      * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
      * classes.
@@ -132,14 +120,6 @@ public class OrionMySQLSinkTest {
         context.put("mysql_password", mysqlPassword);
         context.put("attr_persistence", attrPersistence);
         notifyContextRequest = TestUtils.createXMLNotifyContextRequest(notifyXMLSimple);
-        
-        // set up the behaviour of the mocked classes
-        doNothing().doThrow(new Exception()).when(mockMySQLBackend).createDatabase(null);
-        doNothing().doThrow(new Exception()).when(mockMySQLBackend).createTable(null, null);
-        doNothing().doThrow(new Exception()).when(mockMySQLBackend).insertContextData(null, null, recvTimeTs, recvTime,
-                ENTITYNAME, ENTITYTYPE, ATTRNAME, ATTRTYPE, ATTRVALUE, ATTRMD);
-        doNothing().doThrow(new Exception()).when(mockMySQLBackend).insertContextData(null, null, recvTime, ATTRLIST,
-                ATTRMDLIST);
     } // setUp
     
     /**
@@ -149,11 +129,13 @@ public class OrionMySQLSinkTest {
     public void testConfigure() {
         System.out.println("configure");
         sink.configure(context);
+        assertEquals("mysql", sink.getDialect().getName());
         assertEquals(mysqlHost, sink.getMySQLHost());
         assertEquals(mysqlPort, sink.getMySQLPort());
         assertEquals(mysqlUsername, sink.getMySQLUsername());
         assertEquals(mysqlPassword, sink.getMySQLPassword());
         assertEquals(attrPersistence, sink.getRowAttrPersistence() ? "row" : "column");
+        assertEquals("none", sink.getPartitioning());
     } // testConfigure
 
     /**
@@ -165,8 +147,9 @@ public class OrionMySQLSinkTest {
         sink.configure(context);
         sink.setChannel(new MemoryChannel());
         sink.start();
-        assertTrue(sink.getPersistenceBackend() != null);
+        assertTrue(sink.getPersistenceBackend() instanceof MySQLBackend);
         assertEquals(LifecycleState.START, sink.getLifecycleState());
+        sink.stop();
     } // testStart
 
     /**
@@ -257,4 +240,93 @@ public class OrionMySQLSinkTest {
         } // try catch finally
     } // testProcessContextResponses
     
+    /**
+     * Test of persist and flush methods, of class OrionMySQLSink, when persisting the last values.
+     */
+    @Test
+    public void testPersistLastValue() throws Exception {
+        System.out.println("Testing OrionMySQLSinkTest.persist and OrionMySQLSinkTest.flush (last values)");
+        context.put("attr_persistence", "last");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        assertTrue(sink.getLastValuePersistence());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", new Long(recvTimeTs).toString());
+        headers.put(Constants.HEADER_SERVICE, normalServiceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, normalServicePathName);
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        sink.persist(headers, notifyContextRequest);
+        headers.put("timestamp", new Long(recvTimeTs + 1000).toString());
+        sink.persist(headers, notifyContextRequest);
+        
+        // nothing is upserted until flushing, and the historical table is not written
+        verify(mockMySQLBackend, never()).upsertLastValues(anyString(), anyString(), any(Collection.class));
+        sink.flush();
+        verify(mockMySQLBackend, never()).insertRows(anyString(), anyString(), any(List.class));
+        String tableName = normalServicePathName + "_" + normalDestinationName + "_last";
+        verify(mockMySQLBackend).createLastValueTable(normalServiceName, tableName);
+        ArgumentCaptor<Collection> lastValues = ArgumentCaptor.forClass(Collection.class);
+        verify(mockMySQLBackend).upsertLastValues(eq(normalServiceName), eq(tableName), lastValues.capture());
+        
+        // a single row per entity and attribute, the newest one
+        assertEquals(1, lastValues.getValue().size());
+        Row lastValue = (Row) lastValues.getValue().iterator().next();
+        assertEquals((recvTimeTs + 1000) / 1000, lastValue.getRecvTimeTs());
+        assertEquals("foo", lastValue.getAttrValue());
+        
+        // the buffers are emptied once flushed
+        sink.flush();
+        verify(mockMySQLBackend, times(1)).upsertLastValues(anyString(), anyString(), any(Collection.class));
+    } // testPersistLastValue
+    
+    /**
+     * Test of persist and discard methods, of class OrionMySQLSink, when persisting the last values.
+     */
+    @Test
+    public void testDiscardLastValue() throws Exception {
+        System.out.println("Testing OrionMySQLSinkTest.persist and OrionMySQLSinkTest.discard (last values)");
+        context.put("attr_persistence", "last");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", new Long(recvTimeTs).toString());
+        headers.put(Constants.HEADER_SERVICE, normalServiceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, normalServicePathName);
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        sink.persist(headers, notifyContextRequest);
+        
+        // the batch is rolled back, thus the buffered last values are not upserted when flushing the next batch
+        sink.discard();
+        sink.flush();
+        verify(mockMySQLBackend, never()).upsertLastValues(anyString(), anyString(), any(Collection.class));
+    } // testDiscardLastValue
+    
+    /**
+     * Test of flush method, of class OrionMySQLSink, when the backend rejects certain last values.
+     */
+    @Test
+    public void testFlushRejectedLastValue() throws Exception {
+        System.out.println("Testing OrionMySQLSinkTest.flush (rejected last values)");
+        context.put("attr_persistence", "last");
+        sink.configure(context);
+        sink.setChannel(new MemoryChannel());
+        HashMap<Integer, String> rejections = new HashMap<Integer, String>();
+        rejections.put(0, "Data too long for column 'attrName'");
+        doThrow(new CygnusRejectedRows(rejections)).when(mockMySQLBackend).upsertLastValues(anyString(),
+                anyString(), any(Collection.class));
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("timestamp", new Long(recvTimeTs).toString());
+        headers.put(Constants.HEADER_SERVICE, normalServiceName);
+        headers.put(Constants.HEADER_SERVICE_PATH, normalServicePathName);
+        headers.put(Constants.DESTINATION, normalDestinationName);
+        sink.persist(headers, notifyContextRequest);
+        
+        // the rejected rows are not a persistence error, thus the batch is not retried
+        try {
+            sink.flush();
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } // try catch
+    } // testFlushRejectedLastValue
+    
 } // OrionMySQLSinkTest
\ No newline at end of file
@@ -0,0 +1,547 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import es.tid.fiware.fiwareconnectors.cygnus.containers.NotifyContextRequest;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusBadContextData;
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusPersistenceError;
+import es.tid.fiware.fiwareconnectors.cygnus.utils.Constants;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Sink.Status;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class OrionSinkTest {
+    
+    // instance to be tested
+    private CountingSink sink;
+    
+    // other instances
+    private MemoryChannel channel;
+    private int seq;
+    
+    /**
+     * Sink counting the persisted events and the flushes, and failing when persisting the events having a "fail"
+     * header or when its backend is down; the events having a "bad" header have bad context data, and the events
+     * having a "reject" header are rejected by the backend when flushing. The persisted events are buffered until
+     * flushed, and flushing fails if a flush error is set.
+     */
+    private static class CountingSink extends OrionSink {
+        
+        private int persisted = 0;
+        private int flushes = 0;
+        private boolean down = false;
+        private final ArrayList<String> persistedSeqs = new ArrayList<String>();
+        private final ArrayList<Event> buffered = new ArrayList<Event>();
+        private final ArrayList<String> flushedSeqs = new ArrayList<String>();
+        private Exception flushError = null;
+        
+        @Override
+        void persist(Map<String, String> eventHeaders, NotifyContextRequest notification) throws Exception {
+            if (down || eventHeaders.containsKey("fail")) {
+                throw new CygnusPersistenceError("Persistence error");
+            } // if
+            
+            if (eventHeaders.containsKey("bad")) {
+                throw new CygnusBadContextData("Bad context data");
+            } // if
+            
+            persisted++;
+            persistedSeqs.add(eventHeaders.get("seq"));
+            buffered.add(getCurrentEvent());
+        } // persist
+        
+        @Override
+        protected void flush() throws Exception {
+            flushes++;
+            
+            if (flushError != null) {
+                buffered.clear();
+                throw flushError;
+            } // if
+            
+            for (Event event : buffered) {
+                flushedSeqs.add(event.getHeaders().get("seq"));
+                
+                if (event.getHeaders().containsKey("reject")) {
+                    reject(event, new CygnusBadContextData("Rejected by the backend"));
+                } // if
+            } // for
+            
+            buffered.clear();
+        } // flush
+        
+        @Override
+        protected void discard() {
+            buffered.clear();
+        } // discard
+        
+    } // CountingSink
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        channel = new MemoryChannel();
+        channel.setName("test-channel");
+        Context channelContext = new Context();
+        channelContext.put("capacity", "100");
+        channelContext.put("transactionCapacity", "10");
+        channelContext.put("keep-alive", "0"); // do not wait when taking from an empty channel
+        channel.configure(channelContext);
+        channel.start();
+        sink = new CountingSink();
+        sink.setName("test-sink");
+        Context context = new Context();
+        context.put("batch_size", "3");
+        context.put("batch_timeout", "0");
+        sink.configure(context);
+        sink.setChannel(channel);
+        sink.start();
+    } // setUp
+    
+    /**
+     * Stops the tested instance.
+     */
+    @After
+    public void tearDown() {
+        sink.stop();
+        channel.stop();
+    } // tearDown
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessBatches() throws Exception {
+        System.out.println("Testing OrionSink.process (batches)");
+        put(5, null);
+        assertEquals(Status.READY, sink.process());
+        assertEquals(3, sink.persisted);
+        assertEquals(1, sink.flushes);
+        assertEquals(Status.READY, sink.process());
+        assertEquals(5, sink.persisted);
+        assertEquals(2, sink.flushes);
+        assertEquals(0, countEvents());
+    } // testProcessBatches
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessPersistenceError() throws Exception {
+        System.out.println("Testing OrionSink.process (persistence error)");
+        put(2, null);
+        put(1, "2");
+        assertEquals(Status.BACKOFF, sink.process());
+        assertEquals(0, sink.flushes);
+        assertEquals(3, countEvents()); // the whole batch is put again in the channel
+    } // testProcessPersistenceError
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessTTL() throws Exception {
+        System.out.println("Testing OrionSink.process (TTL)");
+        put(1, "1");
+        put(2, null);
+        
+        // the backend fails, the TTL of every event within the batch is decremented and the rest of the batch is not
+        // tried
+        assertEquals(Status.BACKOFF, sink.process());
+        assertEquals(0, sink.persisted);
+        assertEquals("[0, 9, 9]", getTTLs().toString());
+        
+        // the TTL of the failing event has expired, but not the TTL of the rest of the batch
+        assertEquals(Status.BACKOFF, sink.process());
+        assertEquals(0, sink.persisted);
+        assertEquals("[0, 8, 8]", getTTLs().toString());
+    } // testProcessTTL
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessTTLExpired() throws Exception {
+        System.out.println("Testing OrionSink.process (expired TTL)");
+        put(3, "0");
+        assertEquals(Status.READY, sink.process());
+        assertEquals(0, sink.persisted);
+        assertEquals(0, countEvents()); // the TTL of the whole batch has expired
+    } // testProcessTTLExpired
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessTTLExpiredBuffered() throws Exception {
+        System.out.println("Testing OrionSink.process (expired TTL, buffering sink)");
+        put(1, "0", false);
+        put(1, "0", true);
+        put(1, "0", false);
+        
+        // the event persisted before the failure is flushed, not discarded, and the rest of the batch expires
+        assertEquals(Status.READY, sink.process());
+        assertEquals(1, sink.flushes);
+        assertEquals("[0]", sink.flushedSeqs.toString());
+        assertEquals(0, countEvents());
+    } // testProcessTTLExpiredBuffered
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessFlushError() throws Exception {
+        System.out.println("Testing OrionSink.process (flush error)");
+        
+        // the backend fails when flushing, the TTL of every event within the batch is decremented
+        sink.flushError = new CygnusPersistenceError("Persistence error");
+        put(3, "1", false);
+        assertEquals(Status.BACKOFF, sink.process());
+        assertEquals("[0, 0, 0]", getTTLs().toString());
+        
+        // once the TTL of the whole batch has expired, it is not put again in the channel
+        assertEquals(Status.READY, sink.process());
+        assertEquals(0, countEvents());
+        
+        // the batch cannot be flushed because of its data, retrying it would fail again
+        sink.flushError = new CygnusBadContextData("Bad context data");
+        put(2, null);
+        assertEquals(Status.READY, sink.process());
+        assertEquals(0, countEvents());
+        assertTrue(sink.flushedSeqs.isEmpty());
+    } // testProcessFlushError
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessCircuitBreaker() throws Exception {
+        System.out.println("Testing OrionSink.process (circuit breaker)");
+        sink.down = true;
+        put(3, null);
+        
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Status.BACKOFF, sink.process());
+        } // for
+        
+        // the breaker is open, the backend is not tried and the events are kept in the channel
+        assertFalse(sink.getCircuitBreaker().allowRequest());
+        sink.down = false;
+        assertEquals(Status.BACKOFF, sink.process());
+        assertEquals(0, sink.persisted);
+        assertEquals(3, countEvents());
+        
+        // once the backoff time elapses, the backend is tried again
+        Thread.sleep(sink.getCircuitBreaker().getRetryDelay() + 10);
+        assertEquals(Status.READY, sink.process());
+        assertEquals(3, sink.persisted);
+        assertTrue(sink.getCircuitBreaker().allowRequest());
+    } // testProcessCircuitBreaker
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessDeadLetter() throws Exception {
+        System.out.println("Testing OrionSink.process (dead letter)");
+        File deadLetterFile = File.createTempFile("dead_letter", ".log");
+        sink.stop();
+        Context context = new Context();
+        context.put("batch_size", "3");
+        context.put("batch_timeout", "0");
+        context.put("dead_letter_file", deadLetterFile.getAbsolutePath());
+        sink.configure(context);
+        sink.start();
+        
+        try {
+            put(2, null);
+            Transaction txn = channel.getTransaction();
+            txn.begin();
+            HashMap<String, String> headers = new HashMap<String, String>();
+            headers.put(Constants.HEADER_CONTENT_TYPE, "application/json");
+            headers.put("bad", "true");
+            channel.put(EventBuilder.withBody("{}".getBytes(), headers));
+            txn.commit();
+            txn.close();
+            assertEquals(Status.READY, sink.process());
+            assertEquals(2, sink.persisted);
+            assertEquals(0, countEvents());
+            BufferedReader reader = new BufferedReader(new FileReader(deadLetterFile));
+            String line = reader.readLine();
+            reader.close();
+            assertTrue(line.contains("\"error\":\"CygnusBadContextData\""));
+            assertTrue(line.contains("\"bad\":\"true\""));
+        } finally {
+            sink.stop();
+            deadLetterFile.delete();
+        } // try finally
+    } // testProcessDeadLetter
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessRejected() throws Exception {
+        System.out.println("Testing OrionSink.process (rejected when flushing)");
+        File deadLetterFile = File.createTempFile("dead_letter", ".log");
+        sink.stop();
+        Context context = new Context();
+        context.put("batch_size", "3");
+        context.put("batch_timeout", "0");
+        context.put("dead_letter_file", deadLetterFile.getAbsolutePath());
+        sink.configure(context);
+        sink.start();
+        
+        try {
+            put(1, null);
+            Transaction txn = channel.getTransaction();
+            txn.begin();
+            HashMap<String, String> headers = new HashMap<String, String>();
+            headers.put(Constants.HEADER_CONTENT_TYPE, "application/json");
+            headers.put("reject", "true");
+            channel.put(EventBuilder.withBody("{}".getBytes(), headers));
+            txn.commit();
+            txn.close();
+            put(1, null);
+            
+            // the batch is not retried, only the rejected event is written to the dead letter file
+            assertEquals(Status.READY, sink.process());
+            assertEquals(1, sink.flushes);
+            assertEquals(0, countEvents());
+            BufferedReader reader = new BufferedReader(new FileReader(deadLetterFile));
+            String line = reader.readLine();
+            String next = reader.readLine();
+            reader.close();
+            assertTrue(line.contains("\"error\":\"CygnusBadContextData\""));
+            assertTrue(line.contains("\"reject\":\"true\""));
+            assertNull(next);
+        } finally {
+            sink.stop();
+            deadLetterFile.delete();
+        } // try finally
+    } // testProcessRejected
+    
+    /**
+     * Test of setPaused, requestFlush and isFlushed methods, of class OrionSink.
+     */
+    @Test
+    public void testPauseAndFlush() throws Exception {
+        System.out.println("Testing OrionSink.setPaused and OrionSink.requestFlush");
+        assertSame(sink, OrionSink.getInstance("test-sink"));
+        put(2, null);
+        sink.setPaused(true);
+        long flushRequest = sink.requestFlush();
+        assertFalse(sink.isFlushed(flushRequest));
+        assertEquals(Status.BACKOFF, sink.process());
+        assertTrue(sink.isFlushed(flushRequest));
+        assertEquals(0, sink.persisted);
+        sink.setPaused(false);
+        sink.setBatchSize(2);
+        assertEquals(Status.READY, sink.process());
+        assertEquals(2, sink.persisted);
+    } // testPauseAndFlush
+    
+    /**
+     * Test of process method, of class OrionSink.
+     */
+    @Test
+    public void testProcessSpill() throws Exception {
+        System.out.println("Testing OrionSink.process (spill)");
+        File spillDir = File.createTempFile("spill", "");
+        spillDir.delete();
+        sink.stop();
+        Context context = new Context();
+        context.put("batch_size", "3");
+        context.put("batch_timeout", "0");
+        context.put("spill_dir", spillDir.getAbsolutePath());
+        context.put("spill_retries", "2");
+        context.put("spill_replay_interval", "1");
+        sink.configure(context);
+        sink.start();
+        
+        try {
+            sink.down = true;
+            put(3, null);
+            assertEquals(Status.BACKOFF, sink.process());
+            assertEquals(3, countEvents()); // first failure, the batch is put again in the channel
+            assertEquals(Status.BACKOFF, sink.process());
+            assertEquals(0, countEvents()); // second failure, the batch is spilled
+            put(2, null);
+            assertEquals(Status.BACKOFF, sink.process());
+            assertEquals(0, countEvents()); // the backend is still down, the new events are spilled as well
+            
+            // the backend recovers, the spilled events are persisted in order once the replay interval expires
+            sink.down = false;
+            Thread.sleep(1100);
+            assertEquals(Status.READY, sink.process());
+            assertEquals(Status.READY, sink.process());
+            assertEquals("[0, 1, 2, 3, 4]", sink.persistedSeqs.toString());
+            put(1, null);
+            assertEquals(Status.READY, sink.process());
+            assertEquals("[0, 1, 2, 3, 4, 5]", sink.persistedSeqs.toString());
+        } finally {
+            sink.stop();
+            File sinkSpillDir = new File(spillDir, "test-sink");
+            
+            for (File file : sinkSpillDir.listFiles()) {
+                file.delete();
+            } // for
+            
+            sinkSpillDir.delete();
+            spillDir.delete();
+        } // try finally
+    } // testProcessSpill
+    
+    /**
+     * Test of process method, of class OrionSink, when the TTL of the spilled events expires while replaying them.
+     */
+    @Test
+    public void testProcessSpillTTLExpired() throws Exception {
+        System.out.println("Testing OrionSink.process (spill, TTL expired)");
+        File spillDir = File.createTempFile("spill", "");
+        spillDir.delete();
+        sink.stop();
+        
+        // a sink having its own circuit breaker, not opened by the failures of the rest of tests
+        sink = new CountingSink();
+        sink.setName("spill-ttl-sink");
+        sink.setChannel(channel);
+        Context context = new Context();
+        context.put("batch_size", "3");
+        context.put("batch_timeout", "0");
+        context.put("spill_dir", spillDir.getAbsolutePath());
+        context.put("spill_retries", "2");
+        context.put("spill_replay_interval", "0");
+        sink.configure(context);
+        sink.start();
+        
+        try {
+            // the batch is spilled once its TTL is 1
+            sink.down = true;
+            put(3, "3", false);
+            assertEquals(Status.BACKOFF, sink.process());
+            assertEquals(Status.BACKOFF, sink.process());
+            assertEquals(0, countEvents());
+            
+            // the first failed replay consumes the TTL, the second one removes the expired events from the store
+            assertEquals(Status.BACKOFF, sink.process());
+            assertEquals(Status.BACKOFF, sink.process());
+            
+            // the spill store is empty, thus the new events are persisted
+            sink.down = false;
+            put(1, null);
+            assertEquals(Status.READY, sink.process());
+            assertEquals("[3]", sink.persistedSeqs.toString());
+        } finally {
+            sink.stop();
+            File sinkSpillDir = new File(spillDir, "spill-ttl-sink");
+            
+            for (File file : sinkSpillDir.listFiles()) {
+                file.delete();
+            } // for
+            
+            sinkSpillDir.delete();
+            spillDir.delete();
+        } // try finally
+    } // testProcessSpillTTLExpired
+    
+    private void put(int numEvents, String failTTL) {
+        put(numEvents, failTTL == null ? "10" : failTTL, failTTL != null);
+    } // put
+    
+    private void put(int numEvents, String ttl, boolean fail) {
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        
+        for (int i = 0; i < numEvents; i++) {
+            HashMap<String, String> headers = new HashMap<String, String>();
+            headers.put(Constants.HEADER_CONTENT_TYPE, "application/json");
+            headers.put("seq", Integer.toString(seq++));
+            headers.put(Constants.HEADER_TTL, ttl);
+            
+            if (fail) {
+                headers.put("fail", "true");
+            } // if
+            
+            channel.put(EventBuilder.withBody("{}".getBytes(), headers));
+        } // for
+        
+        txn.commit();
+        txn.close();
+    } // put
+    
+    private ArrayList<Integer> getTTLs() {
+        ArrayList<Integer> ttls = new ArrayList<Integer>();
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        Event event = channel.take();
+        
+        while (event != null) {
+            ttls.add(Integer.valueOf(event.getHeaders().get(Constants.HEADER_TTL)));
+            event = channel.take();
+        } // while
+        
+        txn.rollback();
+        txn.close();
+        return ttls;
+    } // getTTLs
+    
+    private int countEvents() {
+        int count = 0;
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        Event event = channel.take();
+        
+        while (event != null) {
+            count++;
+            event = channel.take();
+        } // while
+        
+        txn.rollback();
+        txn.close();
+        return count;
+    } // countEvents
+    
+} // OrionSinkTest
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SegmentLogTest {
+    
+    // other instances
+    private File dir;
+    
+    // constants
+    private final String name = "room1-room";
+    private final String line = "{\"recvTime\":\"2014-05-13T16:48:13\",\"temperature\":\"26.5\"}"; // 55 bytes + \n
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("segments", "");
+        dir.delete();
+    } // setUp
+    
+    /**
+     * Removes the local files.
+     */
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            } // for
+        } // if
+        
+        dir.delete();
+    } // tearDown
+    
+    /**
+     * Test of append and close methods, of class SegmentLog.
+     */
+    @Test
+    public void testAppendRoll() throws Exception {
+        System.out.println("Testing SegmentLog.append and SegmentLog.close");
+        SegmentLog log = new SegmentLog(dir, name, 128);
+        
+        for (int i = 0; i < 3; i++) {
+            log.append("room1", "room", 123456789L + i, line);
+        } // for
+        
+        // a segment has room for 2 lines only
+        assertEquals(2, log.getNumSegments());
+        assertEquals(3 * (line.length() + 1), log.getOffset());
+        log.close();
+        assertEquals(2 * (line.length() + 1), new File(dir, name + "-00000000000000000000.seg").length());
+        assertEquals(line + "\n", read(name + "-00000000000000000112.seg"));
+        assertEquals("room1\troom\t123456791\t112\n", read(name + "-00000000000000000112.idx"));
+    } // testAppendRoll
+    
+    /**
+     * Test of the recovery of the last segment, of class SegmentLog.
+     */
+    @Test
+    public void testRecover() throws Exception {
+        System.out.println("Testing SegmentLog recovery");
+        SegmentLog log = new SegmentLog(dir, name, 1024);
+        log.append("room1", "room", 123456789L, line);
+        log.append("room1", "room", 123456790L, line);
+        log.sync();
+        
+        // simulate a crash while writing the second line: the segment is not truncated and the line is partial
+        RandomAccessFile segment = new RandomAccessFile(new File(dir, name + "-00000000000000000000.seg"), "rw");
+        segment.seek(line.length() + 1 + 10);
+        segment.write(new byte[line.length() + 1 - 10]);
+        segment.close();
+        
+        log = new SegmentLog(dir, name, 1024);
+        assertEquals(line.length() + 1, log.getOffset());
+        log.append("room1", "room", 123456791L, line);
+        log.close();
+        assertEquals(line + "\n" + line + "\n", read(name + "-00000000000000000000.seg"));
+        assertEquals("room1\troom\t123456789\t0\nroom1\troom\t123456791\t56\n", read(name
+                + "-00000000000000000000.idx"));
+    } // testRecover
+    
+    private String read(String fileName) throws Exception {
+        FileInputStream in = new FileInputStream(new File(dir, fileName));
+        
+        try {
+            byte[] data = new byte[(int) in.getChannel().size()];
+            in.read(data);
+            return new String(data, "UTF-8");
+        } finally {
+            in.close();
+        } // try finally
+    } // read
+    
+} // SegmentLogTest
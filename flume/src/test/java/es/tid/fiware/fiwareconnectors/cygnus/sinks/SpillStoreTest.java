@@ -0,0 +1,179 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.sinks;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SpillStoreTest {
+    
+    // other instances
+    private File dir;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("spill", "");
+        dir.delete();
+    } // setUp
+    
+    /**
+     * Removes the store files.
+     */
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            } // for
+        } // if
+        
+        dir.delete();
+    } // tearDown
+    
+    /**
+     * Test of append, peek and commit methods, of class SpillStore.
+     */
+    @Test
+    public void testAppendPeekCommit() throws Exception {
+        System.out.println("Testing SpillStore.append, SpillStore.peek and SpillStore.commit");
+        // small segments, in order the events are spread among several segment files
+        SpillStore store = new SpillStore(dir, 100, 100000, false);
+        assertTrue(store.isEmpty());
+        
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.append(buildEvents(i, 1)));
+        } // for
+        
+        assertEquals(10, store.getNumEvents());
+        assertEquals(0, getSeq(store.peek(3), 0));
+        assertEquals(0, getSeq(store.peek(3), 0)); // nothing is removed until committing
+        store.commit();
+        List<Event> events = store.peek(20);
+        assertEquals(7, events.size());
+        
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i + 3, getSeq(events, i));
+            assertEquals("body" + (i + 3), new String(events.get(i).getBody()));
+        } // for
+        
+        store.commit();
+        assertTrue(store.isEmpty());
+        assertTrue(store.peek(1).isEmpty());
+        store.close();
+    } // testAppendPeekCommit
+    
+    /**
+     * Test of the recovery of the events not committed, of class SpillStore.
+     */
+    @Test
+    public void testRecovery() throws Exception {
+        System.out.println("Testing SpillStore (recovery)");
+        SpillStore store = new SpillStore(dir, 1000, 100000, true);
+        store.append(buildEvents(0, 5));
+        store.peek(2);
+        store.commit();
+        store.peek(2); // not committed
+        store.close();
+        store = new SpillStore(dir, 1000, 100000, true);
+        assertEquals(3, store.getNumEvents());
+        List<Event> events = store.peek(10);
+        assertEquals(3, events.size());
+        assertEquals(2, getSeq(events, 0));
+        store.close();
+    } // testRecovery
+    
+    /**
+     * Test of the recovery of a partially written event, of class SpillStore.
+     */
+    @Test
+    public void testRecoveryTruncatedEvent() throws Exception {
+        System.out.println("Testing SpillStore (recovery of a truncated event)");
+        SpillStore store = new SpillStore(dir, 1000, 100000, false);
+        store.append(buildEvents(0, 3));
+        store.close();
+        
+        // remove the last bytes of the segment, as if the agent crashed while appending
+        File segment = dir.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+        store = new SpillStore(dir, 1000, 100000, false);
+        assertEquals(2, store.getNumEvents());
+        assertTrue(store.append(buildEvents(3, 1)));
+        List<Event> events = store.peek(10);
+        assertEquals(3, events.size());
+        assertEquals(3, getSeq(events, 2));
+        store.close();
+    } // testRecoveryTruncatedEvent
+    
+    /**
+     * Test of append method, of class SpillStore.
+     */
+    @Test
+    public void testAppendFull() throws Exception {
+        System.out.println("Testing SpillStore.append (full store)");
+        SpillStore store = new SpillStore(dir, 1000, 80, false);
+        assertTrue(store.append(buildEvents(0, 2)));
+        assertFalse(store.append(buildEvents(2, 2)));
+        assertEquals(2, store.getNumEvents());
+        store.close();
+    } // testAppendFull
+    
+    private List<Event> buildEvents(int firstSeq, int numEvents) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        
+        for (int i = firstSeq; i < firstSeq + numEvents; i++) {
+            HashMap<String, String> headers = new HashMap<String, String>();
+            headers.put("seq", Integer.toString(i));
+            events.add(EventBuilder.withBody(("body" + i).getBytes(), headers));
+        } // for
+        
+        return events;
+    } // buildEvents
+    
+    private int getSeq(List<Event> events, int index) {
+        return Integer.parseInt(events.get(index).getHeaders().get("seq"));
+    } // getSeq
+    
+} // SpillStoreTest
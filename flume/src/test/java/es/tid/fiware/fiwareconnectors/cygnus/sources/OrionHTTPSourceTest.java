@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.sources;
+
+import es.tid.fiware.fiwareconnectors.cygnus.errors.CygnusOverloaded;
+import es.tid.fiware.fiwareconnectors.cygnus.handlers.OrionRestHandler;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.source.http.HTTPSourceHandler;
+import org.junit.After;
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import static org.mockito.Mockito.*; // this is required by "when" like functions
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class OrionHTTPSourceTest {
+    
+    // instance to be tested
+    private OrionHTTPSource source;
+    
+    // other instances
+    private Channel channel;
+    private int port;
+    
+    // mocks
+    @Mock
+    private HTTPSourceHandler mockHandler;
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *  
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        // set up other instances
+        ServerSocket socket = new ServerSocket(0);
+        port = socket.getLocalPort();
+        socket.close();
+        channel = new MemoryChannel();
+        channel.setName("orion-channel");
+        Configurables.configure(channel, new Context());
+        ReplicatingChannelSelector selector = new ReplicatingChannelSelector();
+        selector.setChannels(Collections.singletonList(channel));
+        
+        // set up the instance of the tested class
+        Context context = new Context();
+        context.put("port", Integer.toString(port));
+        source = new OrionHTTPSource();
+        source.setName("orion-source");
+        source.configure(context);
+        source.setHandler(mockHandler);
+        source.setChannelProcessor(new ChannelProcessor(selector));
+        channel.start();
+        source.start();
+    } // setUp
+    
+    /**
+     * Stops the tested instance.
+     */
+    @After
+    public void tearDown() {
+        source.stop();
+        channel.stop();
+    } // tearDown
+    
+    /**
+     * Test of the notification handling, of class OrionHTTPSource, when the events are accepted.
+     */
+    @Test
+    public void testAcceptedNotification() throws Exception {
+        System.out.println("Testing notification handling from class 'OrionHTTPSource' (accepted notification)");
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(EventBuilder.withBody("{}".getBytes()));
+        when(mockHandler.getEvents(any(HttpServletRequest.class))).thenReturn(events);
+        HttpURLConnection conn = post();
+        assertEquals(200, conn.getResponseCode());
+        
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        Event event = channel.take();
+        txn.commit();
+        txn.close();
+        assertNotNull(event);
+        assertEquals("{}", new String(event.getBody()));
+    } // testAcceptedNotification
+    
+    /**
+     * Test of the notification handling, of class OrionHTTPSource, when the agent is overloaded.
+     */
+    @Test
+    public void testRejectedNotification() throws Exception {
+        System.out.println("Testing notification handling from class 'OrionHTTPSource' (overloaded agent)");
+        when(mockHandler.getEvents(any(HttpServletRequest.class))).thenThrow(new CygnusOverloaded(7));
+        HttpURLConnection conn = post();
+        assertEquals(503, conn.getResponseCode());
+        assertEquals("7", conn.getHeaderField("Retry-After"));
+        
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        Event event = channel.take();
+        txn.commit();
+        txn.close();
+        assertNull(event);
+    } // testRejectedNotification
+    
+    /**
+     * Test of the notification handling, of class OrionHTTPSource, when the handler is an OrionRestHandler.
+     */
+    @Test
+    public void testReleasedNotification() throws Exception {
+        System.out.println("Testing notification handling from class 'OrionHTTPSource' (released notification)");
+        OrionRestHandler mockRestHandler = mock(OrionRestHandler.class);
+        source.setHandler(mockRestHandler);
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(EventBuilder.withBody("{}".getBytes()));
+        when(mockRestHandler.getEvents(any(HttpServletRequest.class))).thenReturn(events);
+        
+        // the notification is released once its events are in the channel
+        doAnswer(new Answer<Void>() {
+            
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Transaction txn = channel.getTransaction();
+                txn.begin();
+                assertNotNull(channel.take());
+                txn.commit();
+                txn.close();
+                return null;
+            } // answer
+            
+        }).when(mockRestHandler).release(events);
+        
+        HttpURLConnection conn = post();
+        assertEquals(200, conn.getResponseCode());
+        verify(mockRestHandler).release(events);
+    } // testReleasedNotification
+    
+    private HttpURLConnection post() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + port + "/notify").openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/json");
+        OutputStream out = conn.getOutputStream();
+        out.write("{}".getBytes());
+        out.close();
+        return conn;
+    } // post
+    
+} // OrionHTTPSourceTest
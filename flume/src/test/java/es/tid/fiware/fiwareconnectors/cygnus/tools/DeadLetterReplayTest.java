@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+
+package es.tid.fiware.fiwareconnectors.cygnus.tools;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import static org.mockito.Mockito.*; // this is required by "when" like functions
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DeadLetterReplayTest {
+    
+    // mocks
+    @Mock
+    private HttpClient mockHttpClient;
+    
+    // constants
+    private final String deadLetters = ""
+            + "{\"time\":\"2015-01-01T00:00:00.000Z\",\"sink\":\"mysql-sink\",\"error\":\"CygnusBadConfiguration\","
+            + "\"message\":\"Bad table\",\"headers\":{\"content-type\":\"application/json\","
+            + "\"fiware-service\":\"vehicles\",\"fiware-servicepath\":\"4wheels\",\"ttl\":\"10\"},"
+            + "\"body\":\"{}\"}\n"
+            + "{\"time\":\"2015-01-01T00:00:01.000Z\",\"sink\":\"hdfs-sink\",\"error\":\"CygnusBadContextData\","
+            + "\"message\":\"Bad data\",\"headers\":{\"content-type\":\"application/json\"},\"body\":\"{\\\"a\\\"}\"}\n"
+            + "not a dead letter\n";
+    
+    /**
+     * Sets up tests by creating a unique instance of the tested class, and by defining the behaviour of the mocked
+     * classes.
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        when(mockHttpClient.execute(any(HttpUriRequest.class))).thenReturn(
+                new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"));
+    } // setUp
+    
+    /**
+     * Test of replay method, of class DeadLetterReplay.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        System.out.println("Testing DeadLetterReplay.replay");
+        DeadLetterReplay replay = new DeadLetterReplay(mockHttpClient, "http://localhost:5050/notify", null, null,
+                false, 0);
+        replay.replay(new BufferedReader(new StringReader(deadLetters)));
+        assertEquals(2, replay.getReplayed());
+        assertEquals(0, replay.getFailed());
+        assertEquals(1, replay.getInvalid());
+        ArgumentCaptor<HttpUriRequest> captor = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(mockHttpClient, times(2)).execute(captor.capture());
+        List<HttpUriRequest> requests = captor.getAllValues();
+        HttpPost first = (HttpPost) requests.get(0);
+        assertEquals("vehicles", first.getFirstHeader("fiware-service").getValue());
+        assertEquals("4wheels", first.getFirstHeader("fiware-servicepath").getValue());
+        assertNull(first.getFirstHeader("ttl")); // only the notification headers are sent
+        assertTrue(first.getFirstHeader("User-Agent").getValue().startsWith("orion"));
+        assertEquals("{}", EntityUtils.toString(first.getEntity()));
+        assertEquals("{\"a\"}", EntityUtils.toString(((HttpPost) requests.get(1)).getEntity()));
+    } // testReplay
+    
+    /**
+     * Test of replay method, of class DeadLetterReplay.
+     */
+    @Test
+    public void testReplayFiltered() throws Exception {
+        System.out.println("Testing DeadLetterReplay.replay (filtered)");
+        DeadLetterReplay replay = new DeadLetterReplay(mockHttpClient, "http://localhost:5050/notify",
+                "CygnusBadConfiguration", null, false, 0);
+        replay.replay(new BufferedReader(new StringReader(deadLetters)));
+        assertEquals(1, replay.getReplayed());
+        assertEquals(1, replay.getSkipped());
+        verify(mockHttpClient, times(1)).execute(any(HttpUriRequest.class));
+    } // testReplayFiltered
+    
+} // DeadLetterReplayTest
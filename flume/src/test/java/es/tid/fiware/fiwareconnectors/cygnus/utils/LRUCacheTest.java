@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.utils;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class LRUCacheTest {
+    
+    /**
+     * Test of get and put methods, of class LRUCache.
+     */
+    @Test
+    public void testEviction() {
+        System.out.println("Testing LRUCache.put (eviction)");
+        LRUCache<String, String> cache = new LRUCache<String, String>(2, 1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a")); // "b" becomes the least recently used
+        cache.put("c", "3");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+    } // testEviction
+    
+    /**
+     * Test of getHitRatio method, of class LRUCache.
+     */
+    @Test
+    public void testHitRatio() {
+        System.out.println("Testing LRUCache.getHitRatio");
+        LRUCache<String, String> cache = new LRUCache<String, String>(100);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        cache.get("a");
+        cache.get("a");
+        cache.get("a");
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRatio(), 0.0001);
+        cache.clear();
+        assertEquals(0, cache.size());
+    } // testHitRatio
+    
+    /**
+     * Test of a disabled LRUCache.
+     */
+    @Test
+    public void testDisabled() {
+        System.out.println("Testing LRUCache (disabled)");
+        LRUCache<String, String> cache = new LRUCache<String, String>(0);
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    } // testDisabled
+    
+} // LRUCacheTest
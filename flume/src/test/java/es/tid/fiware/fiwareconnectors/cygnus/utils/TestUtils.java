@@ -91,4 +91,14 @@ public final class TestUtils {
         return (res.startsWith("_") ? res.substring(1, res.length()) : res);
     } // encode
     
+    /**
+     * Encodes a string replacing all the non alphanumeric characters by '_', as done by Hive related code.
+     * 
+     * @param in
+     * @return The encoded version of the input string.
+     */
+    public static String encodeHive(String in) {
+        return in.replaceAll("[^a-zA-Z0-9]", "_").toLowerCase();
+    } // encodeHive
+    
 } // TestUtils
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2014 Telefonica Investigación y Desarrollo, S.A.U
+ *
+ * This file is part of fiware-connectors (FI-WARE project).
+ *
+ * fiware-connectors is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * fiware-connectors is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with fiware-connectors. If not, see
+ * http://www.gnu.org/licenses/.
+ *
+ * For those usages not covered by the GNU Affero General Public License please contact with iot_support at tid dot es
+ */
+
+package es.tid.fiware.fiwareconnectors.cygnus.utils;
+
+import static org.junit.Assert.*; // this is required by "fail" like assertions
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ *
+ * @author frb
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class UtilsTest {
+    
+    // constants
+    private final String[] inputs = {"", "room1", "Room1", "_room", "__room", "/servicePath", "Room.1-A",
+        "a b/c?d=e", "espa\u00f1a", "\u00d1and\u00fa", "emoji\ud83d\ude00end", "\ud83d\ude00start",
+        "lone\ud83dsurrogate", "MiXeD_CaSe.With-Dots", "1234567890", "tab\tnew\nline"};
+    
+    /**
+     * Test of encode method, of class Utils.
+     */
+    @Test
+    public void testEncode() {
+        System.out.println("Testing Utils.encode");
+        
+        for (String input : inputs) {
+            // twice, in order to check the memoized encodings as well
+            assertEquals(TestUtils.encode(input), Utils.encode(input));
+            assertEquals(TestUtils.encode(input), Utils.encode(input));
+        } // for
+        
+        String encoded = "already.encoded-1";
+        assertSame(encoded, Utils.encode(encoded));
+    } // testEncode
+    
+    /**
+     * Test of encodeHive method, of class Utils.
+     */
+    @Test
+    public void testEncodeHive() {
+        System.out.println("Testing Utils.encodeHive");
+        
+        for (String input : inputs) {
+            assertEquals(TestUtils.encodeHive(input), Utils.encodeHive(input));
+            assertEquals(TestUtils.encodeHive(input), Utils.encodeHive(input));
+        } // for
+        
+        String encoded = "alreadyencoded1";
+        assertSame(encoded, Utils.encodeHive(encoded));
+    } // testEncodeHive
+    
+} // UtilsTest